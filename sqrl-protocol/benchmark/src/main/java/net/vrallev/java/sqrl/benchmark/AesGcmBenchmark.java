@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.benchmark;
+
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JCE implementation of AES-GCM with the one of SpongyCastle.
+ *
+ * @author Ralf Wondratschek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AesGcmBenchmark {
+
+    @Param({"jce", "spongycastle"})
+    public String engine;
+
+    @Param({"64", "4096"})
+    public int size;
+
+    private SqrlCipherTool mCipherTool;
+    private byte[] mKey;
+    private byte[] mIv;
+    private long mCounter;
+    private byte[] mData;
+    private ByteBuffer mBuffer;
+    private ByteBuffer mTag;
+
+    @Setup
+    public void setUp() {
+        SqrlCipherTool.AesGcmEngine aesGcmEngine = "jce".equals(engine) ? SqrlCipherTool.AesGcmEngine.JCE : SqrlCipherTool.AesGcmEngine.SPONGY_CASTLE;
+        mCipherTool = new SqrlCipherTool("SHA-256", StandardCharsets.UTF_8, null, aesGcmEngine);
+
+        mKey = mCipherTool.createRandomHash(256);
+        mIv = new byte[12];
+        mData = new byte[size];
+        mBuffer = ByteBuffer.allocateDirect(size);
+        mTag = ByteBuffer.allocateDirect(16);
+    }
+
+    @Benchmark
+    public SqrlCipherTool.AesGcmResult encryptArray() {
+        return mCipherTool.aesGcmEncrypt(mData, mKey, nextIv(), null);
+    }
+
+    @Benchmark
+    public ByteBuffer encryptInPlace() {
+        mBuffer.clear();
+        mTag.clear();
+        mCipherTool.aesGcmEncrypt(mBuffer, mTag, mKey, nextIv(), null);
+        return mTag;
+    }
+
+    /**
+     * A counter IV like the one of the nut manager, the JCE refuses to reuse an IV.
+     */
+    private byte[] nextIv() {
+        long counter = mCounter++;
+        for (int i = 0; i < 8; i++) {
+            mIv[i] = (byte) (counter >>> (8 * i));
+        }
+        return mIv;
+    }
+}
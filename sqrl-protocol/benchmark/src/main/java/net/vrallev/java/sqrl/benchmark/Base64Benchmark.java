@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.benchmark;
+
+import net.vrallev.java.sqrl.util.Base64Url;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the vendored {@link android.util.changed.Base64} coder, {@link java.util.Base64} and
+ * {@link Base64Url} with heap and direct buffers.
+ *
+ * @author Ralf Wondratschek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class Base64Benchmark {
+
+    private static final int FLAGS = android.util.changed.Base64.NO_WRAP | android.util.changed.Base64.NO_PADDING | android.util.changed.Base64.URL_SAFE;
+
+    /**
+     * 32 bytes is the size of a key, 64 bytes of a signature and 512 bytes of a client parameter.
+     */
+    @Param({"32", "64", "512"})
+    public int size;
+
+    private byte[] mData;
+    private byte[] mEncoded;
+
+    private Base64.Encoder mJdkEncoder;
+    private Base64.Decoder mJdkDecoder;
+
+    private ByteBuffer mHeapData;
+    private ByteBuffer mHeapEncoded;
+    private ByteBuffer mHeapOutput;
+
+    private ByteBuffer mDirectData;
+    private ByteBuffer mDirectEncoded;
+    private ByteBuffer mDirectOutput;
+
+    @Setup
+    public void setUp() {
+        mData = new byte[size];
+        new Random(42).nextBytes(mData);
+        mEncoded = android.util.changed.Base64.encode(mData, FLAGS);
+
+        mJdkEncoder = Base64.getUrlEncoder().withoutPadding();
+        mJdkDecoder = Base64.getUrlDecoder();
+
+        mHeapData = ByteBuffer.wrap(mData);
+        mHeapEncoded = ByteBuffer.wrap(mEncoded);
+        mHeapOutput = ByteBuffer.allocate(mEncoded.length);
+
+        mDirectData = ByteBuffer.allocateDirect(mData.length).put(mData);
+        mDirectData.flip();
+        mDirectEncoded = ByteBuffer.allocateDirect(mEncoded.length).put(mEncoded);
+        mDirectEncoded.flip();
+        mDirectOutput = ByteBuffer.allocateDirect(mEncoded.length);
+    }
+
+    @Benchmark
+    public byte[] encodeCoder() {
+        return android.util.changed.Base64.encode(mData, FLAGS);
+    }
+
+    @Benchmark
+    public byte[] encodeJdk() {
+        return mJdkEncoder.encode(mData);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeHeap() {
+        mHeapData.rewind();
+        mHeapOutput.clear();
+        Base64Url.encode(mHeapData, mHeapOutput);
+        return mHeapOutput;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeDirect() {
+        mDirectData.rewind();
+        mDirectOutput.clear();
+        Base64Url.encode(mDirectData, mDirectOutput);
+        return mDirectOutput;
+    }
+
+    @Benchmark
+    public byte[] decodeCoder() {
+        return android.util.changed.Base64.decode(mEncoded, FLAGS);
+    }
+
+    @Benchmark
+    public byte[] decodeJdk() {
+        return mJdkDecoder.decode(mEncoded);
+    }
+
+    @Benchmark
+    public ByteBuffer decodeHeap() {
+        mHeapEncoded.rewind();
+        mHeapOutput.clear();
+        Base64Url.decode(mHeapEncoded, mHeapOutput);
+        return mHeapOutput;
+    }
+
+    @Benchmark
+    public ByteBuffer decodeDirect() {
+        mDirectEncoded.rewind();
+        mDirectOutput.clear();
+        Base64Url.decode(mDirectEncoded, mDirectOutput);
+        return mDirectOutput;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.benchmark;
+
+import net.vrallev.java.sqrl.ecc.EccKeyPair;
+import net.vrallev.java.sqrl.ecc.JavaEccProvider;
+import net.vrallev.java.sqrl.ecc.SignatureCheck;
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the time per signature of single and batch verification.
+ *
+ * @author Ralf Wondratschek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BatchVerificationBenchmark {
+
+    private static final int BATCH_SIZE = 64;
+
+    private JavaEccProvider mProvider;
+    private List<SignatureCheck> mSignatureChecks;
+
+    @Setup
+    public void setUp() {
+        mProvider = new JavaEccProvider(true);
+        SqrlCipherTool cipherTool = new SqrlCipherTool();
+
+        mSignatureChecks = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            EccKeyPair keyPair = mProvider.computeKeyPair(cipherTool.createRandomHash(256));
+            byte[] message = cipherTool.createRandomHash(256);
+            byte[] signature = mProvider.sign(message, keyPair.getPrivateKey(), keyPair.getPublicKeySignature());
+
+            mSignatureChecks.add(new SignatureCheck(message, signature, keyPair.getPublicKeySignature()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public boolean single() {
+        boolean valid = true;
+        for (SignatureCheck check : mSignatureChecks) {
+            valid &= mProvider.isValidSignature(check.getMessage(), check.getSignature(), check.getPublicKey());
+        }
+        return valid;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public boolean batch() {
+        return mProvider.isValidSignatures(mSignatureChecks);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.benchmark;
+
+import net.vrallev.java.sqrl.ecc.EccKeyPair;
+import net.vrallev.java.sqrl.ecc.EccProvider25519;
+import net.vrallev.java.sqrl.ecc.JavaEccProvider;
+import net.vrallev.java.sqrl.ecc.JdkEccProvider;
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the pure Java implementation with the native one of the JDK.
+ *
+ * @author Ralf Wondratschek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class EccProviderBenchmark {
+
+    /**
+     * <i>java</i> uses {@code JavaEccProvider(true)}, <i>jdk</i> the {@link JdkEccProvider}.
+     */
+    @Param({"java", "jdk"})
+    public String implementation;
+
+    private EccProvider25519 mProvider;
+    private EccKeyPair mKeyPair;
+    private EccKeyPair mOtherKeyPair;
+    private byte[] mMessage;
+    private byte[] mSignature;
+
+    @Setup
+    public void setUp() {
+        mProvider = "jdk".equals(implementation) ? new JdkEccProvider() : new JavaEccProvider(true);
+
+        SqrlCipherTool cipherTool = new SqrlCipherTool();
+        mKeyPair = mProvider.computeKeyPair(cipherTool.createRandomHash(256));
+        mOtherKeyPair = mProvider.computeKeyPair(cipherTool.createRandomHash(256));
+        mMessage = cipherTool.createRandomHash(256);
+        mSignature = mProvider.sign(mMessage, mKeyPair.getPrivateKey(), mKeyPair.getPublicKeySignature());
+    }
+
+    @Benchmark
+    public EccKeyPair computeKeyPair() {
+        return mProvider.computeKeyPair(mKeyPair.getPrivateKey());
+    }
+
+    @Benchmark
+    public byte[] sign() {
+        return mProvider.sign(mMessage, mKeyPair.getPrivateKey(), mKeyPair.getPublicKeySignature());
+    }
+
+    @Benchmark
+    public boolean isValidSignature() {
+        return mProvider.isValidSignature(mMessage, mSignature, mKeyPair.getPublicKeySignature());
+    }
+
+    @Benchmark
+    public byte[] diffieHellman() {
+        return mProvider.diffieHellman(mKeyPair.getPrivateKey(), mOtherKeyPair.getPublicKeyDiffieHellman());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.benchmark;
+
+import net.vrallev.java.sqrl.util.EnScrypt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EnScrypt with the standard parameters N = 512, r = 256 and p = 1. {@link #iteration()} measures
+ * a single scrypt invocation, {@link #fiveSeconds(Blackhole)} the time limited mode, which SQRL
+ * clients use with five seconds when a password is set. The number of iterations reached in five
+ * seconds is 5000 ms divided by the time of an iteration.
+ *
+ * @author Ralf Wondratschek
+ */
+@State(Scope.Thread)
+@Fork(1)
+public class EnScryptBenchmark {
+
+    private EnScrypt mEnScrypt;
+    private byte[] mPassword;
+    private byte[] mSalt;
+
+    @Setup
+    public void setUp() {
+        mEnScrypt = new EnScrypt();
+        mPassword = "correct horse battery staple".getBytes(StandardCharsets.UTF_8);
+        mSalt = new byte[16];
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public byte[] iteration() throws InterruptedException {
+        return mEnScrypt.hash(mPassword, mSalt, 1, null);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void fiveSeconds(Blackhole blackhole) throws InterruptedException {
+        EnScrypt.Result result = mEnScrypt.hashForDuration(mPassword, mSalt, 5, TimeUnit.SECONDS, null);
+        blackhole.consume(result.getKey());
+        blackhole.consume(result.getIterations());
+    }
+}
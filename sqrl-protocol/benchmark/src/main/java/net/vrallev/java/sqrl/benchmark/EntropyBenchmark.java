@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.benchmark;
+
+import net.vrallev.java.sqrl.util.EntropyPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws 32 random bytes from a shared {@link SecureRandom} and from the {@link EntropyPool} with
+ * several threads at the same time.
+ *
+ * @author Ralf Wondratschek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class EntropyBenchmark {
+
+    private final SecureRandom mSecureRandom = new SecureRandom();
+    private final EntropyPool mEntropyPool = EntropyPool.getDefault();
+
+    @State(Scope.Thread)
+    public static class Output {
+        public final byte[] mBytes = new byte[32];
+    }
+
+    @Benchmark
+    public byte[] sharedSecureRandom(Output output) {
+        mSecureRandom.nextBytes(output.mBytes);
+        return output.mBytes;
+    }
+
+    @Benchmark
+    public byte[] entropyPool(Output output) {
+        mEntropyPool.nextBytes(output.mBytes);
+        return output.mBytes;
+    }
+}
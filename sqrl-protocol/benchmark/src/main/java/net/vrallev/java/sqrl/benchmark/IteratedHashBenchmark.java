@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.benchmark;
+
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the allocating hash operations of {@link SqrlCipherTool} with the variants, which
+ * write into a buffer. Run with {@code -prof gc} to see the allocation rate per operation.
+ *
+ * @author Ralf Wondratschek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IteratedHashBenchmark {
+
+    @Param({"1", "1000", "1000000"})
+    public int iterations;
+
+    private SqrlCipherTool mCipherTool;
+    private byte[] mData;
+    private byte[] mOutput;
+
+    @Setup
+    public void setUp() {
+        mCipherTool = new SqrlCipherTool();
+        mData = mCipherTool.createRandomHash(256);
+        mOutput = new byte[32];
+    }
+
+    @Benchmark
+    public byte[] hashAllocating() {
+        return mCipherTool.getHash(mData, iterations);
+    }
+
+    @Benchmark
+    public byte[] hashIntoBuffer() {
+        mCipherTool.getHash(mData, iterations, mOutput, 0);
+        return mOutput;
+    }
+
+    @Benchmark
+    public byte[] chainedAllocating() {
+        return mCipherTool.getHashChained(mData, iterations);
+    }
+
+    @Benchmark
+    public byte[] chainedIntoBuffer() {
+        mCipherTool.getHashChained(mData, iterations, mOutput, 0);
+        return mOutput;
+    }
+
+    @Benchmark
+    public byte[] randomHashIntoBuffer() {
+        mCipherTool.createRandomHash(mOutput, 0, 32);
+        return mOutput;
+    }
+}
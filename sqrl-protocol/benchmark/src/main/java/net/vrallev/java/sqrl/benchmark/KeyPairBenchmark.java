@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.benchmark;
+
+import net.vrallev.java.sqrl.ecc.EccKeyPair;
+import net.vrallev.java.sqrl.ecc.JavaEccProvider;
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the derivation of a key pair from a private key.
+ *
+ * @author Ralf Wondratschek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class KeyPairBenchmark {
+
+    /**
+     * <i>reference</i> uses Ecc25519Helper, <i>fast</i> Ecc25519HelperFast and <i>table</i> the
+     * precomputed base point table.
+     */
+    @Param({"reference", "fast", "table"})
+    public String implementation;
+
+    private JavaEccProvider mProvider;
+    private byte[] mPrivateKey;
+
+    @Setup
+    public void setUp() {
+        mProvider = new JavaEccProvider(!"reference".equals(implementation), "table".equals(implementation));
+        mPrivateKey = new SqrlCipherTool().createRandomHash(256);
+
+        // initializes the table
+        mProvider.computeKeyPair(mPrivateKey);
+    }
+
+    @Benchmark
+    public EccKeyPair computeKeyPair() {
+        return mProvider.computeKeyPair(mPrivateKey);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.benchmark;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.ServerParameter;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.body.SqrlServerBody;
+import net.vrallev.java.sqrl.ecc.JavaEccProvider;
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each step of a full SQRL round trip separately. The {@link Mode#SampleTime} mode reports
+ * the latency percentiles (p99), run with {@code -prof gc} to get the allocation rate.
+ *
+ * @author Ralf Wondratschek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+
+    private static final String SITE_KEY = "sqrl-login.appspot.com";
+    private static final String SIGNATURE_URI = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    /**
+     * {@code true} uses the <i>Ecc25519HelperFast</i> implementation, {@code false} the reference one.
+     */
+    @Param({"true", "false"})
+    public boolean fast;
+
+    private SqrlProtocol mProtocol;
+    private byte[] mMasterKey;
+
+    private String mClientBodyEncoded;
+    private byte[] mClientBodyBytes;
+    private SqrlClientBody mClientBody;
+    private String mServerBodyEncoded;
+
+    @Setup
+    public void setUp() throws SqrlException {
+        mProtocol = new SqrlProtocol.Builder()
+                .setEccProvider(new JavaEccProvider(fast))
+                .setSqrlCipherTool(new SqrlCipherTool())
+                .build();
+
+        mMasterKey = mProtocol.getSqrlCipherTool().createRandomHash(256);
+
+        mClientBody = mProtocol.authenticate(mMasterKey, SITE_KEY).buildRequest(SIGNATURE_URI);
+        mClientBodyEncoded = mClientBody.getBodyEncoded();
+        mClientBodyBytes = mClientBodyEncoded.getBytes(StandardCharsets.US_ASCII);
+
+        mServerBodyEncoded = answerClient().asSqrlServerBody().getBodyEncoded();
+    }
+
+    @Benchmark
+    public SqrlClientBody buildRequest() throws SqrlException {
+        return mProtocol.authenticate(mMasterKey, SITE_KEY).buildRequest(SIGNATURE_URI);
+    }
+
+    @Benchmark
+    public SqrlClientBody verified() throws SqrlException {
+        return mProtocol.readSqrlClientBody().from(mClientBodyEncoded).verified();
+    }
+
+    @Benchmark
+    public SqrlClientBody parseClientBody() throws SqrlException {
+        return mProtocol.readSqrlClientBody().from(mClientBodyBytes).execute();
+    }
+
+    /**
+     * Routing by the identity key, the other fields aren't decoded.
+     */
+    @Benchmark
+    public byte[] lazyIdentityKey() throws SqrlException {
+        return mProtocol.readSqrlClientBody().from(mClientBodyBytes).lazy().getClientParameter().getIdentityKeyDecoded();
+    }
+
+    @Benchmark
+    public ServerParameter answerClient() {
+        return mProtocol.answerClient(mClientBody, ServerParameter.ID_MATCH, ServerParameter.SQRL_ENABLED)
+                .withServerFriendlyName("Benchmark")
+                .create();
+    }
+
+    @Benchmark
+    public SqrlServerBody parsed() throws SqrlException {
+        return mProtocol.readSqrlServerBody().from(mServerBodyEncoded).parsed();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.benchmark;
+
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.identity.IdentityProvisioner;
+import net.vrallev.java.sqrl.identity.ProvisionedIdentity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provisions batches of identities on all cores. The score divided by the batch size is the
+ * time per identity.
+ *
+ * @author Ralf Wondratschek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProvisioningBenchmark {
+
+    private static final int BATCH_SIZE = 1_000;
+
+    @Param({"0", "3"})
+    public int sites;
+
+    private IdentityProvisioner mProvisioner;
+
+    @Setup
+    public void setUp() {
+        List<String> siteKeys = new ArrayList<>();
+        for (int i = 0; i < sites; i++) {
+            siteKeys.add("site" + i + ".example.com");
+        }
+
+        SqrlProtocol protocol = SqrlProtocol.instance();
+        mProvisioner = new IdentityProvisioner.Builder(protocol.getSqrlCipherTool(), protocol.getEccProvider())
+                .setSiteKeys(siteKeys)
+                .build();
+    }
+
+    @Benchmark
+    public long provisionBatch(final Blackhole blackhole) throws IOException, InterruptedException {
+        return mProvisioner.provision(BATCH_SIZE, new IdentityProvisioner.Sink() {
+            @Override
+            public void accept(ProvisionedIdentity identity) {
+                blackhole.consume(identity);
+            }
+        });
+    }
+}
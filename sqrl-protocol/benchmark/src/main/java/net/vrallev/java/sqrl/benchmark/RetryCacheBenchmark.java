@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.benchmark;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.ClientBodyRetryCache;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a retried body, which is found in the {@link ClientBodyRetryCache}, with verifying the
+ * body again.
+ *
+ * @author Ralf Wondratschek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RetryCacheBenchmark {
+
+    private static final String SITE_KEY = "sqrl-login.appspot.com";
+    private static final String SIGNATURE_URI = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    private SqrlProtocol mProtocol;
+    private ClientBodyRetryCache mCache;
+    private byte[] mBody;
+
+    @Setup
+    public void setUp() throws SqrlException {
+        mProtocol = new SqrlProtocol.Builder().build();
+        mCache = new ClientBodyRetryCache.Builder().setTimeToLive(1, TimeUnit.HOURS).build();
+
+        byte[] masterKey = mProtocol.getSqrlCipherTool().createRandomHash(256);
+        mBody = mProtocol.authenticate(masterKey, SITE_KEY).buildRequest(SIGNATURE_URI).getBodyEncoded().getBytes(StandardCharsets.US_ASCII);
+        mCache.verified(mProtocol, mBody, null);
+    }
+
+    @Benchmark
+    public SqrlClientBody hit() throws SqrlException {
+        return mCache.verified(mProtocol, mBody, null).getClientBody();
+    }
+
+    @Benchmark
+    public SqrlClientBody verified() throws SqrlException {
+        return mProtocol.readSqrlClientBody().from(mBody).verified();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.benchmark;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.ServerParameter;
+import net.vrallev.java.sqrl.server.SqrlServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the {@link SqrlServer} on localhost. Several client threads post the same verified
+ * request with keep-alive connections, so that each call measures a full round trip including
+ * HTTP parsing, signature verification and writing the response.
+ *
+ * @author Ralf Wondratschek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(8)
+@Fork(1)
+public class ServerBenchmark {
+
+    private static final String SITE_KEY = "localhost";
+
+    private SqrlServer mServer;
+    private URL mUrl;
+    private byte[] mClientBody;
+
+    @Setup
+    public void setUp() throws IOException, SqrlException {
+        SqrlProtocol protocol = new SqrlProtocol.Builder().build();
+
+        mServer = new SqrlServer.Builder(protocol, request -> request.answer(ServerParameter.ID_MATCH | ServerParameter.SQRL_ENABLED).create())
+                .setAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .build();
+        mServer.start();
+
+        InetSocketAddress address = mServer.getAddress();
+        mUrl = new URL("http", address.getHostString(), address.getPort(), SqrlServer.DEFAULT_PATH);
+
+        byte[] masterKey = protocol.getSqrlCipherTool().createRandomHash(256);
+        mClientBody = protocol.authenticate(masterKey, SITE_KEY)
+                .buildRequest(SITE_KEY + SqrlServer.DEFAULT_PATH + "?nut=5b216fa381b7769e1e88624ff685686c")
+                .getBodyEncoded()
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Benchmark
+    public int roundTrip() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(mClientBody.length);
+
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(mClientBody);
+        }
+
+        int status = connection.getResponseCode();
+        // reading the whole response returns the connection to the keep-alive cache
+        try (InputStream inputStream = connection.getInputStream()) {
+            byte[] buffer = new byte[512];
+            //noinspection StatementWithEmptyBody
+            while (inputStream.read(buffer) > 0) {
+            }
+        }
+        return status;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A bounded pool of equally sized arrays for request bodies. If the pool is empty, a new array is
+ * allocated, if the pool is full, a returned array is dropped.
+ *
+ * @author Ralf Wondratschek
+ */
+/*package*/ final class BufferPool {
+
+    private final int mBufferSize;
+    private final ArrayBlockingQueue<byte[]> mBuffers;
+
+    /*package*/ BufferPool(int bufferSize, int capacity) {
+        mBufferSize = bufferSize;
+        mBuffers = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /*package*/ byte[] acquire() {
+        byte[] buffer = mBuffers.poll();
+        return buffer != null ? buffer : new byte[mBufferSize];
+    }
+
+    /*package*/ void release(byte[] buffer) {
+        if (buffer.length == mBufferSize) {
+            mBuffers.offer(buffer);
+        }
+    }
+
+    /*package*/ int getBufferSize() {
+        return mBufferSize;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.server;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.body.ServerParameter;
+
+/**
+ * The account logic of a server. The handler is called for each request, whose signatures were
+ * verified and whose nut is valid, on a thread of the server's executor. Implementations must be
+ * thread safe.
+ *
+ * @author Ralf Wondratschek
+ */
+public interface SqrlHandler {
+
+    /**
+     * Executes the commands of the request, e.g. looks up or creates the account of the identity.
+     *
+     * @return the response, usually created with {@link SqrlRequest#answer(int)}.
+     * @throws SqrlException if a command failed. The client receives a response with the
+     *                       {@code COMMAND_FAILED} and {@code SQRL_FAILURE} flags.
+     */
+    ServerParameter handle(SqrlRequest request) throws SqrlException;
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.server;
+
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.ServerParameter;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.nut.NutManager;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A verified request, which is passed to the {@link SqrlHandler}.
+ *
+ * @author Ralf Wondratschek
+ */
+public final class SqrlRequest {
+
+    private final SqrlProtocol mProtocol;
+    private final SqrlClientBody mClientBody;
+    private final InetSocketAddress mRemoteAddress;
+    private final NutManager.Status mNutStatus;
+
+    /*package*/ SqrlRequest(SqrlProtocol protocol, SqrlClientBody clientBody, InetSocketAddress remoteAddress, NutManager.Status nutStatus) {
+        mProtocol = protocol;
+        mClientBody = clientBody;
+        mRemoteAddress = remoteAddress;
+        mNutStatus = nutStatus;
+    }
+
+    public SqrlClientBody getClientBody() {
+        return mClientBody;
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return mRemoteAddress;
+    }
+
+    /**
+     * @return the status of the consumed nut or {@code null}, if the protocol has no
+     * {@link NutManager}.
+     */
+    public NutManager.Status getNutStatus() {
+        return mNutStatus;
+    }
+
+    public SqrlProtocol getProtocol() {
+        return mProtocol;
+    }
+
+    /**
+     * Starts the response. If the protocol has a {@link NutManager}, then a new nut bound to the
+     * client's address is issued, otherwise the nut of the request is echoed. Stored server keys
+     * are added automatically, if the protocol has an identity store.
+     *
+     * @param tif the transaction information flags.
+     */
+    public ServerParameter.Builder answer(int tif) {
+        if (mProtocol.getNutManager() != null) {
+            return mProtocol.answerClient(mClientBody, mRemoteAddress.getAddress(), tif);
+        } else {
+            return mProtocol.answerClient(mClientBody, tif);
+        }
+    }
+}
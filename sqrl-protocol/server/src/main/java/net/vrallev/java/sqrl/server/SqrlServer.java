@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.ClientBodyRetryCache;
+import net.vrallev.java.sqrl.body.ServerParameter;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.metrics.SqrlMetrics;
+import net.vrallev.java.sqrl.nut.NutManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A self-contained HTTP endpoint for the server role, which is based on the HTTP server of the JDK.
+ * The endpoint accepts POST requests at {@code /cli.sqrl}, verifies the client body, consumes the
+ * nut, if the protocol has a {@link NutManager}, and passes the request to a {@link SqrlHandler},
+ * which contains the account logic.
+ * <br>
+ * <br>
+ * Requests are executed on a bounded thread pool by default. On Java 21 or newer a virtual thread
+ * executor can be passed with {@link Builder#setExecutor(Executor)}. The number of requests in
+ * flight is limited, further requests are rejected with {@code 503} immediately instead of piling
+ * up in a queue. The request bodies are read into pooled arrays and parsed in place.
+ * <br>
+ * <br>
+ * The server enables {@code TCP_NODELAY} through the {@code sun.net.httpserver.nodelay} system
+ * property, unless the property was set before. The property only takes effect, if no other
+ * {@code HttpServer} was created in this JVM before.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class SqrlServer {
+
+    public static final String DEFAULT_PATH = "/cli.sqrl";
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_BAD_METHOD = 405;
+    private static final int HTTP_ENTITY_TOO_LARGE = 413;
+    private static final int HTTP_INTERNAL_ERROR = 500;
+    private static final int HTTP_UNAVAILABLE = 503;
+
+    private static final int MAX_DRAIN = 4096;
+
+    static {
+        // the JDK server writes the headers and the body separately, with Nagle's algorithm each
+        // response waits for the delayed ACK of the client, which adds 40 ms on Linux
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final SqrlProtocol mProtocol;
+    private final SqrlHandler mHandler;
+    private final SqrlMetrics mMetrics;
+    private final String mPath;
+    private final int mMaxInFlight;
+    private final int mMaxBodySize;
+    private final int mBacklog;
+    private final InetSocketAddress mAddress;
+    private final Executor mExecutor;
+    private final boolean mOwnsExecutor;
+    private final ClientBodyRetryCache mRetryCache;
+
+    private final AtomicInteger mInFlight;
+    private final BufferPool mBufferPool;
+
+    private HttpServer mServer;
+
+    /**
+     * Use the {@link SqrlServer.Builder} to create an instance. Subclasses can use this constructor.
+     */
+    protected SqrlServer(Builder builder) {
+        if (builder.mMaxThreads <= 0 || builder.mMaxInFlight <= 0 || builder.mMaxBodySize <= 0) {
+            throw new IllegalArgumentException("max threads, max in flight and max body size must be greater than 0");
+        }
+
+        mProtocol = builder.mProtocol;
+        mHandler = builder.mHandler;
+        mMetrics = builder.mProtocol.getMetrics();
+        mPath = builder.mPath;
+        mMaxInFlight = builder.mMaxInFlight;
+        mMaxBodySize = builder.mMaxBodySize;
+        mBacklog = builder.mBacklog;
+        mAddress = builder.mAddress;
+        mRetryCache = builder.mRetryCache;
+
+        mOwnsExecutor = builder.mExecutor == null;
+        mExecutor = mOwnsExecutor ? createExecutor(builder.mMaxThreads, builder.mMaxInFlight) : builder.mExecutor;
+
+        mInFlight = new AtomicInteger();
+        // a body needs one more byte to detect, that it's too large
+        mBufferPool = new BufferPool(builder.mMaxBodySize + 1, Math.min(builder.mMaxInFlight, builder.mMaxThreads * 2));
+    }
+
+    /**
+     * Binds the socket and starts accepting requests.
+     *
+     * @throws IllegalStateException if the server was already started.
+     */
+    public synchronized void start() throws IOException {
+        if (mServer != null) {
+            throw new IllegalStateException("server already started");
+        }
+
+        HttpServer server = HttpServer.create(mAddress, mBacklog);
+        server.createContext(mPath, new Handler());
+        server.setExecutor(mExecutor);
+        server.start();
+        mServer = server;
+    }
+
+    /**
+     * Stops accepting requests and waits until the running requests are finished, but not longer
+     * than the given delay. The default executor is shut down, a passed executor isn't.
+     */
+    public synchronized void stop(int delaySeconds) {
+        if (mServer == null) {
+            return;
+        }
+
+        mServer.stop(delaySeconds);
+        mServer = null;
+
+        if (mOwnsExecutor) {
+            ((ExecutorService) mExecutor).shutdown();
+        }
+    }
+
+    /**
+     * @return the bound address, e.g. to find out the port, if port 0 was requested.
+     * @throws IllegalStateException if the server isn't running.
+     */
+    public synchronized InetSocketAddress getAddress() {
+        if (mServer == null) {
+            throw new IllegalStateException("server not started");
+        }
+        return mServer.getAddress();
+    }
+
+    /**
+     * @return the number of requests, which are currently processed.
+     */
+    public int getInFlightCount() {
+        return mInFlight.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            drain(exchange.getRequestBody());
+            sendEmpty(exchange, HTTP_BAD_METHOD);
+            return;
+        }
+
+        if (mInFlight.incrementAndGet() > mMaxInFlight) {
+            mInFlight.decrementAndGet();
+            mMetrics.recordRejection(SqrlMetrics.Rejection.OVERLOADED);
+            drain(exchange.getRequestBody());
+            sendEmpty(exchange, HTTP_UNAVAILABLE);
+            return;
+        }
+
+        byte[] buffer = mBufferPool.acquire();
+        try {
+            int length = readBody(exchange.getRequestBody(), buffer);
+            if (length > mMaxBodySize) {
+                // don't read the rest of an oversized body, the connection is closed instead
+                exchange.getResponseHeaders().set("Connection", "close");
+                sendEmpty(exchange, HTTP_ENTITY_TOO_LARGE);
+                return;
+            }
+
+            InetSocketAddress remoteAddress = exchange.getRemoteAddress();
+            if (mRetryCache != null) {
+                ClientBodyRetryCache.Entry cached = mRetryCache.get(buffer, 0, length, remoteAddress.getAddress());
+                if (cached != null) {
+                    ServerParameter response = cached.getResponse();
+                    if (response == null) {
+                        // the first request is still processed, the client should retry later
+                        sendEmpty(exchange, HTTP_UNAVAILABLE);
+                    } else {
+                        // a retry of an answered request, the nut was consumed already
+                        send(exchange, response.asSqrlServerBody().getBodyEncoded().getBytes(ASCII));
+                    }
+                    return;
+                }
+            }
+
+            SqrlClientBody clientBody;
+            try {
+                clientBody = mProtocol.readSqrlClientBody().from(buffer, 0, length).verified();
+            } catch (SqrlException | IllegalArgumentException e) {
+                sendEmpty(exchange, HTTP_BAD_REQUEST);
+                return;
+            }
+
+            // marks the request as pending for retries, which arrive in the meantime
+            ClientBodyRetryCache.Entry entry = mRetryCache == null ? null
+                    : mRetryCache.put(buffer, 0, length, clientBody, remoteAddress.getAddress());
+
+            ServerParameter response;
+            try {
+                response = process(clientBody, remoteAddress);
+            } catch (RuntimeException e) {
+                if (entry != null) {
+                    mRetryCache.remove(entry);
+                }
+                sendEmpty(exchange, HTTP_INTERNAL_ERROR);
+                return;
+            }
+
+            if (entry != null) {
+                entry.setResponse(response);
+            }
+
+            send(exchange, response.asSqrlServerBody().getBodyEncoded().getBytes(ASCII));
+
+        } finally {
+            mBufferPool.release(buffer);
+            mInFlight.decrementAndGet();
+        }
+    }
+
+    private ServerParameter process(SqrlClientBody clientBody, InetSocketAddress remoteAddress) {
+        NutManager nutManager = mProtocol.getNutManager();
+        NutManager.Status nutStatus = null;
+        if (nutManager != null) {
+            nutStatus = nutManager.consume(clientBody.getServerParameter().getNutDecoded(), remoteAddress.getAddress());
+        }
+
+        SqrlRequest request = new SqrlRequest(mProtocol, clientBody, remoteAddress, nutStatus);
+        if (nutStatus != null && nutStatus != NutManager.Status.VALID) {
+            return request.answer(ServerParameter.COMMAND_FAILED | ServerParameter.SQRL_FAILURE).create();
+        }
+
+        try {
+            return mHandler.handle(request);
+        } catch (SqrlException e) {
+            return request.answer(ServerParameter.COMMAND_FAILED | ServerParameter.SQRL_FAILURE).create();
+        }
+    }
+
+    /**
+     * @return the number of read bytes, which is greater than the max body size, if the body is
+     * too large.
+     */
+    private static int readBody(InputStream inputStream, byte[] buffer) throws IOException {
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = inputStream.read(buffer, length, buffer.length - length)) > 0) {
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * Reads at most {@link #MAX_DRAIN} bytes of a rejected body, so that a small request doesn't
+     * cost the keep-alive connection. If there is more, the server closes the connection.
+     */
+    private static void drain(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[512];
+        int remaining = MAX_DRAIN;
+        int read;
+        while (remaining > 0 && (read = inputStream.read(buffer, 0, Math.min(buffer.length, remaining))) > 0) {
+            remaining -= read;
+        }
+    }
+
+    private static void send(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(HTTP_OK, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    private static void sendEmpty(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    private static ExecutorService createExecutor(int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sqrl-http-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy()); // the dispatcher stops accepting, if the queue is full
+
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private class Handler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                SqrlServer.this.handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private final SqrlProtocol mProtocol;
+        private final SqrlHandler mHandler;
+
+        private InetSocketAddress mAddress;
+        private String mPath;
+        private Executor mExecutor;
+        private int mMaxThreads;
+        private int mMaxInFlight;
+        private int mMaxBodySize;
+        private int mBacklog;
+        private ClientBodyRetryCache mRetryCache;
+
+        public Builder(SqrlProtocol protocol, SqrlHandler handler) {
+            if (protocol == null || handler == null) {
+                throw new IllegalArgumentException("protocol and handler must not be null");
+            }
+
+            mProtocol = protocol;
+            mHandler = handler;
+            mAddress = new InetSocketAddress(8080);
+            mPath = DEFAULT_PATH;
+            mMaxThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+            mMaxInFlight = 1024;
+            mMaxBodySize = 8 * 1024;
+            mBacklog = 0;
+        }
+
+        /**
+         * The local address, which the server binds to. The default value is port 8080 on all
+         * interfaces, use port 0 for a random free port.
+         */
+        public Builder setAddress(InetSocketAddress address) {
+            mAddress = address;
+            return this;
+        }
+
+        /**
+         * The default value is {@code /cli.sqrl}.
+         */
+        public Builder setPath(String path) {
+            mPath = path;
+            return this;
+        }
+
+        /**
+         * The executor, which runs the requests, e.g. {@code Executors.newVirtualThreadPerTaskExecutor()}.
+         * The executor isn't shut down with the server. By default a bounded thread pool is used.
+         */
+        public Builder setExecutor(Executor executor) {
+            mExecutor = executor;
+            return this;
+        }
+
+        /**
+         * The number of threads of the default executor. The default value is twice the number of
+         * processors, but at least 4. Ignored, if an executor was set.
+         */
+        public Builder setMaxThreads(int maxThreads) {
+            mMaxThreads = maxThreads;
+            return this;
+        }
+
+        /**
+         * The maximum number of requests, which are processed at the same time. Further requests
+         * are rejected with {@code 503}. The default value is 1024.
+         */
+        public Builder setMaxInFlight(int maxInFlight) {
+            mMaxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Larger request bodies are rejected with {@code 413}. The default value is 8 KB.
+         */
+        public Builder setMaxBodySize(int maxBodySize) {
+            mMaxBodySize = maxBodySize;
+            return this;
+        }
+
+        /**
+         * The socket backlog, 0 uses the system default.
+         */
+        public Builder setBacklog(int backlog) {
+            mBacklog = backlog;
+            return this;
+        }
+
+        /**
+         * Answers byte-identical retries of a request from the same address with the cached
+         * response without verifying the body or calling the handler again. A retry, which arrives
+         * while the first request is still processed, is rejected with {@code 503}. Disabled by
+         * default.
+         */
+        public Builder setRetryCache(ClientBodyRetryCache retryCache) {
+            mRetryCache = retryCache;
+            return this;
+        }
+
+        public SqrlServer build() {
+            return new SqrlServer(this);
+        }
+    }
+}
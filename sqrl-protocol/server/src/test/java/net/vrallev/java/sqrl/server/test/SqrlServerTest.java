@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.server.test;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.ClientBodyRetryCache;
+import net.vrallev.java.sqrl.body.ServerParameter;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.nut.NutManager;
+import net.vrallev.java.sqrl.server.SqrlHandler;
+import net.vrallev.java.sqrl.server.SqrlRequest;
+import net.vrallev.java.sqrl.server.SqrlServer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class SqrlServerTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String SITE_KEY = "localhost";
+
+    private SqrlServer mServer;
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.stop(0);
+        }
+    }
+
+    @Test
+    public void testAuthenticate() throws Exception {
+        SqrlProtocol protocol = new SqrlProtocol.Builder().build();
+        start(protocol, new SqrlHandler() {
+            @Override
+            public ServerParameter handle(SqrlRequest request) {
+                assertThat(request.getNutStatus()).isNull();
+                return request.answer(ServerParameter.ID_MATCH | ServerParameter.SQRL_ENABLED).create();
+            }
+        }, 16);
+
+        byte[] masterKey = createMasterKey();
+        Response response = post(createBody(protocol, masterKey, "abc").getBodyEncoded());
+        assertThat(response.mStatus).isEqualTo(200);
+
+        ServerParameter serverParameter = protocol.readSqrlServerBody().from(response.mBody).parsed().getServerParameter();
+        assertThat(serverParameter.getNutDecoded()).isEqualTo("abc");
+        assertThat(serverParameter.hasTransactionFlag(ServerParameter.ID_MATCH)).isTrue();
+        assertThat(serverParameter.hasTransactionFlag(ServerParameter.COMMAND_FAILED)).isFalse();
+    }
+
+    @Test
+    public void testInvalidRequests() throws Exception {
+        SqrlProtocol protocol = new SqrlProtocol.Builder().build();
+        start(protocol, new SqrlHandler() {
+            @Override
+            public ServerParameter handle(SqrlRequest request) throws SqrlException {
+                throw new SqrlException("unknown account");
+            }
+        }, 16);
+
+        String body = createBody(protocol, createMasterKey(), "abc").getBodyEncoded();
+        int index = body.indexOf("ids=") + 10;
+        String tampered = body.substring(0, index) + (body.charAt(index) == 'A' ? 'B' : 'A') + body.substring(index + 1);
+
+        assertThat(post(tampered).mStatus).isEqualTo(400);
+        assertThat(post("no key value pairs").mStatus).isEqualTo(400);
+        assertThat(post(new String(new char[9000]).replace('\0', 'a')).mStatus).isEqualTo(413);
+
+        Response response = post(body);
+        assertThat(response.mStatus).isEqualTo(200);
+        ServerParameter serverParameter = protocol.readSqrlServerBody().from(response.mBody).parsed().getServerParameter();
+        assertThat(serverParameter.hasTransactionFlag(ServerParameter.COMMAND_FAILED)).isTrue();
+        assertThat(serverParameter.hasTransactionFlag(ServerParameter.SQRL_FAILURE)).isTrue();
+    }
+
+    @Test
+    public void testNut() throws Exception {
+        NutManager nutManager = new NutManager.Builder(new byte[16]).build();
+        SqrlProtocol protocol = new SqrlProtocol.Builder().setNutManager(nutManager).build();
+        start(protocol, new SqrlHandler() {
+            @Override
+            public ServerParameter handle(SqrlRequest request) {
+                assertThat(request.getNutStatus()).isEqualTo(NutManager.Status.VALID);
+                return request.answer(ServerParameter.SQRL_ENABLED).create();
+            }
+        }, 16);
+
+        byte[] masterKey = createMasterKey();
+        String nut = nutManager.issue(InetAddress.getByName("127.0.0.1"));
+        String body = createBody(protocol, masterKey, nut).getBodyEncoded();
+
+        Response response = post(body);
+        assertThat(response.mStatus).isEqualTo(200);
+        ServerParameter serverParameter = protocol.readSqrlServerBody().from(response.mBody).parsed().getServerParameter();
+        assertThat(serverParameter.hasTransactionFlag(ServerParameter.COMMAND_FAILED)).isFalse();
+
+        String nextNut = serverParameter.getNutDecoded();
+        assertThat(nextNut).isNotEqualTo(nut);
+        assertThat(nutManager.check(nextNut, InetAddress.getByName("127.0.0.1"))).isEqualTo(NutManager.Status.VALID);
+
+        // replayed
+        response = post(body);
+        serverParameter = protocol.readSqrlServerBody().from(response.mBody).parsed().getServerParameter();
+        assertThat(serverParameter.hasTransactionFlag(ServerParameter.COMMAND_FAILED)).isTrue();
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        NutManager nutManager = new NutManager.Builder(new byte[16]).build();
+        SqrlProtocol protocol = new SqrlProtocol.Builder().setNutManager(nutManager).build();
+        ClientBodyRetryCache retryCache = new ClientBodyRetryCache.Builder().build();
+
+        final AtomicInteger calls = new AtomicInteger();
+        mServer = new SqrlServer.Builder(protocol, new SqrlHandler() {
+            @Override
+            public ServerParameter handle(SqrlRequest request) {
+                calls.incrementAndGet();
+                return request.answer(ServerParameter.SQRL_ENABLED).create();
+            }
+        })
+                .setAddress(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0))
+                .setRetryCache(retryCache)
+                .build();
+        mServer.start();
+
+        String nut = nutManager.issue(InetAddress.getByName("127.0.0.1"));
+        String body = createBody(protocol, createMasterKey(), nut).getBodyEncoded();
+
+        Response first = post(body);
+        Response retry = post(body);
+        assertThat(retry.mStatus).isEqualTo(200);
+        assertThat(retry.mBody).isEqualTo(first.mBody);
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(retryCache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPendingRetry() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        NutManager nutManager = new NutManager.Builder(new byte[16]).build();
+        SqrlProtocol protocol = new SqrlProtocol.Builder().setNutManager(nutManager).build();
+        mServer = new SqrlServer.Builder(protocol, new SqrlHandler() {
+            @Override
+            public ServerParameter handle(SqrlRequest request) {
+                calls.incrementAndGet();
+                entered.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return request.answer(ServerParameter.SQRL_ENABLED).create();
+            }
+        })
+                .setAddress(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0))
+                .setRetryCache(new ClientBodyRetryCache.Builder().build())
+                .build();
+        mServer.start();
+
+        String nut = nutManager.issue(InetAddress.getByName("127.0.0.1"));
+        final String body = createBody(protocol, createMasterKey(), nut).getBodyEncoded();
+        final Response[] first = new Response[1];
+        Thread blocking = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    first[0] = post(body);
+                } catch (IOException e) {
+                    // checked below
+                }
+            }
+        };
+        blocking.start();
+
+        assertThat(entered.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(post(body).mStatus).isEqualTo(503);
+
+        release.countDown();
+        blocking.join(10_000);
+        assertThat(first[0].mStatus).isEqualTo(200);
+
+        Response retry = post(body);
+        assertThat(retry.mStatus).isEqualTo(200);
+        assertThat(retry.mBody).isEqualTo(first[0].mBody);
+        assertThat(calls.get()).isEqualTo(1);
+
+        ServerParameter serverParameter = protocol.readSqrlServerBody().from(retry.mBody).parsed().getServerParameter();
+        assertThat(serverParameter.hasTransactionFlag(ServerParameter.COMMAND_FAILED)).isFalse();
+    }
+
+    @Test
+    public void testOverload() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final SqrlProtocol protocol = new SqrlProtocol.Builder().build();
+        start(protocol, new SqrlHandler() {
+            @Override
+            public ServerParameter handle(SqrlRequest request) {
+                entered.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return request.answer(ServerParameter.SQRL_ENABLED).create();
+            }
+        }, 1);
+
+        final String body = createBody(protocol, createMasterKey(), "abc").getBodyEncoded();
+        final int[] status = new int[1];
+        Thread blocking = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    status[0] = post(body).mStatus;
+                } catch (IOException e) {
+                    status[0] = -1;
+                }
+            }
+        };
+        blocking.start();
+
+        assertThat(entered.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(mServer.getInFlightCount()).isEqualTo(1);
+        assertThat(post(body).mStatus).isEqualTo(503);
+
+        release.countDown();
+        blocking.join(10_000);
+        assertThat(status[0]).isEqualTo(200);
+
+        // the response is sent before the request leaves the in flight count
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (mServer.getInFlightCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(mServer.getInFlightCount()).isEqualTo(0);
+    }
+
+    private void start(SqrlProtocol protocol, SqrlHandler handler, int maxInFlight) throws IOException {
+        mServer = new SqrlServer.Builder(protocol, handler)
+                .setAddress(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0))
+                .setMaxThreads(4)
+                .setMaxInFlight(maxInFlight)
+                .build();
+        mServer.start();
+    }
+
+    private static byte[] createMasterKey() {
+        byte[] masterKey = new byte[32];
+        new SecureRandom().nextBytes(masterKey);
+        return masterKey;
+    }
+
+    private static SqrlClientBody createBody(SqrlProtocol protocol, byte[] masterKey, String nut) throws SqrlException {
+        return protocol.authenticate(masterKey, SITE_KEY).buildRequest(SITE_KEY + SqrlServer.DEFAULT_PATH + "?nut=" + nut);
+    }
+
+    private Response post(String body) throws IOException {
+        InetSocketAddress address = mServer.getAddress();
+        URL url = new URL("http", address.getHostString(), address.getPort(), SqrlServer.DEFAULT_PATH);
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+
+        byte[] data = body.getBytes(ASCII);
+        connection.setFixedLengthStreamingMode(data.length);
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(data);
+        } catch (IOException e) {
+            // the server may reject the body before reading it completely
+        }
+
+        Response response = new Response();
+        response.mStatus = connection.getResponseCode();
+        if (response.mStatus == 200) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try (InputStream inputStream = connection.getInputStream()) {
+                byte[] buffer = new byte[512];
+                int read;
+                while ((read = inputStream.read(buffer)) > 0) {
+                    outputStream.write(buffer, 0, read);
+                }
+            }
+            response.mBody = new String(outputStream.toByteArray(), ASCII);
+        }
+        connection.disconnect();
+        return response;
+    }
+
+    private static final class Response {
+        private int mStatus;
+        private String mBody;
+    }
+}
@@ -21,10 +21,25 @@ import net.vrallev.java.sqrl.body.SqrlClientBodyParser;
 import net.vrallev.java.sqrl.body.SqrlServerBody;
 import net.vrallev.java.sqrl.body.SqrlServerBodyParser;
 import net.vrallev.java.sqrl.ecc.AndroidEccProvider;
+import net.vrallev.java.sqrl.ecc.EccKeyPairCache;
 import net.vrallev.java.sqrl.ecc.EccProvider25519;
 import net.vrallev.java.sqrl.ecc.JavaEccProvider;
+import net.vrallev.java.sqrl.ecc.JdkEccProvider;
+import net.vrallev.java.sqrl.metrics.InstrumentedEccProvider;
+import net.vrallev.java.sqrl.metrics.SqrlMetrics;
+import net.vrallev.java.sqrl.nut.NutManager;
+import net.vrallev.java.sqrl.store.IdentityRecord;
+import net.vrallev.java.sqrl.store.IdentityStore;
 import net.vrallev.java.sqrl.util.SqrlCipherTool;
 
+import java.net.InetAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * The entry point of library. It caches and reuses several helper objects.
  * <br>
@@ -62,14 +77,25 @@ public final class SqrlProtocol {
 
     private final EccProvider25519 mEccProvider;
     private final SqrlCipherTool mSqrlCipherTool;
+    private final EccKeyPairCache mKeyPairCache;
+    private final NutManager mNutManager;
+    private final IdentityStore mIdentityStore;
+    private final ExecutorService mVerificationExecutor;
+    private final SqrlMetrics mMetrics;
 
-    private SqrlProtocol(EccProvider25519 eccProvider, SqrlCipherTool sqrlCipherTool) {
+    private SqrlProtocol(EccProvider25519 eccProvider, SqrlCipherTool sqrlCipherTool, EccKeyPairCache keyPairCache, NutManager nutManager, IdentityStore identityStore,
+                         ExecutorService verificationExecutor, SqrlMetrics metrics) {
         if (eccProvider == null) {
             throw new IllegalArgumentException("you must provide an EccProvider25519");
         }
 
         mEccProvider = eccProvider;
         mSqrlCipherTool = sqrlCipherTool;
+        mKeyPairCache = keyPairCache;
+        mNutManager = nutManager;
+        mIdentityStore = identityStore;
+        mVerificationExecutor = verificationExecutor;
+        mMetrics = metrics;
     }
 
     public EccProvider25519 getEccProvider() {
@@ -80,6 +106,42 @@ public final class SqrlProtocol {
         return mSqrlCipherTool;
     }
 
+    /**
+     * @return the cache for derived identity key pairs or {@code null}, if caching is disabled.
+     */
+    public EccKeyPairCache getKeyPairCache() {
+        return mKeyPairCache;
+    }
+
+    /**
+     * @return the server side nut manager or {@code null}, if none was set.
+     */
+    public NutManager getNutManager() {
+        return mNutManager;
+    }
+
+    /**
+     * @return the store of the identities known to the server or {@code null}, if none was set.
+     */
+    public IdentityStore getIdentityStore() {
+        return mIdentityStore;
+    }
+
+    /**
+     * @return the executor for {@link #verifyAsync(String, long, VerificationFuture.Callback)}. If
+     * none was set, then a bounded executor, which is shared by all instances, is returned.
+     */
+    public ExecutorService getVerificationExecutor() {
+        return mVerificationExecutor != null ? mVerificationExecutor : DefaultExecutor.INSTANCE;
+    }
+
+    /**
+     * @return the metrics, which receive the latencies of all stages, or {@link SqrlMetrics#NONE}.
+     */
+    public SqrlMetrics getMetrics() {
+        return mMetrics;
+    }
+
     /**
      * Start the authentication process from the client side.
      *
@@ -90,7 +152,8 @@ public final class SqrlProtocol {
      * @return a builder object to supply more data and information.
      */
     public SqrlClientBody.Builder authenticate(byte[] masterKey, String siteKey) {
-        return new SqrlClientBody.Builder(mSqrlCipherTool, mEccProvider, masterKey, siteKey);
+        return new SqrlClientBody.Builder(mSqrlCipherTool, mEccProvider, mKeyPairCache, masterKey, siteKey)
+                .withMetrics(mMetrics);
     }
 
     /**
@@ -108,7 +171,8 @@ public final class SqrlProtocol {
         byte[] suk = serverBody.getServerParameter().getServerUnlockKeyDecoded();
         byte[] vuk = serverBody.getServerParameter().getVerifyUnlockKeyDecoded();
 
-        return new SqrlClientBody.Builder(mSqrlCipherTool, mEccProvider, masterKey, siteKey)
+        return new SqrlClientBody.Builder(mSqrlCipherTool, mEccProvider, mKeyPairCache, masterKey, siteKey)
+                .withMetrics(mMetrics)
                 .withPreviousServerKeys(suk, vuk);
     }
 
@@ -116,11 +180,38 @@ public final class SqrlProtocol {
      * @return a {@link SqrlClientBodyParser} to read and parse data received from a client.
      */
     public SqrlClientBodyParser readSqrlClientBody() {
-        return new SqrlClientBodyParser(mEccProvider);
+        return new SqrlClientBodyParser(mEccProvider, mIdentityStore, mMetrics);
+    }
+
+    /**
+     * @see SqrlProtocol#verifyAsync(String, long, VerificationFuture.Callback)
+     */
+    public VerificationFuture verifyAsync(String clientBody, long deadline) {
+        return verifyAsync(clientBody, deadline, null);
+    }
+
+    /**
+     * Parses the data received from a client and checks all necessary signatures on the
+     * {@link #getVerificationExecutor() verification executor}. The calling thread isn't blocked.
+     * <br>
+     * <br>
+     * The work is skipped, if the deadline passed before the verification started, e.g. because the
+     * client already gave up. If the executor is saturated, then the future fails immediately
+     * instead of queuing more work.
+     *
+     * @param clientBody the flattened body.
+     * @param deadline the deadline in milliseconds since the epoch, see {@link System#currentTimeMillis()}.
+     *                 Use {@link Long#MAX_VALUE} for no deadline.
+     * @param callback an optional callback, which is notified once the future completes.
+     * @return a future, which can be cancelled.
+     */
+    public VerificationFuture verifyAsync(String clientBody, long deadline, VerificationFuture.Callback callback) {
+        return new VerificationFuture(readSqrlClientBody(), mMetrics, clientBody, deadline, callback).submit(getVerificationExecutor());
     }
 
     /**
-     * Answer a client request.
+     * Answer a client request. If an {@link IdentityStore} was set and the identity is known, then
+     * the stored server keys are added to the response.
      *
      * @param clientBody the previous parsed request.
      * @param tif transaction information flag. You can combine multiple flags with a logical or.
@@ -130,7 +221,7 @@ public final class SqrlProtocol {
      */
     public ServerParameter.Builder answerClient(SqrlClientBody clientBody, int tif) {
         String nut = clientBody.getServerParameter().getNutDecoded();
-        return new ServerParameter.Builder(nut, tif);
+        return withStoredKeys(new ServerParameter.Builder(nut, tif), clientBody);
     }
 
     /**
@@ -147,6 +238,39 @@ public final class SqrlProtocol {
         return answerClient(clientBody, tif);
     }
 
+    /**
+     * Answer a client request with a new nut, which is issued by the {@link NutManager}. The nut of
+     * the request should be consumed with {@link NutManager#consume(String, InetAddress)} before.
+     *
+     * @param clientAddress the client's address, which the new nut is bound to.
+     * @throws IllegalStateException if no {@link NutManager} was set.
+     * @see SqrlProtocol#answerClient(SqrlClientBody, int)
+     */
+    public ServerParameter.Builder answerClient(SqrlClientBody clientBody, InetAddress clientAddress, int tif) {
+        if (mNutManager == null) {
+            throw new IllegalStateException("you must provide a NutManager");
+        }
+
+        return withStoredKeys(new ServerParameter.Builder(mNutManager.issue(clientAddress), tif), clientBody);
+    }
+
+    private ServerParameter.Builder withStoredKeys(ServerParameter.Builder builder, SqrlClientBody clientBody) {
+        if (mIdentityStore == null) {
+            return builder;
+        }
+
+        IdentityRecord record = mIdentityStore.get(clientBody.getClientParameter().getIdentityKeyDecoded());
+        byte[] previousIdentityKey = clientBody.getClientParameter().getPreviousIdentityKeyDecoded();
+        if (record == null && previousIdentityKey != null && previousIdentityKey.length == IdentityRecord.KEY_LENGTH) {
+            record = mIdentityStore.get(previousIdentityKey);
+        }
+
+        if (record != null) {
+            builder.withStoredKeys(record.getServerUnlockKey(), record.getVerifyUnlockKey());
+        }
+        return builder;
+    }
+
     /**
      * @return a {@link SqrlServerBodyParser} to read and parse data received from a server.
      */
@@ -158,6 +282,11 @@ public final class SqrlProtocol {
 
         private EccProvider25519 mEccProvider;
         private SqrlCipherTool mSqrlCipherTool;
+        private EccKeyPairCache mKeyPairCache;
+        private NutManager mNutManager;
+        private IdentityStore mIdentityStore;
+        private ExecutorService mVerificationExecutor;
+        private SqrlMetrics mMetrics;
 
         public Builder setEccProvider(EccProvider25519 eccProvider) {
             mEccProvider = eccProvider;
@@ -169,15 +298,91 @@ public final class SqrlProtocol {
             return this;
         }
 
+        /**
+         * Cache the derived identity key pairs, if the same master key is used for the same sites
+         * over and over. Disabled by default.
+         */
+        public Builder setKeyPairCache(EccKeyPairCache keyPairCache) {
+            mKeyPairCache = keyPairCache;
+            return this;
+        }
+
+        /**
+         * Issue and validate nuts on the server side.
+         */
+        public Builder setNutManager(NutManager nutManager) {
+            mNutManager = nutManager;
+            return this;
+        }
+
+        /**
+         * Look up the stored server keys of identities on the server side automatically.
+         */
+        public Builder setIdentityStore(IdentityStore identityStore) {
+            mIdentityStore = identityStore;
+            return this;
+        }
+
+        /**
+         * Run asynchronous verifications on this executor. It should be bounded and reject work,
+         * if it's saturated. By default a shared executor with one thread per processor is used.
+         */
+        public Builder setVerificationExecutor(ExecutorService verificationExecutor) {
+            mVerificationExecutor = verificationExecutor;
+            return this;
+        }
+
+        /**
+         * Record the latencies of all protocol stages and the reasons, why client bodies were
+         * rejected, e.g. with a {@link net.vrallev.java.sqrl.metrics.DefaultSqrlMetrics} instance.
+         * The ECC provider is wrapped automatically. If you set your own {@link SqrlCipherTool},
+         * then pass the metrics to its constructor, too. Disabled by default.
+         */
+        public Builder setMetrics(SqrlMetrics metrics) {
+            mMetrics = metrics;
+            return this;
+        }
+
         public SqrlProtocol build() {
+            if (mMetrics == null) {
+                mMetrics = SqrlMetrics.NONE;
+            }
             if (mEccProvider == null) {
                 mEccProvider = tryToFindProvider();
             }
             if (mSqrlCipherTool == null) {
-                mSqrlCipherTool = new SqrlCipherTool();
+                mSqrlCipherTool = new SqrlCipherTool(mMetrics);
             }
 
-            return new SqrlProtocol(mEccProvider, mSqrlCipherTool);
+            return new SqrlProtocol(InstrumentedEccProvider.wrap(mEccProvider, mMetrics), mSqrlCipherTool, mKeyPairCache, mNutManager, mIdentityStore,
+                    mVerificationExecutor, mMetrics);
+        }
+    }
+
+    private static final class DefaultExecutor {
+
+        private static final int QUEUE_SIZE_PER_THREAD = 64;
+
+        private static final ExecutorService INSTANCE = create();
+
+        private static ExecutorService create() {
+            int threads = Runtime.getRuntime().availableProcessors();
+
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads * QUEUE_SIZE_PER_THREAD), new ThreadFactory() {
+
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "sqrl-verify-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.AbortPolicy());
+
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
         }
     }
 
@@ -196,6 +401,10 @@ public final class SqrlProtocol {
             // ignore
         }
 
+        if (JdkEccProvider.isSupported()) {
+            return new JdkEccProvider();
+        }
+
         return null;
     }
 }
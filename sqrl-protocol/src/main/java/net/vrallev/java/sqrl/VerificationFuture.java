@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl;
+
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.body.SqrlClientBodyParser;
+import net.vrallev.java.sqrl.metrics.SqrlMetrics;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The pending result of {@link SqrlProtocol#verifyAsync(String, long, VerificationFuture.Callback)}.
+ * <br>
+ * <br>
+ * The future fails with a {@link SqrlException}, if the body is invalid, a signature didn't match,
+ * the deadline passed before the verification started or the executor rejected the work. A
+ * cancelled future, which is still queued, is removed from the queue immediately.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class VerificationFuture extends FutureTask<SqrlClientBody> {
+
+    /**
+     * Receives the result of a verification on the thread, which completed the future.
+     */
+    public interface Callback {
+
+        void onVerified(SqrlClientBody clientBody);
+
+        /**
+         * @param throwable the reason, usually a {@link SqrlException}. {@code null}, if the future
+         *                  was cancelled.
+         */
+        void onFailure(Throwable throwable);
+    }
+
+    private final long mDeadline;
+    private final Callback mCallback;
+    private final SqrlMetrics mMetrics;
+    private final AtomicReference<ExecutorService> mExecutor;
+
+    private volatile Throwable mFailure;
+
+    /*package*/ VerificationFuture(final SqrlClientBodyParser parser, final SqrlMetrics metrics, final String clientBody, final long deadline, Callback callback) {
+        super(new Callable<SqrlClientBody>() {
+            @Override
+            public SqrlClientBody call() throws Exception {
+                if (System.currentTimeMillis() > deadline) {
+                    metrics.recordRejection(SqrlMetrics.Rejection.DEADLINE_EXCEEDED);
+                    throw new SqrlException("deadline exceeded");
+                }
+                try {
+                    return parser.from(clientBody).verified();
+                } catch (IllegalArgumentException e) {
+                    throw new SqrlException(e);
+                }
+            }
+        });
+
+        mDeadline = deadline;
+        mCallback = callback;
+        mMetrics = metrics;
+        mExecutor = new AtomicReference<>();
+    }
+
+    /**
+     * @return the deadline in milliseconds since the epoch.
+     */
+    public long getDeadline() {
+        return mDeadline;
+    }
+
+    /*package*/ VerificationFuture submit(ExecutorService executor) {
+        mExecutor.set(executor);
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            mMetrics.recordRejection(SqrlMetrics.Rejection.OVERLOADED);
+            setException(new SqrlException("verification queue is full", e));
+        }
+        return this;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+        ExecutorService executor = mExecutor.get();
+        if (cancelled && executor instanceof ThreadPoolExecutor) {
+            // free the slot in the bounded queue instead of waiting until a worker skips the task
+            ((ThreadPoolExecutor) executor).remove(this);
+        }
+        return cancelled;
+    }
+
+    @Override
+    protected void setException(Throwable throwable) {
+        mFailure = throwable;
+        super.setException(throwable);
+    }
+
+    @Override
+    protected void done() {
+        if (mCallback == null) {
+            return;
+        }
+
+        if (isCancelled()) {
+            mCallback.onFailure(null);
+        } else if (mFailure != null) {
+            mCallback.onFailure(mFailure);
+        } else {
+            try {
+                mCallback.onVerified(get());
+            } catch (Exception e) {
+                mCallback.onFailure(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.body;
+
+import net.vrallev.java.sqrl.SqrlException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compact binary encoding of a verified {@link SqrlClientBody}, which an edge server forwards to
+ * other services. The keys and signatures are stored raw, the commands as a bit mask. An HMAC-SHA256
+ * tag with a key, which is shared between the services, marks the body as verified, so that the
+ * receiver neither parses the Base64 parameters nor checks the Ed25519 signatures again.
+ * <br>
+ * <br>
+ * An envelope starts with its total length, so multiple envelopes can be written into one stream.
+ * All numbers are big-endian regardless of the order of the passed buffers.
+ * {@link #read(ByteBuffer)} authenticates the envelope and returns a {@link View}, which reads the
+ * fields directly from the buffer. Instances are thread safe.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class ClientBodyEnvelope {
+
+    public static final int CMD_QUERY = 1;
+    public static final int CMD_IDENT = 1 << 1;
+    public static final int CMD_DISABLE = 1 << 2;
+    public static final int CMD_ENABLE = 1 << 3;
+    public static final int CMD_REMOVE = 1 << 4;
+    public static final int CMD_LOGIN = 1 << 5;
+    public static final int CMD_CREATE = 1 << 6;
+    public static final int CMD_SETKEY = 1 << 7;
+    public static final int CMD_SETLOCK = 1 << 8;
+    public static final int CMD_LOGME = 1 << 9;
+    public static final int CMD_LOGOFF = 1 << 10;
+
+    private static final String[] COMMANDS = {"query", "ident", "disable", "enable", "remove", "login", "create", "setkey",
+            "setlock", "logme", "logoff"};
+
+    private static final int MAGIC = 0x53514531; // SQE1
+
+    private static final int FLAG_URI = 1;
+    private static final int FLAG_PIDK = 1 << 1;
+    private static final int FLAG_PIDS = 1 << 2;
+    private static final int FLAG_SUK = 1 << 3;
+    private static final int FLAG_VUK = 1 << 4;
+    private static final int FLAG_URS = 1 << 5;
+
+    private static final int KEY_LENGTH = 32;
+    private static final int SIGNATURE_LENGTH = 64;
+    private static final int TAG_LENGTH = 16;
+
+    // length, magic, flags, reserved, commands, verified at, tif
+    private static final int HEADER_LENGTH = 4 + 4 + 1 + 1 + 2 + 8 + 4;
+    private static final int OFFSET_FLAGS = 8;
+    private static final int OFFSET_COMMANDS = 10;
+    private static final int OFFSET_VERIFIED_AT = 12;
+    private static final int OFFSET_TIF = 20;
+    private static final int OFFSET_IDK = HEADER_LENGTH;
+    private static final int OFFSET_IDS = OFFSET_IDK + KEY_LENGTH;
+    private static final int OFFSET_OPTIONAL = OFFSET_IDS + SIGNATURE_LENGTH;
+
+    private static final int MIN_LENGTH = OFFSET_OPTIONAL + 3 * 2 + TAG_LENGTH;
+    private static final int MAX_STRING_LENGTH = 0xffff;
+
+    private final SecretKeySpec mKey;
+    private final ThreadLocal<Mac> mMac;
+
+    /**
+     * @param key the HMAC key, which is shared by the writing and reading services. At least
+     *            32 bytes.
+     */
+    public ClientBodyEnvelope(byte[] key) {
+        if (key == null || key.length < 32) {
+            throw new IllegalArgumentException("the key must have at least 32 bytes");
+        }
+
+        mKey = new SecretKeySpec(key, "HmacSHA256");
+        mMac = new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+                try {
+                    Mac mac = Mac.getInstance("HmacSHA256");
+                    mac.init(mKey);
+                    return mac;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the number of bytes, which {@link #write(SqrlClientBody, long, ByteBuffer)} needs for
+     * this body.
+     */
+    public int getEncodedLength(SqrlClientBody clientBody) {
+        return getEncodedLength(clientBody, getExtraCommands(clientBody.getClientParameter().getCommands()));
+    }
+
+    /**
+     * @see #write(SqrlClientBody, long, ByteBuffer)
+     */
+    public byte[] write(SqrlClientBody clientBody, long verifiedAt) {
+        ByteBuffer buffer = ByteBuffer.allocate(getEncodedLength(clientBody));
+        write(clientBody, verifiedAt, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Writes the envelope at the position of the buffer and advances the position. Only pass
+     * bodies, whose signatures were checked, e.g. with {@link SqrlClientBodyParser#verified()},
+     * the receiver trusts them without checking again.
+     *
+     * @param verifiedAt the time of the verification in milliseconds, which lets the receiver
+     *                   reject stale envelopes.
+     * @throws BufferOverflowException if the buffer has not enough space left.
+     * @throws IllegalArgumentException if the identity key or signature is missing or a key or
+     *                                  signature has an illegal length.
+     */
+    public void write(SqrlClientBody clientBody, long verifiedAt, ByteBuffer target) {
+        ClientParameter clientParameter = clientBody.getClientParameter();
+        ServerParameter serverParameter = clientBody.getServerParameter();
+
+        List<String> commands = clientParameter.getCommands();
+        String extraCommands = getExtraCommands(commands);
+
+        int length = getEncodedLength(clientBody, extraCommands);
+        if (target.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+
+        ByteBuffer buffer = target.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        byte[] previousIdentityKey = clientParameter.getPreviousIdentityKeyDecoded();
+        byte[] previousIdentitySignature = clientBody.getPreviousIdentitySignatureDecoded();
+        byte[] serverUnlockKey = clientParameter.getServerUnlockKeyDecoded();
+        byte[] verifyUnlockKey = clientParameter.getVerifyUnlockKeyDecoded();
+        byte[] unlockRequestSignature = clientBody.getUnlockRequestSignatureDecoded();
+
+        int flags = (serverParameter.isUri() ? FLAG_URI : 0)
+                | (previousIdentityKey != null ? FLAG_PIDK : 0)
+                | (previousIdentitySignature != null ? FLAG_PIDS : 0)
+                | (serverUnlockKey != null ? FLAG_SUK : 0)
+                | (verifyUnlockKey != null ? FLAG_VUK : 0)
+                | (unlockRequestSignature != null ? FLAG_URS : 0);
+
+        int start = buffer.position();
+        buffer.putInt(length);
+        buffer.putInt(MAGIC);
+        buffer.put((byte) flags);
+        buffer.put((byte) 0);
+        buffer.putShort((short) getCommandMask(commands));
+        buffer.putLong(verifiedAt);
+        buffer.putInt(serverParameter.getTransactionInformationFlag());
+
+        put(buffer, clientParameter.getIdentityKeyDecoded(), KEY_LENGTH);
+        put(buffer, clientBody.getIdentitySignatureDecoded(), SIGNATURE_LENGTH);
+        put(buffer, previousIdentityKey, KEY_LENGTH);
+        put(buffer, previousIdentitySignature, SIGNATURE_LENGTH);
+        put(buffer, serverUnlockKey, KEY_LENGTH);
+        put(buffer, verifyUnlockKey, KEY_LENGTH);
+        put(buffer, unlockRequestSignature, SIGNATURE_LENGTH);
+
+        putString(buffer, serverParameter.getNutDecoded());
+        putString(buffer, clientParameter.getVersionDecoded());
+        putString(buffer, extraCommands);
+
+        ByteBuffer signed = buffer.duplicate();
+        signed.limit(buffer.position()).position(start);
+
+        Mac mac = mMac.get();
+        mac.update(signed);
+        buffer.put(mac.doFinal(), 0, TAG_LENGTH);
+        target.position(buffer.position());
+    }
+
+    /**
+     * Authenticates the envelope at the position of the buffer and advances the position behind
+     * it. The returned view reads from the buffer, which must not be modified while the view is
+     * used.
+     *
+     * @throws SqrlException if the data isn't an envelope or the tag doesn't match.
+     */
+    public View read(ByteBuffer source) throws SqrlException {
+        ByteBuffer buffer = source.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int start = buffer.position();
+        if (buffer.remaining() < MIN_LENGTH) {
+            throw new SqrlException("envelope too short");
+        }
+
+        int length = buffer.getInt(start);
+        if (length < MIN_LENGTH || length > buffer.remaining() || buffer.getInt(start + 4) != MAGIC) {
+            throw new SqrlException("not an envelope");
+        }
+
+        ByteBuffer envelope = buffer.duplicate();
+        envelope.limit(start + length);
+        envelope = envelope.slice().order(ByteOrder.BIG_ENDIAN);
+
+        ByteBuffer signed = envelope.duplicate();
+        signed.limit(length - TAG_LENGTH);
+
+        Mac mac = mMac.get();
+        mac.update(signed);
+        byte[] expected = mac.doFinal();
+
+        int diff = 0;
+        for (int i = 0; i < TAG_LENGTH; i++) {
+            diff |= expected[i] ^ envelope.get(length - TAG_LENGTH + i);
+        }
+        if (diff != 0) {
+            throw new SqrlException("envelope tag mismatch");
+        }
+
+        View view = new View(envelope);
+        source.position(start + length);
+        return view;
+    }
+
+    private static int getEncodedLength(SqrlClientBody clientBody, String extraCommands) {
+        ClientParameter clientParameter = clientBody.getClientParameter();
+        if (clientParameter.getIdentityKeyDecoded() == null || clientBody.getIdentitySignatureDecoded() == null) {
+            throw new IllegalArgumentException("identity key and signature are required");
+        }
+
+        int length = OFFSET_OPTIONAL + TAG_LENGTH;
+        length += clientParameter.getPreviousIdentityKeyDecoded() != null ? KEY_LENGTH : 0;
+        length += clientBody.getPreviousIdentitySignatureDecoded() != null ? SIGNATURE_LENGTH : 0;
+        length += clientParameter.getServerUnlockKeyDecoded() != null ? KEY_LENGTH : 0;
+        length += clientParameter.getVerifyUnlockKeyDecoded() != null ? KEY_LENGTH : 0;
+        length += clientBody.getUnlockRequestSignatureDecoded() != null ? SIGNATURE_LENGTH : 0;
+
+        length += 2 + getStringLength(clientBody.getServerParameter().getNutDecoded());
+        length += 2 + getStringLength(clientParameter.getVersionDecoded());
+        length += 2 + getStringLength(extraCommands);
+        return length;
+    }
+
+    private static int getCommandMask(List<String> commands) {
+        int mask = 0;
+        if (commands != null) {
+            for (String command : commands) {
+                for (int i = 0; i < COMMANDS.length; i++) {
+                    if (COMMANDS[i].equals(command)) {
+                        mask |= 1 << i;
+                        break;
+                    }
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @return the commands, which have no bit in the mask, joined with '~'.
+     */
+    private static String getExtraCommands(List<String> commands) {
+        if (commands == null) {
+            return "";
+        }
+
+        List<String> extra = null;
+        for (String command : commands) {
+            if (getCommandMask(Collections.singletonList(command)) == 0) {
+                if (extra == null) {
+                    extra = new ArrayList<>();
+                }
+                extra.add(command);
+            }
+        }
+        return extra == null ? "" : ClientParameter.getCommandsAsString(extra);
+    }
+
+    private static void put(ByteBuffer buffer, byte[] value, int length) {
+        if (value == null) {
+            return;
+        }
+        if (value.length != length) {
+            throw new IllegalArgumentException("illegal key or signature length");
+        }
+        buffer.put(value);
+    }
+
+    private static int getStringLength(String value) {
+        int length = value == null ? 0 : value.getBytes(SqrlRequestUtil.UTF8).length;
+        if (length > MAX_STRING_LENGTH) {
+            throw new IllegalArgumentException("string too long");
+        }
+        return length;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(SqrlRequestUtil.UTF8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * An authenticated envelope. All getters read directly from the underlying buffer, the keys and
+     * signatures are returned as read-only slices without copying.
+     */
+    public static final class View {
+
+        private final ByteBuffer mBuffer;
+        private final int mFlags;
+
+        private final int mOffsetPidk;
+        private final int mOffsetPids;
+        private final int mOffsetSuk;
+        private final int mOffsetVuk;
+        private final int mOffsetUrs;
+        private final int mOffsetNut;
+        private final int mOffsetVersion;
+        private final int mOffsetExtraCommands;
+
+        private View(ByteBuffer buffer) throws SqrlException {
+            mBuffer = buffer.asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN);
+            mFlags = mBuffer.get(OFFSET_FLAGS) & 0xff;
+
+            int offset = OFFSET_OPTIONAL;
+            mOffsetPidk = offset;
+            offset += hasFlag(FLAG_PIDK) ? KEY_LENGTH : 0;
+            mOffsetPids = offset;
+            offset += hasFlag(FLAG_PIDS) ? SIGNATURE_LENGTH : 0;
+            mOffsetSuk = offset;
+            offset += hasFlag(FLAG_SUK) ? KEY_LENGTH : 0;
+            mOffsetVuk = offset;
+            offset += hasFlag(FLAG_VUK) ? KEY_LENGTH : 0;
+            mOffsetUrs = offset;
+            offset += hasFlag(FLAG_URS) ? SIGNATURE_LENGTH : 0;
+
+            int end = mBuffer.limit() - TAG_LENGTH;
+            mOffsetNut = offset;
+            mOffsetVersion = skipString(mBuffer, mOffsetNut, end);
+            mOffsetExtraCommands = skipString(mBuffer, mOffsetVersion, end);
+            if (skipString(mBuffer, mOffsetExtraCommands, end) != end) {
+                throw new SqrlException("corrupt envelope");
+            }
+        }
+
+        /**
+         * @return the time of the verification in milliseconds.
+         */
+        public long getVerifiedAt() {
+            return mBuffer.getLong(OFFSET_VERIFIED_AT);
+        }
+
+        /**
+         * @return the commands as combination of the {@code CMD_} constants.
+         */
+        public int getCommandMask() {
+            return mBuffer.getShort(OFFSET_COMMANDS) & 0xffff;
+        }
+
+        public boolean hasCommand(int command) {
+            return (getCommandMask() & command) == command;
+        }
+
+        public List<String> getCommands() {
+            List<String> commands = new ArrayList<>();
+            int mask = getCommandMask();
+            for (int i = 0; i < COMMANDS.length; i++) {
+                if ((mask & 1 << i) != 0) {
+                    commands.add(COMMANDS[i]);
+                }
+            }
+
+            String extra = getString(mOffsetExtraCommands);
+            if (!extra.isEmpty()) {
+                Collections.addAll(commands, extra.split("~"));
+            }
+            return commands;
+        }
+
+        public String getVersion() {
+            return getString(mOffsetVersion);
+        }
+
+        public String getNut() {
+            return getString(mOffsetNut);
+        }
+
+        /**
+         * @return {@code true}, if the client signed the URI of the first request and not a
+         * previous server response.
+         */
+        public boolean isServerParameterUri() {
+            return hasFlag(FLAG_URI);
+        }
+
+        /**
+         * @return the transaction information flag of the signed server response or {@code -1}, if
+         * the client signed the URI.
+         */
+        public int getTransactionInformationFlag() {
+            return mBuffer.getInt(OFFSET_TIF);
+        }
+
+        public ByteBuffer getIdentityKey() {
+            return slice(OFFSET_IDK, KEY_LENGTH);
+        }
+
+        public ByteBuffer getIdentitySignature() {
+            return slice(OFFSET_IDS, SIGNATURE_LENGTH);
+        }
+
+        /**
+         * Copies the identity key, e.g. to look up the account in an
+         * {@link net.vrallev.java.sqrl.store.IdentityStore}.
+         */
+        public byte[] getIdentityKeyDecoded() {
+            byte[] key = new byte[KEY_LENGTH];
+            getIdentityKey().get(key);
+            return key;
+        }
+
+        /**
+         * @return the previous identity key or {@code null}.
+         */
+        public ByteBuffer getPreviousIdentityKey() {
+            return hasFlag(FLAG_PIDK) ? slice(mOffsetPidk, KEY_LENGTH) : null;
+        }
+
+        public ByteBuffer getPreviousIdentitySignature() {
+            return hasFlag(FLAG_PIDS) ? slice(mOffsetPids, SIGNATURE_LENGTH) : null;
+        }
+
+        public ByteBuffer getServerUnlockKey() {
+            return hasFlag(FLAG_SUK) ? slice(mOffsetSuk, KEY_LENGTH) : null;
+        }
+
+        public ByteBuffer getVerifyUnlockKey() {
+            return hasFlag(FLAG_VUK) ? slice(mOffsetVuk, KEY_LENGTH) : null;
+        }
+
+        public ByteBuffer getUnlockRequestSignature() {
+            return hasFlag(FLAG_URS) ? slice(mOffsetUrs, SIGNATURE_LENGTH) : null;
+        }
+
+        private boolean hasFlag(int flag) {
+            return (mFlags & flag) != 0;
+        }
+
+        private ByteBuffer slice(int offset, int length) {
+            ByteBuffer slice = mBuffer.duplicate();
+            slice.limit(offset + length).position(offset);
+            return slice.slice();
+        }
+
+        private String getString(int offset) {
+            int length = mBuffer.getShort(offset) & 0xffff;
+            if (length == 0) {
+                return "";
+            }
+
+            byte[] bytes = new byte[length];
+            ByteBuffer source = mBuffer.duplicate();
+            source.position(offset + 2);
+            source.get(bytes);
+            return new String(bytes, SqrlRequestUtil.UTF8);
+        }
+
+        private static int skipString(ByteBuffer buffer, int offset, int end) throws SqrlException {
+            if (offset + 2 > end) {
+                throw new SqrlException("corrupt envelope");
+            }
+            return offset + 2 + (buffer.getShort(offset) & 0xffff);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.body;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.util.EntropyPool;
+
+import java.net.InetAddress;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers verified client bodies for a short time, so that a client, which resends the
+ * byte-identical body after a network failure, neither pays for the signature checks again nor
+ * triggers the account logic twice. The server stores its answer with
+ * {@link Entry#setResponse(ServerParameter)} and sends the same answer for each retry.
+ * <br>
+ * <br>
+ * The entries are looked up by a seeded 64 bit hash of the raw body. On a hit the whole body is
+ * compared in constant time, a hash collision is treated as miss. Each entry is bound to the
+ * address of the client, which sent the body first. The response contains a nut bound to this
+ * address, so a lookup from another address is a miss as well. The cache is split into segments
+ * with a lock each, every segment drops its oldest entries, when they expire or the segment is
+ * full. Two identical requests, which arrive at the same time, may both be verified.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class ClientBodyRetryCache {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final long mTimeToLive;
+    private final int mMaxEntriesPerSegment;
+    private final long mSeed;
+    private final Segment[] mSegments;
+
+    private final AtomicLong mHits;
+    private final AtomicLong mMisses;
+
+    /**
+     * Use the {@link ClientBodyRetryCache.Builder} to create an instance. Subclasses can use this
+     * constructor.
+     */
+    protected ClientBodyRetryCache(Builder builder) {
+        if (builder.mMaxEntries <= 0 || builder.mTimeToLive <= 0) {
+            throw new IllegalArgumentException("max entries and time to live must be greater than 0");
+        }
+
+        mTimeToLive = builder.mTimeToLive;
+        mMaxEntriesPerSegment = Math.max(1, (builder.mMaxEntries + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        mSeed = EntropyPool.getDefault().nextLong();
+
+        mSegments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < mSegments.length; i++) {
+            mSegments[i] = new Segment();
+        }
+
+        mHits = new AtomicLong();
+        mMisses = new AtomicLong();
+    }
+
+    /**
+     * Returns the cached entry of this body or verifies the body with
+     * {@link SqrlClientBodyParser#verified()} and caches the result.
+     *
+     * @param clientAddress the address of the client or {@code null}, if the responses aren't bound
+     *                      to an address.
+     * @throws SqrlException if the body isn't cached and isn't valid. Invalid bodies aren't cached.
+     * @throws IllegalArgumentException if the data isn't a list of key value pairs.
+     */
+    public Entry verified(SqrlProtocol protocol, byte[] body, int offset, int length, InetAddress clientAddress) throws SqrlException {
+        Entry entry = get(body, offset, length, clientAddress);
+        if (entry != null) {
+            return entry;
+        }
+
+        SqrlClientBody clientBody = protocol.readSqrlClientBody().from(body, offset, length).verified();
+        return put(body, offset, length, clientBody, clientAddress);
+    }
+
+    /**
+     * @see #verified(SqrlProtocol, byte[], int, int, InetAddress)
+     */
+    public Entry verified(SqrlProtocol protocol, byte[] body, InetAddress clientAddress) throws SqrlException {
+        return verified(protocol, body, 0, body.length, clientAddress);
+    }
+
+    /**
+     * @param clientAddress the address of the client or {@code null}.
+     * @return the entry of this body, or {@code null}, if the body isn't cached, expired or was sent
+     * from another address.
+     */
+    public Entry get(byte[] body, int offset, int length, InetAddress clientAddress) {
+        long hash = hash(body, offset, length, mSeed);
+        Entry entry = getSegment(hash).get(hash, currentTimeMillis());
+
+        if (entry != null && entry.matches(body, offset, length, clientAddress)) {
+            mHits.incrementAndGet();
+            return entry;
+        }
+
+        mMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches a verified body. An older entry with the same hash is replaced. The new entry has no
+     * response until {@link Entry#setResponse(ServerParameter)} is called.
+     *
+     * @param clientBody    the result of {@link SqrlClientBodyParser#verified()} for this body.
+     * @param clientAddress the address of the client, which the entry is bound to, or {@code null}.
+     * @return the new entry.
+     */
+    public Entry put(byte[] body, int offset, int length, SqrlClientBody clientBody, InetAddress clientAddress) {
+        long hash = hash(body, offset, length, mSeed);
+        long now = currentTimeMillis();
+
+        Entry entry = new Entry(hash, Arrays.copyOfRange(body, offset, offset + length), clientBody, clientAddress, now + mTimeToLive);
+        getSegment(hash).put(hash, entry, now, mMaxEntriesPerSegment);
+        return entry;
+    }
+
+    /**
+     * Removes the entry, e.g. if the request failed and a retry should be processed again. Nothing
+     * happens, if the entry was replaced or dropped before.
+     */
+    public void remove(Entry entry) {
+        getSegment(entry.mHash).remove(entry.mHash, entry);
+    }
+
+    /**
+     * @return the number of entries including expired ones, which weren't dropped yet.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : mSegments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return the ratio of lookups, which found an entry, or 0, if there was no lookup yet.
+     */
+    public double getHitRatio() {
+        long hits = mHits.get();
+        long total = hits + mMisses.get();
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    public void resetStatistics() {
+        mHits.set(0);
+        mMisses.set(0);
+    }
+
+    /**
+     * @return the current time in milliseconds. Subclasses may override this method for tests.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private Segment getSegment(long hash) {
+        return mSegments[(int) (hash >>> 32) & (SEGMENT_COUNT - 1)];
+    }
+
+    private static long hash(byte[] data, int offset, int length, long seed) {
+        long hash = mix(seed ^ length);
+
+        int end = offset + length;
+        int i = offset;
+        for (; i + 8 <= end; i += 8) {
+            long value = (data[i] & 0xffL)
+                    | (data[i + 1] & 0xffL) << 8
+                    | (data[i + 2] & 0xffL) << 16
+                    | (data[i + 3] & 0xffL) << 24
+                    | (data[i + 4] & 0xffL) << 32
+                    | (data[i + 5] & 0xffL) << 40
+                    | (data[i + 6] & 0xffL) << 48
+                    | (data[i + 7] & 0xffL) << 56;
+            hash = Long.rotateLeft(hash ^ value * 0x9e3779b97f4a7c15L, 27) * 0xff51afd7ed558ccdL;
+        }
+
+        long tail = 0;
+        for (int shift = 0; i < end; i++, shift += 8) {
+            tail |= (data[i] & 0xffL) << shift;
+        }
+        return mix(hash ^ tail);
+    }
+
+    private static long mix(long value) {
+        // finalizer of MurmurHash3
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * A cached body with the answer of the server.
+     */
+    public static final class Entry {
+
+        private final long mHash;
+        private final byte[] mBody;
+        private final SqrlClientBody mClientBody;
+        private final InetAddress mClientAddress;
+        private final long mExpiresAt;
+
+        private volatile ServerParameter mResponse;
+
+        private Entry(long hash, byte[] body, SqrlClientBody clientBody, InetAddress clientAddress, long expiresAt) {
+            mHash = hash;
+            mBody = body;
+            mClientBody = clientBody;
+            mClientAddress = clientAddress;
+            mExpiresAt = expiresAt;
+        }
+
+        public SqrlClientBody getClientBody() {
+            return mClientBody;
+        }
+
+        /**
+         * @return the answer, which was sent for this body, or {@code null}, if the first request
+         * is still processed.
+         */
+        public ServerParameter getResponse() {
+            return mResponse;
+        }
+
+        public void setResponse(ServerParameter response) {
+            mResponse = response;
+        }
+
+        private boolean matches(byte[] body, int offset, int length, InetAddress clientAddress) {
+            if (length != mBody.length || !Objects.equals(mClientAddress, clientAddress)) {
+                return false;
+            }
+            byte[] other = offset == 0 && length == body.length ? body : Arrays.copyOfRange(body, offset, offset + length);
+            return MessageDigest.isEqual(mBody, other);
+        }
+    }
+
+    private static final class Segment {
+
+        // insertion order equals expiry order, because all entries have the same time to live
+        private final LinkedHashMap<Long, Entry> mEntries = new LinkedHashMap<>();
+
+        private synchronized Entry get(long hash, long now) {
+            Entry entry = mEntries.get(hash);
+            if (entry != null && entry.mExpiresAt <= now) {
+                mEntries.remove(hash);
+                return null;
+            }
+            return entry;
+        }
+
+        private synchronized void put(long hash, Entry entry, long now, int maxEntries) {
+            // remove first, so that the entry moves to the end of the insertion order
+            mEntries.remove(hash);
+
+            Iterator<Entry> iterator = mEntries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                if (eldest.mExpiresAt > now && mEntries.size() < maxEntries) {
+                    break;
+                }
+                iterator.remove();
+            }
+
+            mEntries.put(hash, entry);
+        }
+
+        private synchronized void remove(long hash, Entry entry) {
+            if (mEntries.get(hash) == entry) {
+                mEntries.remove(hash);
+            }
+        }
+
+        private synchronized int size() {
+            return mEntries.size();
+        }
+    }
+
+    public static class Builder {
+
+        private int mMaxEntries;
+        private long mTimeToLive;
+
+        public Builder() {
+            mMaxEntries = 16 * 1024;
+            mTimeToLive = TimeUnit.SECONDS.toMillis(30);
+        }
+
+        /**
+         * The default value is 16384.
+         */
+        public Builder setMaxEntries(int maxEntries) {
+            mMaxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * The time, how long a body is remembered. Should be shorter than the max age of a nut. The
+         * default value is 30 seconds.
+         */
+        public Builder setTimeToLive(long timeToLive, TimeUnit unit) {
+            mTimeToLive = unit.toMillis(timeToLive);
+            return this;
+        }
+
+        public ClientBodyRetryCache build() {
+            return new ClientBodyRetryCache(this);
+        }
+    }
+}
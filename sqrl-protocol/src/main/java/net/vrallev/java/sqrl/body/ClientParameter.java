@@ -27,19 +27,44 @@ import java.util.List;
 public class ClientParameter {
 
     private final GenericParameterHolder mParameterHolder;
+    private final String mEncoded;
 
     private ClientParameter(GenericParameterHolder parameterHolder) {
+        this(parameterHolder, null);
+    }
+
+    private ClientParameter(GenericParameterHolder parameterHolder, String encoded) {
         mParameterHolder = parameterHolder;
+        mEncoded = encoded;
+    }
+
+    /**
+     * Wraps already validated parameters without decoding and encoding the keys again.
+     */
+    /*package*/ static ClientParameter create(GenericParameterHolder parameterHolder) {
+        return new ClientParameter(parameterHolder.build());
+    }
+
+    /**
+     * @return a copy, which returns the parameter exactly as the client encoded it, instead of
+     * flattening and encoding it again.
+     */
+    /*package*/ ClientParameter withEncoded(String encoded) {
+        return new ClientParameter(mParameterHolder, encoded);
     }
 
     public String getParameterEncoded() {
-        return mParameterHolder.getEncoded();
+        return mEncoded != null ? mEncoded : mParameterHolder.getEncoded();
     }
 
     public byte[] getParameterDecoded() {
         return mParameterHolder.getDecoded();
     }
 
+    public String getVersionDecoded() {
+        return mParameterHolder.getPlainParameter(GenericParameterHolder.KEY_VER);
+    }
+
     public List<String> getCommands() {
         String commands = mParameterHolder.getPlainParameter(GenericParameterHolder.KEY_CMD);
         if (commands == null) {
@@ -123,7 +148,7 @@ public class ClientParameter {
                 mParameterHolder.putPlainParameter(GenericParameterHolder.KEY_VER, "1");
             }
 
-            return new ClientParameter(mParameterHolder);
+            return new ClientParameter(mParameterHolder.build());
         }
 
         private void checkKey(byte[] key) {
@@ -17,42 +17,86 @@ package net.vrallev.java.sqrl.body;
 
 import net.vrallev.java.sqrl.SqrlException;
 
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-
 /**
  * @author Ralf Wondratschek
  */
 /*package*/ class ClientParameterParser {
 
+    private static final byte[] LINE_SEPARATOR = SqrlRequestUtil.LINE_SEPARATOR.getBytes(SqrlRequestUtil.ASCII);
+
+    private static final byte[] VER = GenericParameterHolder.KEY_VER.getBytes(SqrlRequestUtil.ASCII);
+    private static final byte[] CMD = GenericParameterHolder.KEY_CMD.getBytes(SqrlRequestUtil.ASCII);
+    private static final byte[] IDK = GenericParameterHolder.KEY_IDK.getBytes(SqrlRequestUtil.ASCII);
+    private static final byte[] PIDK = GenericParameterHolder.KEY_PIDK.getBytes(SqrlRequestUtil.ASCII);
+    private static final byte[] SUK = GenericParameterHolder.KEY_SUK.getBytes(SqrlRequestUtil.ASCII);
+    private static final byte[] VUK = GenericParameterHolder.KEY_VUK.getBytes(SqrlRequestUtil.ASCII);
+
+    private static final byte[] VERSION_1 = {'1'};
+
+    private final KeyValueScanner mScanner;
+    private final byte[] mKeyBuffer = new byte[64];
+
+    public ClientParameterParser() {
+        this(new KeyValueScanner());
+    }
+
+    /*package*/ ClientParameterParser(KeyValueScanner scanner) {
+        mScanner = scanner;
+    }
+
     public ClientParameter parse(String parameter) throws SqrlException {
-        Map<String, String> map = SqrlRequestUtil.splitKeyValue(parameter, SqrlRequestUtil.LINE_SEPARATOR, "=");
-        if (!map.containsKey("ver") || !"1".equals(map.get("ver"))) {
+        byte[] data = parameter.getBytes(SqrlRequestUtil.ASCII);
+        return parse(data, 0, data.length);
+    }
+
+    /**
+     * Parses the decoded client parameter. The keys stay encoded, they aren't decoded and encoded again.
+     */
+    public ClientParameter parse(byte[] data, int offset, int length) throws SqrlException {
+        KeyValueScanner scanner = mScanner.scan(data, offset, length, LINE_SEPARATOR);
+
+        int ver = scanner.indexOfKey(VER);
+        if (ver < 0 || !scanner.valueEquals(ver, VERSION_1)) {
             throw new SqrlException("Wrong version");
         }
 
-        if (!map.containsKey("cmd") || !map.containsKey("idk")) {
+        int cmd = scanner.indexOfKey(CMD);
+        int idk = scanner.indexOfKey(IDK);
+        if (cmd < 0 || idk < 0) {
             throw new SqrlException("missing important parameter");
         }
 
-        String commandList = map.get("cmd");
-        List<String> commands = Arrays.asList(commandList.split("~"));
+        checkKey(scanner, idk);
 
-        byte[] identityKey = SqrlRequestUtil.decodeBase64(map.get("idk"));
+        GenericParameterHolder parameterHolder = new GenericParameterHolder();
+        parameterHolder.putPlainParameter(GenericParameterHolder.KEY_VER, "1");
+        parameterHolder.putPlainParameter(GenericParameterHolder.KEY_CMD, scanner.getValue(cmd));
+        parameterHolder.putPlainParameter(GenericParameterHolder.KEY_IDK, scanner.getValue(idk));
 
-        ClientParameter.Builder builder = new ClientParameter.Builder(commands, identityKey);
+        putKey(parameterHolder, GenericParameterHolder.KEY_PIDK, scanner, scanner.indexOfKey(PIDK));
+        putKey(parameterHolder, GenericParameterHolder.KEY_SUK, scanner, scanner.indexOfKey(SUK));
+        putKey(parameterHolder, GenericParameterHolder.KEY_VUK, scanner, scanner.indexOfKey(VUK));
 
-        if (map.containsKey("pidk")) {
-            builder.setPreviousIdentityKey(SqrlRequestUtil.decodeBase64(map.get("pidk")));
-        }
-        if (map.containsKey("suk")) {
-            builder.setServerUnlockKey(SqrlRequestUtil.decodeBase64(map.get("suk")));
+        return ClientParameter.create(parameterHolder);
+    }
+
+    private void putKey(GenericParameterHolder parameterHolder, String key, KeyValueScanner scanner, int index) {
+        if (index >= 0) {
+            // validates the Base64 encoding
+            decodeKey(scanner, index);
+            parameterHolder.putPlainParameter(key, scanner.getValue(index));
         }
-        if (map.containsKey("vuk")) {
-            builder.setVerifyUnlockKey(SqrlRequestUtil.decodeBase64(map.get("vuk")));
+    }
+
+    private void checkKey(KeyValueScanner scanner, int index) {
+        if (decodeKey(scanner, index) != 32) {
+            throw new IllegalArgumentException("illegal key length");
         }
+    }
 
-        return builder.build();
+    private int decodeKey(KeyValueScanner scanner, int index) {
+        int maxLength = SqrlRequestUtil.getMaxDecodedLength(scanner.getValueLength(index));
+        byte[] buffer = maxLength <= mKeyBuffer.length ? mKeyBuffer : new byte[maxLength];
+        return SqrlRequestUtil.decodeBase64(scanner.getData(), scanner.getValueOffset(index), scanner.getValueLength(index), buffer, 0);
     }
 }
@@ -16,9 +16,15 @@
 package net.vrallev.java.sqrl.body;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
+ * Holds the key value pairs of a client or server parameter. The holder is mutable until
+ * {@link #build()} is called, which returns an immutable copy. An immutable holder computes its
+ * flattened form, the encoded form and the decoded keys only once and caches them.
+ *
  * @author Ralf Wondratschek
  */
 /*package*/ class GenericParameterHolder {
@@ -37,13 +43,43 @@ import java.util.Map;
     public static final String KEY_TIF = "tif";
     public static final String KEY_SFN = "sfn";
 
+    private static final String[] CACHED_KEYS = {KEY_IDK, KEY_PIDK, KEY_SUK, KEY_VUK, KEY_NUT};
+
     private final Map<String, String> mMap;
+    private final boolean mImmutable;
+
+    // lazily computed, if the holder is immutable; racing threads compute equal values
+    private volatile byte[] mDecoded;
+    private volatile String mEncoded;
+    private int mHashCode;
+    private final AtomicReferenceArray<byte[]> mDecodedParameters;
 
     GenericParameterHolder() {
         mMap = new HashMap<>();
+        mImmutable = false;
+        mDecodedParameters = null;
+    }
+
+    private GenericParameterHolder(Map<String, String> map) {
+        mMap = map;
+        mImmutable = true;
+        mDecodedParameters = new AtomicReferenceArray<>(CACHED_KEYS.length);
+    }
+
+    /**
+     * @return an immutable copy of this holder. The order of the entries is kept.
+     */
+    public GenericParameterHolder build() {
+        if (mImmutable) {
+            return this;
+        }
+        return new GenericParameterHolder(new LinkedHashMap<>(mMap));
     }
 
     public GenericParameterHolder putPlainParameter(String key, String value) {
+        if (mImmutable) {
+            throw new IllegalStateException("parameter holder is immutable");
+        }
         mMap.put(key, value);
         return this;
     }
@@ -59,37 +95,86 @@ import java.util.Map;
         return mMap.get(key);
     }
 
+    /**
+     * @return the decoded value. If the holder is immutable, the same instance is returned for each
+     * call, it must not be modified.
+     */
     public byte[] getDecodedParameter(String key) {
-        if (containsKey(key)) {
-            return SqrlRequestUtil.decodeBase64(getPlainParameter(key));
-        } else {
+        if (!containsKey(key)) {
             return null;
         }
+
+        int index = mImmutable ? indexOfCachedKey(key) : -1;
+        if (index < 0) {
+            return SqrlRequestUtil.decodeBase64(getPlainParameter(key));
+        }
+
+        byte[] decoded = mDecodedParameters.get(index);
+        if (decoded == null) {
+            decoded = SqrlRequestUtil.decodeBase64(getPlainParameter(key));
+            mDecodedParameters.set(index, decoded);
+        }
+        return decoded;
     }
 
     public boolean containsKey(String key) {
         return mMap.containsKey(key);
     }
 
+    /**
+     * @return the flattened parameter. If the holder is immutable, the same instance is returned for
+     * each call, it must not be modified.
+     */
     public byte[] getDecoded() {
+        if (!mImmutable) {
+            return flatten();
+        }
+
+        byte[] decoded = mDecoded;
+        if (decoded == null) {
+            decoded = flatten();
+            mDecoded = decoded;
+        }
+        return decoded;
+    }
+
+    public String getEncoded() {
+        if (!mImmutable) {
+            return SqrlRequestUtil.encodeBase64(flatten());
+        }
+
+        String encoded = mEncoded;
+        if (encoded == null) {
+            encoded = SqrlRequestUtil.encodeBase64(getDecoded());
+            mEncoded = encoded;
+        }
+        return encoded;
+    }
+
+    private byte[] flatten() {
         StringBuilder builder = new StringBuilder();
         if (containsKey(KEY_VER)) {
             builder.append(KEY_VER).append('=').append(getPlainParameter(KEY_VER)).append(SqrlRequestUtil.LINE_SEPARATOR);
         }
 
-        for (String key : mMap.keySet()) {
-            if (key.equals(KEY_VER)) {
+        for (Map.Entry<String, String> entry : mMap.entrySet()) {
+            if (entry.getKey().equals(KEY_VER)) {
                 continue;
             }
 
-            builder.append(key).append('=').append(getPlainParameter(key)).append(SqrlRequestUtil.LINE_SEPARATOR);
+            builder.append(entry.getKey()).append('=').append(entry.getValue()).append(SqrlRequestUtil.LINE_SEPARATOR);
         }
 
         return builder.toString().getBytes(SqrlRequestUtil.ASCII);
     }
 
-    public String getEncoded() {
-        return SqrlRequestUtil.encodeBase64(getDecoded());
+    private static int indexOfCachedKey(String key) {
+        for (int i = 0; i < CACHED_KEYS.length; i++) {
+            if (CACHED_KEYS[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     @Override
@@ -104,25 +189,21 @@ import java.util.Map;
 
         GenericParameterHolder that = (GenericParameterHolder) o;
 
-        if (mMap.size() != that.mMap.size()) {
-            return false;
-        }
-
-        for (String key : mMap.keySet()) {
-            if (!that.mMap.containsKey(key)) {
-                return false;
-            }
-            if (!mMap.get(key).equals(that.mMap.get(key))) {
-                return false;
-            }
-        }
-
-        return true;
-
+        return mMap.equals(that.mMap);
     }
 
     @Override
     public int hashCode() {
-        return mMap.hashCode();
+        if (!mImmutable) {
+            return mMap.hashCode();
+        }
+
+        // like equals() independent of the order of the entries
+        int hashCode = mHashCode;
+        if (hashCode == 0) {
+            hashCode = mMap.hashCode();
+            mHashCode = hashCode;
+        }
+        return hashCode;
     }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.body;
+
+/**
+ * Splits <i>key=value</i> entries in a single pass. Instead of creating Strings the scanner only
+ * records the offsets of each key and value, the scanner itself can be reused.
+ *
+ * @author Ralf Wondratschek
+ */
+/*package*/ final class KeyValueScanner {
+
+    private byte[] mData;
+    private int mSize;
+
+    private int[] mKeyOffsets;
+    private int[] mKeyLengths;
+    private int[] mValueOffsets;
+    private int[] mValueLengths;
+
+    KeyValueScanner() {
+        mKeyOffsets = new int[8];
+        mKeyLengths = new int[8];
+        mValueOffsets = new int[8];
+        mValueLengths = new int[8];
+    }
+
+    /**
+     * Scans the data between {@code offset} and {@code offset + length}. The entries are split at the
+     * first '=' and separated by {@code separator}. Trailing separators are ignored.
+     *
+     * @throws IllegalArgumentException if an entry has no key or value.
+     */
+    public KeyValueScanner scan(byte[] data, int offset, int length, byte[] separator) throws IllegalArgumentException {
+        mData = data;
+        mSize = 0;
+
+        if (length == 0) {
+            throw new IllegalArgumentException("unexpected size");
+        }
+
+        int end = offset + length;
+        int entryStart = offset;
+
+        while (true) {
+            int entryEnd = indexOf(data, separator, entryStart, end);
+
+            if (entryEnd == entryStart) {
+                if (entryStart != offset && isOnlySeparators(data, separator, entryStart, end)) {
+                    return this;
+                }
+                throw new IllegalArgumentException("unexpected size");
+            }
+
+            int equals = indexOf(data, (byte) '=', entryStart, entryEnd);
+            if (equals < 0 || equals == entryEnd - 1) {
+                throw new IllegalArgumentException("unexpected size");
+            }
+
+            add(entryStart, equals - entryStart, equals + 1, entryEnd - equals - 1);
+
+            if (entryEnd == end) {
+                return this;
+            }
+            entryStart = entryEnd + separator.length;
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * @return the index of the last entry with this key or -1.
+     */
+    public int indexOfKey(byte[] key) {
+        for (int i = mSize - 1; i >= 0; i--) {
+            if (regionEquals(mData, mKeyOffsets[i], mKeyLengths[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean valueEquals(int index, byte[] value) {
+        return regionEquals(mData, mValueOffsets[index], mValueLengths[index], value);
+    }
+
+    public int getValueOffset(int index) {
+        return mValueOffsets[index];
+    }
+
+    public int getValueLength(int index) {
+        return mValueLengths[index];
+    }
+
+    public String getValue(int index) {
+        return new String(mData, mValueOffsets[index], mValueLengths[index], SqrlRequestUtil.ASCII);
+    }
+
+    private void add(int keyOffset, int keyLength, int valueOffset, int valueLength) {
+        if (mSize == mKeyOffsets.length) {
+            mKeyOffsets = grow(mKeyOffsets);
+            mKeyLengths = grow(mKeyLengths);
+            mValueOffsets = grow(mValueOffsets);
+            mValueLengths = grow(mValueLengths);
+        }
+
+        mKeyOffsets[mSize] = keyOffset;
+        mKeyLengths[mSize] = keyLength;
+        mValueOffsets[mSize] = valueOffset;
+        mValueLengths[mSize] = valueLength;
+        mSize++;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] result = new int[array.length * 2];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    private static int indexOf(byte[] data, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the next separator or {@code to}, if there is none.
+     */
+    private static int indexOf(byte[] data, byte[] separator, int from, int to) {
+        outer:
+        for (int i = from, last = to - separator.length; i <= last; i++) {
+            for (int j = 0; j < separator.length; j++) {
+                if (data[i + j] != separator[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return to;
+    }
+
+    private static boolean isOnlySeparators(byte[] data, byte[] separator, int from, int to) {
+        for (int i = from; i < to; i += separator.length) {
+            if (indexOf(data, separator, i, to) != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*package*/ static boolean regionEquals(byte[] data, int offset, int length, byte[] value) {
+        if (length != value.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data[offset + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.body;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The field boundaries of a flattened client body like <i>client=...&amp;server=...&amp;ids=...</i>.
+ * The body is scanned once, no intermediate Strings are created.
+ *
+ * @author Ralf Wondratschek
+ */
+/*package*/ final class RawClientBody {
+
+    public static final int CLIENT = 0;
+    public static final int SERVER = 1;
+    public static final int IDS = 2;
+    public static final int PIDS = 3;
+    public static final int URS = 4;
+
+    private static final String[] KEYS = {"client", "server", "ids", "pids", "urs"};
+    private static final byte[][] KEY_BYTES = new byte[KEYS.length][];
+    private static final byte[] SEPARATOR = {'&'};
+
+    static {
+        for (int i = 0; i < KEYS.length; i++) {
+            KEY_BYTES[i] = KEYS[i].getBytes(SqrlRequestUtil.ASCII);
+        }
+    }
+
+    private static final ThreadLocal<byte[]> SCRATCH_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[1024];
+        }
+    };
+
+    /**
+     * @return a reusable buffer of this thread with at least {@code minLength} bytes.
+     */
+    /*package*/ static byte[] getScratchBuffer(int minLength) {
+        byte[] buffer = SCRATCH_BUFFER.get();
+        if (buffer.length < minLength) {
+            buffer = new byte[Math.max(minLength, buffer.length * 2)];
+            SCRATCH_BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * @throws IllegalArgumentException if an entry has no key or value.
+     */
+    public static RawClientBody parse(byte[] data, int offset, int length, KeyValueScanner scanner) throws IllegalArgumentException {
+        scanner.scan(data, offset, length, SEPARATOR);
+
+        int[] offsets = new int[KEYS.length];
+        int[] lengths = new int[KEYS.length];
+        for (int field = 0; field < KEYS.length; field++) {
+            int index = scanner.indexOfKey(KEY_BYTES[field]);
+            if (index >= 0) {
+                offsets[field] = scanner.getValueOffset(index);
+                lengths[field] = scanner.getValueLength(index);
+            } else {
+                offsets[field] = -1;
+            }
+        }
+
+        return new RawClientBody(data, offsets, lengths);
+    }
+
+    public static RawClientBody fromMap(Map<String, String> parameters, KeyValueScanner scanner) {
+        StringBuilder builder = new StringBuilder();
+        for (String key : KEYS) {
+            String value = parameters.get(key);
+            if (value != null) {
+                if (builder.length() > 0) {
+                    builder.append('&');
+                }
+                builder.append(key).append('=').append(value);
+            }
+        }
+
+        byte[] data = builder.toString().getBytes(SqrlRequestUtil.ASCII);
+        return parse(data, 0, data.length, scanner);
+    }
+
+    private final byte[] mData;
+    private final int[] mOffsets;
+    private final int[] mLengths;
+
+    private RawClientBody(byte[] data, int[] offsets, int[] lengths) {
+        mData = data;
+        mOffsets = offsets;
+        mLengths = lengths;
+    }
+
+    /**
+     * @return a copy, which doesn't share the data array with this body.
+     */
+    public RawClientBody copy() {
+        int start = Integer.MAX_VALUE;
+        int end = 0;
+        for (int field = 0; field < KEYS.length; field++) {
+            if (has(field)) {
+                start = Math.min(start, mOffsets[field]);
+                end = Math.max(end, mOffsets[field] + mLengths[field]);
+            }
+        }
+        if (start > end) {
+            return new RawClientBody(new byte[0], mOffsets.clone(), mLengths.clone());
+        }
+
+        int[] offsets = new int[KEYS.length];
+        for (int field = 0; field < KEYS.length; field++) {
+            offsets[field] = has(field) ? mOffsets[field] - start : -1;
+        }
+        return new RawClientBody(Arrays.copyOfRange(mData, start, end), offsets, mLengths.clone());
+    }
+
+    public boolean has(int field) {
+        return mOffsets[field] >= 0;
+    }
+
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getOffset(int field) {
+        return mOffsets[field];
+    }
+
+    public int getLength(int field) {
+        return mLengths[field];
+    }
+
+    public String getString(int field) {
+        return has(field) ? new String(mData, mOffsets[field], mLengths[field], SqrlRequestUtil.ASCII) : null;
+    }
+
+    public byte[] decode(int field) {
+        return has(field) ? SqrlRequestUtil.decodeBase64(mData, mOffsets[field], mLengths[field]) : null;
+    }
+
+    /**
+     * @return the raw bytes of both fields, e.g. the signed concatenation of the client and server parameter.
+     */
+    public byte[] concat(int first, int second) {
+        byte[] result = new byte[mLengths[first] + mLengths[second]];
+        System.arraycopy(mData, mOffsets[first], result, 0, mLengths[first]);
+        System.arraycopy(mData, mOffsets[second], result, mLengths[first], mLengths[second]);
+        return result;
+    }
+}
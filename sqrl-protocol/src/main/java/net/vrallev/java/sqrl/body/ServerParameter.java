@@ -44,14 +44,19 @@ public class ServerParameter {
     private final GenericParameterHolder mParameterHolder;
     private final String mDecodedFromServer;
 
+    private volatile String mEncodedFromServer;
+
     public ServerParameter(String uriSignaturePart) {
-        byte[] subUri = uriSignaturePart.getBytes(SqrlRequestUtil.UTF8);
-        mEncodedUri = SqrlRequestUtil.encodeBase64(subUri);
+        this(SqrlRequestUtil.encodeBase64(uriSignaturePart.getBytes(SqrlRequestUtil.UTF8)), true);
+    }
+
+    private ServerParameter(String encodedUri, boolean isUri) {
+        mEncodedUri = encodedUri;
 
         mParameterHolder = null;
         mDecodedFromServer = null;
 
-        mIsUri = true;
+        mIsUri = isUri;
     }
 
     private ServerParameter(GenericParameterHolder parameterHolder, String decodedFromServer) {
@@ -61,11 +66,23 @@ public class ServerParameter {
         mIsUri = false;
     }
 
+    /**
+     * Uses the URI, which the client sent, as it is without decoding and encoding it again.
+     */
+    /*package*/ static ServerParameter fromEncodedUri(String encodedUri) {
+        return new ServerParameter(encodedUri, true);
+    }
+
     public String getParameterEncoded() {
         if (mIsUri) {
             return mEncodedUri;
         } else if (mDecodedFromServer != null) {
-            return SqrlRequestUtil.encodeBase64(mDecodedFromServer.getBytes(SqrlRequestUtil.ASCII));
+            String encoded = mEncodedFromServer;
+            if (encoded == null) {
+                encoded = SqrlRequestUtil.encodeBase64(mDecodedFromServer.getBytes(SqrlRequestUtil.ASCII));
+                mEncodedFromServer = encoded;
+            }
+            return encoded;
         } else {
             return mParameterHolder.getEncoded();
         }
@@ -209,7 +226,7 @@ public class ServerParameter {
                 mParameterHolder.putPlainParameter(GenericParameterHolder.KEY_VER, "1");
             }
 
-            return new ServerParameter(mParameterHolder, mDecodedParameter);
+            return new ServerParameter(mParameterHolder.build(), mDecodedParameter);
         }
 
         private void checkKey(byte[] key) {
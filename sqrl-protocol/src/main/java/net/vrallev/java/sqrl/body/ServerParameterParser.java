@@ -25,6 +25,24 @@ import java.util.Map;
  */
 /*package*/ class ServerParameterParser {
 
+    private static final byte[] VERSION_PREFIX = "ver=".getBytes(SqrlRequestUtil.ASCII);
+
+    /**
+     * Parses the encoded server parameter, which a client sent.
+     *
+     * @param scratchBuffer a reusable buffer, which is large enough for the decoded parameter.
+     */
+    public ServerParameter parse(byte[] data, int offset, int length, byte[] scratchBuffer) throws SqrlException {
+        int decodedLength = SqrlRequestUtil.decodeBase64(data, offset, length, scratchBuffer, 0);
+
+        if (decodedLength < VERSION_PREFIX.length || !KeyValueScanner.regionEquals(scratchBuffer, 0, VERSION_PREFIX.length, VERSION_PREFIX)) {
+            // only check for version begin, we check the signature later
+            return ServerParameter.fromEncodedUri(new String(data, offset, length, SqrlRequestUtil.ASCII));
+        }
+
+        return parse(new String(scratchBuffer, 0, decodedLength, SqrlRequestUtil.ASCII), false);
+    }
+
     public ServerParameter parse(String parameter, boolean encoded) throws SqrlException {
         if (encoded) {
             parameter = new String(SqrlRequestUtil.decodeBase64(parameter), SqrlRequestUtil.ASCII);
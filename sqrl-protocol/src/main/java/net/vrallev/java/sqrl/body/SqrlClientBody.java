@@ -17,7 +17,9 @@ package net.vrallev.java.sqrl.body;
 
 import net.vrallev.java.sqrl.SqrlException;
 import net.vrallev.java.sqrl.ecc.EccKeyPair;
+import net.vrallev.java.sqrl.ecc.EccKeyPairCache;
 import net.vrallev.java.sqrl.ecc.EccProvider25519;
+import net.vrallev.java.sqrl.metrics.SqrlMetrics;
 import net.vrallev.java.sqrl.util.SqrlCipherTool;
 import net.vrallev.java.sqrl.SqrlProtocol;
 
@@ -34,15 +36,19 @@ import java.util.List;
 @SuppressWarnings("UnusedDeclaration")
 public class SqrlClientBody {
 
-    private ClientParameter mClientParameter;
-    private ServerParameter mServerParameter;
+    // a parsed body keeps the raw fields and decodes them on first access; racing threads compute
+    // equal values
+    private final RawClientBody mRaw;
 
-    private byte[] mIdentitySignature;
+    private volatile ClientParameter mClientParameter;
+    private volatile ServerParameter mServerParameter;
 
-    private byte[] mPreviousIdentitySignature;
-    private byte[] mUnlockRequestSignature;
+    private volatile byte[] mIdentitySignature;
 
-    private String mBody;
+    private volatile byte[] mPreviousIdentitySignature;
+    private volatile byte[] mUnlockRequestSignature;
+
+    private volatile String mBody;
 
     public SqrlClientBody(ClientParameter clientParameter, ServerParameter serverParameter, byte[] identitySignature, byte[] previousIdentitySignature, byte[] unlockRequestSignature) {
         mClientParameter = clientParameter;
@@ -50,47 +56,132 @@ public class SqrlClientBody {
         mIdentitySignature = identitySignature;
         mPreviousIdentitySignature = previousIdentitySignature;
         mUnlockRequestSignature = unlockRequestSignature;
+        mRaw = null;
+    }
 
-        StringBuilder builder = new StringBuilder()
-                .append("client=").append(mClientParameter.getParameterEncoded())
-                .append("&server=").append(mServerParameter.getParameterEncoded())
-                .append("&ids=").append(SqrlRequestUtil.encodeBase64(mIdentitySignature));
-
-        if (mPreviousIdentitySignature != null) {
-            builder.append("&pids=").append(SqrlRequestUtil.encodeBase64(mPreviousIdentitySignature));
-        }
-        if (mUnlockRequestSignature != null) {
-            builder.append("&urs=").append(SqrlRequestUtil.encodeBase64(mUnlockRequestSignature));
-        }
-
-        mBody = builder.toString();
+    /**
+     * Creates a lazy view of a parsed body. The raw body must contain the client, server and ids
+     * field and must not be modified afterwards.
+     */
+    /*package*/ SqrlClientBody(RawClientBody raw) {
+        mRaw = raw;
     }
 
     /**
-     * @return the flattened body.
+     * @return the flattened body, which is created on the first call.
      */
     public String getBodyEncoded() {
-        return mBody;
+        String body = mBody;
+        if (body == null) {
+            body = mRaw != null ? flattenRaw() : flatten();
+            mBody = body;
+        }
+        return body;
     }
 
+    /**
+     * @throws IllegalArgumentException if this body was parsed lazily and the client parameter is
+     *                                  malformed.
+     */
     public ClientParameter getClientParameter() {
-        return mClientParameter;
+        ClientParameter clientParameter = mClientParameter;
+        if (clientParameter == null) {
+            byte[] scratchBuffer = RawClientBody.getScratchBuffer(SqrlRequestUtil.getMaxDecodedLength(mRaw.getLength(RawClientBody.CLIENT)));
+            int decodedLength = SqrlRequestUtil.decodeBase64(mRaw.getData(), mRaw.getOffset(RawClientBody.CLIENT), mRaw.getLength(RawClientBody.CLIENT), scratchBuffer, 0);
+            try {
+                clientParameter = new ClientParameterParser().parse(scratchBuffer, 0, decodedLength)
+                        .withEncoded(mRaw.getString(RawClientBody.CLIENT));
+            } catch (SqrlException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            mClientParameter = clientParameter;
+        }
+        return clientParameter;
     }
 
+    /**
+     * @throws IllegalArgumentException if this body was parsed lazily and the server parameter is
+     *                                  malformed.
+     */
     public ServerParameter getServerParameter() {
-        return mServerParameter;
+        ServerParameter serverParameter = mServerParameter;
+        if (serverParameter == null) {
+            byte[] scratchBuffer = RawClientBody.getScratchBuffer(SqrlRequestUtil.getMaxDecodedLength(mRaw.getLength(RawClientBody.SERVER)));
+            try {
+                serverParameter = new ServerParameterParser().parse(mRaw.getData(), mRaw.getOffset(RawClientBody.SERVER), mRaw.getLength(RawClientBody.SERVER), scratchBuffer);
+            } catch (SqrlException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            mServerParameter = serverParameter;
+        }
+        return serverParameter;
     }
 
     public byte[] getIdentitySignatureDecoded() {
-        return mIdentitySignature;
+        byte[] signature = mIdentitySignature;
+        if (signature == null && mRaw != null) {
+            signature = mRaw.decode(RawClientBody.IDS);
+            mIdentitySignature = signature;
+        }
+        return signature;
     }
 
     public byte[] getPreviousIdentitySignatureDecoded() {
-        return mPreviousIdentitySignature;
+        byte[] signature = mPreviousIdentitySignature;
+        if (signature == null && mRaw != null && mRaw.has(RawClientBody.PIDS)) {
+            signature = mRaw.decode(RawClientBody.PIDS);
+            mPreviousIdentitySignature = signature;
+        }
+        return signature;
     }
 
     public byte[] getUnlockRequestSignatureDecoded() {
-        return mUnlockRequestSignature;
+        byte[] signature = mUnlockRequestSignature;
+        if (signature == null && mRaw != null && mRaw.has(RawClientBody.URS)) {
+            signature = mRaw.decode(RawClientBody.URS);
+            mUnlockRequestSignature = signature;
+        }
+        return signature;
+    }
+
+    /**
+     * @return {@code true}, if the fields of this body are decoded on first access.
+     */
+    public boolean isLazy() {
+        return mRaw != null;
+    }
+
+    private String flatten() {
+        StringBuilder builder = new StringBuilder()
+                .append("client=").append(mClientParameter.getParameterEncoded())
+                .append("&server=").append(mServerParameter.getParameterEncoded())
+                .append("&ids=").append(SqrlRequestUtil.encodeBase64(mIdentitySignature));
+
+        if (mPreviousIdentitySignature != null) {
+            builder.append("&pids=").append(SqrlRequestUtil.encodeBase64(mPreviousIdentitySignature));
+        }
+        if (mUnlockRequestSignature != null) {
+            builder.append("&urs=").append(SqrlRequestUtil.encodeBase64(mUnlockRequestSignature));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Uses the fields as they were sent, nothing is decoded and encoded again.
+     */
+    private String flattenRaw() {
+        StringBuilder builder = new StringBuilder()
+                .append("client=").append(mRaw.getString(RawClientBody.CLIENT))
+                .append("&server=").append(mRaw.getString(RawClientBody.SERVER))
+                .append("&ids=").append(mRaw.getString(RawClientBody.IDS));
+
+        if (mRaw.has(RawClientBody.PIDS)) {
+            builder.append("&pids=").append(mRaw.getString(RawClientBody.PIDS));
+        }
+        if (mRaw.has(RawClientBody.URS)) {
+            builder.append("&urs=").append(mRaw.getString(RawClientBody.URS));
+        }
+        return builder.toString();
     }
 
     @Override
@@ -100,14 +191,14 @@ public class SqrlClientBody {
 
         SqrlClientBody that = (SqrlClientBody) o;
 
-        if (!mBody.equals(that.mBody)) return false;
-        if (!mClientParameter.equals(that.mClientParameter)) return false;
-        if (!Arrays.equals(mIdentitySignature, that.mIdentitySignature)) return false;
-        if (!Arrays.equals(mPreviousIdentitySignature, that.mPreviousIdentitySignature))
+        if (!getBodyEncoded().equals(that.getBodyEncoded())) return false;
+        if (!getClientParameter().equals(that.getClientParameter())) return false;
+        if (!Arrays.equals(getIdentitySignatureDecoded(), that.getIdentitySignatureDecoded())) return false;
+        if (!Arrays.equals(getPreviousIdentitySignatureDecoded(), that.getPreviousIdentitySignatureDecoded()))
             return false;
-        if (!mServerParameter.equals(that.mServerParameter)) return false;
+        if (!getServerParameter().equals(that.getServerParameter())) return false;
         //noinspection RedundantIfStatement
-        if (!Arrays.equals(mUnlockRequestSignature, that.mUnlockRequestSignature))
+        if (!Arrays.equals(getUnlockRequestSignatureDecoded(), that.getUnlockRequestSignatureDecoded()))
             return false;
 
         return true;
@@ -115,12 +206,12 @@ public class SqrlClientBody {
 
     @Override
     public int hashCode() {
-        int result = mClientParameter.hashCode();
-        result = 31 * result + mServerParameter.hashCode();
-        result = 31 * result + Arrays.hashCode(mIdentitySignature);
-        result = 31 * result + (mPreviousIdentitySignature != null ? Arrays.hashCode(mPreviousIdentitySignature) : 0);
-        result = 31 * result + (mUnlockRequestSignature != null ? Arrays.hashCode(mUnlockRequestSignature) : 0);
-        result = 31 * result + mBody.hashCode();
+        int result = getClientParameter().hashCode();
+        result = 31 * result + getServerParameter().hashCode();
+        result = 31 * result + Arrays.hashCode(getIdentitySignatureDecoded());
+        result = 31 * result + Arrays.hashCode(getPreviousIdentitySignatureDecoded());
+        result = 31 * result + Arrays.hashCode(getUnlockRequestSignatureDecoded());
+        result = 31 * result + getBodyEncoded().hashCode();
         return result;
     }
 
@@ -128,6 +219,7 @@ public class SqrlClientBody {
 
         private final SqrlCipherTool mCipherTool;
         private final EccProvider25519 mEccProvider;
+        private final EccKeyPairCache mKeyPairCache;
         private final byte[] mMasterKey;
         private final String mSiteKey;
 
@@ -147,15 +239,34 @@ public class SqrlClientBody {
         private byte[] mNewServerUnlockKey;
         private byte[] mNewVerifyUnlockKey;
 
+        private SqrlMetrics mMetrics;
+
         public Builder(SqrlCipherTool sqrlCipherTool, EccProvider25519 eccProvider, byte[] masterKey, String siteKey) {
+            this(sqrlCipherTool, eccProvider, null, masterKey, siteKey);
+        }
+
+        /**
+         * @param keyPairCache an optional cache for the derived identity key pairs, may be {@code null}.
+         */
+        public Builder(SqrlCipherTool sqrlCipherTool, EccProvider25519 eccProvider, EccKeyPairCache keyPairCache, byte[] masterKey, String siteKey) {
             mCipherTool = sqrlCipherTool;
             mEccProvider = eccProvider;
+            mKeyPairCache = keyPairCache;
             mMasterKey = masterKey;
             mSiteKey = siteKey;
 
             mCommands = new ArrayList<>();
 
             mVersion = "1";
+            mMetrics = SqrlMetrics.NONE;
+        }
+
+        /**
+         * Record the time, which is necessary to build the body.
+         */
+        public Builder withMetrics(SqrlMetrics metrics) {
+            mMetrics = metrics == null ? SqrlMetrics.NONE : metrics;
+            return this;
         }
 
         /**
@@ -248,16 +359,26 @@ public class SqrlClientBody {
         }
 
         private SqrlClientBody build() throws SqrlException {
-            byte[] privateSiteKey = mCipherTool.computeHmac(mSiteKey.getBytes(SqrlRequestUtil.UTF8), mMasterKey);
+            if (!mMetrics.isEnabled()) {
+                return buildInternal();
+            }
+
+            long start = System.nanoTime();
+            try {
+                return buildInternal();
+            } finally {
+                mMetrics.recordLatency(SqrlMetrics.Stage.BUILD, System.nanoTime() - start);
+            }
+        }
 
-            EccKeyPair identityKeyPair = mEccProvider.computeKeyPair(privateSiteKey);
+        private SqrlClientBody buildInternal() throws SqrlException {
+            EccKeyPair identityKeyPair = computeSiteKeyPair(mMasterKey);
             byte[] identityKey = identityKeyPair.getPublicKeySignature();
 
             EccKeyPair previousKeyPair = null;
             byte[] previousIdentityKey = null;
             if (mPreviousMasterKey != null) {
-                byte[] previousPrivateSiteKey = mCipherTool.computeHmac(mSiteKey.getBytes(SqrlRequestUtil.UTF8), mPreviousMasterKey);
-                previousKeyPair = mEccProvider.computeKeyPair(previousPrivateSiteKey);
+                previousKeyPair = computeSiteKeyPair(mPreviousMasterKey);
                 previousIdentityKey = previousKeyPair.getPublicKeySignature();
             }
 
@@ -311,5 +432,22 @@ public class SqrlClientBody {
 
             return new SqrlClientBody(clientParameter, serverParameter, identitySignature, previousIdentitySignature, unlockRequestSignature);
         }
+
+        private EccKeyPair computeSiteKeyPair(byte[] masterKey) {
+            if (mKeyPairCache != null) {
+                EccKeyPair keyPair = mKeyPairCache.get(masterKey, mSiteKey);
+                if (keyPair != null) {
+                    return keyPair;
+                }
+            }
+
+            byte[] privateSiteKey = mCipherTool.computeHmac(mSiteKey.getBytes(SqrlRequestUtil.UTF8), masterKey);
+            EccKeyPair keyPair = mEccProvider.computeKeyPair(privateSiteKey);
+
+            if (mKeyPairCache != null) {
+                mKeyPairCache.put(masterKey, mSiteKey, keyPair);
+            }
+            return keyPair;
+        }
     }
 }
@@ -16,8 +16,16 @@
 package net.vrallev.java.sqrl.body;
 
 import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.ecc.BatchEccProvider25519;
 import net.vrallev.java.sqrl.ecc.EccProvider25519;
+import net.vrallev.java.sqrl.ecc.SignatureCheck;
+import net.vrallev.java.sqrl.metrics.SqrlMetrics;
+import net.vrallev.java.sqrl.store.IdentityRecord;
+import net.vrallev.java.sqrl.store.IdentityStore;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -29,27 +37,92 @@ import java.util.Map;
 public class SqrlClientBodyParser {
 
     private final EccProvider25519 mProvider;
+    private final IdentityStore mIdentityStore;
+    private final SqrlMetrics mMetrics;
 
-    private Map<String, String> mParameters;
+    private final KeyValueScanner mScanner;
+    private byte[] mBuffer;
+
+    private RawClientBody mBody;
     private byte[] mStoredServerUnlockKey;
     private byte[] mStoredVerifyUnlockKey;
 
     public SqrlClientBodyParser(EccProvider25519 provider) {
+        this(provider, null);
+    }
+
+    /**
+     * @param identityStore an optional store, which is used to look up the stored server keys of
+     *                      the identity, if they weren't set with {@link #withStoredKeys(byte[], byte[])}.
+     */
+    public SqrlClientBodyParser(EccProvider25519 provider, IdentityStore identityStore) {
+        this(provider, identityStore, SqrlMetrics.NONE);
+    }
+
+    /**
+     * @param metrics receives the parse latencies and the reasons, why bodies were rejected.
+     */
+    public SqrlClientBodyParser(EccProvider25519 provider, IdentityStore identityStore, SqrlMetrics metrics) {
         mProvider = provider;
+        mIdentityStore = identityStore;
+        mMetrics = metrics == null ? SqrlMetrics.NONE : metrics;
+        mScanner = new KeyValueScanner();
     }
 
     /**
      * Set the data, which should be parsed.
      */
     public SqrlClientBodyParser from(String clientBody) {
-        return from(SqrlRequestUtil.splitKeyValue(clientBody, "&", "="));
+        return from(clientBody.getBytes(SqrlRequestUtil.ASCII));
+    }
+
+    /**
+     * Set the data, which should be parsed.
+     */
+    public SqrlClientBodyParser from(byte[] clientBody) {
+        return from(clientBody, 0, clientBody.length);
+    }
+
+    /**
+     * Set the data, which should be parsed. The array is scanned in place and must not be modified
+     * until the body was parsed.
+     *
+     * @throws IllegalArgumentException if the data isn't a list of key value pairs.
+     */
+    public SqrlClientBodyParser from(byte[] clientBody, int offset, int length) {
+        mBody = parseRaw(clientBody, offset, length);
+        return this;
+    }
+
+    /**
+     * Set the data, which should be parsed. The remaining bytes of the buffer are used, its position
+     * isn't changed. Direct buffers are copied into a reusable array of this parser.
+     *
+     * @throws IllegalArgumentException if the data isn't a list of key value pairs.
+     */
+    public SqrlClientBodyParser from(ByteBuffer clientBody) {
+        int length = clientBody.remaining();
+        if (clientBody.hasArray()) {
+            return from(clientBody.array(), clientBody.arrayOffset() + clientBody.position(), length);
+        }
+
+        if (mBuffer == null || mBuffer.length < length) {
+            mBuffer = new byte[Math.max(length, 1024)];
+        }
+        clientBody.duplicate().get(mBuffer, 0, length);
+        return from(mBuffer, 0, length);
     }
 
     /**
      * Set the data, which should be parsed.
      */
     public SqrlClientBodyParser from(Map<String, String> parameters) {
-        mParameters = parameters;
+        try {
+            mBody = RawClientBody.fromMap(parameters, mScanner);
+        } catch (IllegalArgumentException e) {
+            mMetrics.recordRejection(SqrlMetrics.Rejection.MALFORMED);
+            throw e;
+        }
         return this;
     }
 
@@ -73,7 +146,29 @@ public class SqrlClientBodyParser {
      * @throws SqrlException if an important parameter is missing.
      */
     public SqrlClientBody execute() throws SqrlException {
-        return parseInternal(false);
+        return parseInternal(mBody, null);
+    }
+
+    /**
+     * Finds the field boundaries without decoding any field and without checking signatures. The
+     * returned body decodes each field on first access and flattens the body only, if
+     * {@link SqrlClientBody#getBodyEncoded()} is called. The data is copied, so that the passed
+     * array may be reused afterwards.
+     * <br>
+     * <br>
+     * This is useful for routing or rejecting requests, e.g. by the identity key or the commands,
+     * before paying for the signature checks. Call {@link #verified()} before trusting the body.
+     *
+     * @return the lazily parsed body. Its getters throw an {@link IllegalArgumentException}, if a
+     * field is malformed.
+     * @throws SqrlException if an important parameter is missing.
+     */
+    public SqrlClientBody lazy() throws SqrlException {
+        if (!mBody.has(RawClientBody.CLIENT) || !mBody.has(RawClientBody.SERVER) || !mBody.has(RawClientBody.IDS)) {
+            mMetrics.recordRejection(SqrlMetrics.Rejection.MISSING_PARAMETER);
+            throw new SqrlException("missing important parameter");
+        }
+        return new SqrlClientBody(mBody.copy());
     }
 
     /**
@@ -83,46 +178,158 @@ public class SqrlClientBodyParser {
      * @throws SqrlException if an important parameter is missing or a signature didn't match.
      */
     public SqrlClientBody verified() throws SqrlException {
-        return parseInternal(true);
-    }
+        List<SignatureCheck> signatureChecks = new ArrayList<>(3);
+        SqrlClientBody body = parseInternal(mBody, signatureChecks);
 
-    private SqrlClientBody parseInternal(boolean checkSignatures) throws SqrlException {
-        if (!mParameters.containsKey("client") || !mParameters.containsKey("server") || !mParameters.containsKey("ids")) {
-            throw new SqrlException("missing important parameter");
+        if (!isValid(signatureChecks)) {
+            mMetrics.recordRejection(SqrlMetrics.Rejection.SIGNATURE_MISMATCH);
+            throw new SqrlException("signature mismatch");
         }
+        return body;
+    }
 
-        String clientParameterDecoded = new String(SqrlRequestUtil.decodeBase64(mParameters.get("client")), SqrlRequestUtil.ASCII);
-        ClientParameter clientParameter = new ClientParameterParser().parse(clientParameterDecoded);
-        ServerParameter serverParameter = new ServerParameterParser().parse(mParameters.get("server"), true);
-        byte[] concatenation = (mParameters.get("client") + mParameters.get("server")).getBytes(SqrlRequestUtil.ASCII);
+    /**
+     * Parses a whole queue of client bodies and checks all signatures in one call. If the
+     * {@link EccProvider25519} is a {@link BatchEccProvider25519}, then the signatures of all bodies
+     * are verified in a single batch. The stored server keys apply to every body.
+     *
+     * @param clientBodies the flattened bodies.
+     * @return the parsed bodies in the same order. An entry is {@code null}, if an important parameter
+     * of this body is missing or a signature didn't match.
+     */
+    public List<SqrlClientBody> verifiedAll(List<String> clientBodies) {
+        List<SqrlClientBody> bodies = new ArrayList<>(clientBodies.size());
+        List<List<SignatureCheck>> bodySignatureChecks = new ArrayList<>(clientBodies.size());
+        List<SignatureCheck> allSignatureChecks = new ArrayList<>(clientBodies.size() * 3);
 
-        byte[] ids = SqrlRequestUtil.decodeBase64(mParameters.get("ids"));
+        for (String clientBody : clientBodies) {
+            List<SignatureCheck> signatureChecks = new ArrayList<>(3);
+            try {
+                byte[] data = clientBody.getBytes(SqrlRequestUtil.ASCII);
+                bodies.add(parseInternal(parseRaw(data, 0, data.length), signatureChecks));
+                allSignatureChecks.addAll(signatureChecks);
+            } catch (SqrlException | IllegalArgumentException e) {
+                // the rejection was recorded already
+                bodies.add(null);
+            }
+            bodySignatureChecks.add(signatureChecks);
+        }
 
-        if (checkSignatures && !mProvider.isValidSignature(concatenation, ids, clientParameter.getIdentityKeyDecoded())) {
-            throw new SqrlException("signature mismatch");
+        if (mProvider instanceof BatchEccProvider25519 && ((BatchEccProvider25519) mProvider).isValidSignatures(allSignatureChecks)) {
+            return bodies;
         }
 
-        byte[] pids = null;
-        if (mParameters.containsKey("pids")) {
-            pids = SqrlRequestUtil.decodeBase64(mParameters.get("pids"));
-            if (checkSignatures && !mProvider.isValidSignature(concatenation, pids, clientParameter.getPreviousIdentityKeyDecoded())) {
-                throw new SqrlException("signature mismatch");
+        // at least one signature is invalid, find out which one
+        for (int i = 0; i < bodies.size(); i++) {
+            if (bodies.get(i) != null && !isValid(bodySignatureChecks.get(i))) {
+                mMetrics.recordRejection(SqrlMetrics.Rejection.SIGNATURE_MISMATCH);
+                bodies.set(i, null);
             }
         }
+        return bodies;
+    }
 
-        byte[] urs = null;
-        if (mParameters.containsKey("urs")) {
-            urs = SqrlRequestUtil.decodeBase64(mParameters.get("urs"));
-            if (mStoredServerUnlockKey != null && mStoredVerifyUnlockKey != null) {
-               if (checkSignatures && !mProvider.isValidSignature(mStoredVerifyUnlockKey, urs, mStoredVerifyUnlockKey)) {
-                   throw new SqrlException("signature mismatch");
-               }
+    private boolean isValid(List<SignatureCheck> signatureChecks) {
+        for (SignatureCheck check : signatureChecks) {
+            if (!mProvider.isValidSignature(check.getMessage(), check.getSignature(), check.getPublicKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private RawClientBody parseRaw(byte[] clientBody, int offset, int length) {
+        try {
+            return RawClientBody.parse(clientBody, offset, length, mScanner);
+        } catch (IllegalArgumentException e) {
+            mMetrics.recordRejection(SqrlMetrics.Rejection.MALFORMED);
+            throw e;
+        }
+    }
+
+    /**
+     * @param signatureChecks the list, which receives all signatures of this body, which need to be
+     *                        checked. Pass {@code null} to skip the signature checks.
+     */
+    private SqrlClientBody parseInternal(RawClientBody body, List<SignatureCheck> signatureChecks) throws SqrlException {
+        if (!body.has(RawClientBody.CLIENT) || !body.has(RawClientBody.SERVER) || !body.has(RawClientBody.IDS)) {
+            mMetrics.recordRejection(SqrlMetrics.Rejection.MISSING_PARAMETER);
+            throw new SqrlException("missing important parameter");
+        }
 
-            } else if (checkSignatures && !mProvider.isValidSignature(clientParameter.getVerifyUnlockKeyDecoded(), urs, clientParameter.getVerifyUnlockKeyDecoded())) {
-                throw new SqrlException("signature mismatch");
+        if (!mMetrics.isEnabled()) {
+            return parseFields(body, signatureChecks, false);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return parseFields(body, signatureChecks, true);
+        } catch (SqrlException | IllegalArgumentException e) {
+            mMetrics.recordRejection(SqrlMetrics.Rejection.MALFORMED);
+            throw e;
+        } finally {
+            mMetrics.recordLatency(SqrlMetrics.Stage.PARSE, System.nanoTime() - start);
+        }
+    }
+
+    private SqrlClientBody parseFields(RawClientBody body, List<SignatureCheck> signatureChecks, boolean timed) throws SqrlException {
+        byte[] data = body.getData();
+        int clientLength = body.getLength(RawClientBody.CLIENT);
+        int serverLength = body.getLength(RawClientBody.SERVER);
+
+        byte[] scratchBuffer = RawClientBody.getScratchBuffer(SqrlRequestUtil.getMaxDecodedLength(Math.max(clientLength, serverLength)));
+
+        long decodeStart = timed ? System.nanoTime() : 0L;
+        int decodedLength = SqrlRequestUtil.decodeBase64(data, body.getOffset(RawClientBody.CLIENT), clientLength, scratchBuffer, 0);
+        byte[] ids = body.decode(RawClientBody.IDS);
+        byte[] pids = body.decode(RawClientBody.PIDS);
+        byte[] urs = body.decode(RawClientBody.URS);
+        if (timed) {
+            mMetrics.recordLatency(SqrlMetrics.Stage.BASE64_DECODE, System.nanoTime() - decodeStart);
+        }
+
+        ClientParameter clientParameter = new ClientParameterParser(mScanner).parse(scratchBuffer, 0, decodedLength);
+        ServerParameter serverParameter = new ServerParameterParser().parse(data, body.getOffset(RawClientBody.SERVER), serverLength, scratchBuffer);
+        byte[] concatenation = body.concat(RawClientBody.CLIENT, RawClientBody.SERVER);
+
+        if (signatureChecks != null) {
+            signatureChecks.add(new SignatureCheck(concatenation, ids, clientParameter.getIdentityKeyDecoded()));
+
+            if (pids != null) {
+                signatureChecks.add(new SignatureCheck(concatenation, pids, clientParameter.getPreviousIdentityKeyDecoded()));
+            }
+
+            if (urs != null) {
+                IdentityRecord record = findStoredRecord(clientParameter);
+                if (mStoredServerUnlockKey != null && mStoredVerifyUnlockKey != null) {
+                    signatureChecks.add(new SignatureCheck(mStoredVerifyUnlockKey, urs, mStoredVerifyUnlockKey));
+                } else if (record != null) {
+                    signatureChecks.add(new SignatureCheck(record.getVerifyUnlockKey(), urs, record.getVerifyUnlockKey()));
+                } else {
+                    signatureChecks.add(new SignatureCheck(clientParameter.getVerifyUnlockKeyDecoded(), urs, clientParameter.getVerifyUnlockKeyDecoded()));
+                }
             }
         }
 
         return new SqrlClientBody(clientParameter, serverParameter, ids, pids, urs);
     }
+
+    /**
+     * @return the record of the previous identity, if the client sent one, otherwise the record of
+     * the current identity.
+     */
+    private IdentityRecord findStoredRecord(ClientParameter clientParameter) {
+        if (mIdentityStore == null || (mStoredServerUnlockKey != null && mStoredVerifyUnlockKey != null)) {
+            return null;
+        }
+
+        byte[] previousIdentityKey = clientParameter.getPreviousIdentityKeyDecoded();
+        if (previousIdentityKey != null && previousIdentityKey.length == IdentityRecord.KEY_LENGTH) {
+            IdentityRecord record = mIdentityStore.get(previousIdentityKey);
+            if (record != null) {
+                return record;
+            }
+        }
+        return mIdentityStore.get(clientParameter.getIdentityKeyDecoded());
+    }
 }
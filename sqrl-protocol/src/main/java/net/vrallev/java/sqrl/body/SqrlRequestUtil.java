@@ -16,7 +16,7 @@
 package net.vrallev.java.sqrl.body;
 
 
-import android.util.changed.Base64;
+import net.vrallev.java.sqrl.util.Base64Url;
 
 import java.nio.charset.Charset;
 import java.util.Arrays;
@@ -37,11 +37,44 @@ import java.util.Map;
     }
 
     public static String encodeBase64(byte[] data) {
-        return Base64.encodeToString(data, Base64.NO_WRAP | Base64.NO_PADDING | Base64.URL_SAFE);
+        return Base64Url.encodeToString(data);
     }
 
     public static byte[] decodeBase64(String data) {
-        return Base64.decode(data, Base64.NO_WRAP | Base64.NO_PADDING | Base64.URL_SAFE);
+        byte[] encoded = data.getBytes(ASCII);
+        return decodeBase64(encoded, 0, encoded.length);
+    }
+
+    /**
+     * Decodes the URL safe Base64 data between {@code offset} and {@code offset + length}.
+     *
+     * @return a new array with the decoded data.
+     */
+    public static byte[] decodeBase64(byte[] data, int offset, int length) {
+        byte[] result = new byte[getMaxDecodedLength(length)];
+        int decodedLength = decodeBase64(data, offset, length, result, 0);
+        return decodedLength == result.length ? result : Arrays.copyOf(result, decodedLength);
+    }
+
+    /**
+     * Decodes the URL safe Base64 data into the given buffer without any allocation. Requests come
+     * from other clients, so like the {@link android.util.changed.Base64} class whitespace and other
+     * non alphabet characters are skipped and trailing padding is allowed.
+     *
+     * @param output a buffer with at least {@link #getMaxDecodedLength(int)} free bytes.
+     * @return the number of decoded bytes.
+     * @throws IllegalArgumentException if the data isn't valid Base64.
+     * @see Base64Url#decodeLenient(byte[], int, int, byte[], int)
+     */
+    public static int decodeBase64(byte[] data, int offset, int length, byte[] output, int outputOffset) throws IllegalArgumentException {
+        return Base64Url.decodeLenient(data, offset, length, output, outputOffset);
+    }
+
+    /**
+     * @return the maximum number of bytes, which {@code length} Base64 characters are decoded to.
+     */
+    public static int getMaxDecodedLength(int length) {
+        return Base64Url.getMaxDecodedLength(length);
     }
 
     public static Map<String, String> splitKeyValue(String string, String listSeparator, String entrySeparator) throws IllegalArgumentException {
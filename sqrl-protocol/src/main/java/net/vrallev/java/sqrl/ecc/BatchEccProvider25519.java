@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.ecc;
+
+import java.util.List;
+
+/**
+ * An {@link EccProvider25519}, which is able to verify many signatures at once. This is
+ * considerably faster than verifying each signature separately.
+ *
+ * @author Ralf Wondratschek
+ */
+public interface BatchEccProvider25519 extends EccProvider25519 {
+
+    /**
+     * @param signatureChecks all signatures, which should be verified.
+     * @return {@code true} if all signatures are valid. If {@code false} is returned, then at least one
+     * signature is invalid. You need to check the signatures separately to find out which one.
+     */
+    public boolean isValidSignatures(List<SignatureCheck> signatureChecks);
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.ecc;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache for the derived per-site identity key pairs. Computing a key pair requires a full
+ * scalar multiplication, which is wasted work, if a client logs into the same sites over and over.
+ * <br>
+ * <br>
+ * The entries are keyed by the SHA-256 hash of the master key and site key and the least recently
+ * used entry is evicted first. The private key of an evicted entry is overwritten with zeros. The
+ * cache only hands out copies, so callers may keep and clear their key pairs as usual.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class EccKeyPairCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final int mMaxSize;
+    private final LinkedHashMap<CacheKey, EccKeyPair> mMap;
+
+    private final AtomicLong mHitCount;
+    private final AtomicLong mMissCount;
+    private final AtomicLong mEvictionCount;
+
+    /**
+     * @param maxSize the maximum number of key pairs, which are kept in memory.
+     */
+    public EccKeyPairCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+
+        mMaxSize = maxSize;
+        mHitCount = new AtomicLong();
+        mMissCount = new AtomicLong();
+        mEvictionCount = new AtomicLong();
+
+        mMap = new LinkedHashMap<CacheKey, EccKeyPair>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, EccKeyPair> eldest) {
+                if (size() > mMaxSize) {
+                    zeroize(eldest.getValue());
+                    mEvictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return a copy of the cached key pair or {@code null}, if there is no entry.
+     */
+    public EccKeyPair get(byte[] masterKey, String siteKey) {
+        CacheKey key = new CacheKey(masterKey, siteKey);
+
+        EccKeyPair keyPair;
+        synchronized (mMap) {
+            keyPair = mMap.get(key);
+            if (keyPair != null) {
+                keyPair = copy(keyPair);
+            }
+        }
+
+        if (keyPair != null) {
+            mHitCount.incrementAndGet();
+        } else {
+            mMissCount.incrementAndGet();
+        }
+        return keyPair;
+    }
+
+    /**
+     * Stores a copy of the key pair.
+     */
+    public void put(byte[] masterKey, String siteKey, EccKeyPair keyPair) {
+        CacheKey key = new CacheKey(masterKey, siteKey);
+        EccKeyPair copy = copy(keyPair);
+
+        synchronized (mMap) {
+            EccKeyPair previous = mMap.put(key, copy);
+            if (previous != null) {
+                zeroize(previous);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries and overwrites their private keys.
+     */
+    public void clear() {
+        synchronized (mMap) {
+            Iterator<EccKeyPair> iterator = mMap.values().iterator();
+            while (iterator.hasNext()) {
+                zeroize(iterator.next());
+                iterator.remove();
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (mMap) {
+            return mMap.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    private static EccKeyPair copy(EccKeyPair keyPair) {
+        return new EccKeyPair(clone(keyPair.getPrivateKey()), clone(keyPair.getPublicKeySignature()), clone(keyPair.getPublicKeyDiffieHellman()));
+    }
+
+    private static byte[] clone(byte[] array) {
+        return array == null ? null : array.clone();
+    }
+
+    private static void zeroize(EccKeyPair keyPair) {
+        if (keyPair.getPrivateKey() != null) {
+            Arrays.fill(keyPair.getPrivateKey(), (byte) 0);
+        }
+    }
+
+    private static final class CacheKey {
+
+        private final byte[] mHash;
+        private final int mHashCode;
+
+        private CacheKey(byte[] masterKey, String siteKey) {
+            MessageDigest digest = SHA_256.get();
+            digest.update(masterKey);
+            digest.update(siteKey.getBytes(UTF_8));
+            mHash = digest.digest();
+
+            mHashCode = Arrays.hashCode(mHash);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof CacheKey && Arrays.equals(mHash, ((CacheKey) o).mHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+}
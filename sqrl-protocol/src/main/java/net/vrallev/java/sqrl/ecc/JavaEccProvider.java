@@ -19,31 +19,85 @@ import net.vrallev.java.ecc.Ecc25519Helper;
 import net.vrallev.java.ecc.KeyHolder;
 import net.vrallev.java.ecc.fast.Ecc25519HelperFast;
 import net.vrallev.java.ecc.fast.KeyHolderFast;
+import net.vrallev.java.sqrl.ecc.ed25519.Ed25519BatchVerifier;
+import net.vrallev.java.sqrl.ecc.ed25519.Ed25519FixedBase;
+import net.vrallev.java.sqrl.ecc.ed25519.Ed25519PublicKeyCache;
+import net.vrallev.java.sqrl.ecc.ed25519.Ed25519Verifier;
+
+import java.security.SecureRandom;
+import java.util.List;
 
 /**
  * @author Ralf Wondratschek
  */
-public class JavaEccProvider implements EccProvider25519 {
+public class JavaEccProvider implements BatchEccProvider25519 {
 
     private final boolean mFast;
+    private final boolean mPrecomputedBase;
     private final Ecc25519Helper mHelper;
+    private final Ed25519BatchVerifier mBatchVerifier;
+    private final Ed25519Verifier mVerifier;
 
     public JavaEccProvider(boolean fast) {
+        this(fast, false);
+    }
+
+    /**
+     * @param fast            use the <i>Ecc25519HelperFast</i> implementation.
+     * @param precomputedBase compute key pairs with a precomputed table of base point multiples,
+     *                        see {@link Ed25519FixedBase}. The table is shared by all instances.
+     */
+    public JavaEccProvider(boolean fast, boolean precomputedBase) {
+        this(fast, precomputedBase, null);
+    }
+
+    /**
+     * @param publicKeyCache if not {@code null}, then signatures are verified with the decompressed
+     *                       public keys of this cache, see {@link Ed25519Verifier}. Use it on a
+     *                       server, where the same identities sign in over and over.
+     * @see #JavaEccProvider(boolean, boolean)
+     */
+    public JavaEccProvider(boolean fast, boolean precomputedBase, Ed25519PublicKeyCache publicKeyCache) {
         mFast = fast;
+        mPrecomputedBase = precomputedBase;
         mHelper = fast ? new Ecc25519HelperFast() : new Ecc25519Helper();
+        mBatchVerifier = new Ed25519BatchVerifier(new SecureRandom(), publicKeyCache);
+        mVerifier = publicKeyCache != null ? new Ed25519Verifier(publicKeyCache) : null;
+    }
+
+    /**
+     * @return the cache for decompressed public keys or {@code null}, if none was set.
+     */
+    public Ed25519PublicKeyCache getPublicKeyCache() {
+        return mVerifier != null ? mVerifier.getCache() : null;
     }
 
     @Override
     public EccKeyPair computeKeyPair(byte[] privateKey) {
+        if (mPrecomputedBase) {
+            byte[] publicKeySignature = new byte[32];
+            byte[] publicKeyDiffieHellman = new byte[32];
+            Ed25519FixedBase.computePublicKeys(privateKey, publicKeySignature, publicKeyDiffieHellman);
+            return new EccKeyPair(privateKey, publicKeySignature, publicKeyDiffieHellman);
+        }
+
         KeyHolder keyHolder = mFast ? new KeyHolderFast(privateKey) : new KeyHolder(privateKey);
         return new EccKeyPair(keyHolder.getPrivateKey(), keyHolder.getPublicKeySignature(), keyHolder.getPublicKeyDiffieHellman());
     }
 
     @Override
     public boolean isValidSignature(byte[] message, byte[] signature, byte[] publicKey) {
+        if (mVerifier != null) {
+            return mVerifier.verify(message, signature, publicKey);
+        }
         return mHelper.isValidSignature(message, signature, publicKey);
     }
 
+    @Override
+    public boolean isValidSignatures(List<SignatureCheck> signatureChecks) {
+        return mBatchVerifier.verify(signatureChecks);
+    }
+
     @Override
     public byte[] sign(byte[] message, byte[] privateKey, byte[] publicKey) {
         return mHelper.sign(message, privateKey, publicKey);
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.ecc;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+import javax.crypto.KeyAgreement;
+
+/**
+ * Uses the native Ed25519 and X25519 implementations of the JDK, which are available since Java 15.
+ * The algorithms are only referenced by name, so that the class can be loaded on older platforms,
+ * use {@link #isSupported()} to check whether the platform provides them.
+ * <br>
+ * <br>
+ * The raw 32 byte keys are wrapped in fixed PKCS#8 and X.509 prefixes. The JCA objects aren't
+ * thread safe, each thread initializes and reuses its own set.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class JdkEccProvider implements EccProvider25519 {
+
+    private static final String ED25519 = "Ed25519";
+    private static final String X25519 = "X25519";
+
+    private static final byte[] ED25519_PRIVATE_PREFIX = hex("302e020100300506032b657004220420");
+    private static final byte[] ED25519_PUBLIC_PREFIX = hex("302a300506032b6570032100");
+    private static final byte[] X25519_PRIVATE_PREFIX = hex("302e020100300506032b656e04220420");
+    private static final byte[] X25519_PUBLIC_PREFIX = hex("302a300506032b656e032100");
+
+    private static final int KEY_LENGTH = 32;
+
+    /**
+     * @return {@code true} if the JDK provides Ed25519 and X25519 and derives the same keys as
+     * RFC 8032.
+     */
+    public static boolean isSupported() {
+        return Support.SUPPORTED;
+    }
+
+    private final ThreadLocal<Primitives> mPrimitives;
+
+    /**
+     * @throws IllegalStateException if the JDK doesn't support Ed25519 or X25519.
+     */
+    public JdkEccProvider() {
+        if (!isSupported()) {
+            throw new IllegalStateException("the JDK doesn't support Ed25519 and X25519");
+        }
+
+        mPrimitives = new ThreadLocal<Primitives>() {
+            @Override
+            protected Primitives initialValue() {
+                try {
+                    return new Primitives();
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public EccKeyPair computeKeyPair(byte[] privateKey) {
+        Primitives primitives = mPrimitives.get();
+        byte[] publicKeySignature = derivePublicKey(primitives.mEd25519Generator, privateKey);
+        byte[] publicKeyDiffieHellman = derivePublicKey(primitives.mX25519Generator, privateKey);
+        return new EccKeyPair(privateKey, publicKeySignature, publicKeyDiffieHellman);
+    }
+
+    @Override
+    public boolean isValidSignature(byte[] message, byte[] signature, byte[] publicKey) {
+        if (message == null || signature == null || publicKey == null || publicKey.length != KEY_LENGTH) {
+            return false;
+        }
+
+        try {
+            Primitives primitives = mPrimitives.get();
+            Signature verifier = primitives.mSignature;
+            verifier.initVerify(primitives.mEd25519KeyFactory.generatePublic(new X509EncodedKeySpec(concat(ED25519_PUBLIC_PREFIX, publicKey))));
+            verifier.update(message);
+            return verifier.verify(signature);
+        } catch (GeneralSecurityException e) {
+            // invalid key or malformed signature
+            return false;
+        }
+    }
+
+    @Override
+    public byte[] sign(byte[] message, byte[] privateKey, byte[] publicKey) {
+        try {
+            Primitives primitives = mPrimitives.get();
+            Signature signer = primitives.mSignature;
+            signer.initSign(createPrivateKey(primitives.mEd25519KeyFactory, ED25519_PRIVATE_PREFIX, privateKey));
+            signer.update(message);
+            return signer.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public byte[] diffieHellman(byte[] privateKey, byte[] publicKey) {
+        if (publicKey == null || publicKey.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("illegal key length");
+        }
+
+        try {
+            Primitives primitives = mPrimitives.get();
+            KeyAgreement keyAgreement = primitives.mKeyAgreement;
+            keyAgreement.init(createPrivateKey(primitives.mX25519KeyFactory, X25519_PRIVATE_PREFIX, privateKey));
+
+            PublicKey otherKey = primitives.mX25519KeyFactory.generatePublic(new X509EncodedKeySpec(concat(X25519_PUBLIC_PREFIX, publicKey)));
+            keyAgreement.doPhase(otherKey, true);
+            return keyAgreement.generateSecret();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static PrivateKey createPrivateKey(KeyFactory keyFactory, byte[] prefix, byte[] privateKey) throws GeneralSecurityException {
+        if (privateKey == null || privateKey.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("illegal key length");
+        }
+
+        byte[] encoded = concat(prefix, privateKey);
+        try {
+            return keyFactory.generatePrivate(new PKCS8EncodedKeySpec(encoded));
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    /**
+     * The JCA has no API to compute the public key of a given private key, but the key pair
+     * generators use the next 32 random bytes as private key.
+     */
+    private static byte[] derivePublicKey(KeyPairGenerator generator, byte[] privateKey) {
+        if (privateKey == null || privateKey.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("illegal key length");
+        }
+
+        generator.initialize(255, new FixedSecureRandom(privateKey));
+        byte[] encoded = generator.generateKeyPair().getPublic().getEncoded();
+        return Arrays.copyOfRange(encoded, encoded.length - KEY_LENGTH, encoded.length);
+    }
+
+    private static byte[] concat(byte[] prefix, byte[] key) {
+        byte[] result = Arrays.copyOf(prefix, prefix.length + key.length);
+        System.arraycopy(key, 0, result, prefix.length, key.length);
+        return result;
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    private static final class Primitives {
+
+        private final KeyFactory mEd25519KeyFactory;
+        private final KeyFactory mX25519KeyFactory;
+        private final KeyPairGenerator mEd25519Generator;
+        private final KeyPairGenerator mX25519Generator;
+        private final Signature mSignature;
+        private final KeyAgreement mKeyAgreement;
+
+        private Primitives() throws GeneralSecurityException {
+            mEd25519KeyFactory = KeyFactory.getInstance(ED25519);
+            mX25519KeyFactory = KeyFactory.getInstance(X25519);
+            mEd25519Generator = KeyPairGenerator.getInstance(ED25519);
+            mX25519Generator = KeyPairGenerator.getInstance(X25519);
+            mSignature = Signature.getInstance(ED25519);
+            mKeyAgreement = KeyAgreement.getInstance(X25519);
+        }
+    }
+
+    /**
+     * Returns the given bytes instead of random ones.
+     */
+    @SuppressWarnings("serial")
+    private static final class FixedSecureRandom extends SecureRandom {
+
+        private final byte[] mBytes;
+
+        private FixedSecureRandom(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        @Override
+        public void nextBytes(byte[] bytes) {
+            if (bytes.length != mBytes.length) {
+                throw new IllegalStateException("unexpected request of " + bytes.length + " bytes");
+            }
+            System.arraycopy(mBytes, 0, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Checks the platform once with the first test vector of RFC 8032.
+     */
+    private static final class Support {
+
+        private static final boolean SUPPORTED = check();
+
+        private static boolean check() {
+            try {
+                Primitives primitives = new Primitives();
+                byte[] privateKey = hex("9d61b19deffd5a60ba844af492ec2cc44449c5697b326919703bac031cae7f60");
+                byte[] expected = hex("d75a980182b10ab7d54bfed3c964073a0ee172f3daa62325af021a68f707511a");
+                return Arrays.equals(expected, derivePublicKey(primitives.mEd25519Generator, privateKey));
+            } catch (GeneralSecurityException | RuntimeException e) {
+                return false;
+            }
+        }
+    }
+}
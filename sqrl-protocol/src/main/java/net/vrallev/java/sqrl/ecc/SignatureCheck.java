@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.ecc;
+
+/**
+ * A single signature, which should be verified, e.g. in a batch with
+ * {@link BatchEccProvider25519#isValidSignatures(java.util.List)}.
+ *
+ * @author Ralf Wondratschek
+ */
+public class SignatureCheck {
+
+    private final byte[] mMessage;
+    private final byte[] mSignature;
+    private final byte[] mPublicKey;
+
+    public SignatureCheck(byte[] message, byte[] signature, byte[] publicKey) {
+        mMessage = message;
+        mSignature = signature;
+        mPublicKey = publicKey;
+    }
+
+    public byte[] getMessage() {
+        return mMessage;
+    }
+
+    public byte[] getSignature() {
+        return mSignature;
+    }
+
+    public byte[] getPublicKey() {
+        return mPublicKey;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.ecc.ed25519;
+
+import net.vrallev.java.sqrl.ecc.SignatureCheck;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.List;
+
+/**
+ * Verifies many Ed25519 signatures at once. Each signature is multiplied with a random 128 bit
+ * coefficient z and the sum
+ * <br>
+ * <br>
+ * 8 * (sum(z * R) + sum(z * h * A) - sum(z * s) * B)
+ * <br>
+ * <br>
+ * is computed with a single multi-scalar multiplication, which shares all doublings between the
+ * signatures. The result is the neutral element, if all signatures are valid. An invalid signature
+ * passes only with a probability of 2^-128.
+ * <br>
+ * <br>
+ * Multiplying with the cofactor 8 makes the result independent of small order components, which
+ * means that the check is slightly more permissive than a single verification for maliciously
+ * crafted keys. This doesn't allow forging a signature.
+ *
+ * @author Ralf Wondratschek
+ */
+public final class Ed25519BatchVerifier {
+
+    private static final int WINDOW_BITS = 4;
+    private static final int WINDOW_SIZE = 1 << WINDOW_BITS;
+
+    private final SecureRandom mRandom;
+    private final Ed25519PublicKeyCache mCache;
+
+    public Ed25519BatchVerifier() {
+        this(new SecureRandom());
+    }
+
+    public Ed25519BatchVerifier(SecureRandom random) {
+        this(random, null);
+    }
+
+    /**
+     * @param cache an optional cache for the multiples of the public keys, may be {@code null}.
+     */
+    public Ed25519BatchVerifier(SecureRandom random, Ed25519PublicKeyCache cache) {
+        mRandom = random;
+        mCache = cache;
+    }
+
+    /**
+     * @return {@code true} if all signatures are valid.
+     */
+    public boolean verify(List<SignatureCheck> signatureChecks) {
+        int size = signatureChecks.size();
+        if (size == 0) {
+            return true;
+        }
+
+        MessageDigest sha512 = createSha512();
+
+        Point25519[] points = new Point25519[2 * size + 1];
+        long[][][] precomputed = new long[2 * size + 1][][];
+        byte[][] scalars = new byte[2 * size + 1][];
+        byte[] baseScalar = new byte[32];
+
+        for (int i = 0; i < size; i++) {
+            SignatureCheck check = signatureChecks.get(i);
+
+            byte[] message = check.getMessage();
+            byte[] signature = check.getSignature();
+            byte[] publicKey = check.getPublicKey();
+
+            if (message == null || signature == null || signature.length != 64 || publicKey == null || publicKey.length != 32) {
+                return false;
+            }
+            if (!Scalar25519.isCanonical(signature, 32)) {
+                return false;
+            }
+
+            byte[] encodedR = new byte[32];
+            System.arraycopy(signature, 0, encodedR, 0, 32);
+            byte[] s = new byte[32];
+            System.arraycopy(signature, 32, s, 0, 32);
+
+            Point25519 r = Point25519.decode(encodedR);
+            Point25519 a = null;
+            if (mCache != null) {
+                precomputed[2 * i + 1] = mCache.getTable(publicKey);
+            } else {
+                a = Point25519.decode(publicKey);
+            }
+            if (r == null || (a == null && precomputed[2 * i + 1] == null)) {
+                return false;
+            }
+
+            sha512.update(encodedR);
+            sha512.update(publicKey);
+            sha512.update(message);
+            byte[] h = Scalar25519.reduce(sha512.digest());
+
+            byte[] z = new byte[32];
+            byte[] random = new byte[16];
+            mRandom.nextBytes(random);
+            System.arraycopy(random, 0, z, 0, random.length);
+
+            points[2 * i] = r;
+            scalars[2 * i] = z;
+            points[2 * i + 1] = a;
+            scalars[2 * i + 1] = Scalar25519.multiply(z, h);
+
+            baseScalar = Scalar25519.multiplyAdd(z, s, baseScalar);
+        }
+
+        Point25519 negativeBase = Point25519.BASE.copy();
+        negativeBase.negate();
+        points[2 * size] = negativeBase;
+        scalars[2 * size] = baseScalar;
+
+        Point25519 result = multiScalarMultiply(points, precomputed, scalars);
+        result.twice();
+        result.twice();
+        result.twice();
+
+        return result.isNeutral();
+    }
+
+    /**
+     * Computes sum(scalars[i] * points[i]) with interleaved 4 bit windows (Straus' algorithm). Not
+     * constant time.
+     */
+    /*package*/ static Point25519 multiScalarMultiply(Point25519[] points, byte[][] scalars) {
+        return multiScalarMultiply(points, new long[points.length][][], scalars);
+    }
+
+    /**
+     * @param precomputed if an entry isn't {@code null}, then it contains the multiples of the point
+     *                    in the form of {@link Ed25519Verifier} and the point itself is ignored.
+     */
+    private static Point25519 multiScalarMultiply(Point25519[] points, long[][][] precomputed, byte[][] scalars) {
+        Point25519[][] tables = new Point25519[points.length][];
+        byte[][] signedDigits = new byte[points.length][];
+        for (int i = 0; i < points.length; i++) {
+            if (precomputed[i] != null) {
+                signedDigits[i] = Ed25519FixedBase.toSignedDigits(scalars[i]);
+            } else {
+                tables[i] = createTable(points[i]);
+            }
+        }
+
+        Point25519 result = new Point25519();
+        for (int window = 256 / WINDOW_BITS - 1; window >= 0; window--) {
+            for (int j = 0; j < WINDOW_BITS; j++) {
+                result.twice();
+            }
+
+            for (int i = 0; i < points.length; i++) {
+                if (precomputed[i] != null) {
+                    Ed25519Verifier.addMultiple(result, precomputed[i], signedDigits[i][window]);
+                    continue;
+                }
+
+                int digit = getDigit(scalars[i], window);
+                if (digit != 0) {
+                    result.add(tables[i][digit]);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the multiples 0 * P, 1 * P, ..., 15 * P.
+     */
+    /*package*/ static Point25519[] createTable(Point25519 point) {
+        Point25519[] table = new Point25519[WINDOW_SIZE];
+        table[0] = new Point25519();
+        table[1] = point.copy();
+        for (int i = 2; i < WINDOW_SIZE; i++) {
+            table[i] = table[i - 1].copy();
+            table[i].add(point);
+        }
+        return table;
+    }
+
+    private static int getDigit(byte[] scalar, int window) {
+        int b = scalar[window >> 1] & 0xff;
+        return (window & 1) == 0 ? b & 0x0f : b >> 4;
+    }
+
+    /*package*/ static MessageDigest createSha512() {
+        try {
+            return MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
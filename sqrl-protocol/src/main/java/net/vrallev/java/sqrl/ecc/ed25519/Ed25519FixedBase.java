@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.ecc.ed25519;
+
+import java.security.MessageDigest;
+
+import static net.vrallev.java.sqrl.ecc.ed25519.Field25519.create;
+import static net.vrallev.java.sqrl.ecc.ed25519.Field25519.mul;
+
+/**
+ * Multiplies the base point with a secret scalar in constant time. The scalar is split into 64
+ * signed digits in [-8, 8] and the multiples 1 * B, ..., 8 * B of each second power of 16 are
+ * precomputed in affine form, like in the <i>ref10</i> implementation. A multiplication needs
+ * 64 mixed additions and 4 doublings instead of 255 doublings and additions.
+ * <br>
+ * <br>
+ * The table has about 100 KB. It's computed once, when it's used for the first time, and shared
+ * between all threads.
+ *
+ * @author Ralf Wondratschek
+ */
+public final class Ed25519FixedBase {
+
+    private static final int ROWS = 32;
+    private static final int ENTRIES = 8;
+
+    private Ed25519FixedBase() {
+        // no op
+    }
+
+    /**
+     * Derives both public keys of a private key. The signature key is the Ed25519 public key of
+     * the private key as seed, the Diffie Hellman key is the Curve25519 public key of the clamped
+     * private key.
+     *
+     * @param privateKey             the 32 byte private key.
+     * @param publicKeySignature     receives the 32 byte Ed25519 public key.
+     * @param publicKeyDiffieHellman receives the 32 byte Curve25519 public key.
+     */
+    public static void computePublicKeys(byte[] privateKey, byte[] publicKeySignature, byte[] publicKeyDiffieHellman) {
+        if (privateKey == null || privateKey.length != 32) {
+            throw new IllegalArgumentException("illegal key length");
+        }
+
+        MessageDigest sha512 = Ed25519BatchVerifier.createSha512();
+        byte[] signatureScalar = sha512.digest(privateKey);
+        clamp(signatureScalar);
+        Point25519 a = multiply(signatureScalar);
+
+        byte[] diffieHellmanScalar = privateKey.clone();
+        clamp(diffieHellmanScalar);
+        Point25519 p = multiply(diffieHellmanScalar);
+
+        // one shared inversion for 1 / Z of the signature key and 1 / (Z - Y) of the DH key
+        long[] zMinusY = create();
+        Field25519.sub(zMinusY, p.mZ, p.mY);
+
+        long[] inverse = create();
+        mul(inverse, a.mZ, zMinusY);
+        Field25519.invert(inverse, inverse);
+
+        long[] zInverse = create();
+        long[] zMinusYInverse = create();
+        mul(zInverse, inverse, zMinusY);
+        mul(zMinusYInverse, inverse, a.mZ);
+
+        // Ed25519 encoding of A
+        long[] x = create();
+        long[] y = create();
+        mul(x, a.mX, zInverse);
+        mul(y, a.mY, zInverse);
+        Field25519.pack(publicKeySignature, y);
+        publicKeySignature[31] ^= Field25519.parity(x) << 7;
+
+        // birational map to Montgomery form, u = (1 + y) / (1 - y) = (Z + Y) / (Z - Y)
+        long[] u = create();
+        Field25519.add(u, p.mZ, p.mY);
+        mul(u, u, zMinusYInverse);
+        Field25519.pack(publicKeyDiffieHellman, u);
+
+        fill(signatureScalar);
+        fill(diffieHellmanScalar);
+    }
+
+    /**
+     * @param scalar a little endian scalar, the highest bit must be 0. Only the first 32 bytes are
+     *               used.
+     * @return scalar * B.
+     */
+    /*package*/ static Point25519 multiply(byte[] scalar) {
+        byte[] digits = toSignedDigits(scalar);
+
+        long[][][] table = Table.TABLE;
+        long[] yPlusX = create();
+        long[] yMinusX = create();
+        long[] xy2d = create();
+
+        Point25519 result = new Point25519();
+        for (int i = 1; i < 64; i += 2) {
+            select(table[i / 2], digits[i], yPlusX, yMinusX, xy2d);
+            result.addPrecomputed(yPlusX, yMinusX, xy2d);
+        }
+
+        result.twice();
+        result.twice();
+        result.twice();
+        result.twice();
+
+        for (int i = 0; i < 64; i += 2) {
+            select(table[i / 2], digits[i], yPlusX, yMinusX, xy2d);
+            result.addPrecomputed(yPlusX, yMinusX, xy2d);
+        }
+
+        fill(digits);
+        return result;
+    }
+
+    /**
+     * @param scalar a little endian scalar, the highest bit must be 0.
+     * @return the 64 signed radix 16 digits of the scalar, each in [-8, 8].
+     */
+    /*package*/ static byte[] toSignedDigits(byte[] scalar) {
+        if ((scalar[31] & 0x80) != 0) {
+            throw new IllegalArgumentException("scalar is too large");
+        }
+
+        byte[] digits = new byte[64];
+        for (int i = 0; i < 32; i++) {
+            digits[2 * i] = (byte) (scalar[i] & 0x0f);
+            digits[2 * i + 1] = (byte) ((scalar[i] >> 4) & 0x0f);
+        }
+
+        // recode into signed digits in [-8, 8)
+        int carry = 0;
+        for (int i = 0; i < 63; i++) {
+            digits[i] += carry;
+            carry = (digits[i] + 8) >> 4;
+            digits[i] -= carry << 4;
+        }
+        digits[63] += carry;
+        return digits;
+    }
+
+    /**
+     * Loads digit * P of a row in constant time. The neutral element is loaded for 0.
+     */
+    private static void select(long[][] row, int digit, long[] yPlusX, long[] yMinusX, long[] xy2d) {
+        int negative = (digit >>> 31) & 1;
+        int absolute = digit - ((-negative & digit) << 1);
+
+        Field25519.set(yPlusX, Field25519.ONE);
+        Field25519.set(yMinusX, Field25519.ONE);
+        Field25519.set(xy2d, Field25519.ZERO);
+
+        for (int j = 0; j < ENTRIES; j++) {
+            int equal = isEqual(absolute, j + 1);
+            Field25519.cmov(yPlusX, row[3 * j], equal);
+            Field25519.cmov(yMinusX, row[3 * j + 1], equal);
+            Field25519.cmov(xy2d, row[3 * j + 2], equal);
+        }
+
+        // -(x, y) = (-x, y) swaps y + x and y - x and negates the product
+        Field25519.swap(yPlusX, yMinusX, negative);
+        long[] negativeXy2d = create();
+        Field25519.sub(negativeXy2d, Field25519.ZERO, xy2d);
+        Field25519.cmov(xy2d, negativeXy2d, negative);
+    }
+
+    private static int isEqual(int a, int b) {
+        int x = a ^ b;
+        return ((x - 1) >>> 31) & 1;
+    }
+
+    private static void clamp(byte[] scalar) {
+        scalar[0] &= (byte) 248;
+        scalar[31] &= 127;
+        scalar[31] |= 64;
+    }
+
+    private static void fill(byte[] array) {
+        for (int i = 0; i < array.length; i++) {
+            array[i] = 0;
+        }
+    }
+
+    /**
+     * Lazily computed by the class loader, which also guarantees the safe publication.
+     */
+    private static final class Table {
+
+        /**
+         * TABLE[i][3 * j], TABLE[i][3 * j + 1] and TABLE[i][3 * j + 2] contain the precomputed form
+         * of (j + 1) * 256^i * B.
+         */
+        private static final long[][][] TABLE = createTable();
+
+        private static long[][][] createTable() {
+            long[][][] table = new long[ROWS][3 * ENTRIES][];
+
+            Point25519 base = Point25519.BASE.copy();
+            for (int i = 0; i < ROWS; i++) {
+                Point25519 multiple = base.copy();
+                for (int j = 0; j < ENTRIES; j++) {
+                    long[] zInverse = create();
+                    long[] x = create();
+                    long[] y = create();
+                    Field25519.invert(zInverse, multiple.mZ);
+                    mul(x, multiple.mX, zInverse);
+                    mul(y, multiple.mY, zInverse);
+
+                    long[] yPlusX = create();
+                    long[] yMinusX = create();
+                    long[] xy2d = create();
+                    Field25519.add(yPlusX, y, x);
+                    Field25519.sub(yMinusX, y, x);
+                    Field25519.carry(yPlusX);
+                    Field25519.carry(yMinusX);
+                    mul(xy2d, x, y);
+                    mul(xy2d, xy2d, Field25519.D2);
+
+                    table[i][3 * j] = yPlusX;
+                    table[i][3 * j + 1] = yMinusX;
+                    table[i][3 * j + 2] = xy2d;
+
+                    multiple.add(base);
+                }
+
+                // next row starts with 256 * base
+                for (int k = 0; k < 8; k++) {
+                    base.twice();
+                }
+            }
+
+            return table;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.ecc.ed25519;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache for decompressed public keys. Each entry holds the precomputed multiples, which
+ * {@link Ed25519Verifier} and {@link Ed25519BatchVerifier} need for a public key. Returning users
+ * send the same identity key with every request, their signatures are verified without decoding
+ * the key again.
+ * <br>
+ * <br>
+ * An entry needs about {@link #ENTRY_BYTES} bytes. The cache is split into segments, which evict
+ * their least recently used entries independently, so that concurrent lookups rarely contend for
+ * the same lock. The multiples are computed outside of the lock.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class Ed25519PublicKeyCache {
+
+    /**
+     * The estimated heap size of a single entry: 32 field elements, the key and the map entry.
+     */
+    public static final int ENTRY_BYTES = 4 * Ed25519Verifier.ENTRIES * (16 + 16 * 8) + 256;
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final long mMaxBytes;
+    private final long mSeed;
+    private final Segment[] mSegments;
+
+    private final AtomicLong mHitCount;
+    private final AtomicLong mMissCount;
+    private final AtomicLong mEvictionCount;
+
+    /**
+     * @param maxBytes the maximum heap size of all entries, at least one entry is kept per segment.
+     */
+    public Ed25519PublicKeyCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be greater than 0");
+        }
+
+        mMaxBytes = maxBytes;
+        mSeed = new SecureRandom().nextLong();
+
+        int maxEntries = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / ENTRY_BYTES / SEGMENT_COUNT));
+        mSegments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            mSegments[i] = new Segment(maxEntries);
+        }
+
+        mHitCount = new AtomicLong();
+        mMissCount = new AtomicLong();
+        mEvictionCount = new AtomicLong();
+    }
+
+    /**
+     * @return the multiples of the public key or {@code null}, if the key isn't a valid point.
+     */
+    /*package*/ long[][] getTable(byte[] publicKey) {
+        Key key = new Key(publicKey, mSeed);
+        Segment segment = mSegments[(key.mHashCode >>> 28) & (SEGMENT_COUNT - 1)];
+
+        long[][] table;
+        synchronized (segment) {
+            table = segment.get(key);
+        }
+        if (table != null) {
+            mHitCount.incrementAndGet();
+            return table;
+        }
+
+        mMissCount.incrementAndGet();
+        table = Ed25519Verifier.createTable(Point25519.decode(publicKey));
+        if (table == null) {
+            // invalid keys aren't cached, they would only push out valid ones
+            return null;
+        }
+
+        synchronized (segment) {
+            segment.put(key, table);
+        }
+        return table;
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    /**
+     * @return the ratio of hits to all lookups or 0, if there wasn't any lookup.
+     */
+    public double getHitRate() {
+        long hits = mHitCount.get();
+        long total = hits + mMissCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : mSegments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the estimated heap size of all entries.
+     */
+    public long getSizeBytes() {
+        return (long) size() * ENTRY_BYTES;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public void clear() {
+        for (Segment segment : mSegments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<Key, long[][]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int mMaxEntries;
+
+        private Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            mMaxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, long[][]> eldest) {
+            if (size() > mMaxEntries) {
+                mEvictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class Key {
+
+        private final byte[] mPublicKey;
+        private final int mHashCode;
+
+        private Key(byte[] publicKey, long seed) {
+            mPublicKey = publicKey.clone();
+
+            // seeded, so that clients can't choose keys, which end up in the same bucket
+            long hash = seed;
+            for (int i = 0; i + 8 <= publicKey.length; i += 8) {
+                long word = 0;
+                for (int j = 7; j >= 0; j--) {
+                    word = (word << 8) | (publicKey[i + j] & 0xff);
+                }
+                hash = (hash ^ word) * 0x9e3779b97f4a7c15L;
+                hash ^= hash >>> 29;
+            }
+            mHashCode = (int) (hash ^ (hash >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof Key && Arrays.equals(mPublicKey, ((Key) o).mPublicKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+}
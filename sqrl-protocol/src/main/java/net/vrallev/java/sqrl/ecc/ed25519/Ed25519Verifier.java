@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.ecc.ed25519;
+
+import java.security.MessageDigest;
+
+import static net.vrallev.java.sqrl.ecc.ed25519.Field25519.create;
+import static net.vrallev.java.sqrl.ecc.ed25519.Field25519.mul;
+
+/**
+ * Verifies single Ed25519 signatures with precomputed multiples of the public key. The multiples
+ * can be cached with an {@link Ed25519PublicKeyCache}, so that repeated verifications for the same
+ * identity neither decompress the key nor compute the multiples again.
+ * <br>
+ * <br>
+ * A signature (R, s) is valid, if the encoding of s * B - h * A equals R. h * A uses signed 4 bit
+ * windows over the multiples of A, s * B uses the table of {@link Ed25519FixedBase}. Not constant
+ * time, only public values are involved.
+ *
+ * @author Ralf Wondratschek
+ */
+public final class Ed25519Verifier {
+
+    /*package*/ static final int ENTRIES = 8;
+
+    private static final ThreadLocal<MessageDigest> SHA_512 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return Ed25519BatchVerifier.createSha512();
+        }
+    };
+
+    private final Ed25519PublicKeyCache mCache;
+
+    /**
+     * @param cache an optional cache for the multiples of the public keys, may be {@code null}.
+     */
+    public Ed25519Verifier(Ed25519PublicKeyCache cache) {
+        mCache = cache;
+    }
+
+    public Ed25519PublicKeyCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * @return {@code true} if the signature is valid.
+     */
+    public boolean verify(byte[] message, byte[] signature, byte[] publicKey) {
+        if (message == null || signature == null || signature.length != 64 || publicKey == null || publicKey.length != 32) {
+            return false;
+        }
+        if (!Scalar25519.isCanonical(signature, 32)) {
+            return false;
+        }
+
+        long[][] table = mCache != null ? mCache.getTable(publicKey) : createTable(Point25519.decode(publicKey));
+        if (table == null) {
+            return false;
+        }
+
+        MessageDigest sha512 = SHA_512.get();
+        sha512.update(signature, 0, 32);
+        sha512.update(publicKey);
+        sha512.update(message);
+        byte[] h = Scalar25519.reduce(sha512.digest());
+
+        byte[] s = new byte[32];
+        System.arraycopy(signature, 32, s, 0, 32);
+
+        Point25519 result = multiply(table, h);
+        result.negate();
+        result.add(Ed25519FixedBase.multiply(s));
+
+        byte[] encoded = result.encode();
+        for (int i = 0; i < 32; i++) {
+            if (encoded[i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return scalar * A, where the table contains the multiples of A.
+     */
+    /*package*/ static Point25519 multiply(long[][] table, byte[] scalar) {
+        byte[] digits = Ed25519FixedBase.toSignedDigits(scalar);
+
+        Point25519 result = new Point25519();
+        for (int i = 63; i >= 0; i--) {
+            result.twice();
+            result.twice();
+            result.twice();
+            result.twice();
+
+            addMultiple(result, table, digits[i]);
+        }
+        return result;
+    }
+
+    /**
+     * result = result + digit * A, where the table contains the multiples of A and the digit is in
+     * [-8, 8].
+     */
+    /*package*/ static void addMultiple(Point25519 result, long[][] table, int digit) {
+        if (digit > 0) {
+            int index = 4 * (digit - 1);
+            result.addPrecomputed(table[index], table[index + 1], table[index + 2]);
+        } else if (digit < 0) {
+            // -(x, y) = (-x, y) swaps y + x and y - x and negates the product
+            int index = 4 * (-digit - 1);
+            result.addPrecomputed(table[index + 1], table[index], table[index + 3]);
+        }
+    }
+
+    /**
+     * Computes the precomputed affine form (y + x, y - x, 2 * d * x * y, -2 * d * x * y) of the
+     * multiples 1 * A, ..., 8 * A. All Z coordinates are inverted at once with a single field
+     * inversion.
+     *
+     * @return the multiples, entry {@code 4 * (j - 1)} starts the form of j * A, or {@code null}, if
+     * the point is {@code null}.
+     */
+    /*package*/ static long[][] createTable(Point25519 point) {
+        if (point == null) {
+            return null;
+        }
+
+        Point25519[] multiples = new Point25519[ENTRIES];
+        multiples[0] = point.copy();
+        for (int i = 1; i < ENTRIES; i++) {
+            multiples[i] = multiples[i - 1].copy();
+            multiples[i].add(point);
+        }
+
+        // products[i] = Z_0 * ... * Z_i
+        long[][] products = new long[ENTRIES][];
+        products[0] = create();
+        Field25519.set(products[0], multiples[0].mZ);
+        for (int i = 1; i < ENTRIES; i++) {
+            products[i] = create();
+            mul(products[i], products[i - 1], multiples[i].mZ);
+        }
+
+        long[] inverse = create();
+        Field25519.invert(inverse, products[ENTRIES - 1]);
+
+        long[][] table = new long[4 * ENTRIES][];
+        long[] zInverse = create();
+        long[] x = create();
+        long[] y = create();
+        for (int i = ENTRIES - 1; i >= 0; i--) {
+            if (i > 0) {
+                mul(zInverse, inverse, products[i - 1]);
+                mul(inverse, inverse, multiples[i].mZ);
+            } else {
+                Field25519.set(zInverse, inverse);
+            }
+
+            mul(x, multiples[i].mX, zInverse);
+            mul(y, multiples[i].mY, zInverse);
+
+            long[] yPlusX = create();
+            long[] yMinusX = create();
+            long[] xy2d = create();
+            long[] negativeXy2d = create();
+            Field25519.add(yPlusX, y, x);
+            Field25519.sub(yMinusX, y, x);
+            Field25519.carry(yPlusX);
+            Field25519.carry(yMinusX);
+            mul(xy2d, x, y);
+            mul(xy2d, xy2d, Field25519.D2);
+            Field25519.sub(negativeXy2d, Field25519.ZERO, xy2d);
+            Field25519.carry(negativeXy2d);
+
+            table[4 * i] = yPlusX;
+            table[4 * i + 1] = yMinusX;
+            table[4 * i + 2] = xy2d;
+            table[4 * i + 3] = negativeXy2d;
+        }
+        return table;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.ecc.ed25519;
+
+/**
+ * Arithmetic in the field GF(2^255 - 19). An element is represented by 16 limbs with 16 bits each,
+ * the same layout as in <a href="http://tweetnacl.cr.yp.to/">TweetNaCl</a>.
+ *
+ * @author Ralf Wondratschek
+ */
+/*package*/ final class Field25519 {
+
+    public static final int LIMBS = 16;
+
+    public static final long[] ZERO = create();
+    public static final long[] ONE = create(1);
+
+    /** The curve constant d = -121665/121666. */
+    public static final long[] D = create(0x78a3, 0x1359, 0x4dca, 0x75eb, 0xd8ab, 0x4141, 0x0a4d, 0x0070, 0xe898, 0x7779, 0x4079, 0x8cc7, 0xfe73, 0x2b6f, 0x6cee, 0x5203);
+    public static final long[] D2 = create(0xf159, 0x26b2, 0x9b94, 0xebd6, 0xb156, 0x8283, 0x149a, 0x00e0, 0xd130, 0xeef3, 0x80f2, 0x198e, 0xfce7, 0x56df, 0xd9dc, 0x2406);
+
+    /** sqrt(-1) */
+    public static final long[] I = create(0xa0b0, 0x4a0e, 0x1b27, 0xc4ee, 0xe478, 0xad2f, 0x1806, 0x2f43, 0xd7a7, 0x3dfb, 0x0099, 0x2b4d, 0xdf0b, 0x4fc1, 0x2480, 0x2b83);
+
+    private Field25519() {
+        // no op
+    }
+
+    public static long[] create(long... limbs) {
+        long[] result = new long[LIMBS];
+        System.arraycopy(limbs, 0, result, 0, limbs.length);
+        return result;
+    }
+
+    public static void set(long[] r, long[] a) {
+        System.arraycopy(a, 0, r, 0, LIMBS);
+    }
+
+    public static void add(long[] o, long[] a, long[] b) {
+        for (int i = 0; i < LIMBS; i++) {
+            o[i] = a[i] + b[i];
+        }
+    }
+
+    public static void sub(long[] o, long[] a, long[] b) {
+        for (int i = 0; i < LIMBS; i++) {
+            o[i] = a[i] - b[i];
+        }
+    }
+
+    public static void mul(long[] o, long[] a, long[] b) {
+        long t0 = 0, t1 = 0, t2 = 0, t3 = 0, t4 = 0, t5 = 0, t6 = 0, t7 = 0, t8 = 0, t9 = 0, t10 = 0, t11 = 0, t12 = 0, t13 = 0, t14 = 0, t15 = 0;
+        long t16 = 0, t17 = 0, t18 = 0, t19 = 0, t20 = 0, t21 = 0, t22 = 0, t23 = 0, t24 = 0, t25 = 0, t26 = 0, t27 = 0, t28 = 0, t29 = 0, t30 = 0;
+
+        long b0 = b[0], b1 = b[1], b2 = b[2], b3 = b[3], b4 = b[4], b5 = b[5], b6 = b[6], b7 = b[7];
+        long b8 = b[8], b9 = b[9], b10 = b[10], b11 = b[11], b12 = b[12], b13 = b[13], b14 = b[14], b15 = b[15];
+
+        // the unrolled schoolbook multiplication avoids a temporary array, C2 keeps everything in registers
+        long v;
+        v = a[0]; t0 += v * b0; t1 += v * b1; t2 += v * b2; t3 += v * b3; t4 += v * b4; t5 += v * b5; t6 += v * b6; t7 += v * b7; t8 += v * b8; t9 += v * b9; t10 += v * b10; t11 += v * b11; t12 += v * b12; t13 += v * b13; t14 += v * b14; t15 += v * b15;
+        v = a[1]; t1 += v * b0; t2 += v * b1; t3 += v * b2; t4 += v * b3; t5 += v * b4; t6 += v * b5; t7 += v * b6; t8 += v * b7; t9 += v * b8; t10 += v * b9; t11 += v * b10; t12 += v * b11; t13 += v * b12; t14 += v * b13; t15 += v * b14; t16 += v * b15;
+        v = a[2]; t2 += v * b0; t3 += v * b1; t4 += v * b2; t5 += v * b3; t6 += v * b4; t7 += v * b5; t8 += v * b6; t9 += v * b7; t10 += v * b8; t11 += v * b9; t12 += v * b10; t13 += v * b11; t14 += v * b12; t15 += v * b13; t16 += v * b14; t17 += v * b15;
+        v = a[3]; t3 += v * b0; t4 += v * b1; t5 += v * b2; t6 += v * b3; t7 += v * b4; t8 += v * b5; t9 += v * b6; t10 += v * b7; t11 += v * b8; t12 += v * b9; t13 += v * b10; t14 += v * b11; t15 += v * b12; t16 += v * b13; t17 += v * b14; t18 += v * b15;
+        v = a[4]; t4 += v * b0; t5 += v * b1; t6 += v * b2; t7 += v * b3; t8 += v * b4; t9 += v * b5; t10 += v * b6; t11 += v * b7; t12 += v * b8; t13 += v * b9; t14 += v * b10; t15 += v * b11; t16 += v * b12; t17 += v * b13; t18 += v * b14; t19 += v * b15;
+        v = a[5]; t5 += v * b0; t6 += v * b1; t7 += v * b2; t8 += v * b3; t9 += v * b4; t10 += v * b5; t11 += v * b6; t12 += v * b7; t13 += v * b8; t14 += v * b9; t15 += v * b10; t16 += v * b11; t17 += v * b12; t18 += v * b13; t19 += v * b14; t20 += v * b15;
+        v = a[6]; t6 += v * b0; t7 += v * b1; t8 += v * b2; t9 += v * b3; t10 += v * b4; t11 += v * b5; t12 += v * b6; t13 += v * b7; t14 += v * b8; t15 += v * b9; t16 += v * b10; t17 += v * b11; t18 += v * b12; t19 += v * b13; t20 += v * b14; t21 += v * b15;
+        v = a[7]; t7 += v * b0; t8 += v * b1; t9 += v * b2; t10 += v * b3; t11 += v * b4; t12 += v * b5; t13 += v * b6; t14 += v * b7; t15 += v * b8; t16 += v * b9; t17 += v * b10; t18 += v * b11; t19 += v * b12; t20 += v * b13; t21 += v * b14; t22 += v * b15;
+        v = a[8]; t8 += v * b0; t9 += v * b1; t10 += v * b2; t11 += v * b3; t12 += v * b4; t13 += v * b5; t14 += v * b6; t15 += v * b7; t16 += v * b8; t17 += v * b9; t18 += v * b10; t19 += v * b11; t20 += v * b12; t21 += v * b13; t22 += v * b14; t23 += v * b15;
+        v = a[9]; t9 += v * b0; t10 += v * b1; t11 += v * b2; t12 += v * b3; t13 += v * b4; t14 += v * b5; t15 += v * b6; t16 += v * b7; t17 += v * b8; t18 += v * b9; t19 += v * b10; t20 += v * b11; t21 += v * b12; t22 += v * b13; t23 += v * b14; t24 += v * b15;
+        v = a[10]; t10 += v * b0; t11 += v * b1; t12 += v * b2; t13 += v * b3; t14 += v * b4; t15 += v * b5; t16 += v * b6; t17 += v * b7; t18 += v * b8; t19 += v * b9; t20 += v * b10; t21 += v * b11; t22 += v * b12; t23 += v * b13; t24 += v * b14; t25 += v * b15;
+        v = a[11]; t11 += v * b0; t12 += v * b1; t13 += v * b2; t14 += v * b3; t15 += v * b4; t16 += v * b5; t17 += v * b6; t18 += v * b7; t19 += v * b8; t20 += v * b9; t21 += v * b10; t22 += v * b11; t23 += v * b12; t24 += v * b13; t25 += v * b14; t26 += v * b15;
+        v = a[12]; t12 += v * b0; t13 += v * b1; t14 += v * b2; t15 += v * b3; t16 += v * b4; t17 += v * b5; t18 += v * b6; t19 += v * b7; t20 += v * b8; t21 += v * b9; t22 += v * b10; t23 += v * b11; t24 += v * b12; t25 += v * b13; t26 += v * b14; t27 += v * b15;
+        v = a[13]; t13 += v * b0; t14 += v * b1; t15 += v * b2; t16 += v * b3; t17 += v * b4; t18 += v * b5; t19 += v * b6; t20 += v * b7; t21 += v * b8; t22 += v * b9; t23 += v * b10; t24 += v * b11; t25 += v * b12; t26 += v * b13; t27 += v * b14; t28 += v * b15;
+        v = a[14]; t14 += v * b0; t15 += v * b1; t16 += v * b2; t17 += v * b3; t18 += v * b4; t19 += v * b5; t20 += v * b6; t21 += v * b7; t22 += v * b8; t23 += v * b9; t24 += v * b10; t25 += v * b11; t26 += v * b12; t27 += v * b13; t28 += v * b14; t29 += v * b15;
+        v = a[15]; t15 += v * b0; t16 += v * b1; t17 += v * b2; t18 += v * b3; t19 += v * b4; t20 += v * b5; t21 += v * b6; t22 += v * b7; t23 += v * b8; t24 += v * b9; t25 += v * b10; t26 += v * b11; t27 += v * b12; t28 += v * b13; t29 += v * b14; t30 += v * b15;
+
+        // 2^256 = 38 mod p
+        o[0] = t0 + 38 * t16;
+        o[1] = t1 + 38 * t17;
+        o[2] = t2 + 38 * t18;
+        o[3] = t3 + 38 * t19;
+        o[4] = t4 + 38 * t20;
+        o[5] = t5 + 38 * t21;
+        o[6] = t6 + 38 * t22;
+        o[7] = t7 + 38 * t23;
+        o[8] = t8 + 38 * t24;
+        o[9] = t9 + 38 * t25;
+        o[10] = t10 + 38 * t26;
+        o[11] = t11 + 38 * t27;
+        o[12] = t12 + 38 * t28;
+        o[13] = t13 + 38 * t29;
+        o[14] = t14 + 38 * t30;
+        o[15] = t15;
+
+        carry(o);
+        carry(o);
+    }
+
+    public static void square(long[] o, long[] a) {
+        mul(o, a, a);
+    }
+
+    public static void carry(long[] o) {
+        for (int i = 0; i < LIMBS; i++) {
+            o[i] += 1L << 16;
+            long c = o[i] >> 16;
+            if (i < LIMBS - 1) {
+                o[i + 1] += c - 1;
+            } else {
+                o[0] += 38 * (c - 1);
+            }
+            o[i] -= c << 16;
+        }
+    }
+
+    /**
+     * Swaps {@code p} and {@code q} in constant time, if {@code b} is 1.
+     */
+    public static void swap(long[] p, long[] q, int b) {
+        long c = ~(b - 1);
+        for (int i = 0; i < LIMBS; i++) {
+            long t = c & (p[i] ^ q[i]);
+            p[i] ^= t;
+            q[i] ^= t;
+        }
+    }
+
+    /**
+     * Replaces {@code r} with {@code a} in constant time, if {@code b} is 1.
+     */
+    public static void cmov(long[] r, long[] a, int b) {
+        long c = -b;
+        for (int i = 0; i < LIMBS; i++) {
+            r[i] ^= c & (r[i] ^ a[i]);
+        }
+    }
+
+    public static void invert(long[] o, long[] i) {
+        long[] c = create();
+        set(c, i);
+        for (int a = 253; a >= 0; a--) {
+            square(c, c);
+            if (a != 2 && a != 4) {
+                mul(c, c, i);
+            }
+        }
+        set(o, c);
+    }
+
+    /**
+     * Computes i^((p - 5) / 8), which is required to compute square roots.
+     */
+    public static void pow2523(long[] o, long[] i) {
+        long[] c = create();
+        set(c, i);
+        for (int a = 250; a >= 0; a--) {
+            square(c, c);
+            if (a != 1) {
+                mul(c, c, i);
+            }
+        }
+        set(o, c);
+    }
+
+    public static void pack(byte[] o, long[] n) {
+        long[] m = create();
+        long[] t = create();
+        set(t, n);
+        carry(t);
+        carry(t);
+        carry(t);
+
+        for (int j = 0; j < 2; j++) {
+            m[0] = t[0] - 0xffed;
+            for (int i = 1; i < 15; i++) {
+                m[i] = t[i] - 0xffff - ((m[i - 1] >> 16) & 1);
+                m[i - 1] &= 0xffff;
+            }
+            m[15] = t[15] - 0x7fff - ((m[14] >> 16) & 1);
+            int b = (int) ((m[15] >> 16) & 1);
+            m[14] &= 0xffff;
+            swap(t, m, 1 - b);
+        }
+
+        for (int i = 0; i < LIMBS; i++) {
+            o[2 * i] = (byte) t[i];
+            o[2 * i + 1] = (byte) (t[i] >> 8);
+        }
+    }
+
+    public static void unpack(long[] o, byte[] n) {
+        for (int i = 0; i < LIMBS; i++) {
+            o[i] = (n[2 * i] & 0xff) + ((long) (n[2 * i + 1] & 0xff) << 8);
+        }
+        o[15] &= 0x7fff;
+    }
+
+    public static boolean equals(long[] a, long[] b) {
+        byte[] c = new byte[32];
+        byte[] d = new byte[32];
+        pack(c, a);
+        pack(d, b);
+
+        int diff = 0;
+        for (int i = 0; i < c.length; i++) {
+            diff |= c[i] ^ d[i];
+        }
+        return diff == 0;
+    }
+
+    /**
+     * @return the lowest bit of the canonical encoding, the "sign" of an element.
+     */
+    public static int parity(long[] a) {
+        byte[] d = new byte[32];
+        pack(d, a);
+        return d[0] & 1;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.ecc.ed25519;
+
+import static net.vrallev.java.sqrl.ecc.ed25519.Field25519.create;
+import static net.vrallev.java.sqrl.ecc.ed25519.Field25519.mul;
+import static net.vrallev.java.sqrl.ecc.ed25519.Field25519.square;
+import static net.vrallev.java.sqrl.ecc.ed25519.Field25519.sub;
+
+/**
+ * A point on the Ed25519 curve in extended coordinates (X:Y:Z:T) with x = X/Z, y = Y/Z and
+ * x * y = T/Z.
+ *
+ * @author Ralf Wondratschek
+ */
+/*package*/ final class Point25519 {
+
+    /** The base point B. */
+    public static final Point25519 BASE;
+
+    static {
+        long[] x = create(0xd51a, 0x8f25, 0x2d60, 0xc956, 0xa7b2, 0x9525, 0xc760, 0x692c, 0xdc5c, 0xfdd6, 0xe231, 0xc0a4, 0x53fe, 0xcd6e, 0x36d3, 0x2169);
+        long[] y = create(0x6658, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666);
+        long[] t = create();
+        mul(t, x, y);
+
+        BASE = new Point25519(x, y, create(1), t);
+    }
+
+    /*package*/ final long[] mX;
+    /*package*/ final long[] mY;
+    /*package*/ final long[] mZ;
+    /*package*/ final long[] mT;
+
+    /**
+     * Creates the neutral element.
+     */
+    public Point25519() {
+        this(create(), create(1), create(1), create());
+    }
+
+    private Point25519(long[] x, long[] y, long[] z, long[] t) {
+        mX = x;
+        mY = y;
+        mZ = z;
+        mT = t;
+    }
+
+    public Point25519 copy() {
+        Point25519 result = new Point25519();
+        result.set(this);
+        return result;
+    }
+
+    public void set(Point25519 p) {
+        Field25519.set(mX, p.mX);
+        Field25519.set(mY, p.mY);
+        Field25519.set(mZ, p.mZ);
+        Field25519.set(mT, p.mT);
+    }
+
+    public void setNeutral() {
+        Field25519.set(mX, Field25519.ZERO);
+        Field25519.set(mY, Field25519.ONE);
+        Field25519.set(mZ, Field25519.ONE);
+        Field25519.set(mT, Field25519.ZERO);
+    }
+
+    /**
+     * this = -this
+     */
+    public void negate() {
+        sub(mX, Field25519.ZERO, mX);
+        sub(mT, Field25519.ZERO, mT);
+    }
+
+    /**
+     * this = this + q, the formula is complete and can be used for doubling, too.
+     */
+    public void add(Point25519 q) {
+        long[] a = create();
+        long[] b = create();
+        long[] c = create();
+        long[] d = create();
+        long[] t = create();
+
+        sub(a, mY, mX);
+        sub(t, q.mY, q.mX);
+        mul(a, a, t);
+        Field25519.add(b, mX, mY);
+        Field25519.add(t, q.mX, q.mY);
+        mul(b, b, t);
+        mul(c, mT, q.mT);
+        mul(c, c, Field25519.D2);
+        mul(d, mZ, q.mZ);
+        Field25519.add(d, d, d);
+
+        long[] e = t;
+        long[] f = create();
+        long[] g = create();
+        long[] h = create();
+        sub(e, b, a);
+        sub(f, d, c);
+        Field25519.add(g, d, c);
+        Field25519.add(h, b, a);
+
+        mul(mX, e, f);
+        mul(mY, h, g);
+        mul(mZ, g, f);
+        mul(mT, e, h);
+    }
+
+    /**
+     * this = this + q, where q is given in the precomputed affine form (y + x, y - x, 2 * d * x * y).
+     * Saves two multiplications compared to {@link #add(Point25519)}.
+     */
+    public void addPrecomputed(long[] yPlusX, long[] yMinusX, long[] xy2d) {
+        long[] a = create();
+        long[] b = create();
+        long[] c = create();
+        long[] d = create();
+
+        sub(a, mY, mX);
+        mul(a, a, yMinusX);
+        Field25519.add(b, mX, mY);
+        mul(b, b, yPlusX);
+        mul(c, mT, xy2d);
+        Field25519.add(d, mZ, mZ);
+
+        long[] e = create();
+        long[] f = create();
+        long[] g = create();
+        long[] h = create();
+        sub(e, b, a);
+        sub(f, d, c);
+        Field25519.add(g, d, c);
+        Field25519.add(h, b, a);
+
+        mul(mX, e, f);
+        mul(mY, h, g);
+        mul(mZ, g, f);
+        mul(mT, e, h);
+    }
+
+    /**
+     * this = 2 * this, cheaper than adding the point to itself.
+     */
+    public void twice() {
+        long[] a = create();
+        long[] b = create();
+        long[] c = create();
+        long[] h = create();
+        long[] g = create();
+
+        long[] e = create();
+
+        square(a, mX);
+        square(b, mY);
+        square(c, mZ);
+        Field25519.add(c, c, c);
+        Field25519.add(h, a, b);
+        Field25519.add(e, mX, mY);
+        square(e, e);
+
+        // all values are negated compared to dbl-2008-hwcd, the signs cancel out in the products
+        sub(e, h, e);
+        sub(g, a, b);
+        long[] f = a;
+        Field25519.add(f, c, g);
+
+        mul(mX, e, f);
+        mul(mY, g, h);
+        mul(mT, e, h);
+        mul(mZ, f, g);
+    }
+
+    /**
+     * this = s * this, not constant time. Only use it with public scalars.
+     */
+    public void multiplyVartime(byte[] s) {
+        Point25519 q = copy();
+        setNeutral();
+        for (int i = 255; i >= 0; i--) {
+            twice();
+            if (((s[i >> 3] >> (i & 7)) & 1) != 0) {
+                add(q);
+            }
+        }
+    }
+
+    public boolean isNeutral() {
+        long[] zero = create();
+        sub(zero, mY, mZ);
+        return Field25519.equals(mX, Field25519.ZERO) && Field25519.equals(zero, Field25519.ZERO);
+    }
+
+    /**
+     * @return the 32 byte encoding of this point.
+     */
+    public byte[] encode() {
+        byte[] result = new byte[32];
+        encode(result);
+        return result;
+    }
+
+    public void encode(byte[] r) {
+        long[] zi = create();
+        long[] tx = create();
+        long[] ty = create();
+
+        Field25519.invert(zi, mZ);
+        mul(tx, mX, zi);
+        mul(ty, mY, zi);
+        Field25519.pack(r, ty);
+        r[31] ^= Field25519.parity(tx) << 7;
+    }
+
+    /**
+     * Decompresses the 32 byte encoding of a point.
+     *
+     * @return the point or {@code null}, if the encoding is invalid.
+     */
+    public static Point25519 decode(byte[] p) {
+        if (p == null || p.length != 32) {
+            return null;
+        }
+
+        Point25519 r = new Point25519();
+
+        long[] t = create();
+        long[] chk = create();
+        long[] num = create();
+        long[] den = create();
+        long[] den2 = create();
+        long[] den4 = create();
+        long[] den6 = create();
+
+        Field25519.set(r.mZ, Field25519.ONE);
+        Field25519.unpack(r.mY, p);
+        square(num, r.mY);
+        mul(den, num, Field25519.D);
+        sub(num, num, r.mZ);
+        Field25519.add(den, r.mZ, den);
+
+        square(den2, den);
+        square(den4, den2);
+        mul(den6, den4, den2);
+        mul(t, den6, num);
+        mul(t, t, den);
+
+        Field25519.pow2523(t, t);
+        mul(t, t, num);
+        mul(t, t, den);
+        mul(t, t, den);
+        mul(r.mX, t, den);
+
+        square(chk, r.mX);
+        mul(chk, chk, den);
+        if (!Field25519.equals(chk, num)) {
+            mul(r.mX, r.mX, Field25519.I);
+        }
+
+        square(chk, r.mX);
+        mul(chk, chk, den);
+        if (!Field25519.equals(chk, num)) {
+            return null;
+        }
+
+        if (Field25519.parity(r.mX) != ((p[31] & 0xff) >> 7)) {
+            sub(r.mX, Field25519.ZERO, r.mX);
+        }
+
+        mul(r.mT, r.mX, r.mY);
+        return r;
+    }
+}
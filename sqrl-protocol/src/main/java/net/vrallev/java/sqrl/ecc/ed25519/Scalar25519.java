@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.ecc.ed25519;
+
+/**
+ * Arithmetic modulo the group order L = 2^252 + 27742317777372353535851937790883648493. Scalars
+ * are 32 byte little endian arrays.
+ *
+ * @author Ralf Wondratschek
+ */
+/*package*/ final class Scalar25519 {
+
+    private static final long[] L = {
+            0xed, 0xd3, 0xf5, 0x5c, 0x1a, 0x63, 0x12, 0x58, 0xd6, 0x9c, 0xf7, 0xa2, 0xde, 0xf9, 0xde, 0x14,
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0x10
+    };
+
+    private Scalar25519() {
+        // no op
+    }
+
+    /**
+     * @return {@code true} if the scalar is smaller than L, signatures with other values must be rejected.
+     */
+    public static boolean isCanonical(byte[] s, int offset) {
+        for (int i = 31; i >= 0; i--) {
+            int a = s[offset + i] & 0xff;
+            if (a < L[i]) {
+                return true;
+            }
+            if (a > L[i]) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reduces a 64 byte value, e.g. a SHA-512 hash, modulo L.
+     */
+    public static byte[] reduce(byte[] r) {
+        long[] x = new long[64];
+        for (int i = 0; i < 64; i++) {
+            x[i] = r[i] & 0xff;
+        }
+        byte[] result = new byte[32];
+        modL(result, x);
+        return result;
+    }
+
+    /**
+     * @return a * b mod L
+     */
+    public static byte[] multiply(byte[] a, byte[] b) {
+        long[] x = new long[64];
+        for (int i = 0; i < 32; i++) {
+            long ai = a[i] & 0xff;
+            for (int j = 0; j < 32; j++) {
+                x[i + j] += ai * (b[j] & 0xff);
+            }
+        }
+        byte[] result = new byte[32];
+        modL(result, x);
+        return result;
+    }
+
+    /**
+     * @return a * b + c mod L
+     */
+    public static byte[] multiplyAdd(byte[] a, byte[] b, byte[] c) {
+        long[] x = new long[64];
+        for (int i = 0; i < 32; i++) {
+            x[i] = c[i] & 0xff;
+        }
+        for (int i = 0; i < 32; i++) {
+            long ai = a[i] & 0xff;
+            for (int j = 0; j < 32; j++) {
+                x[i + j] += ai * (b[j] & 0xff);
+            }
+        }
+        byte[] result = new byte[32];
+        modL(result, x);
+        return result;
+    }
+
+    private static void modL(byte[] r, long[] x) {
+        long carry;
+        int i, j;
+        for (i = 63; i >= 32; --i) {
+            carry = 0;
+            for (j = i - 32; j < i - 12; ++j) {
+                x[j] += carry - 16 * x[i] * L[j - (i - 32)];
+                carry = (x[j] + 128) >> 8;
+                x[j] -= carry << 8;
+            }
+            x[j] += carry;
+            x[i] = 0;
+        }
+
+        carry = 0;
+        for (j = 0; j < 32; j++) {
+            x[j] += carry - (x[31] >> 4) * L[j];
+            carry = x[j] >> 8;
+            x[j] &= 255;
+        }
+        for (j = 0; j < 32; j++) {
+            x[j] -= carry * L[j];
+        }
+        for (i = 0; i < 32; i++) {
+            x[i + 1] += x[i] >> 8;
+            r[i] = (byte) (x[i] & 255);
+        }
+    }
+}
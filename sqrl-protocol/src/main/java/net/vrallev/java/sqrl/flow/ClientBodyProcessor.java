@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.flow;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.ServerParameter;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.metrics.SqrlMetrics;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A processing stage, which parses flattened client bodies, checks their signatures and optionally
+ * creates the answer for each client. The bodies are verified in parallel on an {@link Executor}.
+ * <br>
+ * <br>
+ * At most {@code maxInFlight} bodies are requested from the upstream publisher, which weren't
+ * delivered to the subscriber yet. A slow subscriber therefore slows down the upstream publisher
+ * and the memory usage stays bounded. In the ordered mode the results are delivered in the same
+ * order as the bodies were received, otherwise as soon as they are available.
+ * <br>
+ * <br>
+ * A body, which is invalid, results in a failed {@link VerifiedResult} and doesn't terminate the
+ * stream. The processor supports a single subscriber.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class ClientBodyProcessor implements Flow.Processor<ByteBuffer, VerifiedResult> {
+
+    /**
+     * Creates the answer for a verified client body, e.g. with
+     * {@link SqrlProtocol#answerClient(SqrlClientBody, int)}. Called on a thread of the executor.
+     */
+    public interface Responder {
+
+        ServerParameter.Builder answer(SqrlProtocol protocol, SqrlClientBody clientBody) throws SqrlException;
+    }
+
+    private final SqrlProtocol mProtocol;
+    private final Executor mExecutor;
+    private final Responder mResponder;
+    private final int mMaxInFlight;
+    private final boolean mOrdered;
+
+    private final AtomicReference<Flow.Subscription> mUpstream;
+    private final AtomicReference<Flow.Subscriber<? super VerifiedResult>> mDownstream;
+    private final AtomicBoolean mStarted;
+
+    private final AtomicReferenceArray<VerifiedResult> mOrderedResults;
+    private final Queue<VerifiedResult> mUnorderedResults;
+
+    private final AtomicInteger mInFlight;
+    private final AtomicLong mRequested;
+    private final AtomicInteger mWip;
+
+    private long mNextSequence;
+    private long mNextEmitted;
+
+    private volatile boolean mUpstreamDone;
+    private volatile Throwable mError;
+    private volatile boolean mCancelled;
+    private boolean mTerminated;
+
+    private ClientBodyProcessor(Builder builder) {
+        mProtocol = builder.mProtocol;
+        mExecutor = builder.mExecutor;
+        mResponder = builder.mResponder;
+        mMaxInFlight = builder.mMaxInFlight;
+        mOrdered = builder.mOrdered;
+
+        mUpstream = new AtomicReference<>();
+        mDownstream = new AtomicReference<>();
+        mStarted = new AtomicBoolean();
+
+        mOrderedResults = mOrdered ? new AtomicReferenceArray<VerifiedResult>(mMaxInFlight) : null;
+        mUnorderedResults = mOrdered ? null : new ConcurrentLinkedQueue<VerifiedResult>();
+
+        mInFlight = new AtomicInteger();
+        mRequested = new AtomicLong();
+        mWip = new AtomicInteger();
+    }
+
+    public int getMaxInFlight() {
+        return mMaxInFlight;
+    }
+
+    public boolean isOrdered() {
+        return mOrdered;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super VerifiedResult> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber must not be null");
+        }
+
+        if (!mDownstream.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("this processor supports only one subscriber"));
+            return;
+        }
+
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    fail(new IllegalArgumentException("the demand must be greater than 0, was " + n));
+                    return;
+                }
+
+                long current;
+                long next;
+                do {
+                    current = mRequested.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!mRequested.compareAndSet(current, next));
+
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                mCancelled = true;
+                Flow.Subscription upstream = mUpstream.get();
+                if (upstream != null) {
+                    upstream.cancel();
+                }
+            }
+        });
+
+        start();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (!mUpstream.compareAndSet(null, subscription)) {
+            subscription.cancel();
+            return;
+        }
+        if (mCancelled) {
+            subscription.cancel();
+            return;
+        }
+
+        start();
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+        if (mUpstreamDone || mCancelled) {
+            return;
+        }
+
+        if (mInFlight.incrementAndGet() > mMaxInFlight) {
+            mUpstream.get().cancel();
+            fail(new IllegalStateException("the publisher sent more items than requested"));
+            return;
+        }
+
+        // the publisher may reuse the buffer after this call returns
+        byte[] data = new byte[item.remaining()];
+        item.duplicate().get(data);
+
+        final long sequence = mNextSequence++;
+        final Task task = new Task(sequence, data);
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            mProtocol.getMetrics().recordRejection(SqrlMetrics.Rejection.OVERLOADED);
+            complete(new VerifiedResult(sequence, null, null, new SqrlException("the executor rejected the body", e)));
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (mUpstreamDone) {
+            return;
+        }
+        mError = throwable;
+        mUpstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        mUpstreamDone = true;
+        drain();
+    }
+
+    private void start() {
+        if (mUpstream.get() != null && mDownstream.get() != null && mStarted.compareAndSet(false, true)) {
+            mUpstream.get().request(mMaxInFlight);
+        }
+    }
+
+    private void fail(Throwable throwable) {
+        mError = throwable;
+        mUpstreamDone = true;
+        mCancelled = true;
+
+        Flow.Subscription upstream = mUpstream.get();
+        if (upstream != null) {
+            upstream.cancel();
+        }
+        drain();
+    }
+
+    private void complete(VerifiedResult result) {
+        if (mOrdered) {
+            mOrderedResults.set((int) (result.getSequence() % mMaxInFlight), result);
+        } else {
+            mUnorderedResults.offer(result);
+        }
+        drain();
+    }
+
+    private VerifiedResult poll() {
+        if (!mOrdered) {
+            return mUnorderedResults.poll();
+        }
+
+        int index = (int) (mNextEmitted % mMaxInFlight);
+        VerifiedResult result = mOrderedResults.get(index);
+        if (result != null) {
+            mOrderedResults.set(index, null);
+            mNextEmitted++;
+        }
+        return result;
+    }
+
+    /**
+     * Delivers the available results. Only one thread at a time runs the loop, other threads only
+     * mark that there is more work.
+     */
+    private void drain() {
+        if (mWip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super VerifiedResult> downstream = mDownstream.get();
+            if (downstream != null && !mTerminated) {
+                drainTo(downstream);
+            }
+
+            missed = mWip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void drainTo(Flow.Subscriber<? super VerifiedResult> downstream) {
+        if (mCancelled && mError == null) {
+            mTerminated = true;
+            return;
+        }
+
+        long requested = mRequested.get();
+        long emitted = 0;
+
+        while (emitted != requested && !mCancelled) {
+            VerifiedResult result = poll();
+            if (result == null) {
+                break;
+            }
+
+            mInFlight.decrementAndGet();
+            downstream.onNext(result);
+            emitted++;
+        }
+
+        if (emitted > 0) {
+            if (requested != Long.MAX_VALUE) {
+                mRequested.addAndGet(-emitted);
+            }
+            if (!mUpstreamDone) {
+                mUpstream.get().request(emitted);
+            }
+        }
+
+        if (mUpstreamDone && (mCancelled || mInFlight.get() == 0)) {
+            mTerminated = true;
+            if (mError != null) {
+                downstream.onError(mError);
+            } else {
+                downstream.onComplete();
+            }
+        }
+    }
+
+    private final class Task implements Runnable {
+
+        private final long mSequence;
+        private final byte[] mData;
+
+        private Task(long sequence, byte[] data) {
+            mSequence = sequence;
+            mData = data;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                complete(new VerifiedResult(mSequence, null, null, new SqrlException("cancelled")));
+                return;
+            }
+
+            VerifiedResult result;
+            try {
+                SqrlClientBody clientBody = mProtocol.readSqrlClientBody().from(mData).verified();
+                ServerParameter serverParameter = null;
+                if (mResponder != null) {
+                    serverParameter = mResponder.answer(mProtocol, clientBody).create();
+                }
+                result = new VerifiedResult(mSequence, clientBody, serverParameter, null);
+
+            } catch (SqrlException e) {
+                result = new VerifiedResult(mSequence, null, null, e);
+            } catch (RuntimeException e) {
+                result = new VerifiedResult(mSequence, null, null, new SqrlException(e));
+            }
+
+            complete(result);
+        }
+    }
+
+    public static class Builder {
+
+        private final SqrlProtocol mProtocol;
+        private final Executor mExecutor;
+
+        private Responder mResponder;
+        private int mMaxInFlight;
+        private boolean mOrdered;
+
+        /**
+         * @param protocol the protocol, which is used to parse the bodies and to create the answers.
+         * @param executor the executor, which verifies the bodies. It shouldn't run the tasks on the
+         *                 calling thread to fan out the work.
+         */
+        public Builder(SqrlProtocol protocol, Executor executor) {
+            if (protocol == null || executor == null) {
+                throw new IllegalArgumentException("protocol and executor must not be null");
+            }
+            mProtocol = protocol;
+            mExecutor = executor;
+            mMaxInFlight = Runtime.getRuntime().availableProcessors() * 4;
+            mOrdered = true;
+        }
+
+        /**
+         * Create an answer for each verified body.
+         */
+        public Builder setResponder(Responder responder) {
+            mResponder = responder;
+            return this;
+        }
+
+        /**
+         * @param maxInFlight the maximum number of bodies, which were received, but whose results
+         *                    weren't delivered yet. The default is four times the number of
+         *                    processors.
+         */
+        public Builder setMaxInFlight(int maxInFlight) {
+            if (maxInFlight <= 0) {
+                throw new IllegalArgumentException("maxInFlight must be greater than 0");
+            }
+            mMaxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * @param ordered {@code true} to deliver the results in the order of the received bodies,
+         *                which is the default, {@code false} to deliver them as soon as possible.
+         */
+        public Builder setOrdered(boolean ordered) {
+            mOrdered = ordered;
+            return this;
+        }
+
+        public ClientBodyProcessor build() {
+            return new ClientBodyProcessor(this);
+        }
+    }
+}
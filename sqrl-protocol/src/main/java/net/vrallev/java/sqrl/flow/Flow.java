@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.flow;
+
+/**
+ * The interfaces of a reactive stream. They have the same methods and contracts as the ones in
+ * {@code java.util.concurrent.Flow} and {@code org.reactivestreams}, so that adapters are simple
+ * delegates, but they are available on Java 7 and Android.
+ *
+ * @author Ralf Wondratschek
+ */
+public final class Flow {
+
+    private Flow() {
+        // no instances
+    }
+
+    public interface Publisher<T> {
+
+        /**
+         * Adds the subscriber. {@link Subscriber#onSubscribe(Subscription)} is always called first.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+
+        /**
+         * Adds {@code n} items to the demand. A value less or equal to zero terminates the stream
+         * with an {@link IllegalArgumentException}.
+         */
+        void request(long n);
+
+        void cancel();
+    }
+
+    public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.flow;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.body.ServerParameter;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+
+/**
+ * The outcome of a single client body, which passed a {@link ClientBodyProcessor}.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class VerifiedResult {
+
+    private final long mSequence;
+    private final SqrlClientBody mClientBody;
+    private final ServerParameter mServerParameter;
+    private final SqrlException mFailure;
+
+    /*package*/ VerifiedResult(long sequence, SqrlClientBody clientBody, ServerParameter serverParameter, SqrlException failure) {
+        mSequence = sequence;
+        mClientBody = clientBody;
+        mServerParameter = serverParameter;
+        mFailure = failure;
+    }
+
+    /**
+     * @return the position of the body in the input stream, starting with 0.
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * @return {@code true} if the body was parsed and all signatures matched.
+     */
+    public boolean isVerified() {
+        return mFailure == null;
+    }
+
+    /**
+     * @return the verified body or {@code null}, if the verification failed.
+     */
+    public SqrlClientBody getClientBody() {
+        return mClientBody;
+    }
+
+    /**
+     * @return the answer for the client or {@code null}, if the verification failed or no
+     * {@link ClientBodyProcessor.Responder} was set.
+     */
+    public ServerParameter getServerParameter() {
+        return mServerParameter;
+    }
+
+    /**
+     * @return the reason, why the verification failed, or {@code null}.
+     */
+    public SqrlException getFailure() {
+        return mFailure;
+    }
+}
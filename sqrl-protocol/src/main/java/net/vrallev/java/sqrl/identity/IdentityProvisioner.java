@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.identity;
+
+import net.vrallev.java.sqrl.ecc.EccKeyPair;
+import net.vrallev.java.sqrl.ecc.EccProvider25519;
+import net.vrallev.java.sqrl.store.IdentityRecord;
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Generates complete identities in parallel, e.g. for load tests and migrations. Each identity
+ * consists of a random identity unlock key, the derived identity master key and identity lock
+ * key, a rescue code and an {@link IdentityRecord} for each site.
+ * <br>
+ * <br>
+ * The identities are generated in chunks on a fork join pool. At most a fixed number of chunks is
+ * pending at the same time, so the memory stays bounded independent of the total count. The sink
+ * receives the identities in order on the calling thread.
+ *
+ * @author Ralf Wondratschek
+ */
+public final class IdentityProvisioner {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int ENHASH_ROUNDS = 16;
+
+    /**
+     * Receives the generated identities.
+     */
+    public interface Sink {
+        /**
+         * Called on the thread, which started the provisioning, in the order of the indices.
+         */
+        void accept(ProvisionedIdentity identity) throws IOException;
+    }
+
+    private final SqrlCipherTool mCipherTool;
+    private final EccProvider25519 mEccProvider;
+    private final List<String> mSiteKeys;
+    private final ForkJoinPool mPool;
+    private final int mChunkSize;
+    private final int mMaxPendingChunks;
+
+    private IdentityProvisioner(Builder builder) {
+        mCipherTool = builder.mCipherTool;
+        mEccProvider = builder.mEccProvider;
+        mSiteKeys = builder.mSiteKeys;
+        mPool = builder.mPool;
+        mChunkSize = builder.mChunkSize;
+        mMaxPendingChunks = builder.mMaxPendingChunks > 0 ? builder.mMaxPendingChunks : 2 * mPool.getParallelism();
+    }
+
+    /**
+     * Generates the identities and passes them to the sink. If the sink throws an exception or
+     * the thread is interrupted, then the pending chunks are cancelled.
+     *
+     * @return the number of identities, which the sink received.
+     * @throws IOException          if the sink failed.
+     * @throws InterruptedException if the thread was interrupted.
+     */
+    public long provision(long count, Sink sink) throws IOException, InterruptedException {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative");
+        }
+
+        ArrayDeque<ForkJoinTask<ProvisionedIdentity[]>> pending = new ArrayDeque<>(mMaxPendingChunks);
+        long submitted = 0;
+        long delivered = 0;
+
+        try {
+            while (delivered < count) {
+                while (submitted < count && pending.size() < mMaxPendingChunks) {
+                    int size = (int) Math.min(mChunkSize, count - submitted);
+                    pending.add(mPool.submit(new ChunkTask(submitted, size)));
+                    submitted += size;
+                }
+
+                ProvisionedIdentity[] chunk = pending.poll().get();
+                for (ProvisionedIdentity identity : chunk) {
+                    sink.accept(identity);
+                }
+                delivered += chunk.length;
+            }
+
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+
+        } finally {
+            for (ForkJoinTask<ProvisionedIdentity[]> task : pending) {
+                task.cancel(true);
+            }
+        }
+
+        return delivered;
+    }
+
+    /**
+     * Generates a single identity on the calling thread.
+     */
+    public ProvisionedIdentity createIdentity(long index) {
+        byte[] unlockKey = mCipherTool.createRandomHash(256);
+        EccKeyPair unlockKeyPair = mEccProvider.computeKeyPair(unlockKey);
+        unlockKey = unlockKeyPair.getPrivateKey();
+        byte[] lockKey = unlockKeyPair.getPublicKeyDiffieHellman();
+        byte[] masterKey = mCipherTool.getHashChained(unlockKey, ENHASH_ROUNDS);
+
+        List<IdentityRecord> records = new ArrayList<>(mSiteKeys.size());
+        for (String siteKey : mSiteKeys) {
+            byte[] privateSiteKey = mCipherTool.computeHmac(siteKey.getBytes(UTF_8), masterKey);
+            byte[] identityKey = mEccProvider.computeKeyPair(privateSiteKey).getPublicKeySignature();
+
+            // the random lock key is only needed to derive the server unlock key and verify unlock key
+            EccKeyPair randomLockKeyPair = mEccProvider.computeKeyPair(mCipherTool.createRandomHash(256));
+            byte[] serverUnlockKey = randomLockKeyPair.getPublicKeyDiffieHellman();
+            byte[] unlockRequestSigningKey = mEccProvider.diffieHellman(randomLockKeyPair.getPrivateKey(), lockKey);
+            byte[] verifyUnlockKey = mEccProvider.computeKeyPair(unlockRequestSigningKey).getPublicKeySignature();
+
+            records.add(new IdentityRecord(identityKey, serverUnlockKey, verifyUnlockKey, 0));
+        }
+
+        return new ProvisionedIdentity(index, unlockKey, masterKey, lockKey, mCipherTool.createRescueCode(), Collections.unmodifiableList(records));
+    }
+
+    @SuppressWarnings("serial")
+    private final class ChunkTask extends RecursiveTask<ProvisionedIdentity[]> {
+
+        private final long mStart;
+        private final int mSize;
+
+        private ChunkTask(long start, int size) {
+            mStart = start;
+            mSize = size;
+        }
+
+        @Override
+        protected ProvisionedIdentity[] compute() {
+            ProvisionedIdentity[] result = new ProvisionedIdentity[mSize];
+            for (int i = 0; i < mSize; i++) {
+                if (isCancelled()) {
+                    break;
+                }
+                result[i] = createIdentity(mStart + i);
+            }
+            return result;
+        }
+    }
+
+    public static class Builder {
+
+        private final SqrlCipherTool mCipherTool;
+        private final EccProvider25519 mEccProvider;
+
+        private List<String> mSiteKeys = Collections.emptyList();
+        private ForkJoinPool mPool;
+        private int mChunkSize = 64;
+        private int mMaxPendingChunks;
+
+        public Builder(SqrlCipherTool cipherTool, EccProvider25519 eccProvider) {
+            mCipherTool = cipherTool;
+            mEccProvider = eccProvider;
+        }
+
+        /**
+         * @param siteKeys the sites, for which each identity gets a record.
+         */
+        public Builder setSiteKeys(List<String> siteKeys) {
+            mSiteKeys = Collections.unmodifiableList(new ArrayList<>(siteKeys));
+            return this;
+        }
+
+        /**
+         * @param pool the pool, which generates the identities. Defaults to a pool with one thread
+         *             per core, which is shared by all provisioners.
+         */
+        public Builder setPool(ForkJoinPool pool) {
+            mPool = pool;
+            return this;
+        }
+
+        /**
+         * @param chunkSize the number of identities, which a task generates.
+         */
+        public Builder setChunkSize(int chunkSize) {
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("chunkSize must be positive");
+            }
+            mChunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param maxPendingChunks the maximum number of chunks, which are generated or wait for the
+         *                         sink. Defaults to twice the parallelism of the pool.
+         */
+        public Builder setMaxPendingChunks(int maxPendingChunks) {
+            if (maxPendingChunks < 1) {
+                throw new IllegalArgumentException("maxPendingChunks must be positive");
+            }
+            mMaxPendingChunks = maxPendingChunks;
+            return this;
+        }
+
+        public IdentityProvisioner build() {
+            if (mPool == null) {
+                mPool = DefaultPool.POOL;
+            }
+            return new IdentityProvisioner(this);
+        }
+    }
+
+    /**
+     * Java 7 has no common pool, the default pool is created lazily by the class loader.
+     */
+    private static final class DefaultPool {
+        private static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.identity;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.util.EnScrypt;
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The block of type 1, which stores the identity master key and the identity lock key encrypted
+ * with a key derived from the password. The first 45 bytes are the plain text header, which is
+ * authenticated as additional data of AES-GCM.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class PasswordBlock extends S4Block {
+
+    /*package*/ static final int LENGTH = 125;
+
+    private static final int PLAIN_LENGTH = 45;
+    private static final int IV_OFFSET = 6;
+    private static final int IV_LENGTH = 12;
+    private static final int SALT_OFFSET = 18;
+    private static final int SALT_LENGTH = 16;
+    private static final int LOG_N_OFFSET = 34;
+    private static final int ITERATIONS_OFFSET = 35;
+    private static final int OPTIONS_OFFSET = 39;
+    private static final int HINT_LENGTH_OFFSET = 41;
+    private static final int VERIFY_SECONDS_OFFSET = 42;
+    private static final int IDLE_TIMEOUT_OFFSET = 43;
+    private static final int KEYS_OFFSET = PLAIN_LENGTH;
+    private static final int KEY_LENGTH = 32;
+    private static final int TAG_OFFSET = KEYS_OFFSET + 2 * KEY_LENGTH;
+    private static final int TAG_LENGTH = 16;
+
+    /*package*/ PasswordBlock(ByteBuffer buffer) {
+        super(buffer);
+    }
+
+    public byte[] getIv() {
+        return getBytes(IV_OFFSET, IV_LENGTH);
+    }
+
+    public byte[] getSalt() {
+        return getBytes(SALT_OFFSET, SALT_LENGTH);
+    }
+
+    public int getLogN() {
+        return mBuffer.get(LOG_N_OFFSET) & 0xff;
+    }
+
+    public int getIterations() {
+        return mBuffer.getInt(ITERATIONS_OFFSET);
+    }
+
+    public int getOptionFlags() {
+        return mBuffer.getShort(OPTIONS_OFFSET) & 0xffff;
+    }
+
+    public int getHintLength() {
+        return mBuffer.get(HINT_LENGTH_OFFSET) & 0xff;
+    }
+
+    public int getPasswordVerifySeconds() {
+        return mBuffer.get(VERIFY_SECONDS_OFFSET) & 0xff;
+    }
+
+    public int getIdleTimeoutMinutes() {
+        return mBuffer.getShort(IDLE_TIMEOUT_OFFSET) & 0xffff;
+    }
+
+    /**
+     * Derives the key from the password with EnScrypt and decrypts both keys.
+     *
+     * @param enScrypt an engine, which is reused if its parameters match the block. May be
+     *                 {@code null}.
+     * @param listener receives the progress of EnScrypt, may be {@code null}.
+     * @throws SqrlException if the password is wrong or the block was modified.
+     * @throws InterruptedException if the thread was interrupted during the key derivation.
+     */
+    public Keys decrypt(SqrlCipherTool cipherTool, EnScrypt enScrypt, byte[] password, EnScrypt.ProgressListener listener)
+            throws SqrlException, InterruptedException {
+
+        int iterations = getIterations();
+        if (iterations < 1) {
+            throw new SqrlException("corrupt password block");
+        }
+
+        byte[] key = getEnScrypt(enScrypt, getLogN()).hash(password, getSalt(), iterations, listener);
+        byte[] keys = null;
+        try {
+            keys = cipherTool.aesGcmDecrypt(getBytes(KEYS_OFFSET, 2 * KEY_LENGTH), getBytes(TAG_OFFSET, TAG_LENGTH), key, getIv(),
+                    getBytes(0, PLAIN_LENGTH));
+
+            return new Keys(Arrays.copyOf(keys, KEY_LENGTH), Arrays.copyOfRange(keys, KEY_LENGTH, 2 * KEY_LENGTH));
+
+        } catch (IllegalArgumentException e) {
+            throw new SqrlException("wrong password or corrupt password block", e);
+        } finally {
+            fill(key);
+            fill(keys);
+        }
+    }
+
+    /**
+     * The decrypted keys of the block.
+     */
+    public static final class Keys {
+
+        private final byte[] mMasterKey;
+        private final byte[] mLockKey;
+
+        private Keys(byte[] masterKey, byte[] lockKey) {
+            mMasterKey = masterKey;
+            mLockKey = lockKey;
+        }
+
+        /**
+         * @return the identity master key.
+         */
+        public byte[] getMasterKey() {
+            return mMasterKey;
+        }
+
+        /**
+         * @return the identity lock key.
+         */
+        public byte[] getLockKey() {
+            return mLockKey;
+        }
+    }
+
+    /**
+     * Creates a new block. By default EnScrypt runs as long as the password verify time, five
+     * seconds, and the reached number of iterations is stored.
+     */
+    public static class Builder {
+
+        private final SqrlCipherTool mCipherTool;
+
+        private EnScrypt mEnScrypt;
+        private EnScrypt.ProgressListener mListener;
+        private int mIterations;
+        private int mOptionFlags;
+        private int mHintLength = 4;
+        private int mPasswordVerifySeconds = 5;
+        private int mIdleTimeoutMinutes = 15;
+
+        public Builder(SqrlCipherTool cipherTool) {
+            mCipherTool = cipherTool;
+        }
+
+        /**
+         * @param enScrypt the engine, its parameters r and p must be the defaults.
+         */
+        public Builder setEnScrypt(EnScrypt enScrypt) {
+            if (enScrypt.getR() != EnScrypt.DEFAULT_R || enScrypt.getP() != EnScrypt.DEFAULT_P) {
+                throw new IllegalArgumentException("S4 only supports r = 256 and p = 1");
+            }
+            mEnScrypt = enScrypt;
+            return this;
+        }
+
+        public Builder setProgressListener(EnScrypt.ProgressListener listener) {
+            mListener = listener;
+            return this;
+        }
+
+        /**
+         * Uses a fixed number of iterations instead of the password verify time.
+         */
+        public Builder setIterations(int iterations) {
+            if (iterations < 1) {
+                throw new IllegalArgumentException("iterations must be positive");
+            }
+            mIterations = iterations;
+            return this;
+        }
+
+        public Builder setOptionFlags(int optionFlags) {
+            mOptionFlags = checkRange(optionFlags, 0xffff);
+            return this;
+        }
+
+        public Builder setHintLength(int hintLength) {
+            mHintLength = checkRange(hintLength, 0xff);
+            return this;
+        }
+
+        public Builder setPasswordVerifySeconds(int passwordVerifySeconds) {
+            mPasswordVerifySeconds = checkRange(passwordVerifySeconds, 0xff);
+            return this;
+        }
+
+        public Builder setIdleTimeoutMinutes(int idleTimeoutMinutes) {
+            mIdleTimeoutMinutes = checkRange(idleTimeoutMinutes, 0xffff);
+            return this;
+        }
+
+        /**
+         * @throws InterruptedException if the thread was interrupted during the key derivation.
+         */
+        public PasswordBlock build(byte[] masterKey, byte[] lockKey, byte[] password) throws InterruptedException {
+            if (masterKey == null || masterKey.length != KEY_LENGTH || lockKey == null || lockKey.length != KEY_LENGTH) {
+                throw new IllegalArgumentException("illegal key length");
+            }
+            if (mIterations == 0 && mPasswordVerifySeconds == 0) {
+                throw new IllegalStateException("neither iterations nor a password verify time were set");
+            }
+
+            EnScrypt enScrypt = mEnScrypt == null ? new EnScrypt() : mEnScrypt;
+
+            ByteBuffer buffer = ByteBuffer.allocate(LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] array = buffer.array();
+            buffer.putShort(0, (short) LENGTH);
+            buffer.putShort(2, (short) TYPE_PASSWORD);
+            buffer.putShort(4, (short) PLAIN_LENGTH);
+            mCipherTool.createRandomHash(array, IV_OFFSET, IV_LENGTH);
+            mCipherTool.createRandomHash(array, SALT_OFFSET, SALT_LENGTH);
+            buffer.put(LOG_N_OFFSET, (byte) enScrypt.getLogN());
+            buffer.putShort(OPTIONS_OFFSET, (short) mOptionFlags);
+            buffer.put(HINT_LENGTH_OFFSET, (byte) mHintLength);
+            buffer.put(VERIFY_SECONDS_OFFSET, (byte) mPasswordVerifySeconds);
+            buffer.putShort(IDLE_TIMEOUT_OFFSET, (short) mIdleTimeoutMinutes);
+
+            byte[] salt = Arrays.copyOfRange(array, SALT_OFFSET, SALT_OFFSET + SALT_LENGTH);
+            byte[] key;
+            if (mIterations > 0) {
+                key = enScrypt.hash(password, salt, mIterations, mListener);
+                buffer.putInt(ITERATIONS_OFFSET, mIterations);
+            } else {
+                EnScrypt.Result result = enScrypt.hashForDuration(password, salt, mPasswordVerifySeconds, TimeUnit.SECONDS, mListener);
+                key = result.getKey();
+                buffer.putInt(ITERATIONS_OFFSET, result.getIterations());
+            }
+
+            byte[] keys = new byte[2 * KEY_LENGTH];
+            System.arraycopy(masterKey, 0, keys, 0, KEY_LENGTH);
+            System.arraycopy(lockKey, 0, keys, KEY_LENGTH, KEY_LENGTH);
+
+            SqrlCipherTool.AesGcmResult result = mCipherTool.aesGcmEncrypt(keys, key, Arrays.copyOfRange(array, IV_OFFSET, IV_OFFSET + IV_LENGTH),
+                    Arrays.copyOf(array, PLAIN_LENGTH));
+            System.arraycopy(result.getEncryptedMessage(), 0, array, KEYS_OFFSET, 2 * KEY_LENGTH);
+            System.arraycopy(result.getTag(), 0, array, TAG_OFFSET, TAG_LENGTH);
+
+            fill(key);
+            fill(keys);
+            return new PasswordBlock(buffer);
+        }
+    }
+
+    /*package*/ static int checkRange(int value, int max) {
+        if (value < 0 || value > max) {
+            throw new IllegalArgumentException("value out of range " + value);
+        }
+        return value;
+    }
+}
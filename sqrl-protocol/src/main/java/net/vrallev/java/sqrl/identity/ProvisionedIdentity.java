@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.identity;
+
+import net.vrallev.java.sqrl.store.IdentityRecord;
+
+import java.util.List;
+
+/**
+ * A generated identity with all keys and the records for each site of the
+ * {@link IdentityProvisioner}.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class ProvisionedIdentity {
+
+    private final long mIndex;
+    private final byte[] mUnlockKey;
+    private final byte[] mMasterKey;
+    private final byte[] mLockKey;
+    private final String mRescueCode;
+    private final List<IdentityRecord> mRecords;
+
+    /*package*/ ProvisionedIdentity(long index, byte[] unlockKey, byte[] masterKey, byte[] lockKey, String rescueCode, List<IdentityRecord> records) {
+        mIndex = index;
+        mUnlockKey = unlockKey;
+        mMasterKey = masterKey;
+        mLockKey = lockKey;
+        mRescueCode = rescueCode;
+        mRecords = records;
+    }
+
+    /**
+     * @return the position of this identity in the provisioned sequence, starting with 0.
+     */
+    public long getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * @return the identity unlock key.
+     */
+    public byte[] getUnlockKey() {
+        return mUnlockKey;
+    }
+
+    /**
+     * @return the identity master key, derived from the identity unlock key.
+     */
+    public byte[] getMasterKey() {
+        return mMasterKey;
+    }
+
+    /**
+     * @return the identity lock key, the public key of the identity unlock key.
+     */
+    public byte[] getLockKey() {
+        return mLockKey;
+    }
+
+    /**
+     * @return the 24 digit rescue code.
+     */
+    public String getRescueCode() {
+        return mRescueCode;
+    }
+
+    /**
+     * @return the records, which the servers store, in the order of the site keys.
+     */
+    public List<IdentityRecord> getRecords() {
+        return mRecords;
+    }
+}
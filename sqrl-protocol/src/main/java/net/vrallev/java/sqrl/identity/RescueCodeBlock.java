@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.identity;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.util.EnScrypt;
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The block of type 2, which stores the identity unlock key encrypted with a key derived from the
+ * 24 digit rescue code. The first 25 bytes are the plain text header, which is authenticated as
+ * additional data of AES-GCM. The IV is always zero, because each key is only used once.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class RescueCodeBlock extends S4Block {
+
+    /*package*/ static final int LENGTH = 73;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int PLAIN_LENGTH = 25;
+    private static final int SALT_OFFSET = 4;
+    private static final int SALT_LENGTH = 16;
+    private static final int LOG_N_OFFSET = 20;
+    private static final int ITERATIONS_OFFSET = 21;
+    private static final int KEY_OFFSET = PLAIN_LENGTH;
+    private static final int KEY_LENGTH = 32;
+    private static final int TAG_OFFSET = KEY_OFFSET + KEY_LENGTH;
+    private static final int TAG_LENGTH = 16;
+
+    /*package*/ RescueCodeBlock(ByteBuffer buffer) {
+        super(buffer);
+    }
+
+    public byte[] getSalt() {
+        return getBytes(SALT_OFFSET, SALT_LENGTH);
+    }
+
+    public int getLogN() {
+        return mBuffer.get(LOG_N_OFFSET) & 0xff;
+    }
+
+    public int getIterations() {
+        return mBuffer.getInt(ITERATIONS_OFFSET);
+    }
+
+    /**
+     * Derives the key from the rescue code with EnScrypt and decrypts the identity unlock key.
+     *
+     * @param enScrypt an engine, which is reused if its parameters match the block. May be
+     *                 {@code null}.
+     * @param listener receives the progress of EnScrypt, may be {@code null}.
+     * @throws SqrlException if the rescue code is wrong or the block was modified.
+     * @throws InterruptedException if the thread was interrupted during the key derivation.
+     */
+    public byte[] decrypt(SqrlCipherTool cipherTool, EnScrypt enScrypt, String rescueCode, EnScrypt.ProgressListener listener)
+            throws SqrlException, InterruptedException {
+
+        int iterations = getIterations();
+        if (iterations < 1) {
+            throw new SqrlException("corrupt rescue code block");
+        }
+
+        byte[] key = getEnScrypt(enScrypt, getLogN()).hash(rescueCode.getBytes(UTF_8), getSalt(), iterations, listener);
+        try {
+            return cipherTool.aesGcmDecrypt(getBytes(KEY_OFFSET, KEY_LENGTH), getBytes(TAG_OFFSET, TAG_LENGTH), key, new byte[12],
+                    getBytes(0, PLAIN_LENGTH));
+
+        } catch (IllegalArgumentException e) {
+            throw new SqrlException("wrong rescue code or corrupt rescue code block", e);
+        } finally {
+            fill(key);
+        }
+    }
+
+    /**
+     * Creates a new block with a fixed number of EnScrypt iterations.
+     */
+    public static class Builder {
+
+        private final SqrlCipherTool mCipherTool;
+
+        private EnScrypt mEnScrypt;
+        private EnScrypt.ProgressListener mListener;
+        private int mIterations = 150;
+
+        public Builder(SqrlCipherTool cipherTool) {
+            mCipherTool = cipherTool;
+        }
+
+        /**
+         * @param enScrypt the engine, its parameters r and p must be the defaults.
+         */
+        public Builder setEnScrypt(EnScrypt enScrypt) {
+            if (enScrypt.getR() != EnScrypt.DEFAULT_R || enScrypt.getP() != EnScrypt.DEFAULT_P) {
+                throw new IllegalArgumentException("S4 only supports r = 256 and p = 1");
+            }
+            mEnScrypt = enScrypt;
+            return this;
+        }
+
+        public Builder setProgressListener(EnScrypt.ProgressListener listener) {
+            mListener = listener;
+            return this;
+        }
+
+        public Builder setIterations(int iterations) {
+            if (iterations < 1) {
+                throw new IllegalArgumentException("iterations must be positive");
+            }
+            mIterations = iterations;
+            return this;
+        }
+
+        /**
+         * @throws InterruptedException if the thread was interrupted during the key derivation.
+         */
+        public RescueCodeBlock build(byte[] unlockKey, String rescueCode) throws InterruptedException {
+            if (unlockKey == null || unlockKey.length != KEY_LENGTH) {
+                throw new IllegalArgumentException("illegal key length");
+            }
+
+            EnScrypt enScrypt = mEnScrypt == null ? new EnScrypt() : mEnScrypt;
+
+            ByteBuffer buffer = ByteBuffer.allocate(LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] array = buffer.array();
+            buffer.putShort(0, (short) LENGTH);
+            buffer.putShort(2, (short) TYPE_RESCUE_CODE);
+            mCipherTool.createRandomHash(array, SALT_OFFSET, SALT_LENGTH);
+            buffer.put(LOG_N_OFFSET, (byte) enScrypt.getLogN());
+            buffer.putInt(ITERATIONS_OFFSET, mIterations);
+
+            byte[] salt = Arrays.copyOfRange(array, SALT_OFFSET, SALT_OFFSET + SALT_LENGTH);
+            byte[] key = enScrypt.hash(rescueCode.getBytes(UTF_8), salt, mIterations, mListener);
+
+            SqrlCipherTool.AesGcmResult result = mCipherTool.aesGcmEncrypt(unlockKey, key, new byte[12], Arrays.copyOf(array, PLAIN_LENGTH));
+            System.arraycopy(result.getEncryptedMessage(), 0, array, KEY_OFFSET, KEY_LENGTH);
+            System.arraycopy(result.getTag(), 0, array, TAG_OFFSET, TAG_LENGTH);
+
+            fill(key);
+            return new RescueCodeBlock(buffer);
+        }
+    }
+}
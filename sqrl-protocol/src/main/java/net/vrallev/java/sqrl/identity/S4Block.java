@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.identity;
+
+import net.vrallev.java.sqrl.util.EnScrypt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A block of an S4 identity container. Each block starts with its total length and its type as
+ * little endian 16 bit integers. The block is a view of the container's buffer, nothing is copied
+ * until a field is read.
+ *
+ * @author Ralf Wondratschek
+ * @see PasswordBlock
+ * @see RescueCodeBlock
+ */
+public class S4Block {
+
+    /**
+     * The identity master and lock key, encrypted with the password.
+     */
+    public static final int TYPE_PASSWORD = 1;
+    /**
+     * The identity unlock key, encrypted with the rescue code.
+     */
+    public static final int TYPE_RESCUE_CODE = 2;
+    /**
+     * The previous identity unlock keys, encrypted with the identity master key.
+     */
+    public static final int TYPE_PREVIOUS_KEYS = 3;
+
+    /*package*/ static final int HEADER_LENGTH = 4;
+
+    /*package*/ final ByteBuffer mBuffer;
+
+    /*package*/ S4Block(ByteBuffer buffer) {
+        mBuffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /*package*/ static S4Block create(ByteBuffer buffer) {
+        int length = buffer.getShort(buffer.position()) & 0xffff;
+        int type = buffer.getShort(buffer.position() + 2) & 0xffff;
+
+        if (type == TYPE_PASSWORD && length == PasswordBlock.LENGTH) {
+            return new PasswordBlock(buffer);
+        } else if (type == TYPE_RESCUE_CODE && length == RescueCodeBlock.LENGTH) {
+            return new RescueCodeBlock(buffer);
+        } else {
+            return new S4Block(buffer);
+        }
+    }
+
+    /**
+     * @return the length of the block including the header.
+     */
+    public int getLength() {
+        return mBuffer.limit();
+    }
+
+    public int getType() {
+        return mBuffer.getShort(2) & 0xffff;
+    }
+
+    /**
+     * @return a read only view of the whole block including the header.
+     */
+    public ByteBuffer getData() {
+        return mBuffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /*package*/ byte[] getBytes(int offset, int length) {
+        byte[] result = new byte[length];
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(offset);
+        view.get(result);
+        return result;
+    }
+
+    /*package*/ static EnScrypt getEnScrypt(EnScrypt enScrypt, int logN) {
+        if (enScrypt != null && enScrypt.getLogN() == logN && enScrypt.getR() == EnScrypt.DEFAULT_R && enScrypt.getP() == EnScrypt.DEFAULT_P) {
+            return enScrypt;
+        }
+        return new EnScrypt(logN, EnScrypt.DEFAULT_R, EnScrypt.DEFAULT_P);
+    }
+
+    /*package*/ static void fill(byte[] array) {
+        if (array != null) {
+            for (int i = 0; i < array.length; i++) {
+                array[i] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.identity;
+
+import net.vrallev.java.sqrl.util.Base64Url;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An identity in the S4 storage format of SQRL. The binary format starts with {@code sqrldata},
+ * followed by the blocks. The text format starts with {@code SQRLDATA}, followed by the Base64
+ * encoded blocks.
+ * <br>
+ * <br>
+ * A file is memory mapped and the blocks are views of the mapping. The block headers are parsed
+ * when the blocks are accessed for the first time and the encrypted blocks are only decrypted on
+ * demand. Instances are immutable and safe to share between threads.
+ *
+ * @author Ralf Wondratschek
+ * @see S4Scanner
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class S4Identity {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] BINARY_HEADER = "sqrldata".getBytes(ASCII);
+    private static final byte[] TEXT_HEADER = "SQRLDATA".getBytes(ASCII);
+    private static final int HEADER_LENGTH = 8;
+
+    private static final int MAX_FILE_SIZE = 1 << 20;
+
+    private final ByteBuffer mBuffer;
+    private volatile List<S4Block> mBlocks;
+
+    private S4Identity(ByteBuffer blocks) {
+        mBuffer = blocks.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Maps the file into memory. Only the file header is checked.
+     *
+     * @throws IOException if the file can't be read or isn't an S4 identity.
+     */
+    public static S4Identity open(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size < HEADER_LENGTH || size > MAX_FILE_SIZE) {
+                throw new IOException("not an S4 identity " + file);
+            }
+
+            // the mapping stays valid after the channel was closed
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Wraps the remaining bytes of the buffer in the binary or text format without copying
+     * the binary format.
+     *
+     * @throws IOException if the data isn't an S4 identity.
+     */
+    public static S4Identity parse(ByteBuffer buffer) throws IOException {
+        ByteBuffer data = buffer.slice();
+        if (data.remaining() < HEADER_LENGTH) {
+            throw new IOException("not an S4 identity");
+        }
+
+        if (startsWith(data, BINARY_HEADER)) {
+            data.position(HEADER_LENGTH);
+            return new S4Identity(data);
+
+        } else if (startsWith(data, TEXT_HEADER)) {
+            data.position(HEADER_LENGTH);
+            byte[] text = new byte[data.remaining()];
+            data.get(text);
+
+            int length = trimWhitespace(text);
+            try {
+                byte[] decoded = new byte[Base64Url.getDecodedLength(length)];
+                Base64Url.decode(text, 0, length, decoded, 0);
+                return new S4Identity(ByteBuffer.wrap(decoded));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("corrupt S4 identity", e);
+            }
+
+        } else {
+            throw new IOException("not an S4 identity");
+        }
+    }
+
+    /**
+     * Creates an identity out of the given blocks.
+     */
+    public static S4Identity create(S4Block... blocks) {
+        int length = 0;
+        for (S4Block block : blocks) {
+            length += block.getLength();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (S4Block block : blocks) {
+            buffer.put(block.getData());
+        }
+        buffer.flip();
+        return new S4Identity(buffer);
+    }
+
+    /**
+     * @return all blocks in the order of the file.
+     * @throws IllegalStateException if a block header is corrupt.
+     */
+    public List<S4Block> getBlocks() {
+        List<S4Block> blocks = mBlocks;
+        if (blocks == null) {
+            blocks = parseBlocks();
+            mBlocks = blocks;
+        }
+        return blocks;
+    }
+
+    /**
+     * @return the first block with the given type or {@code null}.
+     */
+    public S4Block findBlock(int type) {
+        for (S4Block block : getBlocks()) {
+            if (block.getType() == type) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the password block or {@code null}, if the identity doesn't contain one.
+     */
+    public PasswordBlock getPasswordBlock() {
+        S4Block block = findBlock(S4Block.TYPE_PASSWORD);
+        return block instanceof PasswordBlock ? (PasswordBlock) block : null;
+    }
+
+    /**
+     * @return the rescue code block or {@code null}, if the identity doesn't contain one.
+     */
+    public RescueCodeBlock getRescueCodeBlock() {
+        S4Block block = findBlock(S4Block.TYPE_RESCUE_CODE);
+        return block instanceof RescueCodeBlock ? (RescueCodeBlock) block : null;
+    }
+
+    /**
+     * @return the identity in the binary format.
+     */
+    public byte[] toByteArray() {
+        byte[] result = new byte[HEADER_LENGTH + mBuffer.limit()];
+        System.arraycopy(BINARY_HEADER, 0, result, 0, HEADER_LENGTH);
+        mBuffer.duplicate().get(result, HEADER_LENGTH, mBuffer.limit());
+        return result;
+    }
+
+    /**
+     * @return the identity in the text format.
+     */
+    public String toText() {
+        byte[] blocks = new byte[mBuffer.limit()];
+        mBuffer.duplicate().get(blocks);
+        return new String(TEXT_HEADER, ASCII) + Base64Url.encodeToString(blocks);
+    }
+
+    /**
+     * Writes the identity in the binary format.
+     */
+    public void writeTo(File file) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(toByteArray());
+            outputStream.getFD().sync();
+        }
+    }
+
+    private List<S4Block> parseBlocks() {
+        List<S4Block> blocks = new ArrayList<>();
+        ByteBuffer buffer = mBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        int position = 0;
+        int limit = buffer.limit();
+        while (position < limit) {
+            if (limit - position < S4Block.HEADER_LENGTH) {
+                throw new IllegalStateException("truncated block header at " + position);
+            }
+
+            int length = buffer.getShort(position) & 0xffff;
+            if (length < S4Block.HEADER_LENGTH || length > limit - position) {
+                throw new IllegalStateException("illegal block length " + length + " at " + position);
+            }
+
+            buffer.limit(position + length).position(position);
+            blocks.add(S4Block.create(buffer));
+            buffer.limit(limit);
+            position += length;
+        }
+
+        return Collections.unmodifiableList(blocks);
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(buffer.position() + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int trimWhitespace(byte[] text) {
+        int length = text.length;
+        while (length > 0 && text[length - 1] <= ' ') {
+            length--;
+        }
+        return length;
+    }
+}
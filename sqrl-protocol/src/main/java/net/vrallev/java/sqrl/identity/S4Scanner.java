@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.identity;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Opens all identities of a directory in parallel, e.g. to check or recover a batch of identities.
+ * The files are split into chunks, each chunk is processed by one task of the executor. Opening
+ * an identity only maps the file and parses the block headers, nothing is decrypted.
+ *
+ * @author Ralf Wondratschek
+ */
+public final class S4Scanner {
+
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Receives the results of a scan. The methods are called concurrently from the threads of the
+     * executor.
+     */
+    public interface Visitor {
+
+        void onIdentity(File file, S4Identity identity);
+
+        /**
+         * @param e an {@link IOException}, if the file couldn't be read or isn't an identity, or an
+         *          {@link IllegalStateException}, if a block header is corrupt.
+         */
+        void onError(File file, Exception e);
+    }
+
+    private S4Scanner() {
+        // no op
+    }
+
+    /**
+     * Scans all regular files of the directory and blocks until all files were visited.
+     *
+     * @param filter      selects the files, may be {@code null}.
+     * @param parallelism the number of tasks, which run at the same time, usually the number of
+     *                    threads of the executor.
+     * @return the number of valid identities.
+     * @throws IOException          if the directory can't be listed.
+     * @throws InterruptedException if the thread was interrupted while waiting. The pending tasks
+     *                              are cancelled.
+     */
+    public static int scan(File directory, final FileFilter filter, ExecutorService executor, int parallelism, final Visitor visitor)
+            throws IOException, InterruptedException {
+
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && (filter == null || filter.accept(file));
+            }
+        });
+        if (files == null) {
+            throw new IOException("can't list " + directory);
+        }
+        if (files.length == 0) {
+            return 0;
+        }
+
+        int chunkCount = Math.min(files.length, Math.max(1, parallelism) * CHUNKS_PER_THREAD);
+        int chunkSize = (files.length + chunkCount - 1) / chunkCount;
+
+        List<Future<Integer>> futures = new ArrayList<>(chunkCount);
+        for (int start = 0; start < files.length; start += chunkSize) {
+            final File[] chunk = new File[Math.min(chunkSize, files.length - start)];
+            System.arraycopy(files, start, chunk, 0, chunk.length);
+
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return scanChunk(chunk, visitor);
+                }
+            }));
+        }
+
+        int count = 0;
+        try {
+            for (Future<Integer> future : futures) {
+                count += future.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<Integer> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            for (Future<Integer> future : futures) {
+                future.cancel(true);
+            }
+
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+
+        return count;
+    }
+
+    private static int scanChunk(File[] files, Visitor visitor) {
+        int count = 0;
+        for (File file : files) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+
+            S4Identity identity;
+            try {
+                identity = S4Identity.open(file);
+                identity.getBlocks();
+            } catch (IOException | IllegalStateException e) {
+                visitor.onError(file, e);
+                continue;
+            }
+
+            visitor.onIdentity(file, identity);
+            count++;
+        }
+        return count;
+    }
+}
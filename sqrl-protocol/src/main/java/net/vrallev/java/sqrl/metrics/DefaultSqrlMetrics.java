@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps a {@link Histogram} for each {@link SqrlMetrics.Stage} and a counter for each
+ * {@link SqrlMetrics.Rejection}. All methods are lock-free.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class DefaultSqrlMetrics implements SqrlMetrics {
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final Rejection[] REJECTIONS = Rejection.values();
+
+    private final Histogram[] mHistograms;
+    private final AtomicLongArray mRejections;
+
+    public DefaultSqrlMetrics() {
+        mHistograms = new Histogram[STAGES.length];
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new Histogram();
+        }
+        mRejections = new AtomicLongArray(REJECTIONS.length);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void recordLatency(Stage stage, long nanos) {
+        mHistograms[stage.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void recordRejection(Rejection rejection) {
+        mRejections.incrementAndGet(rejection.ordinal());
+    }
+
+    /**
+     * @return a copy of all histograms and counters.
+     */
+    public Snapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * @return a copy of all histograms and counters, which are reset afterwards.
+     */
+    public Snapshot snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    public void reset() {
+        for (Histogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < REJECTIONS.length; i++) {
+            mRejections.set(i, 0);
+        }
+    }
+
+    private Snapshot snapshot(boolean reset) {
+        Histogram[] histograms = new Histogram[mHistograms.length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = mHistograms[i].readOnlyCopy();
+            if (reset) {
+                mHistograms[i].reset();
+            }
+        }
+
+        long[] rejections = new long[REJECTIONS.length];
+        for (int i = 0; i < rejections.length; i++) {
+            rejections[i] = reset ? mRejections.getAndSet(i, 0) : mRejections.get(i);
+        }
+
+        return new Snapshot(histograms, rejections);
+    }
+
+    public static final class Snapshot {
+
+        private final Histogram[] mHistograms;
+        private final long[] mRejections;
+
+        private Snapshot(Histogram[] histograms, long[] rejections) {
+            mHistograms = histograms;
+            mRejections = rejections;
+        }
+
+        /**
+         * @return the latencies of this stage in nanoseconds. The histogram is read only.
+         */
+        public Histogram getHistogram(Stage stage) {
+            return mHistograms[stage.ordinal()];
+        }
+
+        public long getRejectionCount(Rejection rejection) {
+            return mRejections[rejection.ordinal()];
+        }
+
+        /**
+         * Exports all stages with at least one recorded value and all rejection counters as lines of
+         * the form {@code sqrl_parse_us{quantile="0.99"} 41.5}. The latencies are in microseconds.
+         */
+        public String toText() {
+            StringBuilder builder = new StringBuilder();
+            for (Stage stage : STAGES) {
+                Histogram histogram = getHistogram(stage);
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+
+                String name = "sqrl_" + stage.name().toLowerCase(Locale.US) + "_us";
+                appendLine(builder, name + "_count", histogram.getCount());
+                appendLine(builder, name + "_mean", histogram.getMean() / 1000.0);
+                appendLine(builder, name + "{quantile=\"0.5\"}", histogram.getValueAtPercentile(50) / 1000.0);
+                appendLine(builder, name + "{quantile=\"0.9\"}", histogram.getValueAtPercentile(90) / 1000.0);
+                appendLine(builder, name + "{quantile=\"0.99\"}", histogram.getValueAtPercentile(99) / 1000.0);
+                appendLine(builder, name + "_max", histogram.getMax() / 1000.0);
+            }
+
+            for (Rejection rejection : REJECTIONS) {
+                appendLine(builder, "sqrl_rejected{reason=\"" + rejection.name().toLowerCase(Locale.US) + "\"}", getRejectionCount(rejection));
+            }
+            return builder.toString();
+        }
+
+        @Override
+        public String toString() {
+            return toText();
+        }
+
+        private static void appendLine(StringBuilder builder, String name, long value) {
+            builder.append(name).append(' ').append(value).append('\n');
+        }
+
+        private static void appendLine(StringBuilder builder, String name, double value) {
+            builder.append(name).append(' ').append(String.format(Locale.US, "%.3f", value)).append('\n');
+        }
+    }
+}
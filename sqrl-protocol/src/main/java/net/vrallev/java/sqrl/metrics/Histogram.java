@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram with logarithmic buckets, which are split into 32 linear sub-buckets. The
+ * relative error of a recorded value is at most 1 / 32, values up to 2^40 are tracked, larger
+ * values are clamped. Recording a value is a handful of atomic increments and never allocates.
+ * <br>
+ * <br>
+ * {@link #copy()} and {@link #reset()} don't stop concurrent writers, a value recorded at the same
+ * time may or may not be included. The histograms of a {@link DefaultSqrlMetrics.Snapshot} are read
+ * only, {@link #record(long)} and {@link #reset()} throw an {@link UnsupportedOperationException}.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_BITS = 40;
+
+    /*package*/ static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int BUCKET_COUNT = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray mCounts;
+    private final AtomicLong mCount;
+    private final AtomicLong mSum;
+    private final AtomicLong mMax;
+    private final boolean mReadOnly;
+
+    public Histogram() {
+        this(false);
+    }
+
+    private Histogram(boolean readOnly) {
+        mCounts = new AtomicLongArray(BUCKET_COUNT);
+        mCount = new AtomicLong();
+        mSum = new AtomicLong();
+        mMax = new AtomicLong();
+        mReadOnly = readOnly;
+    }
+
+    /**
+     * @param value a non negative value, negative values are ignored.
+     * @throws UnsupportedOperationException if this histogram is read only.
+     */
+    public void record(long value) {
+        checkWritable();
+        if (value < 0) {
+            return;
+        }
+        if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+
+        mCounts.incrementAndGet(index(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public double getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : (double) mSum.get() / count;
+    }
+
+    /**
+     * @param percentile a value between 0 and 100.
+     * @return the largest value, which falls into the same bucket as the value at the given
+     * percentile, or 0, if the histogram is empty.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += mCounts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValue(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * @return an independent copy of the current state.
+     */
+    public Histogram copy() {
+        return copy(false);
+    }
+
+    /**
+     * @return an independent copy of the current state, which can't be changed anymore.
+     */
+    /*package*/ Histogram readOnlyCopy() {
+        return copy(true);
+    }
+
+    public boolean isReadOnly() {
+        return mReadOnly;
+    }
+
+    /**
+     * @throws UnsupportedOperationException if this histogram is read only.
+     */
+    public void reset() {
+        checkWritable();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    private Histogram copy(boolean readOnly) {
+        Histogram copy = new Histogram(readOnly);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy.mCounts.set(i, mCounts.get(i));
+        }
+        copy.mCount.set(mCount.get());
+        copy.mSum.set(mSum.get());
+        copy.mMax.set(mMax.get());
+        return copy;
+    }
+
+    private void checkWritable() {
+        if (mReadOnly) {
+            throw new UnsupportedOperationException("histogram is read only");
+        }
+    }
+
+    /*package*/ static int index(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    /*package*/ static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowest = (long) (index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.metrics;
+
+import net.vrallev.java.sqrl.ecc.BatchEccProvider25519;
+import net.vrallev.java.sqrl.ecc.EccKeyPair;
+import net.vrallev.java.sqrl.ecc.EccProvider25519;
+import net.vrallev.java.sqrl.ecc.SignatureCheck;
+
+import java.util.List;
+
+/**
+ * Records the latencies of all calls of another {@link EccProvider25519}.
+ *
+ * @author Ralf Wondratschek
+ */
+public class InstrumentedEccProvider implements EccProvider25519 {
+
+    /**
+     * @return a provider, which records the latencies of the given one. If the given provider is a
+     * {@link BatchEccProvider25519}, then so is the result. If the metrics are disabled, then the
+     * provider itself is returned.
+     */
+    public static EccProvider25519 wrap(EccProvider25519 provider, SqrlMetrics metrics) {
+        if (provider == null || metrics == null || !metrics.isEnabled() || provider instanceof InstrumentedEccProvider) {
+            return provider;
+        }
+        if (provider instanceof BatchEccProvider25519) {
+            return new Batch((BatchEccProvider25519) provider, metrics);
+        }
+        return new InstrumentedEccProvider(provider, metrics);
+    }
+
+    private final EccProvider25519 mProvider;
+    protected final SqrlMetrics mMetrics;
+
+    /*package*/ InstrumentedEccProvider(EccProvider25519 provider, SqrlMetrics metrics) {
+        mProvider = provider;
+        mMetrics = metrics;
+    }
+
+    public EccProvider25519 getProvider() {
+        return mProvider;
+    }
+
+    @Override
+    public EccKeyPair computeKeyPair(byte[] privateKey) {
+        long start = System.nanoTime();
+        try {
+            return mProvider.computeKeyPair(privateKey);
+        } finally {
+            mMetrics.recordLatency(SqrlMetrics.Stage.KEY_DERIVATION, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean isValidSignature(byte[] message, byte[] signature, byte[] publicKey) {
+        long start = System.nanoTime();
+        try {
+            return mProvider.isValidSignature(message, signature, publicKey);
+        } finally {
+            mMetrics.recordLatency(SqrlMetrics.Stage.VERIFY, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public byte[] sign(byte[] message, byte[] privateKey, byte[] publicKey) {
+        long start = System.nanoTime();
+        try {
+            return mProvider.sign(message, privateKey, publicKey);
+        } finally {
+            mMetrics.recordLatency(SqrlMetrics.Stage.SIGN, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public byte[] diffieHellman(byte[] privateKey, byte[] publicKey) {
+        long start = System.nanoTime();
+        try {
+            return mProvider.diffieHellman(privateKey, publicKey);
+        } finally {
+            mMetrics.recordLatency(SqrlMetrics.Stage.DIFFIE_HELLMAN, System.nanoTime() - start);
+        }
+    }
+
+    private static final class Batch extends InstrumentedEccProvider implements BatchEccProvider25519 {
+
+        private final BatchEccProvider25519 mBatchProvider;
+
+        private Batch(BatchEccProvider25519 provider, SqrlMetrics metrics) {
+            super(provider, metrics);
+            mBatchProvider = provider;
+        }
+
+        @Override
+        public boolean isValidSignatures(List<SignatureCheck> signatureChecks) {
+            long start = System.nanoTime();
+            try {
+                return mBatchProvider.isValidSignatures(signatureChecks);
+            } finally {
+                mMetrics.recordLatency(SqrlMetrics.Stage.VERIFY_BATCH, System.nanoTime() - start);
+            }
+        }
+    }
+}
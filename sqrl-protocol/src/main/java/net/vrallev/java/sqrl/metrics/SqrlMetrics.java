@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.metrics;
+
+/**
+ * Receives the latencies of the protocol stages and the reasons, why client bodies were rejected.
+ * Implementations must be thread safe and fast, they are called on the hot path.
+ * <br>
+ * <br>
+ * {@link #NONE} is used by default. If {@link #isEnabled()} returns {@code false}, then the library
+ * doesn't even read the clock.
+ *
+ * @author Ralf Wondratschek
+ * @see DefaultSqrlMetrics
+ */
+public interface SqrlMetrics {
+
+    enum Stage {
+        /**
+         * Parsing a whole client body, including Base64 decoding, but without signature checks.
+         */
+        PARSE,
+        BASE64_DECODE,
+        /**
+         * A single signature verification.
+         */
+        VERIFY,
+        /**
+         * The verification of a whole batch of signatures.
+         */
+        VERIFY_BATCH,
+        SIGN,
+        KEY_DERIVATION,
+        DIFFIE_HELLMAN,
+        AES_GCM,
+        /**
+         * Building a whole client body, including key derivation and signing.
+         */
+        BUILD
+    }
+
+    enum Rejection {
+        /**
+         * The body isn't a list of key value pairs or a value isn't valid.
+         */
+        MALFORMED,
+        MISSING_PARAMETER,
+        SIGNATURE_MISMATCH,
+        DEADLINE_EXCEEDED,
+        /**
+         * An executor was saturated.
+         */
+        OVERLOADED
+    }
+
+    /**
+     * Records nothing.
+     */
+    SqrlMetrics NONE = new SqrlMetrics() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void recordLatency(Stage stage, long nanos) {
+        }
+
+        @Override
+        public void recordRejection(Rejection rejection) {
+        }
+    };
+
+    /**
+     * @return {@code false}, if all calls are ignored anyway.
+     */
+    boolean isEnabled();
+
+    /**
+     * @param nanos the duration of the stage in nanoseconds.
+     */
+    void recordLatency(Stage stage, long nanos);
+
+    void recordRejection(Rejection rejection);
+}
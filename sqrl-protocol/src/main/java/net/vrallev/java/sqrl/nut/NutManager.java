@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.nut;
+
+import net.vrallev.java.sqrl.util.Base64Url;
+import net.vrallev.java.sqrl.util.EntropyPool;
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issues and validates the server side <i>nut</i> without any database. A nut contains a counter,
+ * the issue time and a fingerprint of the client's IP address. The time and the fingerprint are
+ * encrypted and authenticated with AES-GCM, the counter is used as initialization vector and is
+ * sent in plain text. The encoded nut has 43 characters.
+ * <br>
+ * <br>
+ * Consumed nuts are remembered in a lock-free replay set until they expire, so that each nut is
+ * accepted only once. All servers, which share the same key, can validate each other's nuts, but
+ * each server has its own replay set.
+ * <br>
+ * <br>
+ * A typical server issues a nut for each response with {@link #issue(InetAddress)} and calls
+ * {@link #consume(String, InetAddress)} with the nut of the next request.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class NutManager {
+
+    public enum Status {
+        /**
+         * The nut is authentic, not expired and wasn't consumed before.
+         */
+        VALID,
+        /**
+         * The nut wasn't issued with this key or was modified.
+         */
+        INVALID,
+        EXPIRED,
+        /**
+         * The nut was issued for another IP address.
+         */
+        IP_MISMATCH,
+        /**
+         * The nut was already consumed.
+         */
+        REPLAYED,
+        /**
+         * The replay set can't take more nuts of this time span. The request should be rejected,
+         * the capacity of the replay set should be increased.
+         */
+        OVERLOADED
+    }
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final int COUNTER_LENGTH = 8;
+    private static final int PAYLOAD_LENGTH = 8;
+    private static final int TAG_LENGTH = 16;
+    private static final int NUT_LENGTH = COUNTER_LENGTH + PAYLOAD_LENGTH + TAG_LENGTH;
+
+    private final byte[] mKey;
+    private final SqrlCipherTool mCipherTool;
+    private final long mMaxAge;
+    private final boolean mBindToAddress;
+
+    private final AtomicLong mCounter;
+    private final NutReplaySet mReplaySet;
+
+    /**
+     * Use the {@link NutManager.Builder} to create an instance. Subclasses can use this constructor.
+     */
+    protected NutManager(Builder builder) {
+        if (builder.mMaxAge <= 0 || builder.mBucketDuration <= 0 || builder.mBucketCapacity <= 0) {
+            throw new IllegalArgumentException("max age, bucket duration and capacity must be greater than 0");
+        }
+
+        mKey = builder.mKey.clone();
+        mCipherTool = builder.mCipherTool != null ? builder.mCipherTool : new SqrlCipherTool();
+        mMaxAge = builder.mMaxAge;
+        mBindToAddress = builder.mBindToAddress;
+
+        // a random start makes collisions of counters between servers with the same key unlikely
+        long start = builder.mRandom != null ? builder.mRandom.nextLong() : EntropyPool.getDefault().nextLong();
+        mCounter = new AtomicLong(start);
+        mReplaySet = new NutReplaySet(builder.mMaxAge, builder.mBucketDuration, builder.mBucketCapacity);
+    }
+
+    /**
+     * @param clientAddress the address of the client or {@code null}, if the nut shouldn't be bound
+     *                      to an address.
+     * @return a new nut.
+     */
+    public String issue(InetAddress clientAddress) {
+        return issue(clientAddress == null ? null : clientAddress.getAddress());
+    }
+
+    /**
+     * @param clientAddress the raw IPv4 or IPv6 address of the client or {@code null}.
+     * @return a new nut.
+     */
+    public String issue(byte[] clientAddress) {
+        long counter;
+        do {
+            counter = mCounter.getAndIncrement();
+        } while (counter == 0);
+
+        byte[] payload = new byte[PAYLOAD_LENGTH];
+        putInt(payload, 0, (int) TimeUnit.MILLISECONDS.toSeconds(currentTimeMillis()));
+        putInt(payload, 4, getFingerprint(clientAddress));
+
+        SqrlCipherTool.AesGcmResult result = mCipherTool.aesGcmEncrypt(payload, mKey, createIv(counter), null);
+
+        byte[] nut = new byte[NUT_LENGTH];
+        putLong(nut, 0, counter);
+        System.arraycopy(result.getEncryptedMessage(), 0, nut, COUNTER_LENGTH, PAYLOAD_LENGTH);
+        System.arraycopy(result.getTag(), 0, nut, COUNTER_LENGTH + PAYLOAD_LENGTH, TAG_LENGTH);
+
+        return Base64Url.encodeToString(nut);
+    }
+
+    /**
+     * Validates the nut without consuming it.
+     */
+    public Status check(String nut, InetAddress clientAddress) {
+        return validate(nut, clientAddress == null ? null : clientAddress.getAddress(), false);
+    }
+
+    /**
+     * Validates the nut without consuming it.
+     */
+    public Status check(String nut, byte[] clientAddress) {
+        return validate(nut, clientAddress, false);
+    }
+
+    /**
+     * Validates the nut and marks it as consumed, if it's valid.
+     *
+     * @return {@link Status#VALID}, if the nut was accepted.
+     */
+    public Status consume(String nut, InetAddress clientAddress) {
+        return validate(nut, clientAddress == null ? null : clientAddress.getAddress(), true);
+    }
+
+    /**
+     * Validates the nut and marks it as consumed, if it's valid.
+     *
+     * @return {@link Status#VALID}, if the nut was accepted.
+     */
+    public Status consume(String nut, byte[] clientAddress) {
+        return validate(nut, clientAddress, true);
+    }
+
+    private Status validate(String nutString, byte[] clientAddress, boolean consume) {
+        if (nutString == null || nutString.length() != Base64Url.getEncodedLength(NUT_LENGTH)) {
+            return Status.INVALID;
+        }
+
+        byte[] encoded = nutString.getBytes(ASCII);
+        byte[] nut = new byte[NUT_LENGTH];
+        try {
+            Base64Url.decode(encoded, 0, encoded.length, nut, 0);
+        } catch (IllegalArgumentException e) {
+            return Status.INVALID;
+        }
+
+        long counter = getLong(nut, 0);
+
+        byte[] cipherText = new byte[PAYLOAD_LENGTH];
+        System.arraycopy(nut, COUNTER_LENGTH, cipherText, 0, PAYLOAD_LENGTH);
+        byte[] tag = new byte[TAG_LENGTH];
+        System.arraycopy(nut, COUNTER_LENGTH + PAYLOAD_LENGTH, tag, 0, TAG_LENGTH);
+
+        byte[] payload;
+        try {
+            payload = mCipherTool.aesGcmDecrypt(cipherText, tag, mKey, createIv(counter), null);
+        } catch (IllegalArgumentException e) {
+            return Status.INVALID;
+        }
+
+        long issueTime = TimeUnit.SECONDS.toMillis(getInt(payload, 0) & 0xffffffffL);
+        long age = currentTimeMillis() - issueTime;
+        if (age >= mMaxAge || age < -TimeUnit.SECONDS.toMillis(1)) {
+            return Status.EXPIRED;
+        }
+
+        if (mBindToAddress && getInt(payload, 4) != getFingerprint(clientAddress)) {
+            return Status.IP_MISMATCH;
+        }
+
+        if (!consume) {
+            return Status.VALID;
+        }
+
+        switch (mReplaySet.add(counter, issueTime)) {
+            case NutReplaySet.ADDED:
+                return Status.VALID;
+            case NutReplaySet.DUPLICATE:
+                return Status.REPLAYED;
+            case NutReplaySet.EXPIRED:
+                return Status.EXPIRED;
+            default:
+                return Status.OVERLOADED;
+        }
+    }
+
+    /**
+     * @return the current time in milliseconds. Subclasses may override this method for tests.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private int getFingerprint(byte[] clientAddress) {
+        if (clientAddress == null) {
+            return 0;
+        }
+        if (clientAddress.length == 4) {
+            return getInt(clientAddress, 0);
+        }
+        return getInt(mCipherTool.getHash(clientAddress), 0);
+    }
+
+    private static byte[] createIv(long counter) {
+        byte[] iv = new byte[12];
+        putLong(iv, 4, counter);
+        return iv;
+    }
+
+    private static void putInt(byte[] array, int offset, int value) {
+        array[offset] = (byte) (value >>> 24);
+        array[offset + 1] = (byte) (value >>> 16);
+        array[offset + 2] = (byte) (value >>> 8);
+        array[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] array, int offset) {
+        return (array[offset] & 0xff) << 24 | (array[offset + 1] & 0xff) << 16 | (array[offset + 2] & 0xff) << 8 | (array[offset + 3] & 0xff);
+    }
+
+    private static void putLong(byte[] array, int offset, long value) {
+        putInt(array, offset, (int) (value >>> 32));
+        putInt(array, offset + 4, (int) value);
+    }
+
+    private static long getLong(byte[] array, int offset) {
+        return (long) getInt(array, offset) << 32 | (getInt(array, offset + 4) & 0xffffffffL);
+    }
+
+    public static class Builder {
+
+        private final byte[] mKey;
+
+        private SqrlCipherTool mCipherTool;
+        private long mMaxAge;
+        private long mBucketDuration;
+        private int mBucketCapacity;
+        private boolean mBindToAddress;
+        private SecureRandom mRandom;
+
+        /**
+         * @param key the 16, 24 or 32 byte AES key. Share the key with all servers, which should
+         *            accept each other's nuts.
+         */
+        public Builder(byte[] key) {
+            if (key == null || (key.length != 16 && key.length != 24 && key.length != 32)) {
+                throw new IllegalArgumentException("illegal key length");
+            }
+
+            mKey = key;
+            mMaxAge = TimeUnit.MINUTES.toMillis(10);
+            mBucketDuration = TimeUnit.SECONDS.toMillis(10);
+            mBucketCapacity = 16 * 1024;
+            mBindToAddress = true;
+        }
+
+        public Builder setSqrlCipherTool(SqrlCipherTool cipherTool) {
+            mCipherTool = cipherTool;
+            return this;
+        }
+
+        /**
+         * The time, until a nut expires. The default value is 10 minutes.
+         */
+        public Builder setMaxAge(long maxAge, TimeUnit unit) {
+            mMaxAge = unit.toMillis(maxAge);
+            return this;
+        }
+
+        /**
+         * The replay set drops consumed nuts in steps of this duration. The default value is
+         * 10 seconds.
+         */
+        public Builder setBucketDuration(long bucketDuration, TimeUnit unit) {
+            mBucketDuration = unit.toMillis(bucketDuration);
+            return this;
+        }
+
+        /**
+         * The maximum number of nuts, which are issued within one bucket duration and consumed.
+         * The default value is 16384.
+         */
+        public Builder setBucketCapacity(int bucketCapacity) {
+            mBucketCapacity = bucketCapacity;
+            return this;
+        }
+
+        /**
+         * Reject nuts, which are used from another IP address. Enabled by default.
+         */
+        public Builder setBindToAddress(boolean bindToAddress) {
+            mBindToAddress = bindToAddress;
+            return this;
+        }
+
+        public Builder setSecureRandom(SecureRandom random) {
+            mRandom = random;
+            return this;
+        }
+
+        public NutManager build() {
+            return new NutManager(this);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.nut;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers consumed nuts until they expire. The nuts are grouped by the time slot, in which they
+ * were issued. Each slot owns a fixed size open addressing table, which is filled with compare and
+ * set operations, and the whole table is dropped, when the slot expires. No locks are involved.
+ *
+ * @author Ralf Wondratschek
+ */
+/*package*/ final class NutReplaySet {
+
+    /*package*/ static final int ADDED = 0;
+    /*package*/ static final int DUPLICATE = 1;
+    /*package*/ static final int EXPIRED = 2;
+    /*package*/ static final int FULL = 3;
+
+    private static final int MAX_PROBES = 64;
+
+    private final long mBucketDuration;
+    private final int mBucketCapacity;
+    private final AtomicReferenceArray<Bucket> mBuckets;
+
+    /**
+     * @param maxAge         the time in milliseconds, until a nut expires.
+     * @param bucketDuration the time span in milliseconds, which one bucket covers.
+     * @param bucketCapacity the maximum number of nuts per bucket.
+     */
+    public NutReplaySet(long maxAge, long bucketDuration, int bucketCapacity) {
+        mBucketDuration = bucketDuration;
+        // keep the load factor of each table below 0.5
+        mBucketCapacity = Integer.highestOneBit(Math.max(bucketCapacity, 16) * 4 - 1);
+
+        // all buckets of the validity window plus the current and one partially expired bucket
+        int bucketCount = (int) ((maxAge + bucketDuration - 1) / bucketDuration) + 2;
+        mBuckets = new AtomicReferenceArray<>(bucketCount);
+    }
+
+    /**
+     * @param id        the unique id of the nut, must not be 0.
+     * @param issueTime the time in milliseconds, when the nut was issued.
+     * @return {@link #ADDED}, if the nut wasn't consumed before.
+     */
+    public int add(long id, long issueTime) {
+        long epoch = issueTime / mBucketDuration;
+        int index = (int) (epoch % mBuckets.length());
+
+        Bucket bucket;
+        while (true) {
+            bucket = mBuckets.get(index);
+            if (bucket != null && bucket.mEpoch == epoch) {
+                break;
+            }
+            if (bucket != null && bucket.mEpoch > epoch) {
+                // the slot was already reused by a newer time span
+                return EXPIRED;
+            }
+
+            Bucket newBucket = new Bucket(epoch, mBucketCapacity);
+            if (mBuckets.compareAndSet(index, bucket, newBucket)) {
+                bucket = newBucket;
+                break;
+            }
+        }
+
+        return bucket.add(id);
+    }
+
+    private static final class Bucket {
+
+        private final long mEpoch;
+        private final AtomicLongArray mIds;
+        private final int mMask;
+
+        private Bucket(long epoch, int capacity) {
+            mEpoch = epoch;
+            mIds = new AtomicLongArray(capacity);
+            mMask = capacity - 1;
+        }
+
+        private int add(long id) {
+            int index = mix(id) & mMask;
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                long current = mIds.get(index);
+                if (current == id) {
+                    return DUPLICATE;
+                }
+                if (current == 0) {
+                    if (mIds.compareAndSet(index, 0, id)) {
+                        return ADDED;
+                    }
+                    if (mIds.get(index) == id) {
+                        return DUPLICATE;
+                    }
+                }
+                index = (index + 1) & mMask;
+            }
+            return FULL;
+        }
+
+        private static int mix(long id) {
+            long h = id * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.store;
+
+import java.util.Arrays;
+
+/**
+ * The keys, which a server stores for an identity: the <i>server unlock key</i> and the <i>verify
+ * unlock key</i> as well as some flags, e.g. whether only SQRL may be used to log in.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class IdentityRecord {
+
+    public static final int KEY_LENGTH = 32;
+
+    /**
+     * The user disabled SQRL logins.
+     */
+    public static final int FLAG_DISABLED = 0x0001;
+    /**
+     * The user only allows SQRL logins.
+     */
+    public static final int FLAG_SQRL_ONLY = 0x0002;
+    /**
+     * The user doesn't allow any identity recovery except with SQRL.
+     */
+    public static final int FLAG_HARDLOCK = 0x0004;
+
+    private final byte[] mIdentityKey;
+    private final byte[] mServerUnlockKey;
+    private final byte[] mVerifyUnlockKey;
+    private final int mFlags;
+
+    public IdentityRecord(byte[] identityKey, byte[] serverUnlockKey, byte[] verifyUnlockKey, int flags) {
+        checkKey(identityKey);
+        checkKey(serverUnlockKey);
+        checkKey(verifyUnlockKey);
+
+        mIdentityKey = identityKey;
+        mServerUnlockKey = serverUnlockKey;
+        mVerifyUnlockKey = verifyUnlockKey;
+        mFlags = flags;
+    }
+
+    public byte[] getIdentityKey() {
+        return mIdentityKey;
+    }
+
+    public byte[] getServerUnlockKey() {
+        return mServerUnlockKey;
+    }
+
+    public byte[] getVerifyUnlockKey() {
+        return mVerifyUnlockKey;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (mFlags & flag) == flag;
+    }
+
+    /*package*/ static void checkKey(byte[] key) {
+        if (key == null || key.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("illegal key length");
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IdentityRecord)) return false;
+
+        IdentityRecord that = (IdentityRecord) o;
+
+        if (mFlags != that.mFlags) return false;
+        if (!Arrays.equals(mIdentityKey, that.mIdentityKey)) return false;
+        if (!Arrays.equals(mServerUnlockKey, that.mServerUnlockKey)) return false;
+        //noinspection RedundantIfStatement
+        if (!Arrays.equals(mVerifyUnlockKey, that.mVerifyUnlockKey)) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(mIdentityKey);
+        result = 31 * result + Arrays.hashCode(mServerUnlockKey);
+        result = 31 * result + Arrays.hashCode(mVerifyUnlockKey);
+        result = 31 * result + mFlags;
+        return result;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.store;
+
+import java.io.Closeable;
+
+/**
+ * Stores the keys of all identities, which are known to a server. The records are looked up by the
+ * 32 byte <i>identity key</i>. Implementations must be safe to use from multiple threads and
+ * report storage failures with unchecked exceptions.
+ *
+ * @author Ralf Wondratschek
+ * @see InMemoryIdentityStore
+ * @see MappedIdentityStore
+ */
+public interface IdentityStore extends Closeable {
+
+    /**
+     * @return the stored record or {@code null}, if the identity is unknown.
+     */
+    IdentityRecord get(byte[] identityKey);
+
+    /**
+     * Adds the record or replaces the record with the same identity key.
+     */
+    void put(IdentityRecord record);
+
+    /**
+     * @return {@code true}, if a record was removed.
+     */
+    boolean remove(byte[] identityKey);
+
+    /**
+     * @return the number of stored records.
+     */
+    int size();
+}
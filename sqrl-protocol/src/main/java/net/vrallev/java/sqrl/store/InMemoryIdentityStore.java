@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.store;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+/**
+ * An {@link IdentityStore}, which keeps all records in the heap. The records are spread over
+ * several independently locked segments. Each segment is an open addressing hash table over a single
+ * byte array, so that there's no object per entry. A record takes 104 bytes.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class InMemoryIdentityStore implements IdentityStore {
+
+    private static final int SEGMENT_COUNT = 64;
+    private static final float MAX_LOAD_FACTOR = 0.75f;
+
+    private final long mSeed;
+    private final RecordSegment[] mSegments;
+
+    public InMemoryIdentityStore() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedSize the number of records, which the store should hold without resizing.
+     */
+    public InMemoryIdentityStore(int expectedSize) {
+        mSeed = new SecureRandom().nextLong();
+
+        int segmentCapacity = Integer.highestOneBit((int) Math.max(16, expectedSize / SEGMENT_COUNT / MAX_LOAD_FACTOR) * 2 - 1);
+
+        mSegments = new RecordSegment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) RecordSegment.getSegmentSize(segmentCapacity));
+            mSegments[i] = new RecordSegment(buffer, segmentCapacity, mSeed, true, MAX_LOAD_FACTOR);
+        }
+    }
+
+    @Override
+    public IdentityRecord get(byte[] identityKey) {
+        IdentityRecord.checkKey(identityKey);
+        long hash = RecordSegment.hash(identityKey, mSeed);
+        return getSegment(hash).get(identityKey, hash);
+    }
+
+    @Override
+    public void put(IdentityRecord record) {
+        long hash = RecordSegment.hash(record.getIdentityKey(), mSeed);
+        getSegment(hash).put(record, hash);
+    }
+
+    @Override
+    public boolean remove(byte[] identityKey) {
+        IdentityRecord.checkKey(identityKey);
+        long hash = RecordSegment.hash(identityKey, mSeed);
+        return getSegment(hash).remove(identityKey, hash);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (RecordSegment segment : mSegments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+
+    private RecordSegment getSegment(long hash) {
+        return mSegments[(int) (hash >>> 32) & (SEGMENT_COUNT - 1)];
+    }
+}
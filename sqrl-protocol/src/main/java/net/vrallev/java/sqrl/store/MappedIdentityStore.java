@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+
+/**
+ * An {@link IdentityStore}, which keeps all records in a memory mapped file. The operating system
+ * loads and writes back the pages on demand, so that the store can hold more identities than fit
+ * into the heap and survives a restart.
+ * <br>
+ * <br>
+ * The file consists of a small header and a fixed number of segments. Each segment is an open
+ * addressing hash table with records of 104 bytes and is mapped separately. The capacity is fixed
+ * when the file is created, {@link #put(IdentityRecord)} throws an {@link IllegalStateException},
+ * if a segment is full. Call {@link #flush()} to force all changes to the disk.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class MappedIdentityStore implements IdentityStore {
+
+    private static final long MAGIC = 0x5351524c49445331L; // SQRLIDS1
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    private static final int MIN_SEGMENT_COUNT = 64;
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+    private static final float MAX_LOAD_FACTOR = 0.8f;
+
+    private final RandomAccessFile mFile;
+    private final long mSeed;
+    private final int mSegmentMask;
+    private final RecordSegment[] mSegments;
+    private final MappedByteBuffer[] mBuffers;
+
+    /**
+     * Opens the file or creates a new file, if it doesn't exist.
+     *
+     * @param maxRecords the maximum number of records of a new file. Ignored for an existing file.
+     */
+    public MappedIdentityStore(File file, int maxRecords) throws IOException {
+        boolean exists = file.exists() && file.length() > 0;
+        mFile = new RandomAccessFile(file, "rw");
+
+        try {
+            FileChannel channel = mFile.getChannel();
+
+            int segmentCount;
+            int segmentCapacity;
+            if (exists) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(header, 0);
+                if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+                    throw new IOException("not an identity store " + file);
+                }
+
+                segmentCount = header.getInt(12);
+                segmentCapacity = header.getInt(16);
+                mSeed = header.getLong(20);
+
+            } else {
+                segmentCount = MIN_SEGMENT_COUNT;
+                segmentCapacity = getSegmentCapacity(maxRecords, segmentCount);
+                while (RecordSegment.getSegmentSize(segmentCapacity) > MAX_SEGMENT_SIZE) {
+                    segmentCount *= 2;
+                    segmentCapacity = getSegmentCapacity(maxRecords, segmentCount);
+                }
+                mSeed = new SecureRandom().nextLong();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putLong(0, MAGIC);
+                header.putInt(8, VERSION);
+                header.putInt(12, segmentCount);
+                header.putInt(16, segmentCapacity);
+                header.putLong(20, mSeed);
+
+                mFile.setLength(HEADER_SIZE + segmentCount * RecordSegment.getSegmentSize(segmentCapacity));
+                channel.write(header, 0);
+            }
+
+            long segmentSize = RecordSegment.getSegmentSize(segmentCapacity);
+            if (Integer.bitCount(segmentCount) != 1 || Integer.bitCount(segmentCapacity) != 1
+                    || mFile.length() < HEADER_SIZE + segmentCount * segmentSize) {
+                throw new IOException("corrupt identity store " + file);
+            }
+
+            mSegmentMask = segmentCount - 1;
+            mSegments = new RecordSegment[segmentCount];
+            mBuffers = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                mBuffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + i * segmentSize, segmentSize);
+                mSegments[i] = new RecordSegment(mBuffers[i], segmentCapacity, mSeed, false, MAX_LOAD_FACTOR);
+            }
+
+        } catch (IOException | RuntimeException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public IdentityRecord get(byte[] identityKey) {
+        IdentityRecord.checkKey(identityKey);
+        long hash = RecordSegment.hash(identityKey, mSeed);
+        return getSegment(hash).get(identityKey, hash);
+    }
+
+    @Override
+    public void put(IdentityRecord record) {
+        long hash = RecordSegment.hash(record.getIdentityKey(), mSeed);
+        getSegment(hash).put(record, hash);
+    }
+
+    @Override
+    public boolean remove(byte[] identityKey) {
+        IdentityRecord.checkKey(identityKey);
+        long hash = RecordSegment.hash(identityKey, mSeed);
+        return getSegment(hash).remove(identityKey, hash);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (RecordSegment segment : mSegments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Writes all changes to the disk.
+     */
+    public void flush() {
+        for (MappedByteBuffer buffer : mBuffers) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Flushes all changes and closes the file. The mapped memory is released, when the store is
+     * garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        mFile.close();
+    }
+
+    private RecordSegment getSegment(long hash) {
+        return mSegments[(int) (hash >>> 32) & mSegmentMask];
+    }
+
+    private static int getSegmentCapacity(int maxRecords, int segmentCount) {
+        long capacity = (long) Math.ceil(Math.max(maxRecords, 1) / (double) segmentCount / MAX_LOAD_FACTOR);
+        return Integer.highestOneBit((int) Math.max(16, capacity) * 2 - 1);
+    }
+}
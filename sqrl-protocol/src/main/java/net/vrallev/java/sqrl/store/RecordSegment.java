@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.store;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An open addressing hash table with linear probing, which keeps fixed size records in a
+ * {@link ByteBuffer}. There are no objects per entry. The first 8 bytes of the buffer contain the
+ * number of records and the number of used slots including removed records, so that a memory mapped
+ * segment can be reopened.
+ * <br>
+ * <br>
+ * Removing a record shifts the following records of its probe sequence back, so removed records
+ * don't fill a segment, which can't grow.
+ * <br>
+ * <br>
+ * A record consists of the identity key, the server unlock key, the verify unlock key, the flags
+ * and the state of the slot.
+ *
+ * @author Ralf Wondratschek
+ */
+/*package*/ final class RecordSegment {
+
+    /*package*/ static final int HEADER_SIZE = 8;
+    /*package*/ static final int RECORD_SIZE = 104;
+
+    private static final int OFFSET_SUK = 32;
+    private static final int OFFSET_VUK = 64;
+    private static final int OFFSET_FLAGS = 96;
+    private static final int OFFSET_STATE = 100;
+
+    private static final int EMPTY = 0;
+    private static final int USED = 1;
+    private static final int REMOVED = 2;
+
+    /**
+     * @return the number of bytes of a segment with this capacity.
+     */
+    /*package*/ static long getSegmentSize(int capacity) {
+        return HEADER_SIZE + (long) capacity * RECORD_SIZE;
+    }
+
+    /**
+     * @param seed a random value, which makes the slot of a key unpredictable.
+     * @return a hash of the identity key. The lower bits select the slot in a segment.
+     */
+    /*package*/ static long hash(byte[] identityKey, long seed) {
+        long hash = mix(seed ^ getLong(identityKey, 0));
+        hash = mix(hash ^ getLong(identityKey, 8));
+        hash = mix(hash ^ getLong(identityKey, 16));
+        return mix(hash ^ getLong(identityKey, 24));
+    }
+
+    /**
+     * @return the same hash as {@link #hash(byte[], long)} for the identity key of the record at
+     * {@code offset}.
+     */
+    private static long hash(ByteBuffer buffer, int offset, long seed) {
+        long hash = mix(seed ^ buffer.getLong(offset));
+        hash = mix(hash ^ buffer.getLong(offset + 8));
+        hash = mix(hash ^ buffer.getLong(offset + 16));
+        return mix(hash ^ buffer.getLong(offset + 24));
+    }
+
+    private final ReadWriteLock mLock;
+    private final long mSeed;
+    private final boolean mResizable;
+    private final float mMaxLoadFactor;
+
+    private ByteBuffer mBuffer;
+    private int mCapacity;
+    private int mSize;
+    private int mUsed;
+
+    /**
+     * @param buffer    the buffer with {@link #getSegmentSize(int)} bytes.
+     * @param capacity  the number of slots, must be a power of two.
+     * @param seed      the seed of the hash function.
+     * @param resizable whether the segment may allocate a larger heap buffer, if it's full.
+     */
+    /*package*/ RecordSegment(ByteBuffer buffer, int capacity, long seed, boolean resizable, float maxLoadFactor) {
+        mLock = new ReentrantReadWriteLock();
+        mSeed = seed;
+        mResizable = resizable;
+        mMaxLoadFactor = maxLoadFactor;
+
+        mBuffer = buffer;
+        mCapacity = capacity;
+        mSize = buffer.getInt(0);
+        mUsed = buffer.getInt(4);
+    }
+
+    public IdentityRecord get(byte[] identityKey, long hash) {
+        Lock lock = mLock.readLock();
+        lock.lock();
+        try {
+            int offset = find(mBuffer, mCapacity, identityKey, hash);
+            if (offset < 0) {
+                return null;
+            }
+
+            byte[] suk = new byte[IdentityRecord.KEY_LENGTH];
+            byte[] vuk = new byte[IdentityRecord.KEY_LENGTH];
+            getBytes(mBuffer, offset + OFFSET_SUK, suk);
+            getBytes(mBuffer, offset + OFFSET_VUK, vuk);
+
+            return new IdentityRecord(identityKey.clone(), suk, vuk, mBuffer.getInt(offset + OFFSET_FLAGS));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(IdentityRecord record, long hash) {
+        Lock lock = mLock.writeLock();
+        lock.lock();
+        try {
+            int offset = find(mBuffer, mCapacity, record.getIdentityKey(), hash);
+            if (offset >= 0) {
+                writeRecord(mBuffer, offset, record);
+                return;
+            }
+
+            offset = findFreeSlot(mBuffer, mCapacity, hash);
+            if (mBuffer.getInt(offset + OFFSET_STATE) == EMPTY && mUsed + 1 > mCapacity * mMaxLoadFactor) {
+                if (!mResizable) {
+                    throw new IllegalStateException("identity store is full");
+                }
+                resize(mCapacity * 2);
+                offset = findFreeSlot(mBuffer, mCapacity, hash);
+            }
+
+            if (mBuffer.getInt(offset + OFFSET_STATE) == EMPTY) {
+                mUsed++;
+            }
+            writeRecord(mBuffer, offset, record);
+            mSize++;
+            writeCounts();
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean remove(byte[] identityKey, long hash) {
+        Lock lock = mLock.writeLock();
+        lock.lock();
+        try {
+            int offset = find(mBuffer, mCapacity, identityKey, hash);
+            if (offset < 0) {
+                return false;
+            }
+
+            // keep the identity key, the slot still belongs to probe sequences
+            for (int i = OFFSET_SUK; i < OFFSET_STATE; i += 4) {
+                mBuffer.putInt(offset + i, 0);
+            }
+            mBuffer.putInt(offset + OFFSET_STATE, REMOVED);
+            mSize--;
+
+            shiftBackward(offset);
+            writeCounts();
+            return true;
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        Lock lock = mLock.readLock();
+        lock.lock();
+        try {
+            return mSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void resize(int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) getSegmentSize(capacity));
+
+        for (int slot = 0; slot < mCapacity; slot++) {
+            int offset = getOffset(slot);
+            if (mBuffer.getInt(offset + OFFSET_STATE) != USED) {
+                continue;
+            }
+
+            byte[] identityKey = new byte[IdentityRecord.KEY_LENGTH];
+            getBytes(mBuffer, offset, identityKey);
+
+            int newOffset = findFreeSlot(buffer, capacity, hash(identityKey, mSeed));
+            for (int i = 0; i < RECORD_SIZE; i += 4) {
+                buffer.putInt(newOffset + i, mBuffer.getInt(offset + i));
+            }
+        }
+
+        mBuffer = buffer;
+        mCapacity = capacity;
+        mUsed = mSize;
+    }
+
+    /**
+     * Backward shift deletion: moves the following records of the probe sequence into the removed
+     * slot, until an empty slot ends the sequence. Then the last hole becomes empty, so no removed
+     * slot is left behind.
+     * <br>
+     * <br>
+     * Every step keeps a valid table for a memory mapped segment. A record is completely written
+     * to its new slot, before its old slot is marked as removed. If the process dies in between,
+     * the record is stored twice, but it's never lost.
+     */
+    private void shiftBackward(int holeOffset) {
+        int mask = mCapacity - 1;
+        int hole = getSlot(holeOffset);
+        int slot = (hole + 1) & mask;
+
+        int state;
+        while ((state = mBuffer.getInt(getOffset(slot) + OFFSET_STATE)) != EMPTY) {
+            if (state == USED) {
+                int offset = getOffset(slot);
+                int home = (int) hash(mBuffer, offset, mSeed) & mask;
+
+                // the record may move, if the hole lies in front of its home slot
+                if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                    int newOffset = getOffset(hole);
+                    for (int i = 0; i < RECORD_SIZE; i += 4) {
+                        mBuffer.putInt(newOffset + i, mBuffer.getInt(offset + i));
+                    }
+                    mBuffer.putInt(offset + OFFSET_STATE, REMOVED);
+                    hole = slot;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        mBuffer.putInt(getOffset(hole) + OFFSET_STATE, EMPTY);
+        mUsed--;
+    }
+
+    private void writeCounts() {
+        mBuffer.putInt(0, mSize);
+        mBuffer.putInt(4, mUsed);
+    }
+
+    private static int find(ByteBuffer buffer, int capacity, byte[] identityKey, long hash) {
+        long k0 = getLong(identityKey, 0);
+        long k1 = getLong(identityKey, 8);
+        long k2 = getLong(identityKey, 16);
+        long k3 = getLong(identityKey, 24);
+
+        int mask = capacity - 1;
+        int slot = (int) hash & mask;
+        for (int probe = 0; probe < capacity; probe++) {
+            int offset = getOffset(slot);
+            int state = buffer.getInt(offset + OFFSET_STATE);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == USED && buffer.getLong(offset) == k0 && buffer.getLong(offset + 8) == k1
+                    && buffer.getLong(offset + 16) == k2 && buffer.getLong(offset + 24) == k3) {
+                return offset;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int findFreeSlot(ByteBuffer buffer, int capacity, long hash) {
+        int mask = capacity - 1;
+        int slot = (int) hash & mask;
+        while (buffer.getInt(getOffset(slot) + OFFSET_STATE) == USED) {
+            slot = (slot + 1) & mask;
+        }
+        return getOffset(slot);
+    }
+
+    private static void writeRecord(ByteBuffer buffer, int offset, IdentityRecord record) {
+        putBytes(buffer, offset, record.getIdentityKey());
+        putBytes(buffer, offset + OFFSET_SUK, record.getServerUnlockKey());
+        putBytes(buffer, offset + OFFSET_VUK, record.getVerifyUnlockKey());
+        buffer.putInt(offset + OFFSET_FLAGS, record.getFlags());
+        // the state is written last, a torn write leaves an empty slot
+        buffer.putInt(offset + OFFSET_STATE, USED);
+    }
+
+    private static int getOffset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static int getSlot(int offset) {
+        return (offset - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    private static long mix(long value) {
+        // finalizer of MurmurHash3
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    private static void getBytes(ByteBuffer buffer, int offset, byte[] dst) {
+        for (int i = 0; i < dst.length; i++) {
+            dst[i] = buffer.get(offset + i);
+        }
+    }
+
+    private static void putBytes(ByteBuffer buffer, int offset, byte[] src) {
+        for (int i = 0; i < src.length; i++) {
+            buffer.put(offset + i, src[i]);
+        }
+    }
+
+    /*package*/ static long getLong(byte[] array, int offset) {
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = result << 8 | (array[offset + i] & 0xff);
+        }
+        return result;
+    }
+}
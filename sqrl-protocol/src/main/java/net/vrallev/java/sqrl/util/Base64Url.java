@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The URL safe Base64 encoding without padding, which SQRL uses for all values. In contrast to
+ * {@link android.util.changed.Base64} all methods read from and write into buffers of the caller
+ * and don't allocate any memory. The output length is known before encoding or decoding.
+ * <br>
+ * <br>
+ * Data can be processed in chunks. Every chunk of a multiple of 3 bytes is encoded independently,
+ * the same applies to chunks of a multiple of 4 characters while decoding.
+ * <br>
+ * <br>
+ * The decoder is strict. {@link #decodeLenient(byte[], int, int, byte[], int)} accepts the same
+ * input as {@link android.util.changed.Base64} for data, which was written by other clients.
+ *
+ * @author Ralf Wondratschek
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class Base64Url {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] ENCODE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(ASCII);
+    private static final byte[] DECODE = new byte[256];
+
+    static {
+        Arrays.fill(DECODE, (byte) -1);
+        for (int i = 0; i < ENCODE.length; i++) {
+            DECODE[ENCODE[i]] = (byte) i;
+        }
+    }
+
+    private Base64Url() {
+    }
+
+    /**
+     * @return the exact number of characters, which {@code length} bytes are encoded to.
+     */
+    public static int getEncodedLength(int length) {
+        return (int) ((length * 4L + 2) / 3);
+    }
+
+    /**
+     * @return the exact number of bytes, which {@code length} characters are decoded to.
+     * @throws IllegalArgumentException if no data has this encoded length.
+     */
+    public static int getDecodedLength(int length) throws IllegalArgumentException {
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("bad base-64 length " + length);
+        }
+        return (int) (length * 3L / 4);
+    }
+
+    /**
+     * @return the maximum number of bytes, which {@code length} characters are decoded to by
+     * {@link #decodeLenient(byte[], int, int, byte[], int)}.
+     */
+    public static int getMaxDecodedLength(int length) {
+        return (int) (length * 3L / 4);
+    }
+
+    /**
+     * Encodes the data between {@code offset} and {@code offset + length}.
+     *
+     * @param output a buffer with at least {@link #getEncodedLength(int)} free bytes.
+     * @return the number of written characters.
+     */
+    public static int encode(byte[] data, int offset, int length, byte[] output, int outputOffset) {
+        int sp = offset;
+        int dp = outputOffset;
+        int end = offset + length - length % 3;
+
+        while (sp < end) {
+            int value = (data[sp] & 0xff) << 16 | (data[sp + 1] & 0xff) << 8 | (data[sp + 2] & 0xff);
+            output[dp] = ENCODE[value >>> 18];
+            output[dp + 1] = ENCODE[(value >>> 12) & 0x3f];
+            output[dp + 2] = ENCODE[(value >>> 6) & 0x3f];
+            output[dp + 3] = ENCODE[value & 0x3f];
+            sp += 3;
+            dp += 4;
+        }
+
+        switch (length % 3) {
+            case 1: {
+                int value = (data[sp] & 0xff) << 4;
+                output[dp++] = ENCODE[value >>> 6];
+                output[dp++] = ENCODE[value & 0x3f];
+                break;
+            }
+            case 2: {
+                int value = ((data[sp] & 0xff) << 8 | (data[sp + 1] & 0xff)) << 2;
+                output[dp++] = ENCODE[value >>> 12];
+                output[dp++] = ENCODE[(value >>> 6) & 0x3f];
+                output[dp++] = ENCODE[value & 0x3f];
+                break;
+            }
+        }
+
+        return dp - outputOffset;
+    }
+
+    /**
+     * Encodes all remaining bytes of {@code src} into {@code dst}. The position of both buffers is
+     * advanced. Nothing is written, if {@code dst} is too small.
+     *
+     * @return the number of written characters.
+     * @throws BufferOverflowException if {@code dst} has less than {@link #getEncodedLength(int)}
+     *                                 remaining bytes.
+     */
+    public static int encode(ByteBuffer src, ByteBuffer dst) throws BufferOverflowException {
+        int length = src.remaining();
+        int encodedLength = getEncodedLength(length);
+        if (dst.remaining() < encodedLength) {
+            throw new BufferOverflowException();
+        }
+
+        if (src.hasArray() && dst.hasArray()) {
+            encode(src.array(), src.arrayOffset() + src.position(), length, dst.array(), dst.arrayOffset() + dst.position());
+
+        } else {
+            int sp = src.position();
+            int dp = dst.position();
+            int end = sp + length - length % 3;
+
+            while (sp < end) {
+                int value = (src.get(sp) & 0xff) << 16 | (src.get(sp + 1) & 0xff) << 8 | (src.get(sp + 2) & 0xff);
+                dst.put(dp, ENCODE[value >>> 18]);
+                dst.put(dp + 1, ENCODE[(value >>> 12) & 0x3f]);
+                dst.put(dp + 2, ENCODE[(value >>> 6) & 0x3f]);
+                dst.put(dp + 3, ENCODE[value & 0x3f]);
+                sp += 3;
+                dp += 4;
+            }
+
+            switch (length % 3) {
+                case 1: {
+                    int value = (src.get(sp) & 0xff) << 4;
+                    dst.put(dp, ENCODE[value >>> 6]);
+                    dst.put(dp + 1, ENCODE[value & 0x3f]);
+                    break;
+                }
+                case 2: {
+                    int value = ((src.get(sp) & 0xff) << 8 | (src.get(sp + 1) & 0xff)) << 2;
+                    dst.put(dp, ENCODE[value >>> 12]);
+                    dst.put(dp + 1, ENCODE[(value >>> 6) & 0x3f]);
+                    dst.put(dp + 2, ENCODE[value & 0x3f]);
+                    break;
+                }
+            }
+        }
+
+        src.position(src.position() + length);
+        dst.position(dst.position() + encodedLength);
+        return encodedLength;
+    }
+
+    public static String encodeToString(byte[] data) {
+        byte[] output = new byte[getEncodedLength(data.length)];
+        encode(data, 0, data.length, output, 0);
+        return new String(output, ASCII);
+    }
+
+    /**
+     * Decodes the characters between {@code offset} and {@code offset + length}. Characters outside
+     * of the URL safe alphabet aren't allowed.
+     *
+     * @param output a buffer with at least {@link #getDecodedLength(int)} free bytes.
+     * @return the number of written bytes.
+     * @throws IllegalArgumentException if the data isn't valid Base64.
+     */
+    public static int decode(byte[] data, int offset, int length, byte[] output, int outputOffset) throws IllegalArgumentException {
+        int decodedLength = getDecodedLength(length);
+
+        int sp = offset;
+        int dp = outputOffset;
+        int end = offset + length - length % 4;
+
+        while (sp < end) {
+            int value = DECODE[data[sp] & 0xff] << 18 | DECODE[data[sp + 1] & 0xff] << 12 | DECODE[data[sp + 2] & 0xff] << 6 | DECODE[data[sp + 3] & 0xff];
+            if (value < 0) {
+                throw new IllegalArgumentException("bad base-64");
+            }
+            output[dp] = (byte) (value >> 16);
+            output[dp + 1] = (byte) (value >> 8);
+            output[dp + 2] = (byte) value;
+            sp += 4;
+            dp += 3;
+        }
+
+        switch (length % 4) {
+            case 2: {
+                int value = DECODE[data[sp] & 0xff] << 6 | DECODE[data[sp + 1] & 0xff];
+                if (value < 0) {
+                    throw new IllegalArgumentException("bad base-64");
+                }
+                output[dp] = (byte) (value >> 4);
+                break;
+            }
+            case 3: {
+                int value = DECODE[data[sp] & 0xff] << 12 | DECODE[data[sp + 1] & 0xff] << 6 | DECODE[data[sp + 2] & 0xff];
+                if (value < 0) {
+                    throw new IllegalArgumentException("bad base-64");
+                }
+                output[dp] = (byte) (value >> 10);
+                output[dp + 1] = (byte) (value >> 2);
+                break;
+            }
+        }
+
+        return decodedLength;
+    }
+
+    /**
+     * Decodes the characters between {@code offset} and {@code offset + length} like
+     * {@link android.util.changed.Base64} with the URL safe alphabet. Characters outside of the
+     * alphabet, e.g. whitespace, are skipped and {@code '='} padding is allowed at the end.
+     *
+     * @param output a buffer with at least {@link #getMaxDecodedLength(int)} free bytes.
+     * @return the number of written bytes.
+     * @throws IllegalArgumentException if the data isn't valid Base64.
+     */
+    public static int decodeLenient(byte[] data, int offset, int length, byte[] output, int outputOffset) throws IllegalArgumentException {
+        int dp = outputOffset;
+        int value = 0;
+        int count = 0;
+        boolean padding = false;
+
+        for (int sp = offset, end = offset + length; sp < end; sp++) {
+            int d = DECODE[data[sp] & 0xff];
+            if (d >= 0) {
+                if (padding) {
+                    throw new IllegalArgumentException("bad base-64");
+                }
+
+                value = (value << 6) | d;
+                if (++count == 4) {
+                    output[dp] = (byte) (value >> 16);
+                    output[dp + 1] = (byte) (value >> 8);
+                    output[dp + 2] = (byte) value;
+                    dp += 3;
+                    value = 0;
+                    count = 0;
+                }
+            } else if (data[sp] == '=') {
+                padding = true;
+            }
+        }
+
+        switch (count) {
+            case 0:
+                break;
+            case 2:
+                output[dp++] = (byte) (value >> 4);
+                break;
+            case 3:
+                output[dp++] = (byte) (value >> 10);
+                output[dp++] = (byte) (value >> 2);
+                break;
+            default:
+                throw new IllegalArgumentException("bad base-64");
+        }
+
+        return dp - outputOffset;
+    }
+
+    /**
+     * Decodes all remaining characters of {@code src} into {@code dst}. The position of both buffers
+     * is advanced, if the data is valid.
+     *
+     * @return the number of written bytes.
+     * @throws BufferOverflowException  if {@code dst} has less than {@link #getDecodedLength(int)}
+     *                                  remaining bytes.
+     * @throws IllegalArgumentException if the data isn't valid Base64.
+     */
+    public static int decode(ByteBuffer src, ByteBuffer dst) throws BufferOverflowException, IllegalArgumentException {
+        int length = src.remaining();
+        int decodedLength = getDecodedLength(length);
+        if (dst.remaining() < decodedLength) {
+            throw new BufferOverflowException();
+        }
+
+        if (src.hasArray() && dst.hasArray()) {
+            decode(src.array(), src.arrayOffset() + src.position(), length, dst.array(), dst.arrayOffset() + dst.position());
+
+        } else {
+            int sp = src.position();
+            int dp = dst.position();
+            int end = sp + length - length % 4;
+
+            while (sp < end) {
+                int value = DECODE[src.get(sp) & 0xff] << 18 | DECODE[src.get(sp + 1) & 0xff] << 12 | DECODE[src.get(sp + 2) & 0xff] << 6 | DECODE[src.get(sp + 3) & 0xff];
+                if (value < 0) {
+                    throw new IllegalArgumentException("bad base-64");
+                }
+                dst.put(dp, (byte) (value >> 16));
+                dst.put(dp + 1, (byte) (value >> 8));
+                dst.put(dp + 2, (byte) value);
+                sp += 4;
+                dp += 3;
+            }
+
+            switch (length % 4) {
+                case 2: {
+                    int value = DECODE[src.get(sp) & 0xff] << 6 | DECODE[src.get(sp + 1) & 0xff];
+                    if (value < 0) {
+                        throw new IllegalArgumentException("bad base-64");
+                    }
+                    dst.put(dp, (byte) (value >> 4));
+                    break;
+                }
+                case 3: {
+                    int value = DECODE[src.get(sp) & 0xff] << 12 | DECODE[src.get(sp + 1) & 0xff] << 6 | DECODE[src.get(sp + 2) & 0xff];
+                    if (value < 0) {
+                        throw new IllegalArgumentException("bad base-64");
+                    }
+                    dst.put(dp, (byte) (value >> 10));
+                    dst.put(dp + 1, (byte) (value >> 2));
+                    break;
+                }
+            }
+        }
+
+        src.position(src.position() + length);
+        dst.position(dst.position() + decodedLength);
+        return decodedLength;
+    }
+}
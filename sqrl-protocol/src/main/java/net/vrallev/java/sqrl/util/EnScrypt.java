@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The password based key stretching of SQRL. EnScrypt chains scrypt invocations, the salt of an
+ * invocation is the output of the previous one, and returns the XOR of all outputs. The number
+ * of iterations is either given or determined by a time limit, the default parameters
+ * N = 512, r = 256 and p = 1 need 16 MB per thread.
+ * <br>
+ * <br>
+ * The memory of scrypt is allocated once per thread and reused afterwards. A computation can be
+ * cancelled by interrupting the calling thread, e.g. with {@link Future#cancel(boolean)}.
+ *
+ * @author Ralf Wondratschek
+ */
+public final class EnScrypt {
+
+    public static final int DEFAULT_LOG_N = 9;
+    public static final int DEFAULT_R = 256;
+    public static final int DEFAULT_P = 1;
+
+    public static final int KEY_LENGTH = 32;
+
+    /**
+     * Receives the progress of a computation on the computing thread.
+     */
+    public interface ProgressListener {
+        /**
+         * @param iteration the number of finished iterations.
+         * @param percent   the progress between 0 and 100.
+         */
+        void onProgress(int iteration, int percent);
+    }
+
+    private final int mLogN;
+    private final int mR;
+    private final int mP;
+
+    private final ThreadLocal<Scrypt> mScrypt;
+
+    public EnScrypt() {
+        this(DEFAULT_LOG_N, DEFAULT_R, DEFAULT_P);
+    }
+
+    public EnScrypt(int logN, int r, int p) {
+        Scrypt.checkParameters(logN, r, p);
+
+        mLogN = logN;
+        mR = r;
+        mP = p;
+
+        mScrypt = new ThreadLocal<Scrypt>() {
+            @Override
+            protected Scrypt initialValue() {
+                return new Scrypt(mLogN, mR, mP);
+            }
+        };
+    }
+
+    public int getLogN() {
+        return mLogN;
+    }
+
+    public int getR() {
+        return mR;
+    }
+
+    public int getP() {
+        return mP;
+    }
+
+    /**
+     * @param password   the password, usually UTF-8 encoded.
+     * @param salt       the salt, may be {@code null}.
+     * @param iterations the number of scrypt invocations.
+     * @param listener   receives the progress after each iteration, may be {@code null}.
+     * @return the 32 byte key.
+     * @throws InterruptedException if the thread was interrupted.
+     */
+    public byte[] hash(byte[] password, byte[] salt, int iterations, ProgressListener listener) throws InterruptedException {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive");
+        }
+        return compute(password, salt, iterations, 0L, listener).getKey();
+    }
+
+    /**
+     * Iterates until the given duration elapsed. The number of iterations has to be stored to
+     * derive the same key again with {@link #hash(byte[], byte[], int, ProgressListener)}.
+     *
+     * @throws InterruptedException if the thread was interrupted.
+     */
+    public Result hashForDuration(byte[] password, byte[] salt, long duration, TimeUnit unit, ProgressListener listener) throws InterruptedException {
+        long durationNanos = unit.toNanos(duration);
+        if (durationNanos <= 0) {
+            throw new IllegalArgumentException("duration must be positive");
+        }
+        return compute(password, salt, 0, durationNanos, listener);
+    }
+
+    /**
+     * Evaluates multiple password candidates in parallel, e.g. to find the password of an
+     * identity. Each thread of the executor holds its own scrypt memory. Cancelling a future with
+     * {@code mayInterruptIfRunning} stops its computation after the current iteration.
+     *
+     * @return the futures of the keys in the order of the passwords.
+     */
+    public List<Future<byte[]>> hashAll(List<byte[]> passwords, final byte[] salt, final int iterations, ExecutorService executor) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive");
+        }
+
+        List<Future<byte[]>> futures = new ArrayList<>(passwords.size());
+        for (final byte[] password : passwords) {
+            futures.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return hash(password, salt, iterations, null);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private Result compute(byte[] password, byte[] salt, int iterations, long durationNanos, ProgressListener listener) throws InterruptedException {
+        Scrypt scrypt = mScrypt.get();
+
+        byte[] key = new byte[KEY_LENGTH];
+        byte[] output = new byte[KEY_LENGTH];
+        byte[] nextSalt = new byte[KEY_LENGTH];
+        byte[] currentSalt = salt == null ? new byte[0] : salt;
+
+        long start = System.nanoTime();
+        int iteration = 0;
+
+        while (true) {
+            if (Thread.interrupted()) {
+                fill(key);
+                fill(output);
+                throw new InterruptedException();
+            }
+
+            scrypt.derive(password, currentSalt, output);
+            for (int i = 0; i < KEY_LENGTH; i++) {
+                key[i] ^= output[i];
+            }
+            System.arraycopy(output, 0, nextSalt, 0, KEY_LENGTH);
+            currentSalt = nextSalt;
+            iteration++;
+
+            long elapsed = System.nanoTime() - start;
+            boolean done = durationNanos > 0 ? elapsed >= durationNanos : iteration >= iterations;
+
+            if (listener != null) {
+                int percent;
+                if (done) {
+                    percent = 100;
+                } else if (durationNanos > 0) {
+                    percent = (int) (elapsed * 100 / durationNanos);
+                } else {
+                    percent = (int) (iteration * 100L / iterations);
+                }
+                listener.onProgress(iteration, percent);
+            }
+
+            if (done) {
+                fill(output);
+                fill(nextSalt);
+                return new Result(key, iteration, TimeUnit.NANOSECONDS.toMillis(elapsed));
+            }
+        }
+    }
+
+    private static void fill(byte[] array) {
+        for (int i = 0; i < array.length; i++) {
+            array[i] = 0;
+        }
+    }
+
+    /**
+     * The key and the number of iterations of a time limited computation.
+     */
+    public static final class Result {
+
+        private final byte[] mKey;
+        private final int mIterations;
+        private final long mElapsedMillis;
+
+        private Result(byte[] key, int iterations, long elapsedMillis) {
+            mKey = key;
+            mIterations = iterations;
+            mElapsedMillis = elapsedMillis;
+        }
+
+        public byte[] getKey() {
+            return mKey;
+        }
+
+        public int getIterations() {
+            return mIterations;
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+    }
+}
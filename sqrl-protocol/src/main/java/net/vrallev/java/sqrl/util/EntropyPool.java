@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.util;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A source of random bytes for keys and nuts, which doesn't contend between threads. Each thread
+ * owns an {@link HmacDrbg} and a buffer, which is filled in bulk and consumed sequentially. The
+ * served bytes are erased from the buffer.
+ * <br>
+ * <br>
+ * A {@link SecureRandom} seeds each DRBG once when a thread uses the pool for the first time. A
+ * background thread draws fresh seeds from it periodically and hands them over to the threads,
+ * which mix them in the next time they refill their buffer. The hot path never takes a lock and
+ * never waits for the operating system's entropy.
+ *
+ * @author Ralf Wondratschek
+ */
+public final class EntropyPool {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int SEED_LENGTH = 48;
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+    private static final long DEFAULT_RESEED_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    /**
+     * Lazily created by the class loader.
+     */
+    private static final class DefaultHolder {
+        private static final EntropyPool INSTANCE = new EntropyPool(new SecureRandom(), DEFAULT_RESEED_INTERVAL, TimeUnit.MILLISECONDS, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @return the pool, which is shared by the whole library.
+     */
+    public static EntropyPool getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private final SecureRandom mSeedSource;
+    private final int mBufferSize;
+    private final ThreadLocal<Stripe> mStripes;
+    private final ConcurrentLinkedQueue<WeakReference<Stripe>> mAllStripes;
+    private final AtomicInteger mStripeCounter;
+    private final ScheduledExecutorService mReseedExecutor;
+    private final ScheduledFuture<?> mReseedTask;
+
+    /**
+     * @param seedSource     seeds the DRBGs, it's only used once per thread and by the background
+     *                       thread.
+     * @param reseedInterval the interval, in which fresh seeds are handed over to the threads.
+     * @param bufferSize     the number of bytes, which are generated at once per thread.
+     */
+    public EntropyPool(SecureRandom seedSource, long reseedInterval, TimeUnit unit, int bufferSize) {
+        if (bufferSize < 32 || bufferSize > HmacDrbg.MAX_BYTES_PER_REQUEST) {
+            throw new IllegalArgumentException("illegal buffer size " + bufferSize);
+        }
+        if (reseedInterval <= 0) {
+            throw new IllegalArgumentException("reseed interval must be positive");
+        }
+
+        mSeedSource = seedSource;
+        mBufferSize = bufferSize;
+        mAllStripes = new ConcurrentLinkedQueue<>();
+        mStripeCounter = new AtomicInteger();
+
+        mStripes = new ThreadLocal<Stripe>() {
+            @Override
+            protected Stripe initialValue() {
+                Stripe stripe = new Stripe(createSeed(), mStripeCounter.incrementAndGet());
+                mAllStripes.add(new WeakReference<>(stripe));
+                return stripe;
+            }
+        };
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sqrl-entropy-" + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        mReseedExecutor = executor;
+
+        mReseedTask = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reseedAll();
+            }
+        }, reseedInterval, reseedInterval, unit);
+    }
+
+    public void nextBytes(byte[] output) {
+        nextBytes(output, 0, output.length);
+    }
+
+    public void nextBytes(byte[] output, int offset, int length) {
+        mStripes.get().nextBytes(output, offset, length);
+    }
+
+    /**
+     * @return a uniformly distributed value in [0, bound).
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+
+        Stripe stripe = mStripes.get();
+        // reject the values above the largest multiple of the bound to avoid a bias
+        int limit = Integer.MAX_VALUE - (Integer.MAX_VALUE % bound + 1) % bound;
+        while (true) {
+            int value = stripe.nextInt() >>> 1;
+            if (value <= limit) {
+                return value % bound;
+            }
+        }
+    }
+
+    public long nextLong() {
+        Stripe stripe = mStripes.get();
+        return ((long) stripe.nextInt() << 32) | (stripe.nextInt() & 0xffffffffL);
+    }
+
+    /**
+     * Hands a fresh seed to each thread, which doesn't have a pending seed yet. Called by the
+     * background thread, but can be triggered manually.
+     */
+    public void reseedAll() {
+        Iterator<WeakReference<Stripe>> iterator = mAllStripes.iterator();
+        while (iterator.hasNext()) {
+            Stripe stripe = iterator.next().get();
+            if (stripe == null) {
+                // the thread died
+                iterator.remove();
+            } else if (stripe.mPendingSeed.get() == null) {
+                stripe.mPendingSeed.compareAndSet(null, createSeed());
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread. The pool can still be used, but isn't reseeded anymore.
+     */
+    public void shutdown() {
+        mReseedTask.cancel(false);
+        mReseedExecutor.shutdown();
+    }
+
+    private byte[] createSeed() {
+        byte[] seed = new byte[SEED_LENGTH];
+        mSeedSource.nextBytes(seed);
+        return seed;
+    }
+
+    /**
+     * The state of one thread. Only the pending seed is touched by other threads.
+     */
+    private final class Stripe {
+
+        private final HmacDrbg mDrbg;
+        private final byte[] mBuffer;
+        private final AtomicReference<byte[]> mPendingSeed;
+
+        private int mPosition;
+
+        private Stripe(byte[] seed, int index) {
+            byte[] nonce = new byte[16];
+            putLong(nonce, 0, System.nanoTime());
+            putLong(nonce, 8, Thread.currentThread().getId());
+
+            mDrbg = new HmacDrbg(seed, nonce, ("sqrl-entropy-pool-" + index).getBytes(UTF_8));
+            mBuffer = new byte[mBufferSize];
+            mPosition = mBuffer.length;
+            mPendingSeed = new AtomicReference<>();
+
+            Arrays.fill(seed, (byte) 0);
+        }
+
+        private void nextBytes(byte[] output, int offset, int length) {
+            while (length > 0) {
+                if (mPosition == mBuffer.length) {
+                    refill();
+                }
+
+                int count = Math.min(length, mBuffer.length - mPosition);
+                System.arraycopy(mBuffer, mPosition, output, offset, count);
+                Arrays.fill(mBuffer, mPosition, mPosition + count, (byte) 0);
+
+                mPosition += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        private int nextInt() {
+            if (mBuffer.length - mPosition < 4) {
+                byte[] bytes = new byte[4];
+                nextBytes(bytes, 0, 4);
+                return (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff);
+            }
+
+            int p = mPosition;
+            int value = (mBuffer[p] & 0xff) << 24 | (mBuffer[p + 1] & 0xff) << 16 | (mBuffer[p + 2] & 0xff) << 8 | (mBuffer[p + 3] & 0xff);
+            Arrays.fill(mBuffer, p, p + 4, (byte) 0);
+            mPosition += 4;
+            return value;
+        }
+
+        private void refill() {
+            byte[] seed = mPendingSeed.getAndSet(null);
+            if (seed != null) {
+                mDrbg.reseed(seed);
+                Arrays.fill(seed, (byte) 0);
+            }
+
+            mDrbg.nextBytes(mBuffer, 0, mBuffer.length);
+            mPosition = 0;
+        }
+    }
+
+    private static void putLong(byte[] array, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            array[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+}
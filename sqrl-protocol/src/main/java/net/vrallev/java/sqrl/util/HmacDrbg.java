@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.util;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The HMAC-DRBG with SHA-256 of NIST SP 800-90A without prediction resistance and additional
+ * input. An instance isn't thread safe.
+ *
+ * @author Ralf Wondratschek
+ */
+public final class HmacDrbg {
+
+    /**
+     * The maximum number of bytes per request of the specification.
+     */
+    public static final int MAX_BYTES_PER_REQUEST = 1 << 16;
+
+    private static final String MAC_ALGO = "HmacSHA256";
+    private static final long RESEED_INTERVAL = 1L << 48;
+
+    private final Mac mHmac;
+    private final byte[] mKey;
+    private final byte[] mValue;
+    private final byte[] mZero;
+    private final byte[] mOne;
+
+    private long mReseedCounter;
+
+    /**
+     * @param entropy         at least 32 bytes of entropy.
+     * @param nonce           a value, which is never repeated with the same entropy. May be
+     *                        {@code null}.
+     * @param personalization distinguishes instances, may be {@code null}.
+     */
+    public HmacDrbg(byte[] entropy, byte[] nonce, byte[] personalization) {
+        if (entropy == null || entropy.length < 32) {
+            throw new IllegalArgumentException("at least 32 bytes of entropy are required");
+        }
+
+        try {
+            mHmac = Mac.getInstance(MAC_ALGO);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+
+        mKey = new byte[32];
+        mValue = new byte[32];
+        Arrays.fill(mValue, (byte) 0x01);
+        mZero = new byte[]{0x00};
+        mOne = new byte[]{0x01};
+
+        update(entropy, nonce, personalization);
+        mReseedCounter = 1;
+    }
+
+    /**
+     * Mixes fresh entropy into the state.
+     */
+    public void reseed(byte[] entropy) {
+        if (entropy == null || entropy.length < 32) {
+            throw new IllegalArgumentException("at least 32 bytes of entropy are required");
+        }
+        update(entropy, null, null);
+        mReseedCounter = 1;
+    }
+
+    public void nextBytes(byte[] output) {
+        nextBytes(output, 0, output.length);
+    }
+
+    /**
+     * @throws IllegalArgumentException if more than {@link #MAX_BYTES_PER_REQUEST} bytes are
+     *                                  requested.
+     * @throws IllegalStateException    if the instance needs to be reseeded.
+     */
+    public void nextBytes(byte[] output, int offset, int length) {
+        if (length > MAX_BYTES_PER_REQUEST) {
+            throw new IllegalArgumentException("too many bytes requested " + length);
+        }
+        if (mReseedCounter > RESEED_INTERVAL) {
+            throw new IllegalStateException("reseed required");
+        }
+
+        try {
+            init(mKey);
+            int end = offset + length;
+            while (offset < end) {
+                mHmac.update(mValue);
+                mHmac.doFinal(mValue, 0);
+
+                int count = Math.min(mValue.length, end - offset);
+                System.arraycopy(mValue, 0, output, offset, count);
+                offset += count;
+            }
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+
+        update(null, null, null);
+        mReseedCounter++;
+    }
+
+    /**
+     * The update function, the inputs are concatenated.
+     */
+    private void update(byte[] data1, byte[] data2, byte[] data3) {
+        boolean hasData = length(data1) + length(data2) + length(data3) > 0;
+
+        try {
+            updateRound(mZero, data1, data2, data3);
+            if (hasData) {
+                updateRound(mOne, data1, data2, data3);
+            }
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void updateRound(byte[] separator, byte[] data1, byte[] data2, byte[] data3) throws ShortBufferException {
+        // K = HMAC(K, V || separator || data)
+        init(mKey);
+        mHmac.update(mValue);
+        mHmac.update(separator);
+        updateIfPresent(data1);
+        updateIfPresent(data2);
+        updateIfPresent(data3);
+        mHmac.doFinal(mKey, 0);
+
+        // V = HMAC(K, V)
+        init(mKey);
+        mHmac.update(mValue);
+        mHmac.doFinal(mValue, 0);
+    }
+
+    private void init(byte[] key) {
+        try {
+            mHmac.init(new SecretKeySpec(key, MAC_ALGO));
+        } catch (InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void updateIfPresent(byte[] data) {
+        if (data != null) {
+            mHmac.update(data);
+        }
+    }
+
+    private static int length(byte[] data) {
+        return data == null ? 0 : data.length;
+    }
+}
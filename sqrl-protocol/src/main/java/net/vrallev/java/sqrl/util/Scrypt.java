@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.util;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The scrypt key derivation function of RFC 7914. The memory of ROMix, 128 * r * N bytes, is
+ * allocated once and reused for every derivation, so an instance isn't thread safe.
+ *
+ * @author Ralf Wondratschek
+ */
+public final class Scrypt {
+
+    private static final String MAC_ALGO = "HmacSHA256";
+
+    private final int mN;
+    private final int mR;
+    private final int mP;
+
+    private final int[] mV;
+    private final int[] mX;
+    private final int[] mY;
+    private final int[] mSalsa;
+    private final byte[] mBlock;
+
+    private final Mac mHmac;
+    private final byte[] mCounter;
+    private final byte[] mMacOutput;
+
+    /**
+     * @param logN the binary logarithm of the CPU / memory cost N.
+     * @param r    the block size.
+     * @param p    the parallelization parameter, the blocks are mixed one after another.
+     */
+    public Scrypt(int logN, int r, int p) {
+        checkParameters(logN, r, p);
+
+        mN = 1 << logN;
+        mR = r;
+        mP = p;
+
+        mV = new int[mN * 32 * r];
+        mX = new int[32 * r];
+        mY = new int[32 * r];
+        mSalsa = new int[16];
+        mBlock = new byte[p * 128 * r];
+
+        try {
+            mHmac = Mac.getInstance(MAC_ALGO);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        mCounter = new byte[4];
+        mMacOutput = new byte[mHmac.getMacLength()];
+    }
+
+    /*package*/ static void checkParameters(int logN, int r, int p) {
+        if (logN < 1 || logN > 30 || r < 1 || p < 1 || (long) r * p >= 1 << 30) {
+            throw new IllegalArgumentException("illegal parameters");
+        }
+        if ((1L << logN) * 32 * r > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("N * r is too large");
+        }
+    }
+
+    public int getN() {
+        return mN;
+    }
+
+    public int getR() {
+        return mR;
+    }
+
+    public int getP() {
+        return mP;
+    }
+
+    /**
+     * @return the derived key with the given length in bytes.
+     */
+    public byte[] derive(byte[] password, byte[] salt, int length) {
+        byte[] result = new byte[length];
+        derive(password, salt, result);
+        return result;
+    }
+
+    /**
+     * Derives a key with the length of the output array.
+     */
+    public void derive(byte[] password, byte[] salt, byte[] output) {
+        try {
+            // SecretKeySpec rejects empty keys, HMAC pads a single zero byte to the same key
+            mHmac.init(new SecretKeySpec(password.length == 0 ? new byte[1] : password, MAC_ALGO));
+        } catch (InvalidKeyException e) {
+            throw new IllegalArgumentException(e);
+        }
+
+        pbkdf2(salt, 0, salt.length, mBlock);
+
+        int blockLength = 128 * mR;
+        for (int i = 0; i < mP; i++) {
+            decode(mBlock, i * blockLength, mX);
+            roMix();
+            encode(mX, mBlock, i * blockLength);
+        }
+
+        pbkdf2(mBlock, 0, mBlock.length, output);
+    }
+
+    /**
+     * PBKDF2-HMAC-SHA256 with a single iteration, the HMAC must be initialized with the password.
+     */
+    private void pbkdf2(byte[] salt, int offset, int length, byte[] output) {
+        int macLength = mMacOutput.length;
+        try {
+            for (int i = 0, block = 1; i < output.length; i += macLength, block++) {
+                mCounter[0] = (byte) (block >>> 24);
+                mCounter[1] = (byte) (block >>> 16);
+                mCounter[2] = (byte) (block >>> 8);
+                mCounter[3] = (byte) block;
+
+                mHmac.update(salt, offset, length);
+                mHmac.update(mCounter);
+                mHmac.doFinal(mMacOutput, 0);
+                System.arraycopy(mMacOutput, 0, output, i, Math.min(macLength, output.length - i));
+            }
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void roMix() {
+        int blockWords = 32 * mR;
+        int[] x = mX;
+        int[] v = mV;
+
+        for (int i = 0; i < mN; i++) {
+            System.arraycopy(x, 0, v, i * blockWords, blockWords);
+            blockMix();
+        }
+
+        int mask = mN - 1;
+        int last = (2 * mR - 1) * 16;
+        for (int i = 0; i < mN; i++) {
+            int offset = (x[last] & mask) * blockWords;
+            for (int k = 0; k < blockWords; k++) {
+                x[k] ^= v[offset + k];
+            }
+            blockMix();
+        }
+    }
+
+    /**
+     * BlockMix of mX, the even blocks of the result are stored in the first half and the odd
+     * blocks in the second half.
+     */
+    private void blockMix() {
+        int[] x = mX;
+        int[] y = mY;
+        int[] salsa = mSalsa;
+
+        System.arraycopy(x, (2 * mR - 1) * 16, salsa, 0, 16);
+
+        for (int i = 0; i < 2 * mR; i++) {
+            for (int k = 0; k < 16; k++) {
+                salsa[k] ^= x[i * 16 + k];
+            }
+            salsa208(salsa);
+
+            int target = ((i & 1) * mR + (i >> 1)) * 16;
+            System.arraycopy(salsa, 0, y, target, 16);
+        }
+
+        System.arraycopy(y, 0, x, 0, y.length);
+    }
+
+    private static void salsa208(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+
+        for (int i = 0; i < 8; i += 2) {
+            // columns
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+            // rows
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3; b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11; b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+
+    private static void decode(byte[] src, int offset, int[] dst) {
+        for (int i = 0; i < dst.length; i++) {
+            int j = offset + 4 * i;
+            dst[i] = (src[j] & 0xff) | (src[j + 1] & 0xff) << 8 | (src[j + 2] & 0xff) << 16 | (src[j + 3] & 0xff) << 24;
+        }
+    }
+
+    private static void encode(int[] src, byte[] dst, int offset) {
+        for (int i = 0; i < src.length; i++) {
+            int j = offset + 4 * i;
+            dst[j] = (byte) src[i];
+            dst[j + 1] = (byte) (src[i] >>> 8);
+            dst[j + 2] = (byte) (src[i] >>> 16);
+            dst[j + 3] = (byte) (src[i] >>> 24);
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package net.vrallev.java.sqrl.util;
 
+import net.vrallev.java.sqrl.metrics.SqrlMetrics;
+
 import org.spongycastle.crypto.InvalidCipherTextException;
 import org.spongycastle.crypto.engines.AESFastEngine;
 import org.spongycastle.crypto.modes.GCMBlockCipher;
@@ -22,33 +24,64 @@ import org.spongycastle.crypto.params.AEADParameters;
 import org.spongycastle.crypto.params.KeyParameter;
 
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.util.Arrays;
 
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
 import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
- * A helper class, which implements many necessary operations.
+ * A helper class, which implements many necessary operations. It's safe to share one instance
+ * between multiple threads.
  *
  * @author Ralf Wondratschek
  */
 @SuppressWarnings("UnusedDeclaration")
 public class SqrlCipherTool {
 
+    /**
+     * The implementation of AES-GCM.
+     */
+    public enum AesGcmEngine {
+        /**
+         * The JCE implementation of the platform. On HotSpot the JIT compiles it to the AES-NI and
+         * carry-less multiplication instructions of the CPU.
+         */
+        JCE,
+        /**
+         * The table based software implementation of SpongyCastle.
+         */
+        SPONGY_CASTLE
+    }
+
     private static final String MAC_ALGO = "HmacSHA256";
+    private static final String AES_GCM = "AES/GCM/NoPadding";
+    private static final int TAG_LENGTH = 16;
     private static final String DEFAULT_HASH_ALGORITHM = "SHA-256";
     private static final Charset UTF_8 = Charset.forName("UTF-8");
 
-    private final SecureRandom mRandom;
-    private final Mac mHMacSha256;
-
-    private final GCMBlockCipher mAesGcmEngine;
+    private final EntropyPool mEntropyPool;
+    private final String mAlgorithm;
+    private final ThreadLocal<Primitives> mPrimitives;
+    private final SqrlMetrics mMetrics;
+    private final AesGcmEngine mAesGcmEngine;
 
+    /**
+     * @deprecated not thread safe and not used internally anymore, each thread uses its own digest.
+     */
+    @Deprecated
     protected MessageDigest mMessageDigest;
     protected Charset mCharset;
 
@@ -56,14 +89,53 @@ public class SqrlCipherTool {
         this(DEFAULT_HASH_ALGORITHM, UTF_8);
     }
 
+    /**
+     * @param metrics receives the latencies of the AES-GCM operations.
+     */
+    public SqrlCipherTool(SqrlMetrics metrics) {
+        this(DEFAULT_HASH_ALGORITHM, UTF_8, metrics);
+    }
+
     public SqrlCipherTool(String algorithm, Charset charset) {
-        mRandom = new SecureRandom();
+        this(algorithm, charset, SqrlMetrics.NONE);
+    }
+
+    /**
+     * @param metrics receives the latencies of the AES-GCM operations.
+     */
+    public SqrlCipherTool(String algorithm, Charset charset, SqrlMetrics metrics) {
+        this(algorithm, charset, metrics, null);
+    }
+
+    /**
+     * @param metrics receives the latencies of the AES-GCM operations.
+     * @param aesGcmEngine the implementation of AES-GCM. If {@code null}, then the JCE is used, if it
+     *                     supports AES-GCM with 256 bit keys, otherwise SpongyCastle.
+     * @throws IllegalStateException if the JCE was requested, but doesn't support AES-GCM.
+     */
+    public SqrlCipherTool(String algorithm, Charset charset, SqrlMetrics metrics, AesGcmEngine aesGcmEngine) {
+        if (aesGcmEngine == null) {
+            aesGcmEngine = isJceAesGcmAvailable() ? AesGcmEngine.JCE : AesGcmEngine.SPONGY_CASTLE;
+        } else if (aesGcmEngine == AesGcmEngine.JCE && !isJceAesGcmAvailable()) {
+            throw new IllegalStateException("the JCE doesn't support AES-GCM with 256 bit keys");
+        }
+
+        mAesGcmEngine = aesGcmEngine;
+        mMetrics = metrics == null ? SqrlMetrics.NONE : metrics;
+        mEntropyPool = EntropyPool.getDefault();
         mCharset = charset;
+        mAlgorithm = algorithm;
 
-        mAesGcmEngine = new GCMBlockCipher(new AESFastEngine());
+        // the JCA and SpongyCastle primitives aren't thread safe, but the tool is shared between threads,
+        // e.g. through SqrlProtocol.instance(), cache one set of initialized primitives per thread
+        mPrimitives = new ThreadLocal<Primitives>() {
+            @Override
+            protected Primitives initialValue() {
+                return new Primitives(mAlgorithm, mAesGcmEngine == AesGcmEngine.JCE);
+            }
+        };
 
         try {
-            mHMacSha256 = Mac.getInstance(MAC_ALGO);
             mMessageDigest = MessageDigest.getInstance(algorithm);
         } catch (NoSuchAlgorithmException e) {
             throw new IllegalStateException(e);
@@ -71,6 +143,17 @@ public class SqrlCipherTool {
     }
 
 
+    /**
+     * @return {@code true} if the JCE of the platform supports AES-GCM with 256 bit keys.
+     */
+    public static boolean isJceAesGcmAvailable() {
+        return JceSupport.AVAILABLE;
+    }
+
+    public AesGcmEngine getAesGcmEngine() {
+        return mAesGcmEngine;
+    }
+
     public byte[] getHash(String clearText) {
         return getHash(clearText, 1);
     }
@@ -100,27 +183,54 @@ public class SqrlCipherTool {
     }
 
     public byte[] getHash(byte[] data, int iterations) {
+        byte[] result = new byte[mPrimitives.get().mMessageDigest.getDigestLength()];
+        getHash(data, iterations, result, 0);
+        return result;
+    }
+
+    /**
+     * Same as {@link #getHash(byte[], int)}, but writes the hash into the given buffer. Each
+     * iteration hashes the buffer in place, so nothing is allocated.
+     *
+     * @return the number of bytes written, the length of the digest.
+     * @throws IllegalArgumentException if the buffer is too small.
+     */
+    public int getHash(byte[] data, int iterations, byte[] output, int offset) {
         iterations = Math.max(1, iterations);
-        for (int i = 0; i < iterations; i++) {
-            data = mMessageDigest.digest(data);
+        MessageDigest messageDigest = mPrimitives.get().mMessageDigest;
+        int length = messageDigest.getDigestLength();
+
+        messageDigest.update(data);
+        digest(messageDigest, output, offset, length);
+        for (int i = 1; i < iterations; i++) {
+            messageDigest.update(output, offset, length);
+            digest(messageDigest, output, offset, length);
         }
-        return data;
+        return length;
     }
 
     public byte[] createRandomHash(int lengthBit) {
-        byte[] bytes = new byte[128];
-        mRandom.nextBytes(bytes);
-        byte[] hash = getHash(bytes);
-        return Arrays.copyOf(hash, lengthBit / 8);
+        byte[] result = new byte[lengthBit / 8];
+        createRandomHash(result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Same as {@link #createRandomHash(int)}, but writes the random bytes into the given buffer
+     * without allocating. The bytes are drawn from the {@link EntropyPool} without contention
+     * between threads.
+     */
+    public void createRandomHash(byte[] output, int offset, int length) {
+        mEntropyPool.nextBytes(output, offset, length);
     }
 
     public String createRescueCode() {
-        StringBuilder builder = new StringBuilder(24);
-        for (int i = 0; i < 24; i++) {
-            builder.append(mRandom.nextInt(10));
+        char[] digits = new char[24];
+        for (int i = 0; i < digits.length; i++) {
+            digits[i] = (char) ('0' + mEntropyPool.nextInt(10));
         }
 
-        return builder.toString();
+        return new String(digits);
     }
 
     public byte[] computeHmac(byte[] data, String password) {
@@ -129,29 +239,51 @@ public class SqrlCipherTool {
 
     public byte[] computeHmac(byte[] data, byte[] password) {
         try {
-            SecretKeySpec secretKeySpec = new SecretKeySpec(password, MAC_ALGO);
-            mHMacSha256.init(secretKeySpec);
+            Mac hMacSha256 = mPrimitives.get().mHMacSha256;
+            hMacSha256.init(new SecretKeySpec(password, MAC_ALGO));
 
-            return mHMacSha256.doFinal(data);
+            return hMacSha256.doFinal(data);
         } catch (InvalidKeyException e) {
             throw new IllegalArgumentException(e);
         }
     }
 
     public byte[] getHashChained(byte[] data, int rounds) {
-        byte[] hash = getHash(data);
-        if (rounds == 1) {
-            return hash;
+        byte[] result = new byte[mPrimitives.get().mMessageDigest.getDigestLength()];
+        getHashChained(data, rounds, result, 0);
+        return result;
+    }
+
+    /**
+     * Same as {@link #getHashChained(byte[], int)}, but writes the result into the given buffer.
+     * The hashes are XORed in place into the buffer, so no round allocates.
+     *
+     * @return the number of bytes written, the length of the digest.
+     * @throws IllegalArgumentException if the buffer is too small.
+     */
+    public int getHashChained(byte[] data, int rounds, byte[] output, int offset) {
+        Primitives primitives = mPrimitives.get();
+        MessageDigest messageDigest = primitives.mMessageDigest;
+        byte[] hash = primitives.mHashBuffer;
+        int length = hash.length;
+        if (output.length - offset < length) {
+            throw new IllegalArgumentException("output buffer is too small");
         }
 
-        byte[] xor = hash;
+        messageDigest.update(data);
+        digest(messageDigest, hash, 0, length);
+        System.arraycopy(hash, 0, output, offset, length);
 
         for (int i = 1; i < rounds; i++) {
-            hash = getHash(hash);
-            xor = xor(xor, hash);
+            messageDigest.update(hash, 0, length);
+            digest(messageDigest, hash, 0, length);
+            for (int j = 0; j < length; j++) {
+                output[offset + j] ^= hash[j];
+            }
         }
 
-        return xor;
+        Arrays.fill(hash, (byte) 0);
+        return length;
     }
 
     public AesGcmResult aesGcmEncrypt(byte[] plainText, byte[] key) {
@@ -159,17 +291,38 @@ public class SqrlCipherTool {
     }
 
     public AesGcmResult aesGcmEncrypt(byte[] plainText, byte[] key, byte[] iv, byte[] aad) {
+        if (!mMetrics.isEnabled()) {
+            return aesGcmEncryptInternal(plainText, key, iv, aad);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return aesGcmEncryptInternal(plainText, key, iv, aad);
+        } finally {
+            mMetrics.recordLatency(SqrlMetrics.Stage.AES_GCM, System.nanoTime() - start);
+        }
+    }
+
+    private AesGcmResult aesGcmEncryptInternal(byte[] plainText, byte[] key, byte[] iv, byte[] aad) {
+        if (mAesGcmEngine == AesGcmEngine.JCE) {
+            byte[] cipherText = new byte[plainText.length];
+            byte[] tag = new byte[TAG_LENGTH];
+            jceEncrypt(ByteBuffer.wrap(plainText), ByteBuffer.wrap(cipherText), ByteBuffer.wrap(tag), key, iv, aad);
+            return new AesGcmResult(cipherText, tag);
+        }
+
         AEADParameters parameters = new AEADParameters(new KeyParameter(key), 128, iv, aad);
 
-        mAesGcmEngine.init(true, parameters);
+        GCMBlockCipher aesGcmEngine = mPrimitives.get().mAesGcmEngine;
+        aesGcmEngine.init(true, parameters);
 
-        byte[] encMsg = new byte[mAesGcmEngine.getOutputSize(plainText.length)];
-        int encLen = mAesGcmEngine.processBytes(plainText, 0, plainText.length, encMsg, 0);
+        byte[] encMsg = new byte[aesGcmEngine.getOutputSize(plainText.length)];
+        int encLen = aesGcmEngine.processBytes(plainText, 0, plainText.length, encMsg, 0);
 
         try {
-            mAesGcmEngine.doFinal(encMsg, encLen);
+            aesGcmEngine.doFinal(encMsg, encLen);
 
-            byte[] tag = mAesGcmEngine.getMac();
+            byte[] tag = aesGcmEngine.getMac();
             encMsg = Arrays.copyOf(encMsg, encMsg.length - tag.length);
 
             return new AesGcmResult(encMsg, tag);
@@ -187,23 +340,167 @@ public class SqrlCipherTool {
     }
 
     public byte[] aesGcmDecrypt(byte[] cipherText, byte[] tag, byte[] key, byte[] iv, byte[] aad) {
+        if (!mMetrics.isEnabled()) {
+            return aesGcmDecryptInternal(cipherText, tag, key, iv, aad);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return aesGcmDecryptInternal(cipherText, tag, key, iv, aad);
+        } finally {
+            mMetrics.recordLatency(SqrlMetrics.Stage.AES_GCM, System.nanoTime() - start);
+        }
+    }
+
+    private byte[] aesGcmDecryptInternal(byte[] cipherText, byte[] tag, byte[] key, byte[] iv, byte[] aad) {
+        if (mAesGcmEngine == AesGcmEngine.JCE) {
+            byte[] plainText = new byte[cipherText.length];
+            jceDecrypt(ByteBuffer.wrap(cipherText), ByteBuffer.wrap(plainText), ByteBuffer.wrap(tag), key, iv, aad);
+            return plainText;
+        }
+
         AEADParameters parameters = new AEADParameters(new KeyParameter(key), 128, iv, aad);
-        mAesGcmEngine.init(false, parameters);
+
+        GCMBlockCipher aesGcmEngine = mPrimitives.get().mAesGcmEngine;
+        aesGcmEngine.init(false, parameters);
 
         byte[] text = Arrays.copyOf(cipherText, cipherText.length + tag.length);
         System.arraycopy(tag, 0, text, cipherText.length, tag.length);
 
-        byte[] decMsg = new byte[mAesGcmEngine.getOutputSize(text.length)];
-        int decLen = mAesGcmEngine.processBytes(text, 0, text.length, decMsg, 0);
+        byte[] decMsg = new byte[aesGcmEngine.getOutputSize(text.length)];
+        int decLen = aesGcmEngine.processBytes(text, 0, text.length, decMsg, 0);
 
         try {
-            mAesGcmEngine.doFinal(decMsg, decLen);
+            aesGcmEngine.doFinal(decMsg, decLen);
             return decMsg;
         } catch (InvalidCipherTextException e) {
             throw new IllegalArgumentException(e);
         }
     }
 
+    /**
+     * Encrypts the remaining bytes of the buffer in place and writes the detached 16 byte tag into
+     * the other buffer. The positions of both buffers are advanced like with
+     * {@link Cipher#doFinal(ByteBuffer, ByteBuffer)}, the data buffer's position ends at its limit.
+     * With the JCE engine no bytes are copied, direct buffers are supported, too.
+     *
+     * @throws BufferOverflowException if the tag buffer has less than 16 remaining bytes.
+     */
+    public void aesGcmEncrypt(ByteBuffer data, ByteBuffer tag, byte[] key, byte[] iv, byte[] aad) {
+        if (tag.remaining() < TAG_LENGTH) {
+            throw new BufferOverflowException();
+        }
+
+        if (!mMetrics.isEnabled()) {
+            aesGcmEncryptInternal(data, tag, key, iv, aad);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            aesGcmEncryptInternal(data, tag, key, iv, aad);
+        } finally {
+            mMetrics.recordLatency(SqrlMetrics.Stage.AES_GCM, System.nanoTime() - start);
+        }
+    }
+
+    private void aesGcmEncryptInternal(ByteBuffer data, ByteBuffer tag, byte[] key, byte[] iv, byte[] aad) {
+        if (mAesGcmEngine == AesGcmEngine.JCE) {
+            jceEncrypt(data, data.duplicate(), tag, key, iv, aad);
+            return;
+        }
+
+        ByteBuffer output = data.duplicate();
+        byte[] plainText = new byte[data.remaining()];
+        data.get(plainText);
+
+        AesGcmResult result = aesGcmEncryptInternal(plainText, key, iv, aad);
+        output.put(result.getEncryptedMessage());
+        tag.put(result.getTag());
+    }
+
+    /**
+     * Decrypts the remaining bytes of the buffer in place with the detached 16 byte tag of the other
+     * buffer. The positions of both buffers are advanced like with
+     * {@link Cipher#doFinal(ByteBuffer, ByteBuffer)}. The data isn't modified, if the tag doesn't
+     * match.
+     *
+     * @throws IllegalArgumentException if the tag doesn't match.
+     * @throws BufferUnderflowException if the tag buffer has less than 16 remaining bytes.
+     */
+    public void aesGcmDecrypt(ByteBuffer data, ByteBuffer tag, byte[] key, byte[] iv, byte[] aad) {
+        if (tag.remaining() < TAG_LENGTH) {
+            throw new BufferUnderflowException();
+        }
+
+        if (!mMetrics.isEnabled()) {
+            aesGcmDecryptInternal(data, tag, key, iv, aad);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            aesGcmDecryptInternal(data, tag, key, iv, aad);
+        } finally {
+            mMetrics.recordLatency(SqrlMetrics.Stage.AES_GCM, System.nanoTime() - start);
+        }
+    }
+
+    private void aesGcmDecryptInternal(ByteBuffer data, ByteBuffer tag, byte[] key, byte[] iv, byte[] aad) {
+        if (mAesGcmEngine == AesGcmEngine.JCE) {
+            jceDecrypt(data, data.duplicate(), tag, key, iv, aad);
+            return;
+        }
+
+        // SpongyCastle releases the plain text before the tag is checked, decrypt into a copy first
+        byte[] cipherText = new byte[data.remaining()];
+        data.duplicate().get(cipherText);
+        byte[] tagBytes = new byte[TAG_LENGTH];
+        tag.duplicate().get(tagBytes);
+
+        byte[] plainText = aesGcmDecryptInternal(cipherText, tagBytes, key, iv, aad);
+        data.put(plainText);
+        tag.position(tag.position() + TAG_LENGTH);
+    }
+
+    private void jceEncrypt(ByteBuffer input, ByteBuffer output, ByteBuffer tag, byte[] key, byte[] iv, byte[] aad) {
+        Primitives primitives = mPrimitives.get();
+        Cipher cipher = primitives.initAesGcm(Cipher.ENCRYPT_MODE, key, iv, aad);
+
+        try {
+            // copy safe, the input and output may share the same memory
+            cipher.update(input, output);
+
+            // the last partial block and the tag
+            byte[] tail = primitives.getTailBuffer(cipher.getOutputSize(0));
+            int length = cipher.doFinal(tail, 0);
+            output.put(tail, 0, length - TAG_LENGTH);
+            tag.put(tail, length - TAG_LENGTH, TAG_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void jceDecrypt(ByteBuffer input, ByteBuffer output, ByteBuffer tag, byte[] key, byte[] iv, byte[] aad) {
+        Cipher cipher = mPrimitives.get().initAesGcm(Cipher.DECRYPT_MODE, key, iv, aad);
+        int inputPosition = input.position();
+
+        try {
+            // the JCE buffers the cipher text and releases the plain text only after the tag was checked
+            cipher.update(input, output);
+
+            ByteBuffer tagView = tag.duplicate();
+            tagView.limit(tagView.position() + TAG_LENGTH);
+            cipher.doFinal(tagView, output);
+            tag.position(tag.position() + TAG_LENGTH);
+        } catch (AEADBadTagException e) {
+            input.position(inputPosition);
+            throw new IllegalArgumentException(e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     public static class AesGcmResult {
 
         private final byte[] mEncryptedMessage;
@@ -223,21 +520,95 @@ public class SqrlCipherTool {
         }
     }
 
+    private static final class Primitives {
+
+        private final Mac mHMacSha256;
+        private final MessageDigest mMessageDigest;
+        private final GCMBlockCipher mAesGcmEngine;
+
+        private final byte[] mHashBuffer;
+
+        private Cipher mAesGcmCipher;
+        private byte[] mTailBuffer;
+
+        private Primitives(String algorithm, boolean jce) {
+            try {
+                mHMacSha256 = Mac.getInstance(MAC_ALGO);
+                mMessageDigest = MessageDigest.getInstance(algorithm);
+                mAesGcmCipher = jce ? Cipher.getInstance(AES_GCM) : null;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+
+            mAesGcmEngine = jce ? null : new GCMBlockCipher(new AESFastEngine());
+            mTailBuffer = new byte[2 * TAG_LENGTH];
+            mHashBuffer = new byte[mMessageDigest.getDigestLength()];
+        }
+
+        private Cipher initAesGcm(int mode, byte[] key, byte[] iv, byte[] aad) {
+            SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+            GCMParameterSpec parameterSpec = new GCMParameterSpec(TAG_LENGTH * 8, iv);
+
+            try {
+                try {
+                    mAesGcmCipher.init(mode, keySpec, parameterSpec);
+                } catch (InvalidAlgorithmParameterException e) {
+                    // a JCE instance refuses to encrypt twice with the same key and IV, but SQRL uses
+                    // a zero IV with single use keys and the caller may repeat an operation
+                    mAesGcmCipher = Cipher.getInstance(AES_GCM);
+                    mAesGcmCipher.init(mode, keySpec, parameterSpec);
+                }
+            } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+                throw new IllegalArgumentException(e);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+
+            if (aad != null) {
+                mAesGcmCipher.updateAAD(aad);
+            }
+            return mAesGcmCipher;
+        }
+
+        private byte[] getTailBuffer(int length) {
+            if (mTailBuffer.length < length) {
+                mTailBuffer = new byte[length];
+            }
+            return mTailBuffer;
+        }
+    }
+
+    /**
+     * Checks the JCE once with test case 14 of the GCM specification.
+     */
+    private static final class JceSupport {
+
+        private static final boolean AVAILABLE = check();
+
+        private static boolean check() {
+            try {
+                Cipher cipher = Cipher.getInstance(AES_GCM);
+                cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[32], "AES"), new GCMParameterSpec(TAG_LENGTH * 8, new byte[12]));
+                byte[] result = cipher.doFinal(new byte[16]);
+
+                return "cea7403d4d606b6e074ec5d3baf39d18d0d1c8a799996bf0265b98b5d48ab919".equals(bin2hex(result));
+            } catch (GeneralSecurityException | RuntimeException e) {
+                return false;
+            }
+        }
+    }
+
     private static String bin2hex(byte[] data) {
         // http://stackoverflow.com/questions/7166129/how-can-i-calculate-the-sha-256-hash-of-a-string-in-android
         return String.format("%0" + (data.length * 2) + 'x', new BigInteger(1, data));
     }
 
-    private static byte[] xor(byte[] array1, byte[] array2) {
-        if (array1 == null || array2 == null || array1.length != array2.length) {
-            throw new IllegalArgumentException("arrays must have the same length");
-        }
-
-        byte[] result = new byte[array1.length];
-        for (int i = 0; i < result.length; i++) {
-            result[i] = (byte) (array1[i] ^ array2[i]);
+    private static void digest(MessageDigest messageDigest, byte[] output, int offset, int length) {
+        try {
+            messageDigest.digest(output, offset, length);
+        } catch (DigestException e) {
+            messageDigest.reset();
+            throw new IllegalArgumentException(e);
         }
-
-        return result;
     }
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+import net.vrallev.java.sqrl.util.SqrlCipherTool.AesGcmEngine;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class AesGcmTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testEnginesAreCompatible() {
+        assumeTrue(SqrlCipherTool.isJceAesGcmAvailable());
+
+        SqrlCipherTool jce = create(AesGcmEngine.JCE);
+        SqrlCipherTool spongyCastle = create(AesGcmEngine.SPONGY_CASTLE);
+        assertThat(new SqrlCipherTool().getAesGcmEngine()).isEqualTo(AesGcmEngine.JCE);
+
+        Random random = new Random(42);
+        for (int length = 0; length < 100; length++) {
+            byte[] data = new byte[length];
+            byte[] key = new byte[32];
+            byte[] iv = new byte[12];
+            byte[] aad = new byte[length % 3 == 0 ? 0 : 20];
+            random.nextBytes(data);
+            random.nextBytes(key);
+            random.nextBytes(iv);
+            random.nextBytes(aad);
+
+            SqrlCipherTool.AesGcmResult expected = spongyCastle.aesGcmEncrypt(data, key, iv, aad);
+            SqrlCipherTool.AesGcmResult actual = jce.aesGcmEncrypt(data, key, iv, aad);
+            assertThat(actual.getEncryptedMessage()).isEqualTo(expected.getEncryptedMessage());
+            assertThat(actual.getTag()).isEqualTo(expected.getTag());
+
+            assertThat(jce.aesGcmDecrypt(expected.getEncryptedMessage(), expected.getTag(), key, iv, aad)).isEqualTo(data);
+            assertThat(spongyCastle.aesGcmDecrypt(actual.getEncryptedMessage(), actual.getTag(), key, iv, aad)).isEqualTo(data);
+        }
+    }
+
+    @Test
+    public void testTestVector() {
+        // test case 14 of the GCM specification
+        for (SqrlCipherTool cipherTool : availableTools()) {
+            SqrlCipherTool.AesGcmResult result = cipherTool.aesGcmEncrypt(new byte[16], new byte[32], new byte[12], null);
+            assertThat(result.getEncryptedMessage()).isEqualTo(hex("cea7403d4d606b6e074ec5d3baf39d18"));
+            assertThat(result.getTag()).isEqualTo(hex("d0d1c8a799996bf0265b98b5d48ab919"));
+        }
+    }
+
+    @Test
+    public void testInPlaceHeapBuffer() {
+        for (SqrlCipherTool cipherTool : availableTools()) {
+            testInPlace(cipherTool, ByteBuffer.allocate(128), ByteBuffer.allocate(32));
+        }
+    }
+
+    @Test
+    public void testInPlaceDirectBuffer() {
+        for (SqrlCipherTool cipherTool : availableTools()) {
+            testInPlace(cipherTool, ByteBuffer.allocateDirect(128), ByteBuffer.allocateDirect(32));
+        }
+    }
+
+    @Test
+    public void testWrongTagLeavesDataUntouched() {
+        byte[] key = new byte[32];
+        byte[] iv = new byte[12];
+
+        for (SqrlCipherTool cipherTool : availableTools()) {
+            ByteBuffer data = ByteBuffer.wrap("the secret message".getBytes(UTF_8));
+            ByteBuffer tag = ByteBuffer.allocate(16);
+            cipherTool.aesGcmEncrypt(data, tag, key, iv, null);
+
+            data.flip();
+            tag.flip();
+            tag.put(3, (byte) (tag.get(3) ^ 1));
+            byte[] cipherText = copy(data);
+
+            try {
+                cipherTool.aesGcmDecrypt(data, tag, key, iv, null);
+                throw new AssertionError("wrong tag was accepted");
+            } catch (IllegalArgumentException ignored) {
+                // expected
+            }
+
+            assertThat(copy(data)).isEqualTo(cipherText);
+            assertThat(data.position()).isEqualTo(0);
+            assertThat(tag.position()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testRepeatedEncryptionWithSameIv() {
+        byte[] data = "payload".getBytes(UTF_8);
+        byte[] key = new byte[32];
+
+        for (SqrlCipherTool cipherTool : availableTools()) {
+            SqrlCipherTool.AesGcmResult first = cipherTool.aesGcmEncrypt(data, key);
+            SqrlCipherTool.AesGcmResult second = cipherTool.aesGcmEncrypt(data, key);
+
+            assertThat(second.getEncryptedMessage()).isEqualTo(first.getEncryptedMessage());
+            assertThat(second.getTag()).isEqualTo(first.getTag());
+        }
+    }
+
+    private static void testInPlace(SqrlCipherTool cipherTool, ByteBuffer buffer, ByteBuffer tagBuffer) {
+        byte[] key = new byte[32];
+        byte[] iv = new byte[12];
+        byte[] aad = "aad".getBytes(UTF_8);
+        new Random(7).nextBytes(key);
+
+        byte[] plainText = new byte[77];
+        new Random(8).nextBytes(plainText);
+        SqrlCipherTool.AesGcmResult expected = cipherTool.aesGcmEncrypt(plainText, key, iv, aad);
+
+        // use an offset to make sure positions are respected
+        buffer.position(5);
+        buffer.put(plainText);
+        buffer.flip();
+        buffer.position(5);
+        tagBuffer.position(3);
+
+        cipherTool.aesGcmEncrypt(buffer, tagBuffer, key, iv, aad);
+        assertThat(buffer.position()).isEqualTo(82);
+        assertThat(tagBuffer.position()).isEqualTo(19);
+
+        buffer.position(5);
+        tagBuffer.position(3);
+        assertThat(copy(buffer)).isEqualTo(expected.getEncryptedMessage());
+        ByteBuffer tagView = tagBuffer.duplicate();
+        tagView.limit(19);
+        assertThat(copy(tagView)).isEqualTo(expected.getTag());
+
+        cipherTool.aesGcmDecrypt(buffer, tagBuffer, key, iv, aad);
+        assertThat(buffer.position()).isEqualTo(82);
+        assertThat(tagBuffer.position()).isEqualTo(19);
+
+        buffer.position(5);
+        assertThat(copy(buffer)).isEqualTo(plainText);
+    }
+
+    private static SqrlCipherTool[] availableTools() {
+        if (SqrlCipherTool.isJceAesGcmAvailable()) {
+            return new SqrlCipherTool[]{create(AesGcmEngine.JCE), create(AesGcmEngine.SPONGY_CASTLE)};
+        } else {
+            return new SqrlCipherTool[]{create(AesGcmEngine.SPONGY_CASTLE)};
+        }
+    }
+
+    private static SqrlCipherTool create(AesGcmEngine engine) {
+        return new SqrlCipherTool("SHA-256", UTF_8, null, engine);
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.duplicate().get(result);
+        return result;
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] result = new BigInteger(hex, 16).toByteArray();
+        byte[] padded = new byte[hex.length() / 2];
+        int length = Math.min(result.length, padded.length);
+        System.arraycopy(result, result.length - length, padded, padded.length - length, length);
+        return padded;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import android.util.changed.Base64;
+import net.vrallev.java.sqrl.util.Base64Url;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class Base64UrlTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int FLAGS = Base64.NO_WRAP | Base64.NO_PADDING | Base64.URL_SAFE;
+
+    @Test
+    public void testSameAsCoder() {
+        Random random = new Random(42);
+        for (int length = 0; length < 200; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            String expected = Base64.encodeToString(data, FLAGS);
+            assertThat(Base64Url.getEncodedLength(length)).isEqualTo(expected.length());
+            assertThat(Base64Url.encodeToString(data)).isEqualTo(expected);
+
+            byte[] encoded = expected.getBytes(ASCII);
+            assertThat(Base64Url.getDecodedLength(encoded.length)).isEqualTo(length);
+
+            byte[] decoded = new byte[length + 2];
+            assertThat(Base64Url.decode(encoded, 0, encoded.length, decoded, 1)).isEqualTo(length);
+            assertThat(Arrays.copyOfRange(decoded, 1, length + 1)).isEqualTo(data);
+        }
+    }
+
+    @Test
+    public void testBuffers() {
+        Random random = new Random(7);
+        byte[] data = new byte[100];
+        random.nextBytes(data);
+        String expected = Base64.encodeToString(data, FLAGS);
+
+        ByteBuffer[] sources = {ByteBuffer.wrap(data), ByteBuffer.allocateDirect(data.length).put(data)};
+        sources[1].flip();
+
+        for (ByteBuffer src : sources) {
+            for (ByteBuffer dst : new ByteBuffer[]{ByteBuffer.allocate(200), ByteBuffer.allocateDirect(200)}) {
+                src.rewind();
+                dst.position(5);
+
+                assertThat(Base64Url.encode(src, dst)).isEqualTo(expected.length());
+                assertThat(src.remaining()).isEqualTo(0);
+                assertThat(dst.position()).isEqualTo(5 + expected.length());
+
+                dst.flip().position(5);
+                byte[] encoded = new byte[dst.remaining()];
+                dst.duplicate().get(encoded);
+                assertThat(new String(encoded, ASCII)).isEqualTo(expected);
+
+                ByteBuffer decoded = ByteBuffer.allocateDirect(data.length);
+                assertThat(Base64Url.decode(dst, decoded)).isEqualTo(data.length);
+                assertThat(decoded.flip()).isEqualTo(ByteBuffer.wrap(data));
+            }
+        }
+    }
+
+    @Test
+    public void testDirectBuffersAtOddOffsets() {
+        Random random = new Random(11);
+        byte[] data = new byte[5000];
+        random.nextBytes(data);
+
+        // odd lengths leave a partial group at the end, the larger ones span several KB
+        for (int length : new int[]{767, 769, 1023, 1025, 3001}) {
+            int offset = 1 + random.nextInt(13) * 2;
+            byte[] slice = Arrays.copyOfRange(data, offset, offset + length);
+            String expected = Base64.encodeToString(slice, FLAGS);
+
+            ByteBuffer src = ByteBuffer.allocateDirect(data.length);
+            src.put(data).position(offset).limit(offset + length);
+            ByteBuffer encoded = ByteBuffer.allocateDirect(expected.length() + 10);
+            encoded.position(3);
+            assertThat(Base64Url.encode(src, encoded)).isEqualTo(expected.length());
+            assertThat(src.position()).isEqualTo(offset + length);
+
+            encoded.flip().position(3);
+            byte[] characters = new byte[encoded.remaining()];
+            encoded.duplicate().get(characters);
+            assertThat(new String(characters, ASCII)).isEqualTo(expected);
+
+            ByteBuffer decoded = ByteBuffer.allocateDirect(length + 10);
+            decoded.position(5);
+            assertThat(Base64Url.decode(encoded, decoded)).isEqualTo(length);
+            assertThat(decoded.flip().position(5)).isEqualTo(ByteBuffer.wrap(slice));
+        }
+    }
+
+    @Test
+    public void testLenient() {
+        byte[] data = new byte[32];
+        new Random(13).nextBytes(data);
+        String encoded = Base64.encodeToString(data, FLAGS);
+
+        byte[] lenient = (" " + encoded.substring(0, 20) + "\r\n" + encoded.substring(20) + "=\n").getBytes(ASCII);
+        byte[] output = new byte[Base64Url.getMaxDecodedLength(lenient.length)];
+        int length = Base64Url.decodeLenient(lenient, 0, lenient.length, output, 0);
+        assertThat(Arrays.copyOf(output, length)).isEqualTo(data);
+
+        byte[] dataAfterPadding = "abc=d".getBytes(ASCII);
+        try {
+            Base64Url.decodeLenient(dataAfterPadding, 0, dataAfterPadding.length, new byte[3], 0);
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testChunks() {
+        byte[] data = new byte[99];
+        new Random(3).nextBytes(data);
+
+        ByteBuffer dst = ByteBuffer.allocate(Base64Url.getEncodedLength(data.length));
+        for (int offset = 0; offset < data.length; offset += 33) {
+            Base64Url.encode(ByteBuffer.wrap(data, offset, 33), dst);
+        }
+        assertThat(new String(dst.array(), ASCII)).isEqualTo(Base64.encodeToString(data, FLAGS));
+    }
+
+    @Test
+    public void testOverflow() {
+        ByteBuffer src = ByteBuffer.wrap(new byte[10]);
+        ByteBuffer dst = ByteBuffer.allocate(Base64Url.getEncodedLength(10) - 1);
+        try {
+            Base64Url.encode(src, dst);
+            assert false;
+        } catch (BufferOverflowException e) {
+            assertThat(src.position()).isEqualTo(0);
+            assertThat(dst.position()).isEqualTo(0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalCharacter() {
+        byte[] encoded = "abc+defg".getBytes(ASCII);
+        Base64Url.decode(encoded, 0, encoded.length, new byte[6], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalLength() {
+        Base64Url.decode(ByteBuffer.wrap("abcde".getBytes(ASCII)), ByteBuffer.allocate(10));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.Identities;
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.ecc.EccKeyPair;
+import net.vrallev.java.sqrl.ecc.JavaEccProvider;
+import net.vrallev.java.sqrl.ecc.SignatureCheck;
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class BatchVerificationTest {
+
+    private String mSiteKey = "sqrl-login.appspot.com";
+
+    @SuppressWarnings("FieldCanBeLocal")
+    private String mSignatureUri = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    @Test
+    public void testBatchSignatures() {
+        JavaEccProvider provider = new JavaEccProvider(true);
+        SqrlCipherTool cipherTool = new SqrlCipherTool();
+
+        List<SignatureCheck> checks = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            EccKeyPair keyPair = provider.computeKeyPair(cipherTool.createRandomHash(256));
+            byte[] message = cipherTool.createRandomHash(256);
+            byte[] signature = provider.sign(message, keyPair.getPrivateKey(), keyPair.getPublicKeySignature());
+
+            checks.add(new SignatureCheck(message, signature, keyPair.getPublicKeySignature()));
+        }
+
+        assertThat(provider.isValidSignatures(checks)).isTrue();
+        assertThat(provider.isValidSignatures(checks.subList(0, 1))).isTrue();
+        assertThat(provider.isValidSignatures(new ArrayList<SignatureCheck>())).isTrue();
+
+        SignatureCheck valid = checks.get(7);
+        byte[] signature = valid.getSignature().clone();
+        signature[3] ^= 0x01;
+        checks.set(7, new SignatureCheck(valid.getMessage(), signature, valid.getPublicKey()));
+        assertThat(provider.isValidSignatures(checks)).isFalse();
+
+        checks.set(7, new SignatureCheck(valid.getMessage(), valid.getSignature(), checks.get(8).getPublicKey()));
+        assertThat(provider.isValidSignatures(checks)).isFalse();
+
+        checks.set(7, valid);
+        assertThat(provider.isValidSignatures(checks)).isTrue();
+    }
+
+    @Test
+    public void testVerifyQueue() throws SqrlException {
+        SqrlProtocol protocol = new SqrlProtocol.Builder()
+                .setEccProvider(new JavaEccProvider(true))
+                .build();
+
+        List<String> queue = new ArrayList<>();
+        List<SqrlClientBody> expected = new ArrayList<>();
+        for (Identities identity : Identities.values()) {
+            SqrlClientBody body = protocol.authenticate(identity.getMasterKey(), mSiteKey).buildRequest(mSignatureUri);
+            queue.add(body.getBodyEncoded());
+            expected.add(body);
+        }
+
+        List<SqrlClientBody> verified = protocol.readSqrlClientBody().verifiedAll(queue);
+        assertThat(verified).isEqualTo(expected);
+
+        // signature of another identity
+        String tampered = queue.get(0).replaceAll("&ids=.*", "") + queue.get(1).substring(queue.get(1).indexOf("&ids="));
+        queue.add(1, tampered);
+        queue.add("client=missing");
+
+        verified = protocol.readSqrlClientBody().verifiedAll(queue);
+        assertThat(verified).hasSize(expected.size() + 2);
+        assertThat(verified.get(0)).isEqualTo(expected.get(0));
+        assertThat(verified.get(1)).isNull();
+        assertThat(verified.get(2)).isEqualTo(expected.get(1));
+        assertThat(verified.get(3)).isEqualTo(expected.get(2));
+        assertThat(verified.get(4)).isNull();
+    }
+}
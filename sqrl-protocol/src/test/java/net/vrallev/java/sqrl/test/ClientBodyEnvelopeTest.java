@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.ClientBodyEnvelope;
+import net.vrallev.java.sqrl.body.ServerParameter;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.body.SqrlServerBody;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class ClientBodyEnvelopeTest {
+
+    private static final String SITE_KEY = "sqrl-login.appspot.com";
+    private static final String SIGNATURE_URI = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    private final SecureRandom mRandom = new SecureRandom();
+
+    @Test
+    public void testRoundTrip() throws SqrlException {
+        SqrlProtocol protocol = SqrlProtocol.instance();
+        byte[] masterKey = randomBytes(32);
+        byte[] suk = randomBytes(32);
+        byte[] vuk = randomBytes(32);
+
+        SqrlClientBody clientBody = protocol.authenticate(masterKey, SITE_KEY)
+                .addCommand("create")
+                .addCommand("custom")
+                .withPreviousMasterKey(randomBytes(32))
+                .withNewServerKeys(suk, vuk)
+                .buildRequest(SIGNATURE_URI);
+
+        ClientBodyEnvelope envelope = new ClientBodyEnvelope(randomBytes(32));
+        byte[] data = envelope.write(clientBody, 1234L);
+        assertThat(data.length).isEqualTo(envelope.getEncodedLength(clientBody));
+        assertThat(data.length).isLessThan(clientBody.getBodyEncoded().length());
+
+        ClientBodyEnvelope.View view = envelope.read(ByteBuffer.wrap(data));
+        assertThat(view.getVerifiedAt()).isEqualTo(1234L);
+        assertThat(view.isServerParameterUri()).isTrue();
+        assertThat(view.getTransactionInformationFlag()).isEqualTo(-1);
+        assertThat(view.getNut()).isEqualTo("5b216fa381b7769e1e88624ff685686c");
+        assertThat(view.getVersion()).isEqualTo("1");
+        assertThat(view.getCommands()).isEqualTo(Arrays.asList("create", "setkey", "setlock", "custom"));
+        assertThat(view.hasCommand(ClientBodyEnvelope.CMD_CREATE | ClientBodyEnvelope.CMD_SETKEY)).isTrue();
+        assertThat(view.hasCommand(ClientBodyEnvelope.CMD_LOGIN)).isFalse();
+
+        assertThat(view.getIdentityKeyDecoded()).isEqualTo(clientBody.getClientParameter().getIdentityKeyDecoded());
+        assertThat(toArray(view.getIdentitySignature())).isEqualTo(clientBody.getIdentitySignatureDecoded());
+        assertThat(toArray(view.getPreviousIdentityKey())).isEqualTo(clientBody.getClientParameter().getPreviousIdentityKeyDecoded());
+        assertThat(toArray(view.getPreviousIdentitySignature())).isEqualTo(clientBody.getPreviousIdentitySignatureDecoded());
+        assertThat(toArray(view.getServerUnlockKey())).isEqualTo(suk);
+        assertThat(toArray(view.getVerifyUnlockKey())).isEqualTo(vuk);
+        assertThat(view.getUnlockRequestSignature()).isNull();
+    }
+
+    @Test
+    public void testServerResponse() throws SqrlException {
+        SqrlProtocol protocol = SqrlProtocol.instance();
+        byte[] masterKey = randomBytes(32);
+
+        SqrlClientBody request = protocol.authenticate(masterKey, SITE_KEY).buildRequest(SIGNATURE_URI);
+        SqrlServerBody serverBody = protocol.answerClient(request, ServerParameter.ID_MATCH | ServerParameter.SQRL_ENABLED)
+                .create().asSqrlServerBody();
+        SqrlClientBody clientBody = protocol.answerServer(masterKey, SITE_KEY, serverBody).buildResponse(serverBody);
+
+        ClientBodyEnvelope envelope = new ClientBodyEnvelope(randomBytes(32));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        envelope.write(request, 1L, buffer);
+        envelope.write(clientBody, 2L, buffer);
+        buffer.flip();
+
+        ClientBodyEnvelope.View first = envelope.read(buffer);
+        ClientBodyEnvelope.View second = envelope.read(buffer);
+        assertThat(buffer.hasRemaining()).isFalse();
+
+        assertThat(first.getVerifiedAt()).isEqualTo(1L);
+        assertThat(first.getCommands()).isEqualTo(Arrays.asList("login"));
+        assertThat(first.getPreviousIdentityKey()).isNull();
+
+        assertThat(second.getVerifiedAt()).isEqualTo(2L);
+        assertThat(second.isServerParameterUri()).isFalse();
+        assertThat(second.getTransactionInformationFlag()).isEqualTo(ServerParameter.ID_MATCH | ServerParameter.SQRL_ENABLED);
+        assertThat(second.getNut()).isEqualTo("5b216fa381b7769e1e88624ff685686c");
+        assertThat(second.getIdentityKeyDecoded()).isEqualTo(clientBody.getClientParameter().getIdentityKeyDecoded());
+    }
+
+    @Test
+    public void testLittleEndianBuffer() throws SqrlException {
+        SqrlClientBody clientBody = SqrlProtocol.instance().authenticate(randomBytes(32), SITE_KEY).buildRequest(SIGNATURE_URI);
+        ClientBodyEnvelope envelope = new ClientBodyEnvelope(randomBytes(32));
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        envelope.write(clientBody, 1234L, buffer);
+        assertThat(buffer.order()).isEqualTo(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+
+        byte[] bigEndian = envelope.write(clientBody, 1234L);
+        assertThat(buffer.remaining()).isEqualTo(bigEndian.length);
+        assertThat(buffer.getInt(0)).isEqualTo(Integer.reverseBytes(bigEndian.length));
+
+        ClientBodyEnvelope.View view = envelope.read(buffer);
+        assertThat(view.getVerifiedAt()).isEqualTo(1234L);
+        assertThat(view.getNut()).isEqualTo("5b216fa381b7769e1e88624ff685686c");
+        assertThat(view.getIdentityKeyDecoded()).isEqualTo(clientBody.getClientParameter().getIdentityKeyDecoded());
+        assertThat(buffer.hasRemaining()).isFalse();
+        assertThat(buffer.order()).isEqualTo(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void testMissingSignature() throws SqrlException {
+        SqrlClientBody clientBody = SqrlProtocol.instance().authenticate(randomBytes(32), SITE_KEY).buildRequest(SIGNATURE_URI);
+        SqrlClientBody unsigned = new SqrlClientBody(clientBody.getClientParameter(), clientBody.getServerParameter(), null, null, null);
+
+        ClientBodyEnvelope envelope = new ClientBodyEnvelope(randomBytes(32));
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        try {
+            envelope.write(unsigned, 0L, buffer);
+            throw new AssertionError("body without signature was accepted");
+        } catch (IllegalArgumentException e) {
+            assertThat(buffer.position()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testTampered() throws SqrlException {
+        SqrlClientBody clientBody = SqrlProtocol.instance().authenticate(randomBytes(32), SITE_KEY).buildRequest(SIGNATURE_URI);
+
+        byte[] key = randomBytes(32);
+        byte[] data = new ClientBodyEnvelope(key).write(clientBody, 0L);
+
+        for (int index : new int[]{10, 30, data.length - 20, data.length - 1}) {
+            byte[] tampered = data.clone();
+            tampered[index] ^= 1;
+            assertRejected(new ClientBodyEnvelope(key), tampered);
+        }
+
+        assertRejected(new ClientBodyEnvelope(randomBytes(32)), data);
+        assertRejected(new ClientBodyEnvelope(key), Arrays.copyOf(data, data.length - 1));
+        assertRejected(new ClientBodyEnvelope(key), new byte[200]);
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        new ClientBodyEnvelope(key).read(buffer);
+        assertThat(buffer.position()).isEqualTo(data.length);
+    }
+
+    private static void assertRejected(ClientBodyEnvelope envelope, byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try {
+            envelope.read(buffer);
+            throw new AssertionError("envelope was accepted");
+        } catch (SqrlException e) {
+            assertThat(buffer.position()).isEqualTo(0);
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] result = new byte[length];
+        mRandom.nextBytes(result);
+        return result;
+    }
+}
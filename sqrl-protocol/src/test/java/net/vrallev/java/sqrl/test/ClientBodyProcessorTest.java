@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.Identities;
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.ServerParameter;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.flow.ClientBodyProcessor;
+import net.vrallev.java.sqrl.flow.Flow;
+import net.vrallev.java.sqrl.flow.VerifiedResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class ClientBodyProcessorTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private String mSiteKey = "sqrl-login.appspot.com";
+
+    @SuppressWarnings("FieldCanBeLocal")
+    private String mSignatureUri = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    private ExecutorService mExecutor;
+    private SqrlProtocol mProtocol;
+    private List<String> mBodies;
+
+    @Before
+    public void setUp() throws SqrlException {
+        mExecutor = Executors.newFixedThreadPool(4);
+        mProtocol = new SqrlProtocol.Builder()
+                .setEccProvider(SqrlProtocol.instance().getEccProvider())
+                .build();
+
+        mBodies = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            Identities identity = Identities.values()[i % Identities.values().length];
+            mBodies.add(mProtocol.authenticate(identity.getMasterKey(), mSiteKey).buildRequest(mSignatureUri).getBodyEncoded());
+        }
+        mBodies.set(5, "client=missing");
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testOrdered() throws Exception {
+        ClientBodyProcessor processor = new ClientBodyProcessor.Builder(mProtocol, mExecutor)
+                .setMaxInFlight(3)
+                .setResponder(new ClientBodyProcessor.Responder() {
+                    @Override
+                    public ServerParameter.Builder answer(SqrlProtocol protocol, SqrlClientBody clientBody) {
+                        return protocol.answerClient(clientBody, ServerParameter.ID_MATCH);
+                    }
+                })
+                .build();
+
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        ListPublisher publisher = new ListPublisher(mBodies, subscriber.mResults);
+
+        processor.subscribe(subscriber);
+        publisher.subscribe(processor);
+
+        assertThat(subscriber.mDone.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(subscriber.mError).isNull();
+        assertThat(subscriber.mResults).hasSize(mBodies.size());
+        assertThat(publisher.mMaxOutstanding).isLessThanOrEqualTo(3);
+
+        for (int i = 0; i < mBodies.size(); i++) {
+            VerifiedResult result = subscriber.mResults.get(i);
+            assertThat(result.getSequence()).isEqualTo(i);
+
+            if (i == 5) {
+                assertThat(result.isVerified()).isFalse();
+                assertThat(result.getFailure()).isNotNull();
+                assertThat(result.getServerParameter()).isNull();
+            } else {
+                assertThat(result.isVerified()).isTrue();
+                assertThat(result.getClientBody().getBodyEncoded()).isEqualTo(mBodies.get(i));
+                assertThat(result.getServerParameter().hasTransactionFlag(ServerParameter.ID_MATCH)).isTrue();
+            }
+        }
+    }
+
+    @Test
+    public void testUnordered() throws Exception {
+        ClientBodyProcessor processor = new ClientBodyProcessor.Builder(mProtocol, mExecutor)
+                .setMaxInFlight(4)
+                .setOrdered(false)
+                .build();
+
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        ListPublisher publisher = new ListPublisher(mBodies, subscriber.mResults);
+
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+
+        assertThat(subscriber.mDone.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(subscriber.mResults).hasSize(mBodies.size());
+
+        Set<Long> sequences = new HashSet<>();
+        int verified = 0;
+        for (VerifiedResult result : subscriber.mResults) {
+            sequences.add(result.getSequence());
+            if (result.isVerified()) {
+                verified++;
+                assertThat(result.getServerParameter()).isNull();
+            }
+        }
+        assertThat(sequences).hasSize(mBodies.size());
+        assertThat(verified).isEqualTo(mBodies.size() - 1);
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        ClientBodyProcessor processor = new ClientBodyProcessor.Builder(mProtocol, mExecutor)
+                .setMaxInFlight(2)
+                .build();
+
+        CollectingSubscriber subscriber = new CollectingSubscriber(3);
+        ListPublisher publisher = new ListPublisher(mBodies, subscriber.mResults);
+
+        processor.subscribe(subscriber);
+        publisher.subscribe(processor);
+
+        // only three results were requested
+        Thread.sleep(300);
+        assertThat(subscriber.mResults).hasSize(3);
+        assertThat(publisher.mSent.get()).isEqualTo(5);
+
+        subscriber.mSubscription.request(Long.MAX_VALUE);
+        assertThat(subscriber.mDone.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(subscriber.mResults).hasSize(mBodies.size());
+    }
+
+    /**
+     * Emits the bodies on the requesting thread and tracks the number of bodies without a result.
+     */
+    private static final class ListPublisher implements Flow.Publisher<ByteBuffer> {
+
+        private final List<String> mItems;
+        private final AtomicInteger mSent = new AtomicInteger();
+        private final List<?> mResults;
+        private volatile int mMaxOutstanding;
+
+        private ListPublisher(List<String> items, List<?> results) {
+            mItems = items;
+            mResults = results;
+        }
+
+        @Override
+        public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+
+                private long mRequested;
+                private boolean mEmitting;
+
+                @Override
+                public synchronized void request(long n) {
+                    mRequested += n;
+                    if (mEmitting) {
+                        return;
+                    }
+
+                    mEmitting = true;
+                    while (mRequested > 0 && mSent.get() < mItems.size()) {
+                        mRequested--;
+                        int sent = mSent.incrementAndGet();
+                        mMaxOutstanding = Math.max(mMaxOutstanding, sent - mResults.size());
+
+                        // the buffer is reused to make sure the processor copies the data
+                        ByteBuffer buffer = ByteBuffer.wrap(mItems.get(sent - 1).getBytes(ASCII));
+                        subscriber.onNext(buffer);
+                        buffer.put(0, (byte) 0);
+                    }
+                    mEmitting = false;
+
+                    if (mSent.get() == mItems.size()) {
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+        }
+    }
+
+    private static final class CollectingSubscriber implements Flow.Subscriber<VerifiedResult> {
+
+        private final long mInitialRequest;
+        private final List<VerifiedResult> mResults = Collections.synchronizedList(new ArrayList<VerifiedResult>());
+        private final CountDownLatch mDone = new CountDownLatch(1);
+
+        private volatile Flow.Subscription mSubscription;
+        private volatile Throwable mError;
+
+        private CollectingSubscriber(long initialRequest) {
+            mInitialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            mSubscription = subscription;
+            subscription.request(mInitialRequest);
+        }
+
+        @Override
+        public void onNext(VerifiedResult item) {
+            mResults.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            mError = throwable;
+            mDone.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            mDone.countDown();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.ClientBodyRetryCache;
+import net.vrallev.java.sqrl.body.ServerParameter;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class ClientBodyRetryCacheTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final InetAddress LOCALHOST = InetAddress.getLoopbackAddress();
+    private static final String SITE_KEY = "sqrl-login.appspot.com";
+    private static final String SIGNATURE_URI = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    @Test
+    public void testRetry() throws SqrlException {
+        SqrlProtocol protocol = SqrlProtocol.instance();
+        ClientBodyRetryCache cache = new ClientBodyRetryCache.Builder().build();
+
+        byte[] body = createBody(protocol);
+        ClientBodyRetryCache.Entry entry = cache.verified(protocol, body, LOCALHOST);
+        assertThat(entry.getResponse()).isNull();
+        assertThat(cache.getMissCount()).isEqualTo(1);
+
+        ServerParameter response = protocol.answerClient(entry.getClientBody(), ServerParameter.ID_MATCH).create();
+        entry.setResponse(response);
+
+        // the retry arrives in a larger buffer
+        byte[] retry = new byte[body.length + 10];
+        System.arraycopy(body, 0, retry, 5, body.length);
+        ClientBodyRetryCache.Entry cached = cache.verified(protocol, retry, 5, body.length, LOCALHOST);
+        assertThat(cached).isSameAs(entry);
+        assertThat(cached.getResponse()).isSameAs(response);
+
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getHitRatio()).isEqualTo(0.5);
+        assertThat(cache.size()).isEqualTo(1);
+
+        cache.resetStatistics();
+        assertThat(cache.getHitRatio()).isEqualTo(0.0);
+    }
+
+    @Test
+    public void testModifiedBody() throws SqrlException {
+        SqrlProtocol protocol = SqrlProtocol.instance();
+        ClientBodyRetryCache cache = new ClientBodyRetryCache.Builder().build();
+
+        byte[] body = createBody(protocol);
+        cache.verified(protocol, body, LOCALHOST);
+
+        byte[] modified = body.clone();
+        int index = new String(body, ASCII).indexOf("ids=") + 10;
+        modified[index] = (byte) (modified[index] == 'A' ? 'B' : 'A');
+
+        assertThat(cache.get(modified, 0, modified.length, LOCALHOST)).isNull();
+        try {
+            cache.verified(protocol, modified, LOCALHOST);
+            throw new AssertionError("modified body was accepted");
+        } catch (SqrlException e) {
+            // expected
+        }
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.get(body, 0, body.length, LOCALHOST)).isNotNull();
+    }
+
+    @Test
+    public void testOtherAddress() throws SqrlException, UnknownHostException {
+        SqrlProtocol protocol = SqrlProtocol.instance();
+        ClientBodyRetryCache cache = new ClientBodyRetryCache.Builder().build();
+
+        byte[] body = createBody(protocol);
+        ClientBodyRetryCache.Entry entry = cache.verified(protocol, body, LOCALHOST);
+        entry.setResponse(protocol.answerClient(entry.getClientBody(), ServerParameter.ID_MATCH).create());
+
+        assertThat(cache.get(body, 0, body.length, InetAddress.getByName("192.168.1.2"))).isNull();
+        assertThat(cache.get(body, 0, body.length, null)).isNull();
+        assertThat(cache.get(body, 0, body.length, LOCALHOST)).isSameAs(entry);
+    }
+
+    @Test
+    public void testRemove() throws SqrlException {
+        SqrlProtocol protocol = SqrlProtocol.instance();
+        ClientBodyRetryCache cache = new ClientBodyRetryCache.Builder().build();
+
+        byte[] body = createBody(protocol);
+        ClientBodyRetryCache.Entry first = cache.verified(protocol, body, LOCALHOST);
+        ClientBodyRetryCache.Entry second = cache.put(body, 0, body.length, first.getClientBody(), LOCALHOST);
+
+        // a replaced entry doesn't remove its successor
+        cache.remove(first);
+        assertThat(cache.get(body, 0, body.length, LOCALHOST)).isSameAs(second);
+
+        cache.remove(second);
+        assertThat(cache.get(body, 0, body.length, LOCALHOST)).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testExpiry() throws SqrlException {
+        final long[] time = {1000L};
+        ClientBodyRetryCache cache = new ClientBodyRetryCache(new ClientBodyRetryCache.Builder().setTimeToLive(10, TimeUnit.SECONDS)) {
+            @Override
+            protected long currentTimeMillis() {
+                return time[0];
+            }
+        };
+
+        SqrlProtocol protocol = SqrlProtocol.instance();
+        byte[] body = createBody(protocol);
+        cache.verified(protocol, body, LOCALHOST);
+
+        time[0] += TimeUnit.SECONDS.toMillis(9);
+        assertThat(cache.get(body, 0, body.length, LOCALHOST)).isNotNull();
+
+        time[0] += TimeUnit.SECONDS.toMillis(1);
+        assertThat(cache.get(body, 0, body.length, LOCALHOST)).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testBounded() throws SqrlException {
+        SqrlProtocol protocol = SqrlProtocol.instance();
+        ClientBodyRetryCache cache = new ClientBodyRetryCache.Builder().setMaxEntries(16).build();
+
+        byte[] first = createBody(protocol);
+        cache.verified(protocol, first, LOCALHOST);
+
+        for (int i = 0; i < 200; i++) {
+            byte[] body = new byte[64];
+            new SecureRandom().nextBytes(body);
+            cache.put(body, 0, body.length, null, LOCALHOST);
+        }
+
+        assertThat(cache.size()).isLessThanOrEqualTo(16);
+        assertThat(cache.get(first, 0, first.length, LOCALHOST)).isNull();
+    }
+
+    private static byte[] createBody(SqrlProtocol protocol) throws SqrlException {
+        byte[] masterKey = new byte[32];
+        new SecureRandom().nextBytes(masterKey);
+        return protocol.authenticate(masterKey, SITE_KEY).buildRequest(SIGNATURE_URI).getBodyEncoded().getBytes(ASCII);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class ConcurrentCipherToolTest {
+
+    private static final int THREADS = 32;
+    private static final int ITERATIONS = 500;
+    private static final int INPUTS = 64;
+
+    @Test
+    public void testSharedToolIsThreadSafe() throws Exception {
+        Random random = new Random(42);
+
+        final byte[][] data = new byte[INPUTS][];
+        final byte[][] keys = new byte[INPUTS][];
+        for (int i = 0; i < INPUTS; i++) {
+            data[i] = new byte[1 + random.nextInt(256)];
+            random.nextBytes(data[i]);
+            keys[i] = new byte[32];
+            random.nextBytes(keys[i]);
+        }
+
+        // expected results from a tool, which is only used by this thread
+        SqrlCipherTool reference = new SqrlCipherTool();
+        final byte[][] hashes = new byte[INPUTS][];
+        final byte[][] hmacs = new byte[INPUTS][];
+        final byte[][] cipherTexts = new byte[INPUTS][];
+        final byte[][] tags = new byte[INPUTS][];
+        for (int i = 0; i < INPUTS; i++) {
+            hashes[i] = reference.getHash(data[i], 3);
+            hmacs[i] = reference.computeHmac(data[i], keys[i]);
+
+            SqrlCipherTool.AesGcmResult result = reference.aesGcmEncrypt(data[i], keys[i]);
+            cipherTexts[i] = result.getEncryptedMessage();
+            tags[i] = result.getTag();
+        }
+
+        final SqrlCipherTool sharedTool = new SqrlCipherTool();
+        final CountDownLatch startSignal = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    startSignal.await();
+
+                    int failures = 0;
+                    for (int n = 0; n < ITERATIONS; n++) {
+                        int i = (offset + n) % INPUTS;
+
+                        if (!Arrays.equals(hashes[i], sharedTool.getHash(data[i], 3))) {
+                            failures++;
+                        }
+                        if (!Arrays.equals(hmacs[i], sharedTool.computeHmac(data[i], keys[i]))) {
+                            failures++;
+                        }
+
+                        SqrlCipherTool.AesGcmResult result = sharedTool.aesGcmEncrypt(data[i], keys[i]);
+                        if (!Arrays.equals(cipherTexts[i], result.getEncryptedMessage()) || !Arrays.equals(tags[i], result.getTag())) {
+                            failures++;
+                        }
+                        if (!Arrays.equals(data[i], sharedTool.aesGcmDecrypt(cipherTexts[i], tags[i], keys[i]))) {
+                            failures++;
+                        }
+                    }
+                    return failures;
+                }
+            }));
+        }
+
+        startSignal.countDown();
+
+        int failures = 0;
+        for (Future<Integer> future : futures) {
+            failures += future.get();
+        }
+        executor.shutdown();
+
+        assertThat(failures).isEqualTo(0);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.util.EnScrypt;
+import net.vrallev.java.sqrl.util.Scrypt;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class EnScryptTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testScryptTestVectors() {
+        // RFC 7914, section 12
+        Scrypt scrypt = new Scrypt(4, 1, 1);
+        assertThat(hex(scrypt.derive(new byte[0], new byte[0], 64))).isEqualTo(
+                "77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906");
+
+        scrypt = new Scrypt(10, 8, 16);
+        assertThat(hex(scrypt.derive("password".getBytes(UTF_8), "NaCl".getBytes(UTF_8), 64))).isEqualTo(
+                "fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b3731622eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640");
+
+        // the memory is reused
+        assertThat(hex(scrypt.derive("password".getBytes(UTF_8), "NaCl".getBytes(UTF_8), 64))).startsWith("fdbabe1c9d34");
+    }
+
+    @Test
+    public void testEnScryptTestVector() throws InterruptedException {
+        byte[] key = new EnScrypt().hash(new byte[0], null, 1, null);
+        assertThat(hex(key)).isEqualTo("a8ea62a6e1bfd20e4275011595307aa302645c1801600ef5cd79bf9d884d911c");
+    }
+
+    @Test
+    public void testChaining() throws InterruptedException {
+        Scrypt scrypt = new Scrypt(4, 1, 1);
+        byte[] password = "password".getBytes(UTF_8);
+
+        byte[] first = scrypt.derive(password, new byte[0], 32);
+        byte[] second = scrypt.derive(password, first, 32);
+        byte[] expected = new byte[32];
+        for (int i = 0; i < 32; i++) {
+            expected[i] = (byte) (first[i] ^ second[i]);
+        }
+
+        EnScrypt enScrypt = new EnScrypt(4, 1, 1);
+        final List<Integer> progress = new ArrayList<>();
+        byte[] key = enScrypt.hash(password, null, 2, new EnScrypt.ProgressListener() {
+            @Override
+            public void onProgress(int iteration, int percent) {
+                progress.add(percent);
+            }
+        });
+
+        assertThat(key).isEqualTo(expected);
+        assertThat(progress).isEqualTo(Arrays.asList(50, 100));
+    }
+
+    @Test
+    public void testDurationIsReproducible() throws InterruptedException {
+        EnScrypt enScrypt = new EnScrypt(4, 8, 1);
+        byte[] password = "password".getBytes(UTF_8);
+        byte[] salt = "salt".getBytes(UTF_8);
+
+        EnScrypt.Result result = enScrypt.hashForDuration(password, salt, 50, TimeUnit.MILLISECONDS, null);
+        assertThat(result.getIterations()).isGreaterThan(1);
+        assertThat(result.getElapsedMillis()).isGreaterThanOrEqualTo(50);
+        assertThat(enScrypt.hash(password, salt, result.getIterations(), null)).isEqualTo(result.getKey());
+    }
+
+    @Test
+    public void testParallelCandidates() throws Exception {
+        EnScrypt enScrypt = new EnScrypt(4, 8, 1);
+        List<byte[]> passwords = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            passwords.add(("candidate" + i).getBytes(UTF_8));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> futures = enScrypt.hashAll(passwords, null, 5, executor);
+            for (int i = 0; i < passwords.size(); i++) {
+                assertThat(futures.get(i).get()).isEqualTo(enScrypt.hash(passwords.get(i), null, 5, null));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancellation() throws Exception {
+        final EnScrypt enScrypt = new EnScrypt(4, 8, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> future = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        enScrypt.hash(new byte[0], null, Integer.MAX_VALUE, new EnScrypt.ProgressListener() {
+                            @Override
+                            public void onProgress(int iteration, int percent) {
+                                started.countDown();
+                            }
+                        });
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+
+            assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+            future.cancel(true);
+
+            executor.shutdown();
+            assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(failure.get()).isInstanceOf(InterruptedException.class);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String hex(byte[] data) {
+        return String.format("%0" + (data.length * 2) + 'x', new BigInteger(1, data));
+    }
+}
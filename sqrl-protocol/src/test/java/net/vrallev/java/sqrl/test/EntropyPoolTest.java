@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.util.EntropyPool;
+import net.vrallev.java.sqrl.util.HmacDrbg;
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class EntropyPoolTest {
+
+    @Test
+    public void testHmacDrbgTestVector() {
+        // NIST CAVP HMAC_DRBG SHA-256, no prediction resistance, count 0
+        HmacDrbg drbg = new HmacDrbg(hex("ca851911349384bffe89de1cbdc46e6831e44d34a4fb935ee285dd14b71a7488"),
+                hex("659ba96c601dc69fc902940805ec0ca8"), null);
+
+        byte[] output = new byte[128];
+        drbg.nextBytes(output);
+        drbg.nextBytes(output);
+
+        assertThat(output).isEqualTo(hex("e528e9abf2dece54d47c7e75e5fe302149f817ea9fb4bee6f4199697d04d5b89d54fbb978a15b5c443c9ec21036d"
+                + "2460b6f73ebad0dc2aba6e624abf07745bc107694bb7547bb0995f70de25d6b29e2d3011bb19d27676c07162c8b5ccde0668961df86803"
+                + "482cb37ed6d5c0bb8d50cf1f50d476aa0458bdaba806f48be9dcb8"));
+    }
+
+    @Test
+    public void testReseedChangesOutput() {
+        byte[] entropy = new byte[32];
+        HmacDrbg first = new HmacDrbg(entropy, null, null);
+        HmacDrbg second = new HmacDrbg(entropy, null, null);
+
+        byte[] a = new byte[32];
+        byte[] b = new byte[32];
+        first.nextBytes(a);
+        second.nextBytes(b);
+        assertThat(a).isEqualTo(b);
+
+        second.reseed(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32});
+        first.nextBytes(a);
+        second.nextBytes(b);
+        assertThat(a).isNotEqualTo(b);
+    }
+
+    @Test
+    public void testThreadsGetDistinctStreams() throws Exception {
+        final EntropyPool pool = new EntropyPool(new SecureRandom(), 1, TimeUnit.HOURS, 64);
+        final Set<String> values = Collections.synchronizedSet(new HashSet<String>());
+        final CountDownLatch done = new CountDownLatch(8);
+
+        try {
+            for (int t = 0; t < 8; t++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; i < 100; i++) {
+                                byte[] value = new byte[20];
+                                pool.nextBytes(value);
+                                values.add(Arrays.toString(value));
+                            }
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }).start();
+            }
+
+            assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(values).hasSize(800);
+
+            // requests larger than the buffer and after a reseed
+            byte[] large = new byte[1000];
+            pool.nextBytes(large);
+            pool.reseedAll();
+            byte[] next = new byte[1000];
+            pool.nextBytes(next);
+            assertThat(large).isNotEqualTo(next);
+            assertThat(next).isNotEqualTo(new byte[1000]);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testNextIntIsUniform() {
+        EntropyPool pool = EntropyPool.getDefault();
+
+        int[] counts = new int[10];
+        for (int i = 0; i < 100000; i++) {
+            counts[pool.nextInt(10)]++;
+        }
+        for (int count : counts) {
+            assertThat(count).isGreaterThan(9000).isLessThan(11000);
+        }
+
+        assertThat(pool.nextInt(1)).isEqualTo(0);
+    }
+
+    @Test
+    public void testRescueCode() {
+        SqrlCipherTool cipherTool = new SqrlCipherTool();
+        String rescueCode = cipherTool.createRescueCode();
+
+        assertThat(rescueCode).matches("[0-9]{24}");
+        assertThat(cipherTool.createRescueCode()).isNotEqualTo(rescueCode);
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] result = new BigInteger(hex, 16).toByteArray();
+        byte[] padded = new byte[hex.length() / 2];
+        int length = Math.min(result.length, padded.length);
+        System.arraycopy(result, result.length - length, padded, padded.length - length, length);
+        return padded;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class HashBufferTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final SqrlCipherTool mCipherTool = new SqrlCipherTool();
+
+    @Test
+    public void testIteratedHash() throws Exception {
+        byte[] data = "some data".getBytes(UTF_8);
+
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+        byte[] expected = data;
+        for (int i = 0; i < 5; i++) {
+            expected = messageDigest.digest(expected);
+        }
+
+        byte[] output = new byte[40];
+        assertThat(mCipherTool.getHash(data, 5, output, 4)).isEqualTo(32);
+        assertThat(Arrays.copyOfRange(output, 4, 36)).isEqualTo(expected);
+        assertThat(mCipherTool.getHash(data, 5)).isEqualTo(expected);
+        assertThat(mCipherTool.getHash(data, 0)).isEqualTo(messageDigest.digest(data));
+    }
+
+    @Test
+    public void testChainedHash() throws Exception {
+        byte[] data = "some data".getBytes(UTF_8);
+
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+        byte[] hash = messageDigest.digest(data);
+        byte[] expected = hash.clone();
+        for (int i = 1; i < 16; i++) {
+            hash = messageDigest.digest(hash);
+            for (int j = 0; j < expected.length; j++) {
+                expected[j] ^= hash[j];
+            }
+        }
+
+        byte[] output = new byte[33];
+        assertThat(mCipherTool.getHashChained(data, 16, output, 1)).isEqualTo(32);
+        assertThat(Arrays.copyOfRange(output, 1, 33)).isEqualTo(expected);
+        assertThat(mCipherTool.getHashChained(data, 16)).isEqualTo(expected);
+        assertThat(mCipherTool.getHashChained(data, 1)).isEqualTo(messageDigest.digest(data));
+    }
+
+    @Test
+    public void testRandomHash() {
+        byte[] output = new byte[20];
+        mCipherTool.createRandomHash(output, 2, 16);
+
+        assertThat(output[0]).isEqualTo((byte) 0);
+        assertThat(output[18]).isEqualTo((byte) 0);
+        assertThat(Arrays.copyOfRange(output, 2, 18)).isNotEqualTo(new byte[16]);
+        assertThat(mCipherTool.createRandomHash(128)).hasSize(16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutputTooSmall() {
+        mCipherTool.getHash(new byte[1], 3, new byte[32], 1);
+    }
+}
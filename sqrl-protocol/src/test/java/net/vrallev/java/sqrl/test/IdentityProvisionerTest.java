@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.ecc.EccProvider25519;
+import net.vrallev.java.sqrl.identity.IdentityProvisioner;
+import net.vrallev.java.sqrl.identity.ProvisionedIdentity;
+import net.vrallev.java.sqrl.store.IdentityRecord;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class IdentityProvisionerTest {
+
+    private String mSignatureUri = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    @Test
+    public void testKeysAreConsistent() throws Exception {
+        final SqrlProtocol protocol = SqrlProtocol.instance();
+        final EccProvider25519 eccProvider = protocol.getEccProvider();
+
+        IdentityProvisioner provisioner = new IdentityProvisioner.Builder(protocol.getSqrlCipherTool(), eccProvider)
+                .setSiteKeys(Arrays.asList("sqrl-login.appspot.com", "example.com"))
+                .build();
+
+        ProvisionedIdentity identity = provisioner.createIdentity(7);
+        assertThat(identity.getIndex()).isEqualTo(7);
+        assertThat(identity.getMasterKey()).isEqualTo(protocol.getSqrlCipherTool().getHashChained(identity.getUnlockKey(), 16));
+        assertThat(identity.getLockKey()).isEqualTo(eccProvider.computeKeyPair(identity.getUnlockKey()).getPublicKeyDiffieHellman());
+        assertThat(identity.getRescueCode()).matches("[0-9]{24}");
+        assertThat(identity.getRecords()).hasSize(2);
+
+        IdentityRecord record = identity.getRecords().get(0);
+        byte[] identityKey = protocol.authenticate(identity.getMasterKey(), "sqrl-login.appspot.com").buildRequest(mSignatureUri)
+                .getClientParameter().getIdentityKeyDecoded();
+        assertThat(record.getIdentityKey()).isEqualTo(identityKey);
+        assertThat(identity.getRecords().get(1).getIdentityKey()).isNotEqualTo(identityKey);
+
+        // the client can derive the verify unlock key again with the identity unlock key
+        byte[] unlockRequestSigningKey = eccProvider.diffieHellman(identity.getUnlockKey(), record.getServerUnlockKey());
+        assertThat(eccProvider.computeKeyPair(unlockRequestSigningKey).getPublicKeySignature()).isEqualTo(record.getVerifyUnlockKey());
+    }
+
+    @Test
+    public void testBoundedAndOrdered() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            IdentityProvisioner provisioner = new IdentityProvisioner.Builder(SqrlProtocol.instance().getSqrlCipherTool(), SqrlProtocol.instance().getEccProvider())
+                    .setPool(pool)
+                    .setChunkSize(3)
+                    .setMaxPendingChunks(2)
+                    .build();
+
+            final AtomicLong next = new AtomicLong();
+            long count = provisioner.provision(50, new IdentityProvisioner.Sink() {
+                @Override
+                public void accept(ProvisionedIdentity identity) {
+                    assertThat(identity.getIndex()).isEqualTo(next.getAndIncrement());
+                    assertThat(identity.getRecords()).isEmpty();
+                }
+            });
+
+            assertThat(count).isEqualTo(50);
+            assertThat(next.get()).isEqualTo(50);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSinkFailureStopsProvisioning() throws Exception {
+        IdentityProvisioner provisioner = new IdentityProvisioner.Builder(SqrlProtocol.instance().getSqrlCipherTool(), SqrlProtocol.instance().getEccProvider())
+                .setChunkSize(4)
+                .build();
+
+        final AtomicLong received = new AtomicLong();
+        try {
+            provisioner.provision(1_000_000, new IdentityProvisioner.Sink() {
+                @Override
+                public void accept(ProvisionedIdentity identity) throws IOException {
+                    if (received.incrementAndGet() == 10) {
+                        throw new IOException("disk full");
+                    }
+                }
+            });
+            throw new AssertionError("failure of the sink wasn't reported");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).isEqualTo("disk full");
+        }
+
+        assertThat(received.get()).isEqualTo(10);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.Identities;
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.TestUtils;
+import net.vrallev.java.sqrl.body.ServerParameter;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.body.SqrlServerBody;
+import net.vrallev.java.sqrl.store.IdentityRecord;
+import net.vrallev.java.sqrl.store.IdentityStore;
+import net.vrallev.java.sqrl.store.InMemoryIdentityStore;
+import net.vrallev.java.sqrl.store.MappedIdentityStore;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class IdentityStoreTest {
+
+    private String mSiteKey = "sqrl-login.appspot.com";
+
+    @SuppressWarnings("FieldCanBeLocal")
+    private String mSignatureUri = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    @Test
+    public void testInMemoryStore() throws IOException {
+        try (IdentityStore store = new InMemoryIdentityStore(16)) {
+            testStore(store, 20000);
+        }
+    }
+
+    @Test
+    public void testMappedStore() throws IOException {
+        File file = File.createTempFile("identities", ".store");
+        assertThat(file.delete()).isTrue();
+
+        try {
+            List<IdentityRecord> records;
+            try (MappedIdentityStore store = new MappedIdentityStore(file, 20000)) {
+                records = testStore(store, 20000);
+            }
+
+            // the records survive reopening the file
+            try (MappedIdentityStore store = new MappedIdentityStore(file, 0)) {
+                assertThat(store.size()).isEqualTo(records.size());
+                for (IdentityRecord record : records) {
+                    assertThat(store.get(record.getIdentityKey())).isEqualTo(record);
+                }
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testMappedStoreFull() throws IOException {
+        File file = File.createTempFile("identities", ".store");
+        assertThat(file.delete()).isTrue();
+
+        Random random = new Random(5);
+        try (MappedIdentityStore store = new MappedIdentityStore(file, 100)) {
+            for (int i = 0; i < 100000; i++) {
+                store.put(createRecord(random));
+            }
+            assert false;
+        } catch (IllegalStateException e) {
+            // expected
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testMappedStoreReusesRemovedSlots() throws IOException {
+        File file = File.createTempFile("identities", ".store");
+        assertThat(file.delete()).isTrue();
+
+        Random random = new Random(9);
+        try {
+            List<IdentityRecord> records = new ArrayList<>();
+            try (MappedIdentityStore store = new MappedIdentityStore(file, 100)) {
+                for (int i = 0; i < 50; i++) {
+                    IdentityRecord record = createRecord(random);
+                    store.put(record);
+                    records.add(record);
+                }
+
+                // far more records than slots pass through the store, the load factor is exceeded
+                // many times, if removed slots aren't reclaimed
+                List<IdentityRecord> removed = new ArrayList<>();
+                for (int i = 0; i < 20000; i++) {
+                    IdentityRecord record = createRecord(random);
+                    store.put(record);
+                    IdentityRecord old = records.set(random.nextInt(records.size()), record);
+                    assertThat(store.remove(old.getIdentityKey())).isTrue();
+                    if (i % 100 == 0) {
+                        removed.add(old);
+                    }
+                }
+
+                assertThat(store.size()).isEqualTo(records.size());
+                for (IdentityRecord record : records) {
+                    assertThat(store.get(record.getIdentityKey())).isEqualTo(record);
+                }
+                for (IdentityRecord record : removed) {
+                    assertThat(store.get(record.getIdentityKey())).isNull();
+                }
+            }
+
+            try (MappedIdentityStore store = new MappedIdentityStore(file, 0)) {
+                assertThat(store.size()).isEqualTo(records.size());
+                for (IdentityRecord record : records) {
+                    assertThat(store.get(record.getIdentityKey())).isEqualTo(record);
+                }
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testProtocolLookup() throws SqrlException {
+        Identities identityOld = Identities.ID1;
+        Identities identityNew = Identities.ID2;
+
+        byte[][] keys = TestUtils.createServerKeys(identityOld, SqrlProtocol.instance().getEccProvider());
+        byte[] serverUnlockKeyOld = keys[0];
+        byte[] verifyUnlockKeyOld = keys[1];
+
+        IdentityStore store = new InMemoryIdentityStore();
+        SqrlProtocol protocol = new SqrlProtocol.Builder()
+                .setEccProvider(SqrlProtocol.instance().getEccProvider())
+                .setIdentityStore(store)
+                .build();
+
+        SqrlClientBody clientBody = protocol.authenticate(identityNew.getMasterKey(), mSiteKey)
+                .withPreviousMasterKey(identityOld.getMasterKey())
+                .buildRequest(mSignatureUri);
+
+        byte[] previousIdentityKey = clientBody.getClientParameter().getPreviousIdentityKeyDecoded();
+        store.put(new IdentityRecord(previousIdentityKey, serverUnlockKeyOld, verifyUnlockKeyOld, IdentityRecord.FLAG_SQRL_ONLY));
+
+        // the server adds the stored keys of the previous identity
+        SqrlServerBody serverBody = protocol.answerClient(clientBody, ServerParameter.PREVIOUS_ID_MATCH)
+                .withServerFriendlyName("Unit Test")
+                .create()
+                .asSqrlServerBody();
+        assertThat(serverBody.getServerParameter().getServerUnlockKeyDecoded()).isEqualTo(serverUnlockKeyOld);
+        assertThat(serverBody.getServerParameter().getVerifyUnlockKeyDecoded()).isEqualTo(verifyUnlockKeyOld);
+
+        keys = TestUtils.createServerKeys(identityNew, SqrlProtocol.instance().getEccProvider());
+        SqrlClientBody updateBody = protocol.answerServer(identityNew.getMasterKey(), mSiteKey, serverBody)
+                .addCommand("setkey")
+                .withPreviousMasterKey(identityOld.getMasterKey())
+                .withNewServerKeys(keys[0], keys[1])
+                .withIdentityUnlockKey(identityOld.getIdentityUnlockKey())
+                .buildResponse(serverBody);
+
+        // the unlock request signature is checked with the stored verify unlock key
+        SqrlClientBody parsed = protocol.readSqrlClientBody().from(updateBody.getBodyEncoded()).verified();
+        assertThat(parsed).isEqualTo(updateBody);
+
+        store.put(new IdentityRecord(previousIdentityKey, serverUnlockKeyOld, keys[1], 0));
+        try {
+            protocol.readSqrlClientBody().from(updateBody.getBodyEncoded()).verified();
+            assert false;
+        } catch (SqrlException e) {
+            // expected, wrong verify unlock key
+        }
+    }
+
+    private static List<IdentityRecord> testStore(IdentityStore store, int count) {
+        Random random = new Random(42);
+        List<IdentityRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            IdentityRecord record = createRecord(random);
+            store.put(record);
+            records.add(record);
+        }
+        assertThat(store.size()).isEqualTo(count);
+
+        for (IdentityRecord record : records) {
+            assertThat(store.get(record.getIdentityKey())).isEqualTo(record);
+        }
+        assertThat(store.get(createRecord(random).getIdentityKey())).isNull();
+
+        // replace
+        IdentityRecord first = records.get(0);
+        IdentityRecord replaced = new IdentityRecord(first.getIdentityKey(), first.getVerifyUnlockKey(), first.getServerUnlockKey(), IdentityRecord.FLAG_HARDLOCK);
+        store.put(replaced);
+        records.set(0, replaced);
+        assertThat(store.size()).isEqualTo(count);
+        assertThat(store.get(first.getIdentityKey())).isEqualTo(replaced);
+        assertThat(store.get(first.getIdentityKey()).hasFlag(IdentityRecord.FLAG_HARDLOCK)).isTrue();
+
+        // remove every other record
+        for (int i = records.size() - 1; i >= 0; i -= 2) {
+            assertThat(store.remove(records.remove(i).getIdentityKey())).isTrue();
+        }
+        assertThat(store.size()).isEqualTo(records.size());
+        assertThat(store.remove(first.getIdentityKey().clone())).isTrue();
+        assertThat(store.remove(first.getIdentityKey())).isFalse();
+        records.remove(0);
+
+        for (IdentityRecord record : records) {
+            assertThat(store.get(record.getIdentityKey())).isEqualTo(record);
+        }
+        return records;
+    }
+
+    private static IdentityRecord createRecord(Random random) {
+        byte[] identityKey = new byte[32];
+        byte[] serverUnlockKey = new byte[32];
+        byte[] verifyUnlockKey = new byte[32];
+        random.nextBytes(identityKey);
+        random.nextBytes(serverUnlockKey);
+        random.nextBytes(verifyUnlockKey);
+        return new IdentityRecord(identityKey, serverUnlockKey, verifyUnlockKey, random.nextInt(4));
+    }
+}
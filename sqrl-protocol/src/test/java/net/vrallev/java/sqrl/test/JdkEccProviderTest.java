@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.Identities;
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.ecc.EccKeyPair;
+import net.vrallev.java.sqrl.ecc.JavaEccProvider;
+import net.vrallev.java.sqrl.ecc.JdkEccProvider;
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class JdkEccProviderTest {
+
+    private String mSiteKey = "sqrl-login.appspot.com";
+
+    @SuppressWarnings("FieldCanBeLocal")
+    private String mSignatureUri = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    @Before
+    public void setUp() {
+        assumeTrue(JdkEccProvider.isSupported());
+    }
+
+    @Test
+    public void testSameResults() {
+        JavaEccProvider reference = new JavaEccProvider(true);
+        JdkEccProvider provider = new JdkEccProvider();
+        SqrlCipherTool cipherTool = new SqrlCipherTool();
+
+        for (int i = 0; i < 16; i++) {
+            byte[] privateKey = cipherTool.createRandomHash(256);
+            EccKeyPair expected = reference.computeKeyPair(privateKey);
+            EccKeyPair keyPair = provider.computeKeyPair(privateKey);
+
+            assertThat(keyPair.getPrivateKey()).isEqualTo(privateKey);
+            assertThat(keyPair.getPublicKeySignature()).isEqualTo(expected.getPublicKeySignature());
+            assertThat(keyPair.getPublicKeyDiffieHellman()).isEqualTo(expected.getPublicKeyDiffieHellman());
+
+            byte[] message = cipherTool.createRandomHash(i * 16);
+            byte[] signature = provider.sign(message, privateKey, keyPair.getPublicKeySignature());
+            assertThat(signature).isEqualTo(reference.sign(message, privateKey, expected.getPublicKeySignature()));
+            assertThat(provider.isValidSignature(message, signature, keyPair.getPublicKeySignature())).isTrue();
+
+            signature[i] ^= 0x01;
+            assertThat(provider.isValidSignature(message, signature, keyPair.getPublicKeySignature())).isFalse();
+
+            EccKeyPair other = provider.computeKeyPair(cipherTool.createRandomHash(256));
+            byte[] secret = provider.diffieHellman(privateKey, other.getPublicKeyDiffieHellman());
+            assertThat(secret).isEqualTo(provider.diffieHellman(other.getPrivateKey(), keyPair.getPublicKeyDiffieHellman()));
+            assertThat(secret).isEqualTo(reference.diffieHellman(privateKey, other.getPublicKeyDiffieHellman()));
+        }
+
+        assertThat(provider.isValidSignature(new byte[1], new byte[63], new byte[32])).isFalse();
+        assertThat(provider.isValidSignature(new byte[1], new byte[64], new byte[31])).isFalse();
+    }
+
+    @Test
+    public void testProtocol() throws SqrlException {
+        SqrlProtocol protocol = new SqrlProtocol.Builder()
+                .setEccProvider(new JdkEccProvider())
+                .build();
+
+        for (Identities identity : Identities.values()) {
+            SqrlClientBody body = protocol.authenticate(identity.getMasterKey(), mSiteKey).buildRequest(mSignatureUri);
+            SqrlClientBody expected = SqrlProtocol.instance().authenticate(identity.getMasterKey(), mSiteKey).buildRequest(mSignatureUri);
+
+            assertThat(body).isEqualTo(expected);
+            assertThat(protocol.readSqrlClientBody().from(body.getBodyEncoded()).verified()).isEqualTo(body);
+        }
+    }
+}
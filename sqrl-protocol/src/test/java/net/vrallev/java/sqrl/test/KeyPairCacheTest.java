@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.Identities;
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.ecc.EccKeyPair;
+import net.vrallev.java.sqrl.ecc.EccKeyPairCache;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class KeyPairCacheTest {
+
+    private String mSiteKey = "sqrl-login.appspot.com";
+
+    @SuppressWarnings("FieldCanBeLocal")
+    private String mSignatureUri = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    @Test
+    public void testCachedBodyIsEqual() throws SqrlException {
+        EccKeyPairCache cache = new EccKeyPairCache(16);
+        SqrlProtocol protocol = new SqrlProtocol.Builder()
+                .setEccProvider(SqrlProtocol.instance().getEccProvider())
+                .setKeyPairCache(cache)
+                .build();
+
+        Identities identity = Identities.ID1;
+        SqrlClientBody expected = SqrlProtocol.instance().authenticate(identity.getMasterKey(), mSiteKey).buildRequest(mSignatureUri);
+
+        SqrlClientBody first = protocol.authenticate(identity.getMasterKey(), mSiteKey).buildRequest(mSignatureUri);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(0);
+
+        SqrlClientBody second = protocol.authenticate(identity.getMasterKey(), mSiteKey).buildRequest(mSignatureUri);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+
+        assertThat(first).isEqualTo(expected);
+        assertThat(second).isEqualTo(expected);
+
+        protocol.authenticate(identity.getMasterKey(), "other-site.com").buildRequest(mSignatureUri);
+        assertThat(cache.getMissCount()).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        EccKeyPairCache cache = new EccKeyPairCache(2);
+
+        EccKeyPair first = new EccKeyPair(new byte[]{1, 2, 3}, new byte[]{4}, new byte[]{5});
+        cache.put(Identities.ID1.getMasterKey(), mSiteKey, first);
+        cache.put(Identities.ID2.getMasterKey(), mSiteKey, new EccKeyPair(new byte[]{6}, new byte[]{7}, new byte[]{8}));
+
+        // the cache keeps its own copy
+        assertThat(first.getPrivateKey()).isEqualTo(new byte[]{1, 2, 3});
+
+        EccKeyPair cached = cache.get(Identities.ID1.getMasterKey(), mSiteKey);
+        assertThat(cached.getPrivateKey()).isEqualTo(new byte[]{1, 2, 3});
+
+        // ID2 is the least recently used entry now
+        cache.put(Identities.ID3.getMasterKey(), mSiteKey, new EccKeyPair(new byte[]{9}, new byte[]{10}, new byte[]{11}));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+        assertThat(cache.get(Identities.ID2.getMasterKey(), mSiteKey)).isNull();
+        assertThat(cache.get(Identities.ID1.getMasterKey(), mSiteKey)).isNotNull();
+        assertThat(cache.get(Identities.ID3.getMasterKey(), mSiteKey)).isNotNull();
+
+        cache.clear();
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cached.getPrivateKey()).isEqualTo(new byte[]{1, 2, 3});
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.ServerParameter;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.body.SqrlServerBody;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class LazyClientBodyTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String SITE_KEY = "sqrl-login.appspot.com";
+    private static final String SIGNATURE_URI = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    @Test
+    public void testLazy() throws SqrlException {
+        SqrlProtocol protocol = SqrlProtocol.instance();
+        byte[] masterKey = randomKey();
+
+        SqrlClientBody request = protocol.authenticate(masterKey, SITE_KEY)
+                .withPreviousMasterKey(randomKey())
+                .buildRequest(SIGNATURE_URI);
+        SqrlServerBody serverBody = protocol.answerClient(request, ServerParameter.ID_MATCH).create().asSqrlServerBody();
+        SqrlClientBody response = protocol.answerServer(masterKey, SITE_KEY, serverBody).buildResponse(serverBody);
+
+        for (SqrlClientBody clientBody : Arrays.asList(request, response)) {
+            String encoded = clientBody.getBodyEncoded();
+            byte[] data = encoded.getBytes(ASCII);
+
+            SqrlClientBody lazy = protocol.readSqrlClientBody().from(data).lazy();
+            // the array may be reused after parsing
+            Arrays.fill(data, (byte) 'x');
+
+            assertThat(lazy.isLazy()).isTrue();
+            assertThat(lazy.getClientParameter().getIdentityKeyDecoded()).isEqualTo(clientBody.getClientParameter().getIdentityKeyDecoded());
+            assertThat(lazy.getClientParameter().getCommands()).isEqualTo(Arrays.asList("login"));
+            assertThat(lazy.getClientParameter().getParameterEncoded()).isEqualTo(clientBody.getClientParameter().getParameterEncoded());
+            assertThat(lazy.getServerParameter().getNutDecoded()).isEqualTo("5b216fa381b7769e1e88624ff685686c");
+            assertThat(lazy.getIdentitySignatureDecoded()).isEqualTo(clientBody.getIdentitySignatureDecoded());
+            assertThat(lazy.getPreviousIdentitySignatureDecoded()).isEqualTo(clientBody.getPreviousIdentitySignatureDecoded());
+            assertThat(lazy.getUnlockRequestSignatureDecoded()).isNull();
+            assertThat(lazy.getBodyEncoded()).isEqualTo(encoded);
+
+            SqrlClientBody verified = protocol.readSqrlClientBody().from(encoded).verified();
+            assertThat(verified.isLazy()).isFalse();
+            assertThat(lazy).isEqualTo(verified);
+            assertThat(lazy.hashCode()).isEqualTo(verified.hashCode());
+        }
+    }
+
+    @Test
+    public void testMalformed() throws SqrlException {
+        SqrlProtocol protocol = SqrlProtocol.instance();
+
+        try {
+            protocol.readSqrlClientBody().from("client=abc&ids=def").lazy();
+            throw new AssertionError("missing parameter was accepted");
+        } catch (SqrlException e) {
+            // expected
+        }
+
+        String encoded = protocol.authenticate(randomKey(), SITE_KEY).buildRequest(SIGNATURE_URI).getBodyEncoded();
+        String malformed = "client=AAAA" + encoded.substring(encoded.indexOf('&'));
+
+        SqrlClientBody lazy = protocol.readSqrlClientBody().from(malformed).lazy();
+        assertThat(lazy.getServerParameter().getNutDecoded()).isEqualTo("5b216fa381b7769e1e88624ff685686c");
+        try {
+            lazy.getClientParameter();
+            throw new AssertionError("malformed client parameter was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static byte[] randomKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.Identities;
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.ecc.BatchEccProvider25519;
+import net.vrallev.java.sqrl.ecc.JavaEccProvider;
+import net.vrallev.java.sqrl.metrics.DefaultSqrlMetrics;
+import net.vrallev.java.sqrl.metrics.Histogram;
+import net.vrallev.java.sqrl.metrics.InstrumentedEccProvider;
+import net.vrallev.java.sqrl.metrics.SqrlMetrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class MetricsTest {
+
+    private String mSiteKey = "sqrl-login.appspot.com";
+
+    @SuppressWarnings("FieldCanBeLocal")
+    private String mSignatureUri = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        assertThat(histogram.getValueAtPercentile(50)).isEqualTo(0);
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        histogram.record(-1);
+
+        assertThat(histogram.getCount()).isEqualTo(1000);
+        assertThat(histogram.getMax()).isEqualTo(1000000);
+        assertThat(histogram.getMean()).isEqualTo(500500.0);
+
+        assertPercentile(histogram, 50, 500000);
+        assertPercentile(histogram, 90, 900000);
+        assertPercentile(histogram, 99, 990000);
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(1000000);
+
+        Histogram copy = histogram.copy();
+        histogram.reset();
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(copy.getCount()).isEqualTo(1000);
+
+        histogram.record(Long.MAX_VALUE);
+        assertThat(histogram.getMax()).isEqualTo((1L << 40) - 1);
+    }
+
+    @Test
+    public void testProtocolStages() throws SqrlException {
+        DefaultSqrlMetrics metrics = new DefaultSqrlMetrics();
+        SqrlProtocol protocol = new SqrlProtocol.Builder()
+                .setEccProvider(new JavaEccProvider(true))
+                .setMetrics(metrics)
+                .build();
+
+        assertThat(protocol.getEccProvider()).isInstanceOf(BatchEccProvider25519.class);
+
+        SqrlClientBody body = protocol.authenticate(Identities.ID1.getMasterKey(), mSiteKey).buildRequest(mSignatureUri);
+        assertThat(protocol.readSqrlClientBody().from(body.getBodyEncoded()).verified()).isEqualTo(body);
+
+        String tampered = body.getBodyEncoded().replaceAll("&ids=.", "&ids=A");
+        try {
+            protocol.readSqrlClientBody().from(tampered).verified();
+            fail();
+        } catch (SqrlException ignored) {
+        }
+
+        List<SqrlClientBody> bodies = protocol.readSqrlClientBody().verifiedAll(Arrays.asList(body.getBodyEncoded(), "client=missing", "no key value pairs", "client=a&server=abcd&ids=abcd"));
+        assertThat(bodies.get(0)).isEqualTo(body);
+
+        protocol.getSqrlCipherTool().aesGcmEncrypt(new byte[32], new byte[32]);
+
+        DefaultSqrlMetrics.Snapshot snapshot = metrics.snapshotAndReset();
+        assertThat(snapshot.getHistogram(SqrlMetrics.Stage.BUILD).getCount()).isEqualTo(1);
+        assertThat(snapshot.getHistogram(SqrlMetrics.Stage.KEY_DERIVATION).getCount()).isEqualTo(1);
+        assertThat(snapshot.getHistogram(SqrlMetrics.Stage.SIGN).getCount()).isEqualTo(1);
+        assertThat(snapshot.getHistogram(SqrlMetrics.Stage.PARSE).getCount()).isEqualTo(4);
+        assertThat(snapshot.getHistogram(SqrlMetrics.Stage.BASE64_DECODE).getCount()).isEqualTo(3);
+        assertThat(snapshot.getHistogram(SqrlMetrics.Stage.VERIFY).getCount()).isEqualTo(2);
+        assertThat(snapshot.getHistogram(SqrlMetrics.Stage.VERIFY_BATCH).getCount()).isEqualTo(1);
+        assertThat(snapshot.getHistogram(SqrlMetrics.Stage.AES_GCM).getCount()).isEqualTo(1);
+        assertThat(snapshot.getHistogram(SqrlMetrics.Stage.PARSE).getMax()).isGreaterThan(0);
+
+        assertThat(snapshot.getRejectionCount(SqrlMetrics.Rejection.SIGNATURE_MISMATCH)).isEqualTo(1);
+        assertThat(snapshot.getRejectionCount(SqrlMetrics.Rejection.MISSING_PARAMETER)).isEqualTo(1);
+        assertThat(snapshot.getRejectionCount(SqrlMetrics.Rejection.MALFORMED)).isEqualTo(2);
+
+        String text = snapshot.toText();
+        assertThat(text).contains("sqrl_verify_us_count 2\n");
+        assertThat(text).contains("sqrl_parse_us{quantile=\"0.99\"} ");
+        assertThat(text).contains("sqrl_rejected{reason=\"signature_mismatch\"} 1\n");
+        assertThat(text).excludes("sqrl_diffie_hellman_us");
+
+        assertThat(metrics.snapshot().getHistogram(SqrlMetrics.Stage.PARSE).getCount()).isEqualTo(0);
+
+        // a snapshot can't be changed, but a copy of it can
+        Histogram parse = snapshot.getHistogram(SqrlMetrics.Stage.PARSE);
+        assertThat(parse.isReadOnly()).isTrue();
+        try {
+            parse.record(1000);
+            fail();
+        } catch (UnsupportedOperationException ignored) {
+        }
+        assertThat(parse.getCount()).isEqualTo(4);
+
+        Histogram copy = parse.copy();
+        copy.record(1000);
+        assertThat(copy.getCount()).isEqualTo(5);
+    }
+
+    @Test
+    public void testDisabled() {
+        JavaEccProvider provider = new JavaEccProvider(true);
+        assertThat(InstrumentedEccProvider.wrap(provider, SqrlMetrics.NONE)).isSameAs(provider);
+        assertThat(new SqrlProtocol.Builder().setEccProvider(provider).build().getEccProvider()).isSameAs(provider);
+    }
+
+    private static void assertPercentile(Histogram histogram, double percentile, long expected) {
+        long value = histogram.getValueAtPercentile(percentile);
+        assertThat(value).isGreaterThanOrEqualTo(expected);
+        assertThat((double) value).isLessThanOrEqualTo(expected * (1 + 1.0 / 32));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.nut.NutManager;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class NutManagerTest {
+
+    private static final byte[] KEY = new byte[16];
+
+    @Test
+    public void testConsume() throws UnknownHostException {
+        NutManager nutManager = new NutManager.Builder(KEY).build();
+        InetAddress address = InetAddress.getByName("192.168.1.2");
+        InetAddress other = InetAddress.getByName("2001:db8::1");
+
+        String nut = nutManager.issue(address);
+        assertThat(nut).hasSize(43);
+        assertThat(nutManager.issue(address)).isNotEqualTo(nut);
+
+        assertThat(nutManager.check(nut, address)).isEqualTo(NutManager.Status.VALID);
+        assertThat(nutManager.consume(nut, other)).isEqualTo(NutManager.Status.IP_MISMATCH);
+        assertThat(nutManager.consume(nut, address)).isEqualTo(NutManager.Status.VALID);
+        assertThat(nutManager.consume(nut, address)).isEqualTo(NutManager.Status.REPLAYED);
+
+        String ipv6Nut = nutManager.issue(other);
+        assertThat(nutManager.consume(ipv6Nut, address)).isEqualTo(NutManager.Status.IP_MISMATCH);
+        assertThat(nutManager.consume(ipv6Nut, other)).isEqualTo(NutManager.Status.VALID);
+    }
+
+    @Test
+    public void testInvalid() {
+        NutManager nutManager = new NutManager.Builder(KEY).build();
+        String nut = nutManager.issue((byte[]) null);
+
+        char[] chars = nut.toCharArray();
+        chars[20] = chars[20] == 'A' ? 'B' : 'A';
+        assertThat(nutManager.consume(new String(chars), (byte[]) null)).isEqualTo(NutManager.Status.INVALID);
+        assertThat(nutManager.consume("abc", (byte[]) null)).isEqualTo(NutManager.Status.INVALID);
+        assertThat(nutManager.consume(null, (byte[]) null)).isEqualTo(NutManager.Status.INVALID);
+
+        NutManager otherKey = new NutManager.Builder(new byte[32]).build();
+        assertThat(otherKey.consume(nut, (byte[]) null)).isEqualTo(NutManager.Status.INVALID);
+
+        assertThat(nutManager.consume(nut, (byte[]) null)).isEqualTo(NutManager.Status.VALID);
+    }
+
+    @Test
+    public void testExpiry() {
+        final long[] time = {TimeUnit.DAYS.toMillis(365 * 44)};
+        NutManager nutManager = new NutManager(new NutManager.Builder(KEY).setMaxAge(60, TimeUnit.SECONDS).setBucketDuration(5, TimeUnit.SECONDS)) {
+            @Override
+            protected long currentTimeMillis() {
+                return time[0];
+            }
+        };
+
+        String first = nutManager.issue((byte[]) null);
+        assertThat(nutManager.consume(first, (byte[]) null)).isEqualTo(NutManager.Status.VALID);
+
+        time[0] += TimeUnit.SECONDS.toMillis(59);
+        String second = nutManager.issue((byte[]) null);
+        assertThat(nutManager.consume(first, (byte[]) null)).isEqualTo(NutManager.Status.REPLAYED);
+
+        time[0] += TimeUnit.SECONDS.toMillis(1);
+        assertThat(nutManager.consume(first, (byte[]) null)).isEqualTo(NutManager.Status.EXPIRED);
+
+        // buckets are reused after they expired
+        time[0] += TimeUnit.SECONDS.toMillis(58);
+        assertThat(nutManager.consume(second, (byte[]) null)).isEqualTo(NutManager.Status.VALID);
+        for (int i = 0; i < 20; i++) {
+            time[0] += TimeUnit.SECONDS.toMillis(5);
+            assertThat(nutManager.consume(nutManager.issue((byte[]) null), (byte[]) null)).isEqualTo(NutManager.Status.VALID);
+        }
+    }
+
+    @Test
+    public void testConcurrentConsume() throws Exception {
+        final NutManager nutManager = new NutManager.Builder(KEY).build();
+        final List<String> nuts = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            nuts.add(nutManager.issue((byte[]) null));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int valid = 0;
+                    for (String nut : nuts) {
+                        if (nutManager.consume(nut, (byte[]) null) == NutManager.Status.VALID) {
+                            valid++;
+                        }
+                    }
+                    return valid;
+                }
+            }));
+        }
+
+        int valid = 0;
+        for (Future<Integer> future : futures) {
+            valid += future.get();
+        }
+        executor.shutdown();
+
+        assertThat(valid).isEqualTo(nuts.size());
+    }
+}
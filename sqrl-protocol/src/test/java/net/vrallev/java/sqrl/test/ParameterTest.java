@@ -17,10 +17,14 @@ package net.vrallev.java.sqrl.test;
 
 import net.vrallev.java.sqrl.SqrlException;
 import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.ClientParameter;
+import net.vrallev.java.sqrl.body.ServerParameter;
 import net.vrallev.java.sqrl.body.SqrlServerBody;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static org.fest.assertions.Assertions.assertThat;
 
 /**
@@ -48,4 +52,47 @@ public class ParameterTest {
         }
     }
 
+    @Test
+    public void testCachedParameter() {
+        byte[] identityKey = new byte[32];
+        identityKey[0] = 1;
+
+        ClientParameter.Builder builder = new ClientParameter.Builder(Arrays.asList("login"), identityKey);
+        ClientParameter first = builder.build();
+
+        assertThat(first.getParameterEncoded()).isSameAs(first.getParameterEncoded());
+        assertThat(first.getParameterDecoded()).isSameAs(first.getParameterDecoded());
+        assertThat(first.getIdentityKeyDecoded()).isSameAs(first.getIdentityKeyDecoded());
+        assertThat(first.getIdentityKeyDecoded()).isEqualTo(identityKey);
+
+        // changing the builder doesn't change an already built parameter
+        String encoded = first.getParameterEncoded();
+        ClientParameter second = builder.setServerUnlockKey(new byte[32]).build();
+        assertThat(first.getParameterEncoded()).isEqualTo(encoded);
+        assertThat(first.getServerUnlockKeyDecoded()).isNull();
+        assertThat(second).isNotEqualTo(first);
+
+        ClientParameter third = new ClientParameter.Builder(Arrays.asList("login"), identityKey).build();
+        assertThat(third).isEqualTo(first);
+        assertThat(third.hashCode()).isEqualTo(first.hashCode());
+    }
+
+    @Test
+    public void testEqualsIgnoresOrder() {
+        byte[] serverUnlockKey = new byte[32];
+        byte[] verifyUnlockKey = new byte[32];
+        verifyUnlockKey[0] = 1;
+
+        ServerParameter first = new ServerParameter.Builder("nut", ServerParameter.ID_MATCH)
+                .withServerFriendlyName("server")
+                .withStoredKeys(serverUnlockKey, verifyUnlockKey)
+                .create();
+        ServerParameter second = new ServerParameter.Builder("nut", ServerParameter.ID_MATCH)
+                .withStoredKeys(serverUnlockKey, verifyUnlockKey)
+                .withServerFriendlyName("server")
+                .create();
+
+        assertThat(second).isEqualTo(first);
+        assertThat(second.hashCode()).isEqualTo(first.hashCode());
+    }
 }
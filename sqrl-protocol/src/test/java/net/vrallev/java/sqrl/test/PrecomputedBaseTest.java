@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.Identities;
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.ecc.EccKeyPair;
+import net.vrallev.java.sqrl.ecc.JavaEccProvider;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class PrecomputedBaseTest {
+
+    private String mSiteKey = "sqrl-login.appspot.com";
+
+    @SuppressWarnings("FieldCanBeLocal")
+    private String mSignatureUri = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    @Test
+    public void testSameKeyPairs() {
+        JavaEccProvider reference = new JavaEccProvider(true);
+        JavaEccProvider precomputed = new JavaEccProvider(true, true);
+
+        Random random = new Random(11);
+        for (int i = 0; i < 64; i++) {
+            byte[] privateKey = new byte[32];
+            random.nextBytes(privateKey);
+            if (i == 0) {
+                privateKey = new byte[32];
+            } else if (i == 1) {
+                Arrays.fill(privateKey, (byte) 0xff);
+            }
+
+            EccKeyPair expected = reference.computeKeyPair(privateKey);
+            EccKeyPair keyPair = precomputed.computeKeyPair(privateKey);
+
+            assertThat(keyPair.getPrivateKey()).isEqualTo(privateKey);
+            assertThat(keyPair.getPublicKeySignature()).isEqualTo(expected.getPublicKeySignature());
+            assertThat(keyPair.getPublicKeyDiffieHellman()).isEqualTo(expected.getPublicKeyDiffieHellman());
+        }
+    }
+
+    @Test
+    public void testProtocol() throws SqrlException {
+        SqrlProtocol protocol = new SqrlProtocol.Builder()
+                .setEccProvider(new JavaEccProvider(true, true))
+                .build();
+
+        for (Identities identity : Identities.values()) {
+            SqrlClientBody expected = SqrlProtocol.instance().authenticate(identity.getMasterKey(), mSiteKey)
+                    .withPreviousMasterKey(identity.getMasterKey())
+                    .buildRequest(mSignatureUri);
+            SqrlClientBody body = protocol.authenticate(identity.getMasterKey(), mSiteKey)
+                    .withPreviousMasterKey(identity.getMasterKey())
+                    .buildRequest(mSignatureUri);
+
+            assertThat(body).isEqualTo(expected);
+            assertThat(SqrlProtocol.instance().readSqrlClientBody().from(body.getBodyEncoded()).verified()).isEqualTo(body);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.Identities;
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.ecc.EccKeyPair;
+import net.vrallev.java.sqrl.ecc.JavaEccProvider;
+import net.vrallev.java.sqrl.ecc.SignatureCheck;
+import net.vrallev.java.sqrl.ecc.ed25519.Ed25519PublicKeyCache;
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class PublicKeyCacheTest {
+
+    private String mSiteKey = "sqrl-login.appspot.com";
+
+    @SuppressWarnings("FieldCanBeLocal")
+    private String mSignatureUri = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    @Test
+    public void testSameResults() {
+        JavaEccProvider reference = new JavaEccProvider(true);
+        JavaEccProvider cached = new JavaEccProvider(true, false, new Ed25519PublicKeyCache(1024 * 1024));
+        SqrlCipherTool cipherTool = new SqrlCipherTool();
+
+        for (int i = 0; i < 32; i++) {
+            EccKeyPair keyPair = reference.computeKeyPair(cipherTool.createRandomHash(256));
+            byte[] message = cipherTool.createRandomHash(i * 8);
+            byte[] signature = reference.sign(message, keyPair.getPrivateKey(), keyPair.getPublicKeySignature());
+
+            // twice, to check the cached entry, too
+            assertThat(cached.isValidSignature(message, signature, keyPair.getPublicKeySignature())).isTrue();
+            assertThat(cached.isValidSignature(message, signature, keyPair.getPublicKeySignature())).isTrue();
+
+            byte[] tampered = signature.clone();
+            tampered[i] ^= 0x01;
+            assertThat(cached.isValidSignature(message, tampered, keyPair.getPublicKeySignature()))
+                    .isEqualTo(reference.isValidSignature(message, tampered, keyPair.getPublicKeySignature()));
+
+            tampered = signature.clone();
+            tampered[32 + i] ^= 0x40;
+            assertThat(cached.isValidSignature(message, tampered, keyPair.getPublicKeySignature())).isFalse();
+
+            byte[] otherMessage = cipherTool.createRandomHash(256);
+            assertThat(cached.isValidSignature(otherMessage, signature, keyPair.getPublicKeySignature())).isFalse();
+        }
+
+        assertThat(cached.isValidSignature(new byte[1], new byte[64], new byte[31])).isFalse();
+        assertThat(cached.getPublicKeyCache().getMissCount()).isEqualTo(32);
+        assertThat(cached.getPublicKeyCache().getHitCount()).isGreaterThanOrEqualTo(32 * 3);
+    }
+
+    @Test
+    public void testStatisticsAndEviction() {
+        Ed25519PublicKeyCache cache = new Ed25519PublicKeyCache(16 * Ed25519PublicKeyCache.ENTRY_BYTES);
+        JavaEccProvider provider = new JavaEccProvider(true, false, cache);
+        SqrlCipherTool cipherTool = new SqrlCipherTool();
+
+        EccKeyPair keyPair = provider.computeKeyPair(cipherTool.createRandomHash(256));
+        byte[] message = cipherTool.createRandomHash(256);
+        byte[] signature = provider.sign(message, keyPair.getPrivateKey(), keyPair.getPublicKeySignature());
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(provider.isValidSignature(message, signature, keyPair.getPublicKeySignature())).isTrue();
+        }
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(9);
+        assertThat(cache.getHitRate()).isEqualTo(0.9);
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.getSizeBytes()).isEqualTo(Ed25519PublicKeyCache.ENTRY_BYTES);
+
+        for (int i = 0; i < 200; i++) {
+            EccKeyPair other = provider.computeKeyPair(cipherTool.createRandomHash(256));
+            provider.isValidSignature(message, signature, other.getPublicKeySignature());
+        }
+
+        // one entry per segment
+        assertThat(cache.size()).isLessThanOrEqualTo(16);
+        assertThat(cache.getSizeBytes()).isLessThanOrEqualTo(cache.getMaxBytes());
+        assertThat(cache.getEvictionCount()).isEqualTo(201 - cache.size());
+
+        cache.clear();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testBatchAndProtocol() throws SqrlException {
+        Ed25519PublicKeyCache cache = new Ed25519PublicKeyCache(1024 * 1024);
+        JavaEccProvider provider = new JavaEccProvider(true, false, cache);
+        SqrlCipherTool cipherTool = new SqrlCipherTool();
+
+        List<SignatureCheck> checks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            EccKeyPair keyPair = provider.computeKeyPair(cipherTool.createRandomHash(256));
+            byte[] message = cipherTool.createRandomHash(256);
+            checks.add(new SignatureCheck(message, provider.sign(message, keyPair.getPrivateKey(), keyPair.getPublicKeySignature()), keyPair.getPublicKeySignature()));
+        }
+
+        assertThat(provider.isValidSignatures(checks)).isTrue();
+        assertThat(provider.isValidSignatures(checks)).isTrue();
+        assertThat(cache.getMissCount()).isEqualTo(8);
+        assertThat(cache.getHitCount()).isEqualTo(8);
+
+        byte[] signature = checks.get(3).getSignature().clone();
+        signature[40] ^= 0x01;
+        checks.set(3, new SignatureCheck(checks.get(3).getMessage(), signature, checks.get(3).getPublicKey()));
+        assertThat(provider.isValidSignatures(checks)).isFalse();
+
+        SqrlProtocol protocol = new SqrlProtocol.Builder().setEccProvider(provider).build();
+        for (Identities identity : Identities.values()) {
+            SqrlClientBody body = protocol.authenticate(identity.getMasterKey(), mSiteKey).buildRequest(mSignatureUri);
+            assertThat(protocol.readSqrlClientBody().from(body.getBodyEncoded()).verified()).isEqualTo(body);
+        }
+    }
+}
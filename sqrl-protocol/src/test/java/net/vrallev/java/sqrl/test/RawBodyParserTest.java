@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.Identities;
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+import net.vrallev.java.sqrl.body.SqrlClientBodyParser;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class RawBodyParserTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private String mSiteKey = "sqrl-login.appspot.com";
+
+    @SuppressWarnings("FieldCanBeLocal")
+    private String mSignatureUri = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    @Test
+    public void testByteSources() throws SqrlException {
+        SqrlProtocol protocol = SqrlProtocol.instance();
+        SqrlClientBody expected = protocol.authenticate(Identities.ID1.getMasterKey(), mSiteKey).buildRequest(mSignatureUri);
+        String encoded = expected.getBodyEncoded();
+
+        assertThat(protocol.readSqrlClientBody().from(encoded).verified()).isEqualTo(expected);
+        assertThat(protocol.readSqrlClientBody().from(encoded.getBytes(ASCII)).verified()).isEqualTo(expected);
+
+        byte[] padded = ("xx" + encoded + "yy").getBytes(ASCII);
+        assertThat(protocol.readSqrlClientBody().from(padded, 2, padded.length - 4).verified()).isEqualTo(expected);
+
+        ByteBuffer heapBuffer = ByteBuffer.wrap(padded, 2, padded.length - 4).slice();
+        assertThat(protocol.readSqrlClientBody().from(heapBuffer).verified()).isEqualTo(expected);
+        assertThat(heapBuffer.position()).isEqualTo(0);
+
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(padded.length);
+        directBuffer.put(padded).position(2).limit(padded.length - 2);
+        assertThat(protocol.readSqrlClientBody().from(directBuffer).verified()).isEqualTo(expected);
+        assertThat(directBuffer.position()).isEqualTo(2);
+    }
+
+    @Test
+    public void testParserReuse() throws SqrlException {
+        SqrlProtocol protocol = SqrlProtocol.instance();
+        SqrlClientBody first = protocol.authenticate(Identities.ID1.getMasterKey(), mSiteKey).buildRequest(mSignatureUri);
+        SqrlClientBody second = protocol.authenticate(Identities.ID2.getMasterKey(), mSiteKey).buildRequest(mSignatureUri);
+
+        SqrlClientBodyParser parser = protocol.readSqrlClientBody();
+        assertThat(parser.from(first.getBodyEncoded().getBytes(ASCII)).verified()).isEqualTo(first);
+        assertThat(parser.from(second.getBodyEncoded().getBytes(ASCII)).verified()).isEqualTo(second);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingValue() {
+        SqrlProtocol.instance().readSqrlClientBody().from("client=&server=abc".getBytes(ASCII));
+    }
+
+    @Test(expected = SqrlException.class)
+    public void testMissingParameter() throws SqrlException {
+        SqrlProtocol.instance().readSqrlClientBody().from("client=abc&ids=def".getBytes(ASCII)).execute();
+    }
+
+    @Test(expected = SqrlException.class)
+    public void testWrongVersion() throws SqrlException {
+        SqrlClientBody body = SqrlProtocol.instance().authenticate(Identities.ID1.getMasterKey(), mSiteKey).buildRequest(mSignatureUri);
+        String client = new String(body.getClientParameter().getParameterDecoded(), ASCII).replace("ver=1", "ver=2");
+        String encoded = body.getBodyEncoded().replaceFirst("client=[^&]*", "client=" + encodeUrlSafe(client));
+
+        SqrlProtocol.instance().readSqrlClientBody().from(encoded.getBytes(ASCII)).execute();
+    }
+
+    private static String encodeUrlSafe(String value) {
+        return android.util.changed.Base64.encodeToString(value.getBytes(ASCII), android.util.changed.Base64.URL_SAFE | android.util.changed.Base64.NO_PADDING | android.util.changed.Base64.NO_WRAP);
+    }
+}
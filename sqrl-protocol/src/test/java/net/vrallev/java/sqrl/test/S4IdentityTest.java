@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.identity.PasswordBlock;
+import net.vrallev.java.sqrl.identity.RescueCodeBlock;
+import net.vrallev.java.sqrl.identity.S4Block;
+import net.vrallev.java.sqrl.identity.S4Identity;
+import net.vrallev.java.sqrl.identity.S4Scanner;
+import net.vrallev.java.sqrl.util.EnScrypt;
+import net.vrallev.java.sqrl.util.SqrlCipherTool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class S4IdentityTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String RESCUE_CODE = "123456789012345678901234";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final SqrlCipherTool mCipherTool = new SqrlCipherTool();
+
+    // a small N keeps the test fast, r and p are fixed by the format
+    private final EnScrypt mEnScrypt = new EnScrypt(4, EnScrypt.DEFAULT_R, EnScrypt.DEFAULT_P);
+
+    @Test
+    public void testPasswordBlock() throws Exception {
+        byte[] masterKey = mCipherTool.createRandomHash(256);
+        byte[] lockKey = mCipherTool.createRandomHash(256);
+        byte[] password = "correct horse".getBytes(UTF_8);
+
+        PasswordBlock block = new PasswordBlock.Builder(mCipherTool)
+                .setEnScrypt(mEnScrypt)
+                .setIterations(3)
+                .setHintLength(6)
+                .setIdleTimeoutMinutes(30)
+                .build(masterKey, lockKey, password);
+
+        S4Identity identity = S4Identity.parse(ByteBuffer.wrap(S4Identity.create(block).toByteArray()));
+        PasswordBlock parsed = identity.getPasswordBlock();
+
+        assertThat(parsed.getLength()).isEqualTo(125);
+        assertThat(parsed.getType()).isEqualTo(S4Block.TYPE_PASSWORD);
+        assertThat(parsed.getLogN()).isEqualTo(4);
+        assertThat(parsed.getIterations()).isEqualTo(3);
+        assertThat(parsed.getHintLength()).isEqualTo(6);
+        assertThat(parsed.getPasswordVerifySeconds()).isEqualTo(5);
+        assertThat(parsed.getIdleTimeoutMinutes()).isEqualTo(30);
+        assertThat(identity.getRescueCodeBlock()).isNull();
+
+        PasswordBlock.Keys keys = parsed.decrypt(mCipherTool, mEnScrypt, password, null);
+        assertThat(keys.getMasterKey()).isEqualTo(masterKey);
+        assertThat(keys.getLockKey()).isEqualTo(lockKey);
+
+        // without a matching engine, a new one is created for the parameters of the block
+        assertThat(parsed.decrypt(mCipherTool, null, password, null).getMasterKey()).isEqualTo(masterKey);
+
+        try {
+            parsed.decrypt(mCipherTool, mEnScrypt, "wrong".getBytes(UTF_8), null);
+            throw new AssertionError("wrong password was accepted");
+        } catch (SqrlException ignored) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testHeaderIsAuthenticated() throws Exception {
+        PasswordBlock block = new PasswordBlock.Builder(mCipherTool)
+                .setEnScrypt(mEnScrypt)
+                .setIterations(1)
+                .build(new byte[32], new byte[32], new byte[0]);
+
+        byte[] data = S4Identity.create(block).toByteArray();
+        // the idle timeout is part of the plain text header
+        data[8 + 43] ^= 1;
+
+        try {
+            S4Identity.parse(ByteBuffer.wrap(data)).getPasswordBlock().decrypt(mCipherTool, mEnScrypt, new byte[0], null);
+            throw new AssertionError("modified header was accepted");
+        } catch (SqrlException ignored) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRescueCodeBlockAndFile() throws Exception {
+        byte[] unlockKey = mCipherTool.createRandomHash(256);
+        RescueCodeBlock rescueCodeBlock = new RescueCodeBlock.Builder(mCipherTool)
+                .setEnScrypt(mEnScrypt)
+                .setIterations(2)
+                .build(unlockKey, RESCUE_CODE);
+        PasswordBlock passwordBlock = new PasswordBlock.Builder(mCipherTool)
+                .setEnScrypt(mEnScrypt)
+                .setIterations(1)
+                .build(new byte[32], new byte[32], new byte[0]);
+
+        File file = mFolder.newFile("identity.sqrl");
+        S4Identity.create(passwordBlock, rescueCodeBlock).writeTo(file);
+        assertThat(file.length()).isEqualTo(8 + 125 + 73);
+
+        S4Identity identity = S4Identity.open(file);
+        assertThat(identity.getBlocks()).hasSize(2);
+        assertThat(identity.getBlocks().get(1).getType()).isEqualTo(S4Block.TYPE_RESCUE_CODE);
+        assertThat(identity.getRescueCodeBlock().decrypt(mCipherTool, mEnScrypt, RESCUE_CODE, null)).isEqualTo(unlockKey);
+
+        // the text format contains the same blocks
+        String text = identity.toText();
+        assertThat(text).startsWith("SQRLDATA");
+        S4Identity fromText = S4Identity.parse(ByteBuffer.wrap(text.getBytes(UTF_8)));
+        assertThat(fromText.toByteArray()).isEqualTo(identity.toByteArray());
+    }
+
+    @Test
+    public void testUnknownBlocksArePreserved() throws IOException {
+        byte[] data = {'s', 'q', 'r', 'l', 'd', 'a', 't', 'a', 6, 0, 9, 0, 1, 2};
+        S4Identity identity = S4Identity.parse(ByteBuffer.wrap(data));
+
+        assertThat(identity.getBlocks()).hasSize(1);
+        assertThat(identity.findBlock(9).getLength()).isEqualTo(6);
+        assertThat(identity.getPasswordBlock()).isNull();
+        assertThat(identity.toByteArray()).isEqualTo(data);
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongHeader() throws IOException {
+        S4Identity.parse(ByteBuffer.wrap("notsqrl!".getBytes(UTF_8)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCorruptBlockLength() throws IOException {
+        byte[] data = {'s', 'q', 'r', 'l', 'd', 'a', 't', 'a', 100, 0, 1, 0};
+        S4Identity.parse(ByteBuffer.wrap(data)).getBlocks();
+    }
+
+    @Test
+    public void testParallelScan() throws Exception {
+        PasswordBlock block = new PasswordBlock.Builder(mCipherTool)
+                .setEnScrypt(mEnScrypt)
+                .setIterations(1)
+                .build(new byte[32], new byte[32], new byte[0]);
+        S4Identity identity = S4Identity.create(block);
+
+        File directory = mFolder.newFolder("identities");
+        for (int i = 0; i < 200; i++) {
+            identity.writeTo(new File(directory, "identity" + i + ".sqrl"));
+        }
+        try (FileOutputStream outputStream = new FileOutputStream(new File(directory, "corrupt.sqrl"))) {
+            outputStream.write("sqrldata".getBytes(UTF_8));
+            outputStream.write(new byte[]{2, 0});
+        }
+
+        final Set<String> valid = Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> errors = Collections.synchronizedSet(new HashSet<String>());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            int count = S4Scanner.scan(directory, null, executor, 4, new S4Scanner.Visitor() {
+                @Override
+                public void onIdentity(File file, S4Identity identity) {
+                    if (identity.getPasswordBlock() != null) {
+                        valid.add(file.getName());
+                    }
+                }
+
+                @Override
+                public void onError(File file, Exception e) {
+                    errors.add(file.getName());
+                }
+            });
+
+            assertThat(count).isEqualTo(200);
+            assertThat(valid).hasSize(200);
+            assertThat(errors).isEqualTo(new HashSet<>(Arrays.asList("corrupt.sqrl")));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 Ralf Wondratschek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.vrallev.java.sqrl.test;
+
+import net.vrallev.java.sqrl.Identities;
+import net.vrallev.java.sqrl.SqrlException;
+import net.vrallev.java.sqrl.SqrlProtocol;
+import net.vrallev.java.sqrl.VerificationFuture;
+import net.vrallev.java.sqrl.body.SqrlClientBody;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ralf Wondratschek
+ */
+public class VerifyAsyncTest {
+
+    private String mSiteKey = "sqrl-login.appspot.com";
+
+    @SuppressWarnings("FieldCanBeLocal")
+    private String mSignatureUri = "sqrl-login.appspot.com:443/sqrl/auth?nut=5b216fa381b7769e1e88624ff685686c";
+
+    private ThreadPoolExecutor mExecutor;
+    private SqrlProtocol mProtocol;
+
+    @Before
+    public void setUp() {
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1));
+        mProtocol = new SqrlProtocol.Builder()
+                .setEccProvider(SqrlProtocol.instance().getEccProvider())
+                .setVerificationExecutor(mExecutor)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testVerifyAsync() throws Exception {
+        SqrlClientBody expected = mProtocol.authenticate(Identities.ID1.getMasterKey(), mSiteKey).buildRequest(mSignatureUri);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<SqrlClientBody> result = new AtomicReference<>();
+
+        VerificationFuture future = mProtocol.verifyAsync(expected.getBodyEncoded(), Long.MAX_VALUE, new VerificationFuture.Callback() {
+            @Override
+            public void onVerified(SqrlClientBody clientBody) {
+                result.set(clientBody);
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                latch.countDown();
+            }
+        });
+
+        assertThat(future.get(10, TimeUnit.SECONDS)).isEqualTo(expected);
+        assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(result.get()).isEqualTo(expected);
+
+        String tampered = expected.getBodyEncoded().replaceAll("&ids=.", "&ids=A");
+        assertFailure(mProtocol.verifyAsync(tampered, Long.MAX_VALUE), "signature mismatch");
+    }
+
+    @Test
+    public void testDeadlineAndSaturation() throws Exception {
+        String body = mProtocol.authenticate(Identities.ID1.getMasterKey(), mSiteKey).buildRequest(mSignatureUri).getBodyEncoded();
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+
+        // waits in the queue until the deadline passed
+        VerificationFuture expired = mProtocol.verifyAsync(body, System.currentTimeMillis() + 50);
+
+        // the queue is full
+        VerificationFuture rejected = mProtocol.verifyAsync(body, Long.MAX_VALUE);
+        assertThat(rejected.isDone()).isTrue();
+        assertFailure(rejected, "verification queue is full");
+
+        Thread.sleep(100);
+        blocked.countDown();
+        assertFailure(expired, "deadline exceeded");
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        String body = mProtocol.authenticate(Identities.ID1.getMasterKey(), mSiteKey).buildRequest(mSignatureUri).getBodyEncoded();
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+
+        VerificationFuture cancelled = mProtocol.verifyAsync(body, Long.MAX_VALUE);
+        assertThat(mExecutor.getQueue()).hasSize(1);
+
+        assertThat(cancelled.cancel(false)).isTrue();
+        assertThat(mExecutor.getQueue()).isEmpty();
+
+        // the slot is free again
+        VerificationFuture future = mProtocol.verifyAsync(body, Long.MAX_VALUE);
+        blocked.countDown();
+        assertThat(future.get(10, TimeUnit.SECONDS)).isNotNull();
+    }
+
+    private static void assertFailure(VerificationFuture future, String message) throws InterruptedException {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(SqrlException.class);
+            assertThat(e.getCause().getMessage()).isEqualTo(message);
+        } catch (TimeoutException e) {
+            fail();
+        }
+    }
+}